@@ -0,0 +1 @@
+I am the 1 template.
\ No newline at end of file
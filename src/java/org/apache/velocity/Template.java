@@ -19,10 +19,12 @@ package org.apache.velocity;
  * under the License.
  */
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.List;
@@ -34,10 +36,15 @@ import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.exception.TemplateInitException;
 import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.runtime.Renderable;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
 import org.apache.velocity.runtime.parser.ParseException;
+import org.apache.velocity.runtime.parser.node.CompiledTemplate;
 import org.apache.velocity.runtime.parser.node.SimpleNode;
 import org.apache.velocity.runtime.resource.Resource;
 import org.apache.velocity.runtime.resource.ResourceManager;
+import org.apache.velocity.runtime.resource.TemplateSnapshotCache;
 
 /**
  * This class is used for controlling all template
@@ -65,6 +72,17 @@ public class Template extends Resource
 {
     private VelocityException errorCondition = null;
 
+    /**
+     * The compiled form of the AST, if template compilation is on
+     * and the AST could be compiled.
+     */
+    private Renderable compiled = null;
+
+    /**
+     * Where to keep the parsed AST across engine instances, if anywhere.
+     */
+    private TemplateSnapshotCache snapshotCache = null;
+
     /** Default constructor */
     public Template()
     {
@@ -87,15 +105,25 @@ public class Template extends Resource
         throws ResourceNotFoundException, ParseErrorException, IOException
     {
         data = null;
+        compiled = null;
         InputStream is = null;
+        Reader reader = null;
         errorCondition = null;
 
         /*
-         *  first, try to get the stream from the loader
+         *  first, try to get the stream from the loader; a snapshot
+         *  needs the raw bytes, otherwise let the loader decode them
          */
         try
         {
-            is = resourceLoader.getResourceStream(name);
+            if (snapshotCache != null)
+            {
+                is = resourceLoader.getResourceStream(name);
+            }
+            else
+            {
+                reader = resourceLoader.getResourceReader(name, encoding);
+            }
         }
         catch( ResourceNotFoundException rnfe )
         {
@@ -106,13 +134,21 @@ public class Template extends Resource
             errorCondition = rnfe;
             throw rnfe;
         }
+        catch( UnsupportedEncodingException  uce )
+        {
+            String msg = "Template.process : Unsupported input encoding : " + encoding
+            + " for template " + name;
+
+            errorCondition  = new ParseErrorException( msg );
+            throw errorCondition;
+        }
 
         /*
          *  if that worked, lets protect in case a loader impl
          *  forgets to throw a proper exception
          */
 
-        if (is != null)
+        if (is != null || reader != null)
         {
             /*
              *  now parse the template
@@ -120,8 +156,25 @@ public class Template extends Resource
 
             try
             {
-                BufferedReader br = new BufferedReader( new InputStreamReader( is, encoding ) );
-                data = rsvc.parse( br, name);
+                if (snapshotCache != null)
+                {
+                    /*
+                     *  the snapshot is only good for exactly this source
+                     */
+                    byte[] source = readFully(is);
+                    SimpleNode root = snapshotCache.load(this, source);
+                    if (root == null)
+                    {
+                        root = rsvc.parse(new InputStreamReader(
+                            new ByteArrayInputStream(source), encoding), name);
+                        snapshotCache.store(this, root, source);
+                    }
+                    data = root;
+                }
+                else
+                {
+                    data = rsvc.parse( reader, name);
+                }
                 initDocument();
                 return true;
             }
@@ -158,7 +211,14 @@ public class Template extends Resource
                 /*
                  *  Make sure to close the inputstream when we are done.
                  */
-                is.close();
+                if (is != null)
+                {
+                    is.close();
+                }
+                else
+                {
+                    reader.close();
+                }
             }
         }
         else
@@ -172,6 +232,31 @@ public class Template extends Resource
         }
     }
 
+    /**
+     * Sets the cache to look for and keep the parsed AST of this
+     * template in.  Has to be set before {@link #process()}.
+     *
+     * @param snapshotCache the cache, or null to always parse
+     * @since 1.6.4
+     */
+    public void setSnapshotCache(TemplateSnapshotCache snapshotCache)
+    {
+        this.snapshotCache = snapshotCache;
+    }
+
+    private static byte[] readFully(InputStream is)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = is.read(buffer)) != -1)
+        {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
     /**
      *  initializes the document.  init() is not longer
      *  dependant upon context, but we need to let the
@@ -202,6 +287,26 @@ public class Template extends Resource
              */
 
             ((SimpleNode)data).init( ica, rsvc);
+
+            /*
+             *  compile the initialized AST if asked to; if it can't be
+             *  compiled, we just keep interpreting it
+             */
+
+            if (compilesTemplates())
+            {
+                compiled = CompiledTemplate.compile((SimpleNode)data, rsvc.getLog());
+            }
+
+            /*
+             *  let go of the tokens if asked to, nothing needs them
+             *  any more
+             */
+
+            if (rsvc.getBoolean(RuntimeConstants.COMPACT_AST, false))
+            {
+                ((SimpleNode)data).compact();
+            }
         }
         finally
         {
@@ -216,6 +321,19 @@ public class Template extends Resource
 
     }
 
+    /**
+     * @return whether initialized templates are to be compiled, as read
+     *         by the runtime at init
+     */
+    private boolean compilesTemplates()
+    {
+        if (rsvc instanceof RuntimeInstance)
+        {
+            return ((RuntimeInstance) rsvc).isCompilingTemplates();
+        }
+        return rsvc.getBoolean(RuntimeConstants.COMPILE_TEMPLATES, false);
+    }
+
     /**
      * The AST node structure is merged with the
      * context to produce the final output.
@@ -325,7 +443,14 @@ public class Template extends Resource
                 ica.pushCurrentTemplateName( name );
                 ica.setCurrentResource( this );
 
-                ( (SimpleNode) data ).render( ica, writer);
+                if (compiled != null)
+                {
+                    compiled.render( ica, writer);
+                }
+                else
+                {
+                    ( (SimpleNode) data ).render( ica, writer);
+                }
             }
             finally
             {
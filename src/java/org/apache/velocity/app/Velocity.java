@@ -37,6 +37,7 @@ import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.exception.VelocityException;
 import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.RuntimeSingleton;
+import org.apache.velocity.runtime.VelocimacroInvocation;
 import org.apache.velocity.runtime.log.Log;
 
 /**
@@ -300,6 +301,22 @@ public class Velocity implements RuntimeConstants
         }
     }
 
+    /**
+     * Looks up a currently registered Velocimacro and returns a handle
+     * that renders it with arguments given from Java, without parsing
+     * a template for each call like invokeVelocimacro() does.
+     *
+     * @param vmName name of Velocimacro to call
+     * @param logTag string to be used for template name in case of error. if null,
+     *               the vmName will be used
+     * @return the handle
+     * @since 1.6.4
+     */
+    public static VelocimacroInvocation getVelocimacroInvocation(String vmName, String logTag)
+    {
+        return RuntimeSingleton.getVelocimacroInvocation(vmName, logTag);
+    }
+
     /**
      *  Merges a template and puts the rendered stream into the writer.
      *  The default encoding that Velocity uses to read template files is defined in
@@ -36,6 +36,7 @@ import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.VelocimacroInvocation;
 import org.apache.velocity.runtime.log.Log;
 
 /**
@@ -135,6 +136,17 @@ public class VelocityEngine implements RuntimeConstants
         ri.init(p);
     }
 
+    /**
+     * Stops the background work of the engine, such as the background
+     * modification checks and file watchers.  Templates can still be used afterwards.
+     *
+     * @since 1.6.4
+     */
+    public void shutdown()
+    {
+        ri.shutdown();
+    }
+
     /**
      * Set a Velocity Runtime property.
      *
@@ -319,6 +331,22 @@ public class VelocityEngine implements RuntimeConstants
         return ri.invokeVelocimacro(vmName, logTag, params, context, writer);
     }
 
+    /**
+     * Looks up a currently registered Velocimacro and returns a handle
+     * that renders it with arguments given from Java, without parsing
+     * a template for each call like invokeVelocimacro() does.
+     *
+     * @param vmName name of Velocimacro to call
+     * @param logTag string to be used for template name in case of error. if null,
+     *               the vmName will be used
+     * @return the handle
+     * @since 1.6.4
+     */
+    public VelocimacroInvocation getVelocimacroInvocation(String vmName, String logTag)
+    {
+        return ri.getVelocimacroInvocation(vmName, logTag);
+    }
+
     /**
      *  Merges a template and puts the rendered stream into the writer.
      *  The default encoding that Velocity uses to read template files is defined in
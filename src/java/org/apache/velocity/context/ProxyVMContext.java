@@ -58,6 +58,9 @@ public class ProxyVMContext extends ChainedInternalContextAdapter
     /** container for any local or constant macro arguments. Size must be power of 2. */
     Map localcontext = new HashMap(8, 0.8f);;
 
+    /** kept in localcontext for arguments that are bound to null. */
+    private static final Object NULL_ARG = new Object();
+
     /** support for local context scope feature, where all references are local */
     private boolean localContextScope;
 
@@ -105,6 +108,18 @@ public class ProxyVMContext extends ChainedInternalContextAdapter
         }
     }
 
+    /**
+     * Binds a macro argument to null, so that it is not looked up in
+     * the enclosing context like a name that isn't an argument.
+     *
+     * @param macroArgumentName name of the macro argument
+     * @since 1.6.4
+     */
+    public void addNullArg(String macroArgumentName)
+    {
+        localcontext.put(macroArgumentName, NULL_ARG);
+    }
+
     /**
      * AST nodes that are considered constants can be directly
      * saved into the context. Dynamic values are stored in
@@ -183,6 +198,10 @@ public class ProxyVMContext extends ChainedInternalContextAdapter
         }
 
         Object old = localcontext.put(key, value);
+        if (old == NULL_ARG)
+        {
+            old = null;
+        }
         if (!forceLocal)
         {
             old = super.put(key, value);
@@ -202,7 +221,7 @@ public class ProxyVMContext extends ChainedInternalContextAdapter
         Object o = localcontext.get(key);
         if (o != null)
         {
-            return o;
+            return (o == NULL_ARG) ? null : o;
         }
 
         Node astNode = (Node) vmproxyhash.get(key);
@@ -307,7 +326,7 @@ public class ProxyVMContext extends ChainedInternalContextAdapter
         {
             glo = super.remove(key);
         }
-        if (loc != null)
+        if (loc != null && loc != NULL_ARG)
         {
             return loc;
         }
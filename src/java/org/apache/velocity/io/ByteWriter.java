@@ -0,0 +1,348 @@
+package org.apache.velocity.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A Writer to an OutputStream that also takes bytes that were encoded
+ * already.  Chars are encoded like an OutputStreamWriter would do it,
+ * while bytes, e.g. template text encoded once by {@link StaticText},
+ * go to the stream as they are.  Both are buffered, in the order they
+ * were written.
+ *
+ * <p>Text can only be encoded ahead of time if the encoding of a piece
+ * doesn't depend on what was written before it, which is true for most
+ * encodings but not for UTF-16 with its byte order mark or the ISO-2022
+ * ones, see {@link #isStateless()}.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public class ByteWriter extends Writer
+{
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Encodings known to encode each char on its own.  Others may
+     * switch states or start with a byte order mark.
+     */
+    private static final String[] STATELESS_PREFIXES =
+    {
+        "US-ASCII", "UTF-8", "UTF-16BE", "UTF-16LE", "UTF-32BE", "UTF-32LE",
+        "ISO-8859-", "windows-125", "KOI8-", "Shift_JIS", "windows-31j",
+        "EUC-JP", "EUC-KR", "GBK", "GB18030", "GB2312", "Big5"
+    };
+
+    private final Charset charset;
+
+    private final boolean stateless;
+
+    private final Bytes bytes;
+
+    private final OutputStreamWriter encoder;
+
+    private final char[] chars;
+
+    private int nextChar = 0;
+
+    private OutputStream out;
+
+    /**
+     * @param out the stream to write to
+     * @param encoding the encoding of the chars written
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     */
+    public ByteWriter(OutputStream out, String encoding)
+        throws UnsupportedEncodingException
+    {
+        this(out, encoding, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param out the stream to write to
+     * @param encoding the encoding of the chars written
+     * @param size the size of the byte buffer
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     */
+    public ByteWriter(OutputStream out, String encoding, int size)
+        throws UnsupportedEncodingException
+    {
+        if (size <= 0)
+        {
+            throw new IllegalArgumentException("Buffer size <= 0");
+        }
+
+        try
+        {
+            charset = Charset.forName(encoding);
+        }
+        catch (IllegalArgumentException iae)
+        {
+            /* unknown or illegal charset name */
+            throw new UnsupportedEncodingException(encoding);
+        }
+
+        stateless = isStateless(charset.name());
+        this.out = out;
+        bytes = new Bytes(size);
+        encoder = new OutputStreamWriter(bytes, charset);
+        chars = new char[Math.max(1, size / 8)];
+    }
+
+    private static boolean isStateless(String name)
+    {
+        for (int i = 0; i < STATELESS_PREFIXES.length; i++)
+        {
+            if (name.startsWith(STATELESS_PREFIXES[i]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The canonical name of the encoding of this writer.
+     */
+    public String getEncoding()
+    {
+        return charset.name();
+    }
+
+    /**
+     * @return Whether text can be encoded ahead of time for this writer,
+     *         with {@link #encode(char[])}.
+     */
+    public boolean isStateless()
+    {
+        return stateless;
+    }
+
+    /**
+     * Encodes text the way this writer would, to be written with
+     * {@link #write(byte[], int, int)} later on, here or to another
+     * writer with the same encoding.
+     *
+     * @param text the chars to encode
+     * @return The bytes, or null if the encoding isn't stateless.
+     */
+    public byte[] encode(char[] text)
+    {
+        if (!stateless)
+        {
+            return null;
+        }
+
+        CharsetEncoder enc = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try
+        {
+            ByteBuffer encoded = enc.encode(CharBuffer.wrap(text));
+            byte[] result = new byte[encoded.remaining()];
+            encoded.get(result);
+            return result;
+        }
+        catch (CharacterCodingException cce)
+        {
+            /* can't happen, errors are replaced */
+            return null;
+        }
+    }
+
+    /**
+     * Writes bytes that were encoded already.
+     *
+     * @param b the bytes
+     * @param off where to start in the array
+     * @param len how many bytes to write
+     * @throws IOException
+     */
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        flushChars();
+        encoder.flush();
+        bytes.write(b, off, len);
+    }
+
+    /**
+     * @see java.io.Writer#write(int)
+     */
+    public void write(int c) throws IOException
+    {
+        if (nextChar == chars.length)
+        {
+            flushChars();
+        }
+        chars[nextChar++] = (char) c;
+    }
+
+    /**
+     * @see java.io.Writer#write(char[], int, int)
+     */
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        if (len > chars.length - nextChar)
+        {
+            flushChars();
+            if (len >= chars.length)
+            {
+                encoder.write(cbuf, off, len);
+                return;
+            }
+        }
+        System.arraycopy(cbuf, off, chars, nextChar, len);
+        nextChar += len;
+    }
+
+    /**
+     * @see java.io.Writer#write(java.lang.String, int, int)
+     */
+    public void write(String str, int off, int len) throws IOException
+    {
+        if (len > chars.length - nextChar)
+        {
+            flushChars();
+            if (len >= chars.length)
+            {
+                encoder.write(str, off, len);
+                return;
+            }
+        }
+        str.getChars(off, off + len, chars, nextChar);
+        nextChar += len;
+    }
+
+    private void flushChars() throws IOException
+    {
+        if (nextChar > 0)
+        {
+            encoder.write(chars, 0, nextChar);
+            nextChar = 0;
+        }
+    }
+
+    /**
+     * Writes out everything buffered, and flushes the stream.
+     * @see java.io.Writer#flush()
+     */
+    public void flush() throws IOException
+    {
+        flushChars();
+        encoder.flush();
+        bytes.drain();
+        if (out != null)
+        {
+            out.flush();
+        }
+    }
+
+    /**
+     * Flushes this writer and closes the stream.
+     * @see java.io.Writer#close()
+     */
+    public void close() throws IOException
+    {
+        if (out != null)
+        {
+            flush();
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Lets this writer write to another stream.  Whatever is still
+     * buffered is dropped.
+     *
+     * @param out the stream to write to, or null to let go of the
+     *        current one
+     */
+    public void recycle(OutputStream out)
+    {
+        this.out = out;
+        nextChar = 0;
+        bytes.count = 0;
+    }
+
+    /**
+     * Collects the bytes in front of the stream.  It is only flushed
+     * together with the writer, not whenever the encoder is.
+     */
+    private final class Bytes extends OutputStream
+    {
+        private final byte[] buf;
+        private int count = 0;
+
+        Bytes(int size)
+        {
+            buf = new byte[size];
+        }
+
+        public void write(int b) throws IOException
+        {
+            if (count == buf.length)
+            {
+                drain();
+            }
+            buf[count++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            if (len > buf.length - count)
+            {
+                drain();
+                if (len >= buf.length)
+                {
+                    out.write(b, off, len);
+                    return;
+                }
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        void drain() throws IOException
+        {
+            if (count > 0)
+            {
+                out.write(buf, 0, count);
+                count = 0;
+            }
+        }
+
+        public void flush()
+        {
+            /* only ByteWriter.flush() goes through to the stream */
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.apache.velocity.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.CharArrayReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A Reader over chars that were all decoded at once.  Whoever knows
+ * about this class can take the decoded chars over with
+ * {@link #getChars()} instead of reading them, which saves copying
+ * them once more.
+ *
+ * <p>Bytes that are malformed or can't be mapped are replaced, as
+ * an InputStreamReader would do.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public class DecodedReader extends CharArrayReader
+{
+    /**
+     * @param chars the decoded chars
+     * @param length how many of the chars are used
+     */
+    public DecodedReader(char[] chars, int length)
+    {
+        super(chars, 0, length);
+    }
+
+    /**
+     * Decodes bytes in one go.
+     *
+     * @param bytes the bytes to decode, from their position to their limit
+     * @param encoding the encoding of the bytes
+     * @return A reader for the decoded chars.
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     */
+    public static DecodedReader decode(ByteBuffer bytes, String encoding)
+        throws UnsupportedEncodingException
+    {
+        Charset charset;
+        try
+        {
+            charset = Charset.forName(encoding);
+        }
+        catch (IllegalArgumentException iae)
+        {
+            /* unknown or illegal charset name */
+            throw new UnsupportedEncodingException(encoding);
+        }
+
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        CharBuffer chars = CharBuffer.allocate(
+            (int) (bytes.remaining() * decoder.averageCharsPerByte()) + 16);
+
+        while (decoder.decode(bytes, chars, true).isOverflow())
+        {
+            chars = grow(chars);
+        }
+        while (decoder.flush(chars).isOverflow())
+        {
+            chars = grow(chars);
+        }
+
+        return new DecodedReader(chars.array(), chars.position());
+    }
+
+    private static CharBuffer grow(CharBuffer chars)
+    {
+        CharBuffer bigger = CharBuffer.allocate(chars.capacity() * 2);
+        chars.flip();
+        bigger.put(chars);
+        return bigger;
+    }
+
+    /**
+     * Hands over the chars that were not read yet, and closes the
+     * reader.  Unless some were read already, this is the array the
+     * chars were decoded into.
+     *
+     * @return The array the unread chars start at, which may be longer
+     *         than {@link #getLength()}, or null once the reader is closed.
+     */
+    public char[] getChars()
+    {
+        synchronized (lock)
+        {
+            if (buf == null)
+            {
+                return null;
+            }
+            if (pos > 0)
+            {
+                System.arraycopy(buf, pos, buf, 0, count - pos);
+                count -= pos;
+                pos = 0;
+            }
+            markedPos = 0;
+            char[] chars = buf;
+            buf = null;
+            return chars;
+        }
+    }
+
+    /**
+     * @return The number of chars not read yet.  Call this before
+     *         {@link #getChars()}, which closes the reader.
+     */
+    public int getLength()
+    {
+        synchronized (lock)
+        {
+            return (buf == null) ? 0 : count - pos;
+        }
+    }
+}
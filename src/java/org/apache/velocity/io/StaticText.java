@@ -0,0 +1,130 @@
+package org.apache.velocity.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Text that is written over and over, like the static text of a
+ * template.  Written to a {@link ByteWriter}, it is encoded once for
+ * the encoding of the writer, and the bytes are kept for the next time.
+ * Any other Writer just gets the chars.
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public final class StaticText
+{
+    /** how many encodings the bytes are kept for */
+    private static final int MAX_ENCODINGS = 4;
+
+    private static final Encoded[] NONE = new Encoded[0];
+
+    private final char[] chars;
+
+    /** the bytes for each encoding, replaced as a whole when one is added */
+    private volatile Encoded[] encoded = NONE;
+
+    /**
+     * @param chars the text, which must not change any more
+     */
+    public StaticText(char[] chars)
+    {
+        this.chars = chars;
+    }
+
+    /**
+     * @return The text.
+     */
+    public char[] getChars()
+    {
+        return chars;
+    }
+
+    /**
+     * Writes the text, as bytes if the writer takes them.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void write(Writer writer) throws IOException
+    {
+        if (writer instanceof ByteWriter)
+        {
+            ByteWriter out = (ByteWriter) writer;
+            byte[] bytes = getBytes(out);
+            if (bytes != null)
+            {
+                out.write(bytes, 0, bytes.length);
+                return;
+            }
+        }
+        writer.write(chars);
+    }
+
+    /**
+     * @return the text encoded like the writer would, or null if it
+     *         can't be encoded ahead of time
+     */
+    private byte[] getBytes(ByteWriter out)
+    {
+        if (!out.isStateless())
+        {
+            return null;
+        }
+
+        String encoding = out.getEncoding();
+        Encoded[] current = encoded;
+        for (int i = 0; i < current.length; i++)
+        {
+            if (current[i].encoding.equals(encoding))
+            {
+                return current[i].bytes;
+            }
+        }
+
+        byte[] bytes = out.encode(chars);
+
+        /*
+         *  keep the most recent encodings; if another thread added one
+         *  meanwhile, one of the two is lost, and simply encoded again
+         */
+        int keep = Math.min(current.length, MAX_ENCODINGS - 1);
+        Encoded[] added = new Encoded[keep + 1];
+        System.arraycopy(current, current.length - keep, added, 0, keep);
+        added[keep] = new Encoded(encoding, bytes);
+        encoded = added;
+
+        return bytes;
+    }
+
+    private static final class Encoded
+    {
+        final String encoding;
+        final byte[] bytes;
+
+        Encoded(String encoding, byte[] bytes)
+        {
+            this.encoding = encoding;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -23,6 +23,7 @@ package org.apache.velocity.io;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
 
 import org.apache.velocity.util.ExceptionUtils;
 
@@ -344,6 +345,61 @@ public class UnicodeInputStream
         return inputStream.skip(n);
     }
 
+    /**
+     * Finds the encoding of a buffer from the BOM it starts with, just
+     * like {@link #getEncodingFromStream()} does for a stream.
+     *
+     * @param bytes the bytes to look at, from their current position on
+     * @return The encoding decided by the BOM or null if there is none.
+     * @since 1.6.4
+     */
+    public static String getEncoding(final ByteBuffer bytes)
+    {
+        UnicodeBOM bom = findBOM(bytes);
+        return (bom != null) ? bom.getEncoding() : null;
+    }
+
+    /**
+     * @param bytes the bytes to look at, from their current position on
+     * @return The number of bytes taken by the BOM the buffer starts with, 0 if there is none.
+     * @since 1.6.4
+     */
+    public static int getBOMLength(final ByteBuffer bytes)
+    {
+        UnicodeBOM bom = findBOM(bytes);
+        return (bom != null) ? bom.getBytes().length : 0;
+    }
+
+    private static UnicodeBOM findBOM(final ByteBuffer bytes)
+    {
+        // UTF 32 LE starts like UTF 16 LE, so look for it first
+        UnicodeBOM [] boms = { UTF32BE_BOM, UTF8_BOM, UTF16BE_BOM, UTF32LE_BOM, UTF16LE_BOM };
+        for (int i = 0; i < boms.length; i++)
+        {
+            if (startsWith(bytes, boms[i].getBytes()))
+            {
+                return boms[i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(final ByteBuffer bytes, final byte [] bom)
+    {
+        if (bytes.remaining() < bom.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < bom.length; i++)
+        {
+            if (bytes.get(bytes.position() + i) != bom[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Helper class to bundle encoding and BOM marker.
      *
@@ -0,0 +1,259 @@
+package org.apache.velocity.runtime;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.velocity.runtime.parser.CharStream;
+import org.apache.velocity.runtime.parser.Parser;
+
+/**
+ * Parser pool that grows and shrinks with demand.  Unlike
+ * {@link ParserPoolImpl}, no parsers are created up front: a parser is
+ * created whenever none is idle, and kept for reuse once it is put back,
+ * up to <code>parser.pool.size</code> idle parsers.  Parsers that stay
+ * idle for <code>parser.pool.idletime</code> seconds are let go, so that
+ * their buffers can be collected.
+ *
+ * <p>The idle parsers are spread over a few stripes, each with its own
+ * lock, and a thread starts looking in the stripe its hash code picks,
+ * so that threads parsing at the same time rarely wait for each other.
+ * The counts of parsers borrowed, borrows that found no idle parser and
+ * parsers created are kept for tuning the pool.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public class ElasticParserPool implements ParserPool
+{
+    /** most stripes to use, a power of two */
+    private static final int MAX_STRIPES = 16;
+
+    private RuntimeServices rsvc = null;
+
+    private Stripe[] stripes = null;
+
+    private int mask = 0;
+
+    /** how long a stripe waits before letting go of unused parsers */
+    private long idleTime = 0;
+
+    /**
+     * Creates the stripes.  Parsers are only created when they are needed.
+     * @param rsvc
+     */
+    public void initialize(RuntimeServices rsvc)
+    {
+        this.rsvc = rsvc;
+
+        int max = rsvc.getInt(RuntimeConstants.PARSER_POOL_SIZE, RuntimeConstants.NUMBER_OF_PARSERS);
+        idleTime = rsvc.getInt(RuntimeConstants.PARSER_POOL_IDLE_TIME, 60) * 1000L;
+
+        int count = 1;
+        int processors = java.lang.Runtime.getRuntime().availableProcessors();
+        while (count < processors && count < MAX_STRIPES && count < max)
+        {
+            count <<= 1;
+        }
+
+        stripes = new Stripe[count];
+        mask = count - 1;
+        int capacity = Math.max(1, (max + count - 1) / count);
+        for (int i = 0; i < count; i++)
+        {
+            stripes[i] = new Stripe(capacity);
+        }
+
+        if (rsvc.getLog().isDebugEnabled())
+        {
+            rsvc.getLog().debug("ElasticParserPool : keeping up to " + (capacity * count) +
+                                " idle parsers in " + count + " stripes");
+        }
+    }
+
+    /**
+     * Hands out an idle parser, or creates a new one if there is none.
+     * @return A parser Object, never null.
+     */
+    public Parser get()
+    {
+        int start = stripeIndex();
+        for (int i = 0; i <= mask; i++)
+        {
+            Parser parser = stripes[(start + i) & mask].take();
+            if (parser != null)
+            {
+                return parser;
+            }
+        }
+
+        stripes[start].missed();
+        return rsvc.createNewParser();
+    }
+
+    /**
+     * Keeps the parser for reuse, unless enough parsers are idle already.
+     * @param parser
+     */
+    public void put(Parser parser)
+    {
+        parser.ReInit((CharStream) null);
+        stripes[stripeIndex()].give(parser);
+    }
+
+    /**
+     * @return how many parsers were handed out
+     */
+    public long getBorrowCount()
+    {
+        long count = 0;
+        for (int i = 0; i <= mask; i++)
+        {
+            synchronized (stripes[i])
+            {
+                count += stripes[i].borrows;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return how many times no idle parser was found
+     */
+    public long getMissCount()
+    {
+        long count = 0;
+        for (int i = 0; i <= mask; i++)
+        {
+            synchronized (stripes[i])
+            {
+                count += stripes[i].misses;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return how many parsers were created; the same as the misses,
+     *         since a parser is created for each of them
+     */
+    public long getCreationCount()
+    {
+        return getMissCount();
+    }
+
+    /**
+     * @return how many parsers are idle right now
+     */
+    public int getIdleCount()
+    {
+        int count = 0;
+        for (int i = 0; i <= mask; i++)
+        {
+            synchronized (stripes[i])
+            {
+                count += stripes[i].size;
+            }
+        }
+        return count;
+    }
+
+    private int stripeIndex()
+    {
+        int h = Thread.currentThread().hashCode();
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+
+    /**
+     * A stack of idle parsers.  Parsers that weren't needed during a
+     * whole idle period, i.e. the fewest that were idle at any time,
+     * are let go at the end of it.
+     */
+    private final class Stripe
+    {
+        private final Parser[] parsers;
+        private int size = 0;
+        private int lowWater = 0;
+        private long trimTime = System.currentTimeMillis() + idleTime;
+
+        private long borrows = 0;
+        private long misses = 0;
+
+        Stripe(int capacity)
+        {
+            parsers = new Parser[capacity];
+        }
+
+        synchronized Parser take()
+        {
+            trim();
+            if (size == 0)
+            {
+                return null;
+            }
+
+            Parser parser = parsers[--size];
+            parsers[size] = null;
+            if (size < lowWater)
+            {
+                lowWater = size;
+            }
+            borrows++;
+            return parser;
+        }
+
+        synchronized void give(Parser parser)
+        {
+            trim();
+            if (size < parsers.length)
+            {
+                parsers[size++] = parser;
+            }
+        }
+
+        synchronized void missed()
+        {
+            borrows++;
+            misses++;
+        }
+
+        private void trim()
+        {
+            long now = System.currentTimeMillis();
+            if (now < trimTime)
+            {
+                return;
+            }
+
+            int unused = lowWater;
+            for (int i = size - unused; i < size; i++)
+            {
+                parsers[i] = null;
+            }
+            size -= unused;
+            lowWater = size;
+            trimTime = now + idleTime;
+
+            if (unused > 0 && rsvc.getLog().isDebugEnabled())
+            {
+                rsvc.getLog().debug("ElasticParserPool : let go of " + unused + " idle parsers");
+            }
+        }
+    }
+}
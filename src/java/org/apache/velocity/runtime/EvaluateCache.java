@@ -0,0 +1,426 @@
+package org.apache.velocity.runtime;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.velocity.runtime.directive.Directive;
+import org.apache.velocity.runtime.parser.node.ASTDirective;
+import org.apache.velocity.runtime.parser.node.ASTprocess;
+import org.apache.velocity.runtime.parser.node.Node;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+/**
+ * Keeps the initialized ASTs of text given to
+ * {@link RuntimeInstance#evaluate(org.apache.velocity.context.Context, java.io.Writer, String, String)}
+ * and #evaluate, so that evaluating the same text again under the same
+ * name doesn't parse it again.  The cache is bounded by the total length
+ * of the texts; when that is exceeded, the least recently used ASTs are
+ * dropped.
+ *
+ * <p>A large cache is split into a few stripes, each with its own lock
+ * and its share of the length, so that threads evaluating at the same
+ * time rarely wait for each other.  A text longer than the share of a
+ * stripe isn't kept.</p>
+ *
+ * <p>The directives and velocimacros the parser looked up are kept with
+ * each AST, as for the template snapshots.  An AST is dropped when one of
+ * the directives has been replaced or removed, or a velocimacro has been
+ * defined or removed since, as the text would parse differently then.
+ * Text that defines macros is not kept, since the macros are only
+ * registered when it is parsed.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public final class EvaluateCache
+{
+    /** most stripes to use, a power of two */
+    private static final int MAX_STRIPES = 16;
+
+    /** the least length a stripe is given */
+    private static final int MIN_STRIPE_CHARS = 16 * 1024;
+
+    private final RuntimeServices rsvc;
+
+    private final Stripe[] stripes;
+
+    private final int mask;
+
+    /**
+     * @param rsvc the runtime the texts are parsed by
+     * @param maxChars the total length of the texts to keep ASTs for
+     */
+    public EvaluateCache(RuntimeServices rsvc, int maxChars)
+    {
+        this.rsvc = rsvc;
+
+        int count = 1;
+        int processors = java.lang.Runtime.getRuntime().availableProcessors();
+        while (count < processors && count < MAX_STRIPES &&
+               maxChars / (count * 2) >= MIN_STRIPE_CHARS)
+        {
+            count <<= 1;
+        }
+
+        stripes = new Stripe[count];
+        mask = count - 1;
+        for (int i = 0; i < count; i++)
+        {
+            stripes[i] = new Stripe(maxChars / count);
+        }
+    }
+
+    /**
+     * @param templateName the name the text is evaluated under
+     * @param text the text
+     * @return the initialized AST of the text, or null
+     */
+    public SimpleNode get(String templateName, String text)
+    {
+        Key key = new Key(templateName, text);
+        Stripe stripe = stripes[stripeIndex(key)];
+        Entry entry;
+        synchronized (stripe)
+        {
+            entry = (Entry) stripe.entries.get(key);
+            if (entry == null)
+            {
+                stripe.misses++;
+                return null;
+            }
+        }
+
+        if (!isCurrent(entry, templateName))
+        {
+            synchronized (stripe)
+            {
+                if (stripe.entries.get(key) == entry)
+                {
+                    stripe.entries.remove(key);
+                    stripe.chars -= text.length();
+                }
+                stripe.misses++;
+            }
+            return null;
+        }
+
+        synchronized (stripe)
+        {
+            stripe.hits++;
+        }
+        return entry.nodeTree;
+    }
+
+    /**
+     * Keeps the AST of a text, unless the text is too long or defines
+     * macros.
+     *
+     * @param templateName the name the text is evaluated under
+     * @param text the text
+     * @param nodeTree the AST, initialized
+     */
+    public void put(String templateName, String text, SimpleNode nodeTree)
+    {
+        Key key = new Key(templateName, text);
+        Stripe stripe = stripes[stripeIndex(key)];
+        if (text.length() > stripe.maxChars || definesMacros(nodeTree))
+        {
+            return;
+        }
+
+        Entry entry = createEntry(nodeTree);
+        if (entry == null)
+        {
+            return;
+        }
+
+        synchronized (stripe)
+        {
+            Entry old = (Entry) stripe.entries.put(key, entry);
+            if (old == null)
+            {
+                stripe.chars += text.length();
+            }
+
+            for (Iterator i = stripe.entries.keySet().iterator();
+                 stripe.chars > stripe.maxChars && i.hasNext();)
+            {
+                stripe.chars -= ((Key) i.next()).text.length();
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the AST with what the parser looked up for it, or null if
+     *         a name resolved both ways during the parse
+     */
+    private Entry createEntry(SimpleNode nodeTree)
+    {
+        String[] directives = null;
+        Directive[] found = null;
+        String[] velocimacros = null;
+        boolean[] defined = null;
+
+        if (nodeTree instanceof ASTprocess)
+        {
+            Map lookups = ((ASTprocess) nodeTree).getDirectiveLookups();
+            if (lookups != null)
+            {
+                directives = new String[lookups.size()];
+                found = new Directive[lookups.size()];
+                int n = 0;
+                for (Iterator i = lookups.entrySet().iterator(); i.hasNext(); n++)
+                {
+                    Map.Entry lookup = (Map.Entry) i.next();
+                    if (lookup.getValue() == null)
+                    {
+                        return null;
+                    }
+                    directives[n] = (String) lookup.getKey();
+                    found[n] = rsvc.getDirective(directives[n]);
+                }
+            }
+
+            lookups = ((ASTprocess) nodeTree).getVelocimacroLookups();
+            if (lookups != null)
+            {
+                velocimacros = new String[lookups.size()];
+                defined = new boolean[lookups.size()];
+                int n = 0;
+                for (Iterator i = lookups.entrySet().iterator(); i.hasNext(); n++)
+                {
+                    Map.Entry lookup = (Map.Entry) i.next();
+                    if (lookup.getValue() == null)
+                    {
+                        return null;
+                    }
+                    velocimacros[n] = (String) lookup.getKey();
+                    defined[n] = ((Boolean) lookup.getValue()).booleanValue();
+                }
+            }
+        }
+        return new Entry(nodeTree, directives, found, velocimacros, defined);
+    }
+
+    /**
+     * @return true if the text would still parse to the AST
+     */
+    private boolean isCurrent(Entry entry, String templateName)
+    {
+        if (entry.directives != null)
+        {
+            for (int i = 0; i < entry.directives.length; i++)
+            {
+                if (rsvc.getDirective(entry.directives[i]) != entry.found[i])
+                {
+                    return false;
+                }
+            }
+        }
+        if (entry.velocimacros != null)
+        {
+            for (int i = 0; i < entry.velocimacros.length; i++)
+            {
+                if (rsvc.isVelocimacro(entry.velocimacros[i], templateName) != entry.defined[i])
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean definesMacros(Node node)
+    {
+        if (node instanceof ASTDirective
+            && "macro".equals(((ASTDirective) node).getDirectiveName()))
+        {
+            return true;
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++)
+        {
+            if (definesMacros(node.jjtGetChild(i)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int stripeIndex(Key key)
+    {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+
+    /**
+     * Drops all ASTs.  The counters are kept.
+     */
+    public void clear()
+    {
+        for (int i = 0; i <= mask; i++)
+        {
+            synchronized (stripes[i])
+            {
+                stripes[i].entries.clear();
+                stripes[i].chars = 0;
+            }
+        }
+    }
+
+    /**
+     * @return how many texts there are ASTs for
+     */
+    public int size()
+    {
+        int count = 0;
+        for (int i = 0; i <= mask; i++)
+        {
+            synchronized (stripes[i])
+            {
+                count += stripes[i].entries.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the total length of the texts there are ASTs for
+     */
+    public int getChars()
+    {
+        int count = 0;
+        for (int i = 0; i <= mask; i++)
+        {
+            synchronized (stripes[i])
+            {
+                count += stripes[i].chars;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return how many lookups found an AST
+     */
+    public long getHits()
+    {
+        long count = 0;
+        for (int i = 0; i <= mask; i++)
+        {
+            synchronized (stripes[i])
+            {
+                count += stripes[i].hits;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return how many lookups found none, or a stale one
+     */
+    public long getMisses()
+    {
+        long count = 0;
+        for (int i = 0; i <= mask; i++)
+        {
+            synchronized (stripes[i])
+            {
+                count += stripes[i].misses;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The ASTs of some of the texts, by access order, the eldest first.
+     */
+    private static final class Stripe
+    {
+        final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+        final int maxChars;
+        int chars = 0;
+        long hits = 0;
+        long misses = 0;
+
+        Stripe(int maxChars)
+        {
+            this.maxChars = maxChars;
+        }
+    }
+
+    /**
+     * An AST, with the directives the parser found for its names and
+     * whether the velocimacro names it looked up were defined.
+     */
+    private static final class Entry
+    {
+        final SimpleNode nodeTree;
+        final String[] directives;
+        final Directive[] found;
+        final String[] velocimacros;
+        final boolean[] defined;
+
+        Entry(SimpleNode nodeTree, String[] directives, Directive[] found,
+              String[] velocimacros, boolean[] defined)
+        {
+            this.nodeTree = nodeTree;
+            this.directives = directives;
+            this.found = found;
+            this.velocimacros = velocimacros;
+            this.defined = defined;
+        }
+    }
+
+    private static final class Key
+    {
+        final String templateName;
+        final String text;
+
+        Key(String templateName, String text)
+        {
+            this.templateName = templateName;
+            this.text = text;
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) o;
+            return text.equals(other.text)
+                && (templateName == null ? other.templateName == null
+                                         : templateName.equals(other.templateName));
+        }
+
+        public int hashCode()
+        {
+            return text.hashCode() * 31
+                + (templateName == null ? 0 : templateName.hashCode());
+        }
+    }
+}
@@ -137,6 +137,13 @@ public interface RuntimeConstants
      */
     String SKIP_INVALID_ITERATOR = "directive.foreach.skip.invalid";
 
+    /**
+     * Whether #foreach keeps its loop variables in a frame of its own
+     * instead of putting them into the context on every turn. Default is false.
+     * @since 1.6.4
+     */
+    String FOREACH_LOOP_FRAME = "directive.foreach.frame";
+
     /** if set to true then allows #set to accept null values in the right hand side. */
     String SET_NULL_ALLOWED = "directive.set.null.allowed";
 
@@ -193,6 +200,61 @@ public interface RuntimeConstants
     /** The <code>resource.manager.cache.size</code> property specifies the cache upper bound (if relevant). */
     String RESOURCE_MANAGER_DEFAULTCACHE_SIZE = "resource.manager.defaultcache.size";
 
+    /**
+     * The <code>resource.manager.astcache.directory</code> property names a directory
+     * where the parsed form of templates is kept, so that they don't have to be
+     * parsed again after a restart.  Not set by default.
+     * @since 1.6.4
+     */
+    String RESOURCE_MANAGER_AST_CACHE_DIRECTORY = "resource.manager.astcache.directory";
+
+    /**
+     * When <code>resource.manager.singleflight</code> is true, concurrent requests to load
+     * or refresh the same resource are done by one thread only.  Other threads wait for a
+     * load, and keep using the cached resource during a refresh.  Default is false.
+     * @since 1.6.4
+     */
+    String RESOURCE_MANAGER_SINGLE_FLIGHT = "resource.manager.singleflight";
+
+    /**
+     * When <code>resource.manager.modificationcheck.background</code> is true, cached
+     * resources are checked for modification and reloaded by a background thread instead
+     * of by the threads asking for them.  Default is false.
+     * @since 1.6.4
+     */
+    String RESOURCE_MANAGER_BACKGROUND_CHECK = "resource.manager.modificationcheck.background";
+
+    /**
+     * The <code>resource.manager.modificationcheck.jitter</code> property is the fraction
+     * of the modification check interval by which background checks are randomly moved,
+     * so that resources loaded together are not checked together.  Default is 0.2.
+     * @since 1.6.4
+     */
+    String RESOURCE_MANAGER_CHECK_JITTER = "resource.manager.modificationcheck.jitter";
+
+    /**
+     * The <code>resource.manager.missingcache.size</code> property is the number of
+     * resources that none of the loaders could find to remember, so that they are not
+     * looked for again right away.  0, the default, turns this off.
+     * @since 1.6.4
+     */
+    String RESOURCE_MANAGER_MISSINGCACHE_SIZE = "resource.manager.missingcache.size";
+
+    /**
+     * The <code>resource.manager.missingcache.ttl</code> property is how many seconds
+     * a missing resource is remembered.  Default is 30.
+     * @since 1.6.4
+     */
+    String RESOURCE_MANAGER_MISSINGCACHE_TTL = "resource.manager.missingcache.ttl";
+
+    /**
+     * When <code>resource.manager.loaderindex</code> is true, the resource manager remembers
+     * which loader has a resource, for loaders that report all their changes, so that the
+     * loaders are not asked again.  Default is false.
+     * @since 1.6.4
+     */
+    String RESOURCE_MANAGER_LOADER_INDEX = "resource.manager.loaderindex";
+
     /*
      * ----------------------------------------------------------------------
      * R E S O U R C E  L O A D E R  C O N F I G U R A T I O N
@@ -318,9 +380,62 @@ public interface RuntimeConstants
     /** A comma separated list of classes to restrict access to in the SecureIntrospector. */
     String INTROSPECTOR_RESTRICT_CLASSES = "introspector.restrict.classes";
 
+    /**
+     * The <code>runtime.introspector.inlinecache.size</code> property is how many
+     * classes of objects each method call and property access in a template keeps
+     * the introspection results for, across merges.  A call that sees more classes
+     * goes back to the cache of the context.  Default is 0, which keeps none.
+     * @since 1.6.4
+     */
+    String INLINE_CACHE_SIZE = "runtime.introspector.inlinecache.size";
+
+    /**
+     * The <code>runtime.introspector.publicfields</code> property lets the default
+     * uberspector read and set the public fields of objects, as $foo.bar, when the
+     * class has no getter or setter for the property.  Default is false.
+     * @since 1.6.4
+     */
+    String INTROSPECTOR_PUBLIC_FIELDS = "runtime.introspector.publicfields";
+
     /** Switch for ignoring nulls in math equations vs throwing exceptions. */
     String STRICT_MATH = "runtime.strict.math";
 
+    /**
+     * If true, templates are compiled into a class of their own after
+     * they are initialized and merged through it instead of walking the
+     * AST.  Text, blocks, #if chains and references become straight-line
+     * code; the other directives are still rendered by their nodes, as
+     * are templates that can't be compiled.
+     * Default is false.
+     * @since 1.6.4
+     */
+    String COMPILE_TEMPLATES = "runtime.compile.templates";
+
+    /**
+     * If true, the AST of a template lets go of the parser tokens once it
+     * is initialized, keeping only what rendering and error messages need.
+     * Default is false.
+     * @since 1.6.4
+     */
+    String COMPACT_AST = "runtime.compact.ast";
+
+    /**
+     * If true, expressions of literals, like <code>60 * 60 * 24</code>, are worked
+     * out once when a template is initialized, and #if/#elseif branches whose
+     * conditions are literals are decided then too.  Default is false.
+     * @since 1.6.4
+     */
+    String FOLD_CONSTANTS = "runtime.fold.constants";
+
+    /**
+     * The <code>evaluate.cache.size</code> property is the total length, in
+     * characters, of the texts given to evaluate() or #evaluate whose parsed
+     * ASTs are kept, so that the same text isn't parsed again.  Default is 0,
+     * which keeps none.
+     * @since 1.6.4
+     */
+    String EVALUATE_CACHE_SIZE = "evaluate.cache.size";
+
     /**
      * The <code>parser.pool.class</code> property specifies the name of the {@link org.apache.velocity.util.SimplePool}
      * implementation to use.
@@ -331,6 +446,21 @@ public interface RuntimeConstants
      * @see  #NUMBER_OF_PARSERS
      */
     String PARSER_POOL_SIZE = "parser.pool.size";
+
+    /**
+     * The <code>parser.pool.idletime</code> property is the number of seconds after which
+     * {@link ElasticParserPool} lets go of parsers that haven't been needed.  Default is 60.
+     * @since 1.6.4
+     */
+    String PARSER_POOL_IDLE_TIME = "parser.pool.idletime";
+
+    /**
+     * When <code>parser.charstream.compact</code> is true, parsers read their input into
+     * one char array and work out line and column numbers from where the lines start,
+     * instead of keeping them for every char.  Default is false.
+     * @since 1.6.4
+     */
+    String PARSER_COMPACT_CHARSTREAM = "parser.charstream.compact";
     
     /*
      * ----------------------------------------------------------------------
@@ -34,6 +34,7 @@ import java.util.Properties;
 import org.apache.commons.collections.ExtendedProperties;
 import org.apache.commons.lang.text.StrBuilder;
 import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.event.EventCartridge;
 import org.apache.velocity.app.event.EventHandler;
 import org.apache.velocity.app.event.IncludeEventHandler;
@@ -49,6 +50,7 @@ import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.exception.TemplateInitException;
 import org.apache.velocity.exception.VelocityException;
 import org.apache.velocity.runtime.directive.Directive;
+import org.apache.velocity.runtime.directive.VelocimacroProxy;
 import org.apache.velocity.runtime.log.Log;
 import org.apache.velocity.runtime.log.LogManager;
 import org.apache.velocity.runtime.parser.ParseException;
@@ -57,6 +59,7 @@ import org.apache.velocity.runtime.parser.node.Node;
 import org.apache.velocity.runtime.parser.node.SimpleNode;
 import org.apache.velocity.runtime.resource.ContentResource;
 import org.apache.velocity.runtime.resource.ResourceManager;
+import org.apache.velocity.runtime.resource.ResourceManagerImpl;
 import org.apache.velocity.util.ClassUtils;
 import org.apache.velocity.util.RuntimeServicesAware;
 import org.apache.velocity.util.StringUtils;
@@ -176,6 +179,12 @@ public class RuntimeInstance implements RuntimeConstants, RuntimeServices
 
     private ResourceManager resourceManager = null;
 
+    /** whether constant expressions are folded at init, read once. */
+    private boolean foldConstants = false;
+
+    /** whether initialized templates are compiled, read once. */
+    private boolean compileTemplates = false;
+
     /**
      * This stores the engine-wide set of event handlers.  Event handlers for
      * each specific merge are stored in the context.
@@ -198,6 +207,11 @@ public class RuntimeInstance implements RuntimeConstants, RuntimeServices
     private Uberspect uberSpect;
     private String encoding;
 
+    /**
+     * the ASTs of evaluated texts, null if they aren't kept
+     */
+    private EvaluateCache evaluateCache = null;
+
     /**
      * Creates a new RuntimeInstance object.
      */
@@ -247,11 +261,14 @@ public class RuntimeInstance implements RuntimeConstants, RuntimeServices
             log.trace("RuntimeInstance initializing.");
 
             initializeProperties();
+            foldConstants = getBoolean(RuntimeConstants.FOLD_CONSTANTS, false);
+            compileTemplates = getBoolean(RuntimeConstants.COMPILE_TEMPLATES, false);
             initializeLog();
             initializeResourceManager();
             initializeDirectives();
             initializeEventHandlers();
             initializeParserPool();
+            initializeEvaluateCache();
 
             initializeIntrospection();
             /*
@@ -277,6 +294,23 @@ public class RuntimeInstance implements RuntimeConstants, RuntimeServices
         return initialized;
     }
 
+    /**
+     * Stops the background work of this instance, such as the background
+     * modification checks and file watchers of the default resource
+     * manager.  Templates can
+     * still be used afterwards.  Call it when the instance is no longer
+     * needed, e.g. when a web application is stopped.
+     *
+     * @since 1.6.4
+     */
+    public synchronized void shutdown()
+    {
+        if (resourceManager instanceof ResourceManagerImpl)
+        {
+            ((ResourceManagerImpl) resourceManager).shutdown();
+        }
+    }
+
     /**
      * Init or die! (with some log help, of course)
      */
@@ -959,6 +993,54 @@ public class RuntimeInstance implements RuntimeConstants, RuntimeServices
     }
 
 
+    /**
+     * Sets up the cache of evaluated ASTs, if one is configured.
+     */
+    private void initializeEvaluateCache()
+    {
+        int size = getInt(RuntimeConstants.EVALUATE_CACHE_SIZE, 0);
+        if (size > 0)
+        {
+            evaluateCache = new EvaluateCache(this, size);
+        }
+    }
+
+    /**
+     * Returns the cache of evaluated ASTs.
+     *
+     * @return the cache, or null if there is none
+     * @see RuntimeConstants#EVALUATE_CACHE_SIZE
+     * @since 1.6.4
+     */
+    public EvaluateCache getEvaluateCache()
+    {
+        return evaluateCache;
+    }
+
+    /**
+     * Tells whether constant expressions are folded when templates are
+     * initialized, as read from the configuration at init.
+     *
+     * @return the value of {@link RuntimeConstants#FOLD_CONSTANTS}
+     * @since 1.6.4
+     */
+    public boolean isFoldingConstants()
+    {
+        return foldConstants;
+    }
+
+    /**
+     * Tells whether templates are compiled once initialized, as read
+     * from the configuration at init.
+     *
+     * @return the value of {@link RuntimeConstants#COMPILE_TEMPLATES}
+     * @since 1.6.4
+     */
+    public boolean isCompilingTemplates()
+    {
+        return compileTemplates;
+    }
+
     /**
      * Initializes the Velocity parser pool.
      */
@@ -1162,7 +1244,43 @@ public class RuntimeInstance implements RuntimeConstants, RuntimeServices
     public boolean evaluate(Context context,  Writer out,
                             String logTag, String instring) throws IOException
     {
-        return evaluate(context, out, logTag, new StringReader(instring));
+        if (evaluateCache == null)
+        {
+            return evaluate(context, out, logTag, new StringReader(instring));
+        }
+
+        if (logTag == null)
+        {
+            throw new NullPointerException("logTag (i.e. template name) cannot be null, you must provide an identifier for the content being evaluated");
+        }
+
+        SimpleNode nodeTree = evaluateCache.get(logTag, instring);
+        if (nodeTree != null)
+        {
+            return render(context, out, logTag, nodeTree, false, null);
+        }
+
+        try
+        {
+            nodeTree = parse(new StringReader(instring), logTag);
+        }
+        catch (ParseException pex)
+        {
+            throw new ParseErrorException(pex);
+        }
+        catch (TemplateInitException pex)
+        {
+            throw new ParseErrorException(pex);
+        }
+
+        if (nodeTree == null)
+        {
+            return false;
+        }
+        else
+        {
+            return render(context, out, logTag, nodeTree, true, instring);
+        }
     }
 
     /**
@@ -1238,6 +1356,21 @@ public class RuntimeInstance implements RuntimeConstants, RuntimeServices
      */
     public boolean render(Context context, Writer writer,
                           String logTag, SimpleNode nodeTree) throws IOException
+    {
+        return render(context, writer, logTag, nodeTree, true, null);
+    }
+
+    /**
+     * Renders the AST, initializing it first unless it came from the
+     * evaluate cache.
+     *
+     * @param init whether the AST still has to be initialized
+     * @param source the text to keep the AST for once it is initialized,
+     *        or null
+     */
+    private boolean render(Context context, Writer writer, String logTag,
+                           SimpleNode nodeTree, boolean init, String source)
+        throws IOException
     {
         /*
          * we want to init then render
@@ -1251,7 +1384,15 @@ public class RuntimeInstance implements RuntimeConstants, RuntimeServices
         {
             try
             {
-                nodeTree.init(ica, this);
+                if (init)
+                {
+                    nodeTree.init(ica, this);
+
+                    if (source != null)
+                    {
+                        evaluateCache.put(logTag, source, nodeTree);
+                    }
+                }
             }
             catch (TemplateInitException pex)
             {
@@ -1347,6 +1488,63 @@ public class RuntimeInstance implements RuntimeConstants, RuntimeServices
         return evaluate(context, writer, logTag, template.toString());
     }
 
+    /**
+     * Looks up a currently registered Velocimacro and returns a handle
+     * that renders it with arguments given from Java, without building
+     * and parsing a template for each call as
+     * {@link #invokeVelocimacro(String, String, String[], Context, Writer)}
+     * does.
+     *
+     * @param vmName name of Velocimacro to call
+     * @param logTag string to be used for template name in case of error. if null,
+     *               the vmName will be used
+     * @return the handle
+     * @throws VelocityException if the Velocimacro isn't registered
+     * @throws ParseErrorException if the Velocimacro can't be initialized
+     * @since 1.6.4
+     */
+    public VelocimacroInvocation getVelocimacroInvocation(String vmName, String logTag)
+    {
+        if (vmName == null)
+        {
+            String msg = "RuntimeInstance.getVelocimacroInvocation() : invalid call : vmName must not be null";
+            getLog().error(msg);
+            throw new NullPointerException(msg);
+        }
+
+        if (logTag == null)
+        {
+            logTag = vmName;
+        }
+
+        VelocimacroProxy proxy = (VelocimacroProxy) getVelocimacro(vmName, logTag);
+        if (proxy == null)
+        {
+            String msg = "RuntimeInstance.getVelocimacroInvocation() : VM '" + vmName
+                         + "' is not registered.";
+            getLog().error(msg);
+            throw new VelocityException(msg);
+        }
+
+        InternalContextAdapterImpl ica =
+            new InternalContextAdapterImpl(new VelocityContext());
+        ica.pushCurrentTemplateName(logTag);
+        try
+        {
+            proxy.init(this, ica);
+        }
+        catch (TemplateInitException pex)
+        {
+            throw new ParseErrorException(pex);
+        }
+        finally
+        {
+            ica.popCurrentTemplateName();
+        }
+
+        return new VelocimacroInvocation(proxy, logTag);
+    }
+
     /**
      * Retrieves and caches the configured default encoding
      * for better performance. (VELOCITY-606)
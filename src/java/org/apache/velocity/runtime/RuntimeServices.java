@@ -528,4 +528,12 @@ public interface RuntimeServices extends RuntimeLogger
      */
     public Directive getDirective(String name);
 
+    /**
+     * Returns the cache of the ASTs of evaluated texts.
+     * @return the cache, or null if there is none
+     * @see RuntimeConstants#EVALUATE_CACHE_SIZE
+     * @since 1.6.4
+     */
+    public EvaluateCache getEvaluateCache();
+
 }
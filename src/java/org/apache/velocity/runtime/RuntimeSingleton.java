@@ -649,6 +649,21 @@ public class RuntimeSingleton implements RuntimeConstants
         return ri.getUberspect();
     }
 
+    /**
+     * Looks up a currently registered Velocimacro and returns a handle
+     * that renders it with arguments given from Java.
+     *
+     * @param vmName name of Velocimacro to call
+     * @param logTag string to be used for template name in case of error
+     * @return the handle
+     * @see RuntimeInstance#getVelocimacroInvocation(String, String)
+     * @since 1.6.4
+     */
+    public static VelocimacroInvocation getVelocimacroInvocation(String vmName, String logTag)
+    {
+        return ri.getVelocimacroInvocation(vmName, logTag);
+    }
+
     /**
      * @deprecated Use getRuntimeServices() instead.
      * @return The RuntimeInstance used by this Singleton.
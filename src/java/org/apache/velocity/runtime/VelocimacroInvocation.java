@@ -0,0 +1,135 @@
+package org.apache.velocity.runtime;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.velocity.context.Context;
+import org.apache.velocity.context.InternalContextAdapterImpl;
+import org.apache.velocity.runtime.directive.VelocimacroProxy;
+
+/**
+ * A Velocimacro looked up once, to be called from Java any number of
+ * times.  Unlike {@link RuntimeInstance#invokeVelocimacro}, calling it
+ * doesn't build and parse a template: the arguments are bound to the
+ * given values and the body of the macro is rendered right away.
+ *
+ * <p>The arguments are passed by value.  A null argument is bound to
+ * null, so the macro renders the reference to it as is rather than
+ * finding a value of the same name in the context, and #set on an
+ * argument doesn't reach back into the context.</p>
+ *
+ * <p>The handle keeps the macro it was created for; if the macro is
+ * redefined or its library is reloaded, get a new one.  It can be
+ * shared between threads.</p>
+ *
+ * @see RuntimeInstance#getVelocimacroInvocation(String, String)
+ * @version $Id$
+ * @since 1.6.4
+ */
+public final class VelocimacroInvocation
+{
+    private final VelocimacroProxy proxy;
+
+    private final String logTag;
+
+    VelocimacroInvocation(VelocimacroProxy proxy, String logTag)
+    {
+        this.proxy = proxy;
+        this.logTag = logTag;
+    }
+
+    /**
+     * @return the name of the macro
+     */
+    public String getName()
+    {
+        return proxy.getName();
+    }
+
+    /**
+     * @return how many arguments the macro takes
+     */
+    public int getNumArgs()
+    {
+        return proxy.getNumArgs();
+    }
+
+    /**
+     * Renders the macro with the given argument values.  Like for calls
+     * in templates, a wrong number of arguments is an error if
+     * <code>velocimacro.arguments.strict</code> is true; otherwise
+     * missing trailing arguments are left unbound, extra ones are ignored.
+     *
+     * @param context Context object containing data/objects used for rendering.
+     * @param writer  Writer for output stream
+     * @param args the values of the macro arguments, in order; may be null
+     * @return true
+     * @throws IOException While rendering to the writer, an I/O problem occured.
+     */
+    public boolean invoke(Context context, Writer writer, Object[] args)
+        throws IOException
+    {
+        if (context == null || writer == null)
+        {
+            throw new NullPointerException("VelocimacroInvocation.invoke() : invalid call : context and writer must not be null");
+        }
+
+        InternalContextAdapterImpl ica = new InternalContextAdapterImpl(context);
+        ica.pushCurrentTemplateName(logTag);
+        try
+        {
+            return proxy.render(ica, writer, args == null ? new Object[0] : args);
+        }
+        finally
+        {
+            ica.popCurrentTemplateName();
+        }
+    }
+
+    /**
+     * Renders the macro with the values the context has for the given
+     * keys as arguments, like {@link RuntimeInstance#invokeVelocimacro}
+     * does.
+     *
+     * @param context Context object containing data/objects used for rendering.
+     * @param writer  Writer for output stream
+     * @param keys keys for the macro arguments, in java format rather than
+     *             VTL (eg "foo" rather than "$foo"); may be null
+     * @return true
+     * @throws IOException While rendering to the writer, an I/O problem occured.
+     */
+    public boolean invokeWithKeys(Context context, Writer writer, String[] keys)
+        throws IOException
+    {
+        if (context == null || keys == null)
+        {
+            return invoke(context, writer, null);
+        }
+
+        Object[] args = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++)
+        {
+            args[i] = context.get(keys[i]);
+        }
+        return invoke(context, writer, args);
+    }
+}
@@ -130,6 +130,17 @@ public abstract class Directive implements DirectiveConstants, Cloneable
         //    node.jjtGetChild(i).init(context, rs);
     }
 
+    /**
+     * Called before the node of this directive lets go of its tokens, see
+     * {@link org.apache.velocity.runtime.RuntimeConstants#COMPACT_AST}.
+     * A directive that reads the tokens while rendering has to read them
+     * here.  Does nothing by default.
+     * @since 1.6.4
+     */
+    public void compact()
+    {
+    }
+
     /**
      * How this directive is to be rendered
      * @param context
@@ -30,6 +30,7 @@ import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.exception.TemplateInitException;
+import org.apache.velocity.runtime.EvaluateCache;
 import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.parser.ParseException;
 import org.apache.velocity.runtime.parser.ParserTreeConstants;
@@ -154,22 +155,27 @@ public class Evaluate extends Directive
          * The new string needs to be parsed since the text has been dynamically generated.
          */
         String templateName = context.getCurrentTemplateName();
-        SimpleNode nodeTree = null;
+        EvaluateCache cache = rsvc.getEvaluateCache();
+        SimpleNode nodeTree = (cache == null) ? null : cache.get(templateName, sourceText);
+        boolean init = (nodeTree == null);
 
-        try
+        if (init)
         {
-            nodeTree = rsvc.parse(new StringReader(sourceText), templateName, false);
-        }
-        catch (ParseException pex)
-        {
-            // use the line/column from the template
-            Info info = new Info( templateName, node.getLine(), node.getColumn() );
-            throw  new ParseErrorException( pex.getMessage(), info );
-        }
-        catch (TemplateInitException pex)
-        {
-            Info info = new Info( templateName, node.getLine(), node.getColumn() );
-            throw  new ParseErrorException( pex.getMessage(), info );
+            try
+            {
+                nodeTree = rsvc.parse(new StringReader(sourceText), templateName, false);
+            }
+            catch (ParseException pex)
+            {
+                // use the line/column from the template
+                Info info = new Info( templateName, node.getLine(), node.getColumn() );
+                throw  new ParseErrorException( pex.getMessage(), info );
+            }
+            catch (TemplateInitException pex)
+            {
+                Info info = new Info( templateName, node.getLine(), node.getColumn() );
+                throw  new ParseErrorException( pex.getMessage(), info );
+            }
         }
 
         /*
@@ -185,14 +191,22 @@ public class Evaluate extends Directive
 
             try
             {
-                try
+                if (init)
                 {
-                    nodeTree.init( ica, rsvc );
-                }
-                catch (TemplateInitException pex)
-                {
-                    Info info = new Info( templateName, node.getLine(), node.getColumn() );
-                    throw  new ParseErrorException( pex.getMessage(), info );
+                    try
+                    {
+                        nodeTree.init( ica, rsvc );
+                    }
+                    catch (TemplateInitException pex)
+                    {
+                        Info info = new Info( templateName, node.getLine(), node.getColumn() );
+                        throw  new ParseErrorException( pex.getMessage(), info );
+                    }
+
+                    if (cache != null)
+                    {
+                        cache.put(templateName, sourceText, nodeTree);
+                    }
                 }
 
                 try 
@@ -21,7 +21,10 @@ package org.apache.velocity.runtime.directive;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 import org.apache.velocity.context.ChainedInternalContextAdapter;
 import org.apache.velocity.context.InternalContextAdapter;
@@ -33,9 +36,11 @@ import org.apache.velocity.exception.VelocityException;
 import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.log.Log;
+import org.apache.velocity.runtime.parser.node.ASTIntegerRange;
 import org.apache.velocity.runtime.parser.node.ASTReference;
 import org.apache.velocity.runtime.parser.node.Node;
 import org.apache.velocity.runtime.parser.node.SimpleNode;
+import org.apache.velocity.util.IntegerRange;
 import org.apache.velocity.util.introspection.Info;
 
 /**
@@ -125,6 +130,158 @@ public class Foreach extends Directive
         }
     }
 
+    /**
+     * Holds the loop variables of one #foreach, in front of the context the
+     * loop was called with.  Gets and puts of those three keys stay here, so
+     * the context is only changed by other keys, and the counter is only
+     * boxed if a template asks for it.
+     * @since 1.6.4
+     */
+    protected static class LoopFrame extends ChainedInternalContextAdapter
+    {
+        private static final int ELEMENT = 0;
+        private static final int COUNTER = 1;
+        private static final int HAS_NEXT = 2;
+
+        private final String[] keys;
+        private final Object[] values = new Object[3];
+
+        /** which of the keys are set, a null element counts as set */
+        private final boolean[] present = new boolean[3];
+
+        private int counter;
+
+        /** whether values[COUNTER] holds the value of the counter */
+        private boolean counterBoxed;
+
+        /**
+         * @param counterKey the name of the loop counter
+         * @param hasNextKey the name of the "has next" flag
+         * @param elementKey the name of the loop variable
+         * @param context the context the loop was called with
+         */
+        protected LoopFrame(String counterKey, String hasNextKey,
+                            String elementKey, InternalContextAdapter context)
+        {
+            super(context);
+            keys = new String[3];
+            keys[ELEMENT] = elementKey;
+            keys[COUNTER] = counterKey;
+            keys[HAS_NEXT] = hasNextKey;
+        }
+
+        /**
+         * Moves on to the next turn of the loop.
+         *
+         * @param counter the loop counter
+         * @param hasNext whether there is another turn after this one
+         * @param element the current element, may be null
+         */
+        protected void next(int counter, boolean hasNext, Object element)
+        {
+            this.counter = counter;
+            counterBoxed = false;
+            values[HAS_NEXT] = hasNext ? Boolean.TRUE : Boolean.FALSE;
+            values[ELEMENT] = element;
+            present[ELEMENT] = present[COUNTER] = present[HAS_NEXT] = true;
+        }
+
+        private int slot(Object key)
+        {
+            for (int i = 0; i < keys.length; i++)
+            {
+                if (keys[i] == key || (keys[i] != null && keys[i].equals(key)))
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private Object value(int slot)
+        {
+            if (slot == COUNTER && !counterBoxed)
+            {
+                values[COUNTER] = IntegerRange.valueOf(counter);
+                counterBoxed = true;
+            }
+            return values[slot];
+        }
+
+        private Object set(int slot, Object value, boolean set)
+        {
+            Object old = value(slot);
+            values[slot] = value;
+            present[slot] = set;
+            return old;
+        }
+
+        /**
+         * @see org.apache.velocity.context.InternalContextAdapter#get(java.lang.String)
+         */
+        public Object get(String key)
+        {
+            int slot = slot(key);
+            return (slot < 0) ? super.get(key) : value(slot);
+        }
+
+        /**
+         * @see org.apache.velocity.context.InternalContextAdapter#put(java.lang.String key, java.lang.Object value)
+         */
+        public Object put(String key, Object value)
+        {
+            int slot = slot(key);
+            return (slot < 0) ? super.put(key, value) : set(slot, value, true);
+        }
+
+        /**
+         * @see org.apache.velocity.context.InternalWrapperContext#localPut(String, Object)
+         */
+        public Object localPut(final String key, final Object value)
+        {
+            int slot = slot(key);
+            return (slot < 0) ? super.localPut(key, value) : set(slot, value, true);
+        }
+
+        /**
+         * @see org.apache.velocity.context.InternalContextAdapter#remove(java.lang.Object key)
+         */
+        public Object remove(Object key)
+        {
+            int slot = slot(key);
+            return (slot < 0) ? super.remove(key) : set(slot, null, false);
+        }
+
+        /**
+         * @see org.apache.velocity.context.Context#containsKey(java.lang.Object)
+         */
+        public boolean containsKey(Object key)
+        {
+            int slot = slot(key);
+            return (slot < 0) ? super.containsKey(key) : present[slot];
+        }
+
+        /**
+         * @see org.apache.velocity.context.Context#getKeys()
+         */
+        public Object[] getKeys()
+        {
+            Set keySet = new HashSet(Arrays.asList(super.getKeys()));
+            for (int i = 0; i < keys.length; i++)
+            {
+                if (present[i])
+                {
+                    keySet.add(keys[i]);
+                }
+                else
+                {
+                    keySet.remove(keys[i]);
+                }
+            }
+            return keySet.toArray();
+        }
+    }
+
     /**
      * Return name of this directive.
      * @return The name of this directive.
@@ -172,6 +329,11 @@ public class Foreach extends Directive
      */
     private boolean skipInvalidIterator;
 
+    /**
+     * Whether the loop variables are kept in a {@link LoopFrame}.
+     */
+    private boolean useLoopFrame;
+
     /**
      * The reference name used to access each
      * of the elements in the list object. It
@@ -220,6 +382,8 @@ public class Foreach extends Directive
           // is true.  However, if the property is explicitly set, then honor the setting.
           skipInvalidIterator = rsvc.getBoolean(RuntimeConstants.SKIP_INVALID_ITERATOR, false);
         }
+
+        useLoopFrame = rsvc.getBoolean(RuntimeConstants.FOREACH_LOOP_FRAME, false);
                 
         /*
          *  this is really the only thing we can do here as everything
@@ -253,6 +417,7 @@ public class Foreach extends Directive
      * are set locally or not. So, those in favor of VELOCITY-285, can
      * make that happen easily by overriding this and having it use
      * context.localPut(k,v). See VELOCITY-630 for more on this.
+     * Not used when the loop variables are kept in a {@link LoopFrame}.
      */
     protected void put(InternalContextAdapter context, String key, Object value)
     {
@@ -284,53 +449,57 @@ public class Foreach extends Directive
         if (listObject == null)
              return false;
 
-        Iterator i = null;
-
-        try
-        {
-            i = rsvc.getUberspect().getIterator(listObject, uberInfo);
-        }
-        /**
-         * pass through application level runtime exceptions
+        /*
+         *  a range written right into the #foreach can't be seen by the
+         *  template, so it is walked by its bounds, without an iterator
          */
-        catch( RuntimeException e )
-        {
-            throw e;
-        }
-        catch(Exception ee)
+        IntegerRange range = null;
+        if (listObject instanceof IntegerRange
+            && node.jjtGetChild(2) instanceof ASTIntegerRange)
         {
-            String msg = "Error getting iterator for #foreach at "+uberInfo;
-            rsvc.getLog().error(msg, ee);
-            throw new VelocityException(msg, ee);
+            range = (IntegerRange) listObject;
         }
 
-        if (i == null)
+        Iterator i = null;
+
+        if (range == null)
         {
-            if (skipInvalidIterator)
+            i = getIterator(listObject, node);
+            if (i == null)
             {
                 return false;
             }
-            else
-            {
-                Node pnode = node.jjtGetChild(2);
-                String msg = "#foreach parameter " + pnode.literal() + " at "
-                    + Log.formatFileString(pnode)
-                    + " is of type " + listObject.getClass().getName()
-                    + " and is either of wrong type or cannot be iterated.";
-                rsvc.getLog().error(msg);
-                throw new VelocityException(msg);
-            }
         }
 
         int counter = counterInitialValue;
         boolean maxNbrLoopsExceeded = false;
+        int index = 0;
+        int size = (range == null) ? 0 : range.size();
 
         /*
-         *  save the element key if there is one, and the loop counter
+         *  with a loop frame, the loop variables never reach the context,
+         *  so there is nothing to save and restore.  Not inside a macro
+         *  though: its arguments are evaluated in the context of the caller,
+         *  and have to see the loop variables there.
          */
-        Object o = context.get(elementKey);
-        Object savedCounter = context.get(counterName);
-        Object nextFlag = context.get(hasNextName);
+        LoopFrame frame = null;
+        Object o = null;
+        Object savedCounter = null;
+        Object nextFlag = null;
+
+        if (useLoopFrame && context.getCurrentMacroCallDepth() == 0)
+        {
+            frame = new LoopFrame(counterName, hasNextName, elementKey, context);
+        }
+        else
+        {
+            /*
+             *  save the element key if there is one, and the loop counter
+             */
+            o = context.get(elementKey);
+            savedCounter = context.get(counterName);
+            nextFlag = context.get(hasNextName);
+        }
         
         /*
          * Instantiate the null holder context if a null value
@@ -339,31 +508,51 @@ public class Foreach extends Directive
          */
         NullHolderContext nullHolderContext = null;
 
-        while (!maxNbrLoopsExceeded && i.hasNext())
+        while (!maxNbrLoopsExceeded && (range == null ? i.hasNext() : index < size))
         {
-            // TODO: JDK 1.5+ -> Integer.valueOf()
-            put(context, counterName , new Integer(counter));
-            Object value = i.next();
-            put(context, hasNextName, Boolean.valueOf(i.hasNext()));
-            put(context, elementKey, value);
+            Object value;
+            boolean hasNext;
+            if (range == null)
+            {
+                value = i.next();
+                hasNext = i.hasNext();
+            }
+            else
+            {
+                value = IntegerRange.valueOf(range.getInt(index++));
+                hasNext = index < size;
+            }
 
             try
             {
-                /*
-                 * If the value is null, use the special null holder context
-                 */
-                if (value == null)
+                if (frame != null)
                 {
-                    if (nullHolderContext == null)
-                    {
-                        // lazy instantiation
-                        nullHolderContext = new NullHolderContext(elementKey, context);
-                    }
-                    node.jjtGetChild(3).render(nullHolderContext, writer);
+                    frame.next(counter, hasNext, value);
+                    node.jjtGetChild(3).render(frame, writer);
                 }
                 else
                 {
-                    node.jjtGetChild(3).render(context, writer);
+                    // TODO: JDK 1.5+ -> Integer.valueOf()
+                    put(context, counterName , new Integer(counter));
+                    put(context, hasNextName, Boolean.valueOf(hasNext));
+                    put(context, elementKey, value);
+
+                    /*
+                     * If the value is null, use the special null holder context
+                     */
+                    if (value == null)
+                    {
+                        if (nullHolderContext == null)
+                        {
+                            // lazy instantiation
+                            nullHolderContext = new NullHolderContext(elementKey, context);
+                        }
+                        node.jjtGetChild(3).render(nullHolderContext, writer);
+                    }
+                    else
+                    {
+                        node.jjtGetChild(3).render(context, writer);
+                    }
                 }
             }
             catch (Break.BreakException ex)
@@ -379,6 +568,11 @@ public class Foreach extends Directive
             maxNbrLoopsExceeded = (counter - counterInitialValue) >= maxNbrLoops;
         }
 
+        if (frame != null)
+        {
+            return true;
+        }
+
         /*
          * restores the loop counter (if we were nested)
          * if we have one, else just removes
@@ -422,4 +616,52 @@ public class Foreach extends Directive
 
         return true;
     }
+
+    /**
+     * Gets the iterator for the list object from the Uberspect.
+     *
+     * @return The iterator, or null if the list object is to be skipped.
+     */
+    private Iterator getIterator(Object listObject, Node node)
+    {
+        Iterator i = null;
+
+        try
+        {
+            i = rsvc.getUberspect().getIterator(listObject, uberInfo);
+        }
+        /**
+         * pass through application level runtime exceptions
+         */
+        catch( RuntimeException e )
+        {
+            throw e;
+        }
+        catch(Exception ee)
+        {
+            String msg = "Error getting iterator for #foreach at "+uberInfo;
+            rsvc.getLog().error(msg, ee);
+            throw new VelocityException(msg, ee);
+        }
+
+        if (i == null)
+        {
+            if (skipInvalidIterator)
+            {
+                return null;
+            }
+            else
+            {
+                Node pnode = node.jjtGetChild(2);
+                String msg = "#foreach parameter " + pnode.literal() + " at "
+                    + Log.formatFileString(pnode)
+                    + " is of type " + listObject.getClass().getName()
+                    + " and is either of wrong type or cannot be iterated.";
+                rsvc.getLog().error(msg);
+                throw new VelocityException(msg);
+            }
+        }
+
+        return i;
+    }
 }
@@ -138,6 +138,16 @@ public class RuntimeMacro extends Directive
         }
     }
 
+    /**
+     * The literal is read from the tokens, so work it out before they
+     * are gone.
+     * @see org.apache.velocity.runtime.directive.Directive#compact()
+     */
+    public void compact()
+    {
+        getLiteral();
+    }
+
     /**
      * It is probably quite rare that we need to render the macro literal
      * so do it only on-demand and then cache the value. This tactic helps to
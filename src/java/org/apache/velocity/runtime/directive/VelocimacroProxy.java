@@ -168,6 +168,57 @@ public class VelocimacroProxy extends Directive
             }
         }
 
+        return render(vmc, writer);
+    }
+
+    /**
+     * Renders the macro with its arguments bound to the given values
+     * rather than to the arguments of a call in a template.  The macro
+     * must have been initialized with {@link #init(RuntimeServices, InternalContextAdapter)}.
+     *
+     * @param context Current rendering context
+     * @param writer Writer for output
+     * @param args the values of the macro arguments, in order; null
+     *        values are bound as null
+     * @return True if the directive rendered successfully.
+     * @throws IOException
+     * @throws MethodInvocationException
+     * @throws MacroOverflowException
+     * @since 1.6.4
+     */
+    public boolean render(InternalContextAdapter context, Writer writer, Object[] args)
+            throws IOException, MethodInvocationException, MacroOverflowException
+    {
+        if (getNumArgs() != args.length)
+        {
+            String msg = wrongArgumentCount(args.length);
+            if (strictArguments)
+            {
+                throw new TemplateInitException(msg, context.getCurrentTemplateName(), 0, 0);
+            }
+            rsvc.getLog().debug(msg);
+        }
+
+        final ProxyVMContext vmc = new ProxyVMContext(context, rsvc, localContextScope);
+
+        for (int i = 1; i < argArray.length && i <= args.length; i++)
+        {
+            if (args[i - 1] != null)
+            {
+                vmc.localPut(argArray[i], args[i - 1]);
+            }
+            else
+            {
+                vmc.addNullArg(argArray[i]);
+            }
+        }
+
+        return render(vmc, writer);
+    }
+
+    private boolean render(ProxyVMContext vmc, Writer writer)
+            throws IOException, MethodInvocationException, MacroOverflowException
+    {
         /*
          * check that we aren't already at the max call depth
          */
@@ -236,32 +287,7 @@ public class VelocimacroProxy extends Directive
     public void init(RuntimeServices rs, InternalContextAdapter context, Node node)
             throws TemplateInitException
     {
-        // there can be multiple threads here so avoid double inits
-        synchronized (this)
-        {
-            if (!preInit)
-            {
-                super.init(rs, context, node);
-
-                // this is a very expensive call (ExtendedProperties is very slow)
-                strictArguments = rs.getConfiguration().getBoolean(
-                        RuntimeConstants.VM_ARGUMENTS_STRICT, false);
-
-                // support for local context scope feature, where all references are local
-                // we do not have to check this at every invocation of ProxyVMContext
-                localContextScope = rsvc.getBoolean(RuntimeConstants.VM_CONTEXT_LOCALSCOPE, false);
-
-                // get the macro call depth limit
-                maxCallDepth = rsvc.getInt(RuntimeConstants.VM_MAX_DEPTH);
-
-                // initialize the parsed AST
-                // since this is context independent we need to do this only once so
-                // do it here instead of the render method
-                nodeTree.init(context, rs);
-
-                preInit = true;
-            }
-        }
+        init(rs, context);
 
         // check how many arguments we got
         int i = node.jjtGetNumChildren();
@@ -286,9 +312,7 @@ public class VelocimacroProxy extends Directive
                 parent = parent.jjtGetParent();
             }
 
-            String msg = "VM #" + macroName + ": too "
-                    + ((getNumArgs() > i) ? "few" : "many") + " arguments to macro. Wanted "
-                    + getNumArgs() + " got " + i;
+            String msg = wrongArgumentCount(i);
 
             if (strictArguments)
             {
@@ -318,5 +342,62 @@ public class VelocimacroProxy extends Directive
             }
         }
     }
-}
 
+    /**
+     * @param got the number of arguments the macro was called with
+     * @return the message for calling the macro with that many
+     */
+    private String wrongArgumentCount(int got)
+    {
+        return "VM #" + macroName + ": too "
+            + ((getNumArgs() > got) ? "few" : "many") + " arguments to macro. Wanted "
+            + getNumArgs() + " got " + got;
+    }
+
+    /**
+     * Initializes the macro body, once.  Calls from templates do this in
+     * {@link #init(RuntimeServices, InternalContextAdapter, Node)}; it is
+     * public for callers that render the macro with
+     * {@link #render(InternalContextAdapter, Writer, Object[])}.
+     *
+     * @param rs
+     * @param context
+     * @throws TemplateInitException
+     * @since 1.6.4
+     */
+    public void init(RuntimeServices rs, InternalContextAdapter context)
+            throws TemplateInitException
+    {
+        // there can be multiple threads here so avoid double inits
+        synchronized (this)
+        {
+            if (!preInit)
+            {
+                rsvc = rs;
+
+                // this is a very expensive call (ExtendedProperties is very slow)
+                strictArguments = rs.getConfiguration().getBoolean(
+                        RuntimeConstants.VM_ARGUMENTS_STRICT, false);
+
+                // support for local context scope feature, where all references are local
+                // we do not have to check this at every invocation of ProxyVMContext
+                localContextScope = rsvc.getBoolean(RuntimeConstants.VM_CONTEXT_LOCALSCOPE, false);
+
+                // get the macro call depth limit
+                maxCallDepth = rsvc.getInt(RuntimeConstants.VM_MAX_DEPTH);
+
+                // initialize the parsed AST
+                // since this is context independent we need to do this only once so
+                // do it here instead of the render method
+                nodeTree.init(context, rs);
+
+                if (rsvc.getBoolean(RuntimeConstants.COMPACT_AST, false))
+                {
+                    nodeTree.compact();
+                }
+
+                preInit = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package org.apache.velocity.runtime.parser;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.velocity.io.DecodedReader;
+
+/**
+ * A CharStream that reads all of its input into one char array up front.
+ * Unlike {@link VelocityCharStream}, it doesn't keep a line and a column
+ * for every buffered char.  It only notes where each line starts, and
+ * works out the line and column of a position when a token asks for
+ * them.  Lines and columns are counted exactly like VelocityCharStream
+ * does, including tabs stopping at every eighth column.
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public final class ArrayCharStream implements CharStream
+{
+    /** arrays up to this size are kept for the next input */
+    private static final int DEFAULT_SIZE = 4096;
+
+    private char[] buffer;
+
+    private int length = 0;
+
+    private int bufpos = -1;
+
+    private int tokenBegin = 0;
+
+    /** offsets of the first char of each line */
+    private int[] lineStarts;
+
+    private int lineCount = 0;
+
+    private int startLine = 1;
+
+    private int startColumn = 1;
+
+    /*
+     * The last position looked up.  Tokens ask for positions in
+     * increasing order, so columns are mostly counted from here.
+     */
+    private int cursorPos = -1;
+    private int cursorLine = 0;
+    private int cursorColumn = 0;
+
+    /**
+     * @param dstream
+     * @param startline
+     * @param startcolumn
+     */
+    public ArrayCharStream(Reader dstream, int startline, int startcolumn)
+    {
+        ReInit(dstream, startline, startcolumn);
+    }
+
+    /**
+     * Reads all of the input, and starts at its first char.  The chars
+     * of a {@link DecodedReader} are used as they are, without copying.
+     *
+     * @param dstream
+     * @param startline
+     * @param startcolumn
+     */
+    public void ReInit(Reader dstream, int startline, int startcolumn)
+    {
+        if (lineStarts == null)
+        {
+            lineStarts = new int[DEFAULT_SIZE / 32];
+        }
+
+        if (dstream instanceof DecodedReader)
+        {
+            /* the chars are decoded already, just take them */
+            DecodedReader decoded = (DecodedReader) dstream;
+            length = decoded.getLength();
+            buffer = decoded.getChars();
+        }
+        else
+        {
+            read(dstream);
+        }
+
+        startLine = startline;
+        startColumn = startcolumn;
+        bufpos = -1;
+        tokenBegin = 0;
+        cursorPos = -1;
+        findLines();
+    }
+
+    private void read(Reader dstream)
+    {
+        if (buffer == null || buffer.length == 0)
+        {
+            buffer = new char[DEFAULT_SIZE];
+        }
+
+        length = 0;
+        try
+        {
+            int n;
+            while ((n = dstream.read(buffer, length, buffer.length - length)) != -1)
+            {
+                length += n;
+                if (length == buffer.length)
+                {
+                    char[] newbuffer = new char[buffer.length * 2];
+                    System.arraycopy(buffer, 0, newbuffer, 0, length);
+                    buffer = newbuffer;
+                }
+            }
+            dstream.close();
+        }
+        catch (IOException ioe)
+        {
+            /*
+             * like VelocityCharStream, treat a failing reader like the
+             * end of the input, and parse what we have
+             */
+        }
+    }
+
+    /**
+     * Notes where lines start.  A line ends after a '\n', or after a
+     * '\r' that isn't followed by a '\n'.
+     */
+    private void findLines()
+    {
+        lineCount = 0;
+        addLine(0);
+        for (int i = 0; i < length; i++)
+        {
+            char c = buffer[i];
+            if (c == '\n' || (c == '\r' && (i + 1 == length || buffer[i + 1] != '\n')))
+            {
+                addLine(i + 1);
+            }
+        }
+    }
+
+    private void addLine(int start)
+    {
+        if (lineCount == lineStarts.length)
+        {
+            int[] newstarts = new int[lineStarts.length * 2];
+            System.arraycopy(lineStarts, 0, newstarts, 0, lineCount);
+            lineStarts = newstarts;
+        }
+        lineStarts[lineCount++] = start;
+    }
+
+    /**
+     * Finds the line and column of a position, leaving them in the cursor.
+     */
+    private void locate(int pos)
+    {
+        if (pos == cursorPos)
+        {
+            return;
+        }
+
+        if (pos < 0)
+        {
+            cursorPos = pos;
+            cursorLine = 0;
+            cursorColumn = startColumn - 1;
+            return;
+        }
+
+        int lo = 0;
+        int hi = lineCount - 1;
+        while (lo < hi)
+        {
+            int mid = (lo + hi + 1) >>> 1;
+            if (lineStarts[mid] <= pos)
+            {
+                lo = mid;
+            }
+            else
+            {
+                hi = mid - 1;
+            }
+        }
+
+        int i;
+        int column;
+        if (cursorPos >= lineStarts[lo] && cursorPos < pos)
+        {
+            /* same line, further on */
+            i = cursorPos + 1;
+            column = cursorColumn;
+        }
+        else
+        {
+            i = lineStarts[lo];
+            column = (lo == 0) ? startColumn - 1 : 0;
+        }
+
+        for (; i <= pos; i++)
+        {
+            column++;
+            if (buffer[i] == '\t')
+            {
+                column--;
+                column += (8 - (column & 07));
+            }
+        }
+
+        cursorPos = pos;
+        cursorLine = lo;
+        cursorColumn = column;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.CharStream#BeginToken()
+     */
+    public char BeginToken() throws IOException
+    {
+        tokenBegin = -1;
+        char c = readChar();
+        tokenBegin = bufpos;
+        return c;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.CharStream#readChar()
+     */
+    public char readChar() throws IOException
+    {
+        if (bufpos + 1 >= length)
+        {
+            if (tokenBegin == -1)
+            {
+                tokenBegin = bufpos;
+            }
+            throw new IOException();
+        }
+        return buffer[++bufpos];
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.CharStream#getColumn()
+     * @deprecated
+     */
+    public int getColumn()
+    {
+        return getEndColumn();
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.CharStream#getLine()
+     * @deprecated
+     */
+    public int getLine()
+    {
+        return getEndLine();
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.CharStream#getEndColumn()
+     */
+    public int getEndColumn()
+    {
+        locate(bufpos);
+        return cursorColumn;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.CharStream#getEndLine()
+     */
+    public int getEndLine()
+    {
+        locate(bufpos);
+        return startLine + cursorLine;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.CharStream#getBeginColumn()
+     */
+    public int getBeginColumn()
+    {
+        locate(tokenBegin);
+        return cursorColumn;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.CharStream#getBeginLine()
+     */
+    public int getBeginLine()
+    {
+        locate(tokenBegin);
+        return startLine + cursorLine;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.CharStream#backup(int)
+     */
+    public void backup(int amount)
+    {
+        bufpos -= amount;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.CharStream#GetImage()
+     */
+    public String GetImage()
+    {
+        if (tokenBegin < 0)
+        {
+            /* the end of empty input */
+            return "";
+        }
+        return new String(buffer, tokenBegin, bufpos - tokenBegin + 1);
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.CharStream#GetSuffix(int)
+     */
+    public char[] GetSuffix(int len)
+    {
+        char[] ret = new char[len];
+        System.arraycopy(buffer, bufpos - len + 1, ret, 0, len);
+        return ret;
+    }
+
+    /**
+     * Lets go of the input.  Arrays of the default size are kept for
+     * the next input, bigger ones are dropped.
+     *
+     * @see org.apache.velocity.runtime.parser.CharStream#Done()
+     */
+    public void Done()
+    {
+        if (buffer != null && buffer.length > DEFAULT_SIZE)
+        {
+            buffer = null;
+        }
+        if (lineStarts != null && lineStarts.length > DEFAULT_SIZE / 32)
+        {
+            lineStarts = null;
+        }
+        length = 0;
+        lineCount = 0;
+        bufpos = -1;
+        cursorPos = -1;
+    }
+}
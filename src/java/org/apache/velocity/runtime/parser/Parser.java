@@ -4,6 +4,7 @@ package org.apache.velocity.runtime.parser;
 import java.io.*;
 import java.util.*;
 import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.parser.node.*;
 import org.apache.velocity.runtime.directive.Directive;
@@ -36,10 +37,19 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
      */
     public String currentTemplateName = "";
 
-    VelocityCharStream velcharstream = null;
+    CharStream velcharstream = null;
 
     private RuntimeServices rsvc = null;
 
+    /**
+     *  Directive and Velocimacro names looked up while parsing the
+     *  current template, mapped to what they resolved to.  The
+     *  resulting tree depends on these, so they are handed over to
+     *  the root node for whoever wants to reuse it later.
+     */
+    private Map directiveLookups = null;
+    private Map velocimacroLookups = null;
+
     /**
      * This constructor was added to allow the re-use of parsers.
      * The normal constructor takes a single argument which
@@ -53,14 +63,12 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
          * need to call the CTOR first thing.
          */
 
-        this(   new VelocityCharStream(
-                new ByteArrayInputStream("\n".getBytes()), 1, 1 ));
+        this(   createCharStream(rs) );
 
         /*
-         * now setup a VCS for later use
+         * and keep that stream for later use
          */
-        velcharstream = new VelocityCharStream(
-                new ByteArrayInputStream("\n".getBytes()), 1, 1 );
+        velcharstream = token_source.input_stream;
 
         /*
          *  and save the RuntimeServices
@@ -68,6 +76,20 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
         rsvc = rs;
     }
 
+    /**
+     * Creates the char stream to parse with, an {@link ArrayCharStream}
+     * if <code>parser.charstream.compact</code> is set.
+     */
+    private static CharStream createCharStream(RuntimeServices rs)
+    {
+        if (rs != null && rs.getBoolean(RuntimeConstants.PARSER_COMPACT_CHARSTREAM, false))
+        {
+            return new ArrayCharStream(new StringReader("\n"), 1, 1);
+        }
+        return new VelocityCharStream(
+                new ByteArrayInputStream("\n".getBytes()), 1, 1 );
+    }
+
     /**
      * This was also added to allow parsers to be
      * re-usable. Normal JavaCC use entails passing an
@@ -83,16 +105,25 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
         SimpleNode sn = null;
 
         currentTemplateName = templateName;
+        directiveLookups = null;
+        velocimacroLookups = null;
 
         try
         {
             token_source.clearStateVars();
 
             /*
-             *  reinitialize the VelocityCharStream
+             *  reinitialize the char stream
              *  with the new reader
              */
-            velcharstream.ReInit( reader, 1, 1 );
+            if (velcharstream instanceof ArrayCharStream)
+            {
+                ((ArrayCharStream) velcharstream).ReInit( reader, 1, 1 );
+            }
+            else
+            {
+                ((VelocityCharStream) velcharstream).ReInit( reader, 1, 1 );
+            }
 
             /*
              * now reinit the Parser with this CharStream
@@ -103,6 +134,8 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
              *  do that voodoo...
              */
             sn = process();
+
+            ((ASTprocess) sn).setResolvedNames(directiveLookups, velocimacroLookups);
         }
         catch (MacroParseException mee)
         {
@@ -129,6 +162,17 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
             rsvc.getLog().error(msg, e);
             throw new VelocityException(msg, e);
         }
+        finally
+        {
+            /*
+             *  let go of the input; VelocityCharStream would drop
+             *  the buffers it reuses, so only tell the array stream
+             */
+            if (velcharstream instanceof ArrayCharStream)
+            {
+                velcharstream.Done();
+            }
+        }
 
         currentTemplateName = "";
 
@@ -148,7 +192,9 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
      */
     public Directive getDirective(String directive)
     {
-        return (Directive) directives.get(directive);
+        Directive d = (Directive) directives.get(directive);
+        directiveLookups = recordLookup(directiveLookups, directive, d != null);
+        return d;
     }
 
     /**
@@ -157,7 +203,41 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
      */
     public boolean isDirective(String directive)
     {
-        return directives.containsKey(directive);
+        boolean found = directives.containsKey(directive);
+        directiveLookups = recordLookup(directiveLookups, directive, found);
+        return found;
+    }
+
+    /**
+     *  Asks the runtime whether a Velocimacro exists for the current
+     *  template, remembering the answer.
+     */
+    private boolean isVelocimacro(String vmName)
+    {
+        boolean found = rsvc.isVelocimacro(vmName, currentTemplateName);
+        velocimacroLookups = recordLookup(velocimacroLookups, vmName, found);
+        return found;
+    }
+
+    /**
+     *  Records the result of a name lookup.  A name that resolves
+     *  differently within the same parse (a macro used before it is
+     *  defined) is marked with a null value, as no single answer
+     *  describes it.
+     */
+    private static Map recordLookup(Map lookups, String name, boolean found)
+    {
+        if (lookups == null)
+        {
+            lookups = new HashMap();
+        }
+        Boolean result = found ? Boolean.TRUE : Boolean.FALSE;
+        if (lookups.containsKey(name) && !result.equals(lookups.get(name)))
+        {
+            result = null;
+        }
+        lookups.put(name, result);
+        return lookups;
     }
 
 
@@ -188,7 +268,7 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
         {
            bRecognizedDirective = true;
         }
-        else if ( rsvc.isVelocimacro(dirTag, currentTemplateName))
+        else if ( isVelocimacro(dirTag))
         {
             bRecognizedDirective = true;
         }
@@ -469,7 +549,7 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
 
         if ( isDirective(nTag) )
             control = true;
-        else if ( rsvc.isVelocimacro(nTag, currentTemplateName))
+        else if ( isVelocimacro(nTag))
             control = true;
 
         jjtn000.val = "";
@@ -697,7 +777,7 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
             directiveName = t.image.substring(1);
         }
 
-        d = (Directive) directives.get(directiveName);
+        d = getDirective(directiveName);
 
         /*
          *  Velocimacro support : if the directive is macro directive
@@ -723,7 +803,7 @@ public class Parser/*@bgen(jjtree)*/implements ParserTreeConstants, ParserConsta
              *  if null, then not a real directive, but maybe a Velocimacro
              */
 
-            isVM = rsvc.isVelocimacro(directiveName, currentTemplateName);
+            isVM = isVelocimacro(directiveName);
 
             /*
              *  Currently, all VMs are LINE directives
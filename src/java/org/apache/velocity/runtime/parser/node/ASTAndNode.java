@@ -86,6 +86,11 @@ public class ASTAndNode extends SimpleNode
     public boolean evaluate( InternalContextAdapter context)
         throws MethodInvocationException
     {
+        if (folded)
+        {
+            return foldedTruth;
+        }
+
         Node left = jjtGetChild(0);
         Node right = jjtGetChild(1);
 
@@ -111,5 +116,22 @@ public class ASTAndNode extends SimpleNode
 
         return false;
     }
+
+    /**
+     * Also folded if the left side is always false, since the right
+     * side is never looked at then.
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#isFoldable(org.apache.velocity.context.InternalContextAdapter)
+     */
+    protected boolean isFoldable(InternalContextAdapter context)
+    {
+        if (childrenAreConstant())
+        {
+            return true;
+        }
+        Node left = jjtGetChild(0);
+        return left instanceof SimpleNode && ((SimpleNode) left).isConstant()
+            && !left.evaluate(context);
+    }
+
 }
 
@@ -73,4 +73,13 @@ public class ASTBlock extends SimpleNode
 
         return true;
     }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#keepsLiteral()
+     */
+    protected boolean keepsLiteral()
+    {
+        return false;
+    }
+
 }
@@ -106,4 +106,20 @@ public class ASTComment extends SimpleNode
         return true;
     }
 
+    /**
+     * @return the characters this node renders, or null before init()
+     */
+    char[] getCharacters()
+    {
+        return carr;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#keepsLiteral()
+     */
+    protected boolean keepsLiteral()
+    {
+        return false;
+    }
+
 }
@@ -29,9 +29,11 @@ import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.exception.TemplateInitException;
 import org.apache.velocity.runtime.directive.Directive;
+import org.apache.velocity.runtime.directive.Macro;
 import org.apache.velocity.runtime.directive.RuntimeMacro;
 import org.apache.velocity.runtime.parser.ParseException;
 import org.apache.velocity.runtime.parser.Parser;
+import org.apache.velocity.runtime.parser.Token;
 import org.apache.velocity.util.ExceptionUtils;
 
 /**
@@ -97,27 +99,28 @@ public class ASTDirective extends SimpleNode
              *  only do things that are not context dependent
              */
     
-            if (parser.isDirective( directiveName ))
+            Directive prototype = rsvc.getDirective( directiveName );
+
+            if (prototype != null)
             {
                 isDirective = true;
     
                 try
                 {
-                    directive = (Directive) parser.getDirective( directiveName )
-                        .getClass().newInstance();
+                    directive = (Directive) prototype.getClass().newInstance();
                 } 
                 catch (InstantiationException e)
                 {
                     throw ExceptionUtils.createRuntimeException("Couldn't initialize " +
                             "directive of class " +
-                            parser.getDirective(directiveName).getClass().getName(),
+                            prototype.getClass().getName(),
                             e);
                 }
                 catch (IllegalAccessException e)
                 {
                     throw ExceptionUtils.createRuntimeException("Couldn't initialize " +
                             "directive of class " +
-                            parser.getDirective(directiveName).getClass().getName(),
+                            prototype.getClass().getName(),
                             e);
                 }
                         
@@ -205,6 +208,57 @@ public class ASTDirective extends SimpleNode
         return directiveName;
     }
     
+    /**
+     * Lets the directive read what it needs from the tokens first.
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#keepLiterals()
+     */
+    protected void keepLiterals()
+    {
+        if (directive != null)
+        {
+            directive.compact();
+        }
+        super.keepLiterals();
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#dropTokens()
+     */
+    protected void dropTokens()
+    {
+        if (directive instanceof Macro && jjtGetNumChildren() > 0)
+        {
+            /*
+             *  the macro block keeps its tokens, but not the ones
+             *  following it, i.e. the rest of the template
+             */
+            Token end = jjtGetChild(jjtGetNumChildren() - 1).getLastToken();
+            if (end != null)
+            {
+                end.next = null;
+            }
+        }
+        super.dropTokens();
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#keepsLiteral()
+     */
+    protected boolean keepsLiteral()
+    {
+        return false;
+    }
+
+    /**
+     * The block of a #macro is initialized when the macro is first
+     * called, which needs the tokens.
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#compactsChildren()
+     */
+    protected boolean compactsChildren()
+    {
+        return !(directive instanceof Macro);
+    }
+
     /**
      * @since 1.5
      */
@@ -76,4 +76,15 @@ public class ASTDivNode extends ASTMathNode
         }
         return MathUtils.divide(left, right);
     }
+
+    /**
+     * A division by zero is left to rendering, which reports it.
+     * @see org.apache.velocity.runtime.parser.node.ASTMathNode#isFoldable(org.apache.velocity.context.InternalContextAdapter)
+     */
+    protected boolean isFoldable(InternalContextAdapter context)
+    {
+        return super.isFoldable(context)
+            && !MathUtils.isZero((Number) jjtGetChild(1).value(context));
+    }
+
 }
@@ -81,6 +81,11 @@ public class ASTEQNode extends SimpleNode
     public boolean evaluate(InternalContextAdapter context)
         throws MethodInvocationException
     {
+        if (folded)
+        {
+            return foldedTruth;
+        }
+
         Object left = jjtGetChild(0).value(context);
         Object right = jjtGetChild(1).value(context);
 
@@ -164,4 +169,13 @@ public class ASTEQNode extends SimpleNode
     {
         return evaluate(context) ? Boolean.TRUE : Boolean.FALSE;
     }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#isFoldable(org.apache.velocity.context.InternalContextAdapter)
+     */
+    protected boolean isFoldable(InternalContextAdapter context)
+    {
+        return childrenAreConstant();
+    }
+
 }
@@ -91,4 +91,13 @@ public class ASTElseIfStatement extends SimpleNode
     {
         return jjtGetChild(1).render( context, writer );
     }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#keepsLiteral()
+     */
+    protected boolean keepsLiteral()
+    {
+        return false;
+    }
+
 }
@@ -69,5 +69,14 @@ public class ASTElseStatement extends SimpleNode
     {
         return true;
     }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#keepsLiteral()
+     */
+    protected boolean keepsLiteral()
+    {
+        return false;
+    }
+
 }
 
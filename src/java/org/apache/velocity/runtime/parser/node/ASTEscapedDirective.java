@@ -76,4 +76,12 @@ public class ASTEscapedDirective extends SimpleNode
         return true;
     }
 
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#keepsLiteral()
+     */
+    protected boolean keepsLiteral()
+    {
+        return false;
+    }
+
 }
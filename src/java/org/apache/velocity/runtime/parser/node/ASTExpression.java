@@ -70,4 +70,13 @@ public class ASTExpression extends SimpleNode
     {
         return jjtGetChild(0).value(context);
     }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#isConstant()
+     */
+    public boolean isConstant()
+    {
+        return childrenAreConstant();
+    }
+
 }
@@ -109,5 +109,12 @@ public class ASTFloatingPointLiteral extends SimpleNode
         return value;
     }
 
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#isConstant()
+     */
+    public boolean isConstant()
+    {
+        return true;
+    }
 
 }
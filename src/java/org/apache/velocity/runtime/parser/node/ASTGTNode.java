@@ -73,6 +73,11 @@ public class ASTGTNode extends SimpleNode
     public boolean evaluate(InternalContextAdapter context)
         throws MethodInvocationException
     {
+        if (folded)
+        {
+            return foldedTruth;
+        }
+
         /*
          *  get the two args
          */
@@ -147,4 +152,15 @@ public class ASTGTNode extends SimpleNode
         return val ? Boolean.TRUE : Boolean.FALSE;
     }
 
+    /**
+     * Only numbers are compared, anything else is logged while rendering.
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#isFoldable(org.apache.velocity.context.InternalContextAdapter)
+     */
+    protected boolean isFoldable(InternalContextAdapter context)
+    {
+        return childrenAreConstant()
+            && jjtGetChild(0).value(context) instanceof Number
+            && jjtGetChild(1).value(context) instanceof Number;
+    }
+
 }
@@ -62,6 +62,11 @@ public class ASTIdentifier extends SimpleNode
      */
     protected boolean strictRef = false;
 
+    /**
+     * The getters this access found, kept across merges, or null.
+     */
+    private InlineCache inlineCache;
+
     /**
      * @param id
      */
@@ -106,7 +111,10 @@ public class ASTIdentifier extends SimpleNode
         uberInfo = new Info(getTemplateName(), getLine(), getColumn());
 
         strictRef = rsvc.getBoolean(RuntimeConstants.RUNTIME_REFERENCES_STRICT, false);
-        
+
+        int inlineCacheSize = rsvc.getInt(RuntimeConstants.INLINE_CACHE_SIZE, 0);
+        inlineCache = inlineCacheSize > 0 ? new InlineCache(inlineCacheSize) : null;
+
         return data;
     }
 
@@ -121,38 +129,64 @@ public class ASTIdentifier extends SimpleNode
 
         try
         {
-            /*
-             *  first, see if we have this information cached.
-             */
-
-            IntrospectionCacheData icd = context.icacheGet(this);
-
-            /*
-             * if we have the cache data and the class of the object we are
-             * invoked with is the same as that in the cache, then we must
-             * be allright.  The last 'variable' is the method name, and
-             * that is fixed in the template :)
-             */
-
-            if ( icd != null && (o != null) && (icd.contextData == o.getClass()) )
+            boolean inline = inlineCache != null && o != null;
+            boolean introspected = false;
+            if (inline && !inlineCache.isMegamorphic())
             {
-                vg = (VelPropertyGet) icd.thingy;
+                /*
+                 *  this access keeps its own getters, by the class of the object
+                 */
+
+                vg = (VelPropertyGet) inlineCache.get(o.getClass(), null);
             }
-            else
+
+            if (vg == null)
             {
                 /*
-                 *  otherwise, do the introspection, and cache it.  Use the
-                 *  uberspector
+                 *  first, see if we have this information cached.
+                 */
+
+                IntrospectionCacheData icd = context.icacheGet(this);
+
+                /*
+                 * if we have the cache data and the class of the object we are
+                 * invoked with is the same as that in the cache, then we must
+                 * be allright.  The last 'variable' is the method name, and
+                 * that is fixed in the template :)
                  */
 
-                vg = rsvc.getUberspect().getPropertyGet(o,identifier, uberInfo);
+                if ( icd != null && (o != null) && (icd.contextData == o.getClass()) )
+                {
+                    vg = (VelPropertyGet) icd.thingy;
+                }
+                else
+                {
+                    /*
+                     *  otherwise, do the introspection, and cache it.  Use the
+                     *  uberspector
+                     */
+
+                    vg = rsvc.getUberspect().getPropertyGet(o,identifier, uberInfo);
+                    introspected = true;
+
+                    if (vg != null && vg.isCacheable() && (o != null))
+                    {
+                        icd = new IntrospectionCacheData();
+                        icd.contextData = o.getClass();
+                        icd.thingy = vg;
+                        context.icachePut(this,icd);
+                    }
+                }
+
+                /*
+                 *  a megamorphic cache only hears of the classes introspected
+                 *  for, in case they make it stale
+                 */
 
-                if (vg != null && vg.isCacheable() && (o != null))
+                if (inline && vg != null && vg.isCacheable() &&
+                    (introspected || !inlineCache.isMegamorphic()))
                 {
-                    icd = new IntrospectionCacheData();
-                    icd.contextData = o.getClass();
-                    icd.thingy = vg;
-                    context.icachePut(this,icd);
+                    inlineCache.put(o.getClass(), null, vg);
                 }
             }
         }
@@ -36,6 +36,7 @@ import org.apache.velocity.context.InternalContextAdapter;
 import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.exception.TemplateInitException;
 import org.apache.velocity.runtime.parser.Parser;
 
 
@@ -44,6 +45,18 @@ import org.apache.velocity.runtime.parser.Parser;
  */
 public class ASTIfStatement extends SimpleNode
 {
+    /** true if constant conditions decide which clause is rendered */
+    private boolean decided = false;
+
+    /** the clause always rendered, or null if none is */
+    private Node decidedClause = null;
+
+    /**
+     * where to start checking the conditions: 0 for the #if itself,
+     * else the index of the first #elseif that isn't always false
+     */
+    private int firstClause = 0;
+
     /**
      * @param id
      */
@@ -70,6 +83,95 @@ public class ASTIfStatement extends SimpleNode
         return visitor.visit(this, data);
     }
 
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#init(org.apache.velocity.context.InternalContextAdapter, java.lang.Object)
+     */
+    public Object init(InternalContextAdapter context, Object data)
+        throws TemplateInitException
+    {
+        super.init(context, data);
+
+        if (foldsConstants())
+        {
+            prune(context);
+        }
+        return data;
+    }
+
+    /**
+     * Skips the clauses whose conditions are always false, and if the
+     * first condition left is always true, or there is only an #else
+     * left, renders that clause without checking anything.
+     */
+    private void prune(InternalContextAdapter context)
+    {
+        if (!isConstant(jjtGetChild(0)))
+        {
+            return;
+        }
+        if (jjtGetChild(0).evaluate(context))
+        {
+            decide(jjtGetChild(1));
+            return;
+        }
+
+        for (int i = 2, k = jjtGetNumChildren(); i < k; i++)
+        {
+            Node clause = jjtGetChild(i);
+            if (!(clause instanceof ASTElseIfStatement) ||
+                (isConstant(clause.jjtGetChild(0)) && clause.evaluate(context)))
+            {
+                decide(clause);
+                return;
+            }
+            if (!isConstant(clause.jjtGetChild(0)))
+            {
+                firstClause = i;
+                return;
+            }
+        }
+
+        /* every condition is always false */
+        decide(null);
+    }
+
+    private static boolean isConstant(Node node)
+    {
+        return node instanceof SimpleNode && ((SimpleNode) node).isConstant();
+    }
+
+    private void decide(Node clause)
+    {
+        decided = true;
+        decidedClause = clause;
+    }
+
+    /**
+     * @return whether constant conditions decide which clause is rendered
+     */
+    boolean isDecided()
+    {
+        return decided;
+    }
+
+    /**
+     * @return the block, #elseif or #else that is always rendered, or
+     *         null if nothing is
+     */
+    Node getDecidedClause()
+    {
+        return decidedClause;
+    }
+
+    /**
+     * @return the index of the first child to check: 0 for the #if
+     *         itself, else the first #elseif whose condition isn't constant
+     */
+    int getFirstClause()
+    {
+        return firstClause;
+    }
+
     /**
      * @see org.apache.velocity.runtime.parser.node.SimpleNode#render(org.apache.velocity.context.InternalContextAdapter, java.io.Writer)
      */
@@ -77,12 +179,21 @@ public class ASTIfStatement extends SimpleNode
         throws IOException,MethodInvocationException,
         	ResourceNotFoundException, ParseErrorException
     {
+        if (decided)
+        {
+            if (decidedClause != null)
+            {
+                decidedClause.render(context, writer);
+            }
+            return true;
+        }
+
         /*
          * Check if the #if(expression) construct evaluates to true:
          * if so render and leave immediately because there
          * is nothing left to do!
          */
-        if (jjtGetChild(0).evaluate(context))
+        if (firstClause == 0 && jjtGetChild(0).evaluate(context))
         {
             jjtGetChild(1).render(context, writer);
             return true;
@@ -99,7 +210,7 @@ public class ASTIfStatement extends SimpleNode
          * render itself and this method will return
          * as there is nothing left to do.
          */
-        for (int i = 2; i < totalNodes; i++)
+        for (int i = Math.max(firstClause, 2); i < totalNodes; i++)
         {
             if (jjtGetChild(i).evaluate(context))
             {
@@ -123,6 +234,15 @@ public class ASTIfStatement extends SimpleNode
     public void process( InternalContextAdapter context, ParserVisitor visitor)
     {
     }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#keepsLiteral()
+     */
+    protected boolean keepsLiteral()
+    {
+        return false;
+    }
+
 }
 
 
@@ -110,4 +110,12 @@ public class ASTIntegerLiteral extends SimpleNode
         return value;
     }
 
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#isConstant()
+     */
+    public boolean isConstant()
+    {
+        return true;
+    }
+
 }
@@ -19,13 +19,11 @@ package org.apache.velocity.runtime.parser.node;
  * under the License.    
  */
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.apache.velocity.context.InternalContextAdapter;
 import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.runtime.log.Log;
 import org.apache.velocity.runtime.parser.Parser;
+import org.apache.velocity.util.IntegerRange;
 
 /**
  * handles the range 'operator'  [ n .. m ]
@@ -63,11 +61,11 @@ public class ASTIntegerRange extends SimpleNode
     }
 
     /**
-     *  does the real work.  Creates an Vector of Integers with the
-     *  right value range
+     *  does the real work.  Creates a List of Integers with the
+     *  right value range, which works them out as they are asked for
      *
      *  @param context  app context used if Left or Right of .. is a ref
-     *  @return Object array of Integers
+     *  @return an {@link IntegerRange}
      * @throws MethodInvocationException
      */
     public Object value( InternalContextAdapter context)
@@ -114,33 +112,6 @@ public class ASTIntegerRange extends SimpleNode
         int l = ((Number) left).intValue() ;
         int r = ((Number) right).intValue();
 
-        /*
-         *  find out how many there are
-         */
-
-        int nbrElements = Math.abs( l - r );
-        nbrElements += 1;
-
-        /*
-         *  Determine whether the increment is positive or negative.
-         */
-
-        int delta = ( l >= r ) ? -1 : 1;
-
-        /*
-         * Fill the range with the appropriate values.
-         */
-
-        List elements = new ArrayList(nbrElements);
-        int value = l;
-
-        for (int i = 0; i < nbrElements; i++)
-        {
-            // TODO: JDK 1.4+ -> valueOf()
-            elements.add(new Integer(value));
-            value += delta;
-        }
-
-        return elements;
+        return new IntegerRange(l, r);
     }
 }
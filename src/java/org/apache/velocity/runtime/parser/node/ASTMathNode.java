@@ -81,6 +81,11 @@ public abstract class ASTMathNode extends SimpleNode
      */
     public Object value(InternalContextAdapter context) throws MethodInvocationException
     {
+        if (folded)
+        {
+            return foldedValue;
+        }
+
         Object left = jjtGetChild(0).value(context);
         Object right = jjtGetChild(1).value(context);
 
@@ -132,6 +137,23 @@ public abstract class ASTMathNode extends SimpleNode
         return perform((Number)left, (Number)right, context);
     }
 
+    /**
+     * Folded if both sides are numbers, or if handleSpecial() takes care
+     * of them, since anything else is logged while rendering.
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#isFoldable(org.apache.velocity.context.InternalContextAdapter)
+     */
+    protected boolean isFoldable(InternalContextAdapter context)
+    {
+        if (!childrenAreConstant())
+        {
+            return false;
+        }
+        Object left = jjtGetChild(0).value(context);
+        Object right = jjtGetChild(1).value(context);
+        return (left instanceof Number && right instanceof Number)
+            || handleSpecial(left, right, context) != null;
+    }
+
     /**
      * Extension hook to allow special behavior by subclasses
      * If this method returns a non-null value, that is returned,
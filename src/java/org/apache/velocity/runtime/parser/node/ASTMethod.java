@@ -62,6 +62,11 @@ public class ASTMethod extends SimpleNode
      */
     protected boolean strictRef = false;
 
+    /**
+     * The methods this call found, kept across merges, or null.
+     */
+    private InlineCache inlineCache;
+
     /**
      * @param id
      */
@@ -114,7 +119,10 @@ public class ASTMethod extends SimpleNode
         paramCount = jjtGetNumChildren() - 1;
 
         strictRef = rsvc.getBoolean(RuntimeConstants.RUNTIME_REFERENCES_STRICT, false);
-        
+
+        int inlineCacheSize = rsvc.getInt(RuntimeConstants.INLINE_CACHE_SIZE, 0);
+        inlineCache = inlineCacheSize > 0 ? new InlineCache(inlineCacheSize) : null;
+
         return data;
     }
 
@@ -135,6 +143,8 @@ public class ASTMethod extends SimpleNode
          *  to be thread- as well as context-safe, we *must* do it now,
          *  at execution time.  There can be no in-node caching,
          *  but if we are careful, we can do it in the context.
+         *  (Or in the node after all, if guarded by the classes
+         *  looked up for; see InlineCache.)
          */
 
         VelMethod method = null;
@@ -160,44 +170,71 @@ public class ASTMethod extends SimpleNode
                 }
             }
 
-            /*
-             *   check the cache
-             */
-
-            MethodCacheKey mck = new MethodCacheKey(methodName, paramClasses);
-            IntrospectionCacheData icd =  context.icacheGet( mck );
-
-            /*
-             *  like ASTIdentifier, if we have cache information, and the
-             *  Class of Object o is the same as that in the cache, we are
-             *  safe.
-             */
-
-            if ( icd != null && (o != null && icd.contextData == o.getClass()) )
+            boolean inline = inlineCache != null && o != null;
+            boolean introspected = false;
+            if (inline && !inlineCache.isMegamorphic())
             {
-
                 /*
-                 * get the method from the cache
+                 *  this call keeps its own methods, by the classes of the
+                 *  object and the arguments
                  */
 
-                method = (VelMethod) icd.thingy;
+                method = (VelMethod) inlineCache.get(o.getClass(), paramClasses);
             }
-            else
+
+            if (method == null)
             {
                 /*
-                 *  otherwise, do the introspection, and then
-                 *  cache it
+                 *   check the cache
+                 */
+
+                MethodCacheKey mck = new MethodCacheKey(methodName, paramClasses);
+                IntrospectionCacheData icd =  context.icacheGet( mck );
+
+                /*
+                 *  like ASTIdentifier, if we have cache information, and the
+                 *  Class of Object o is the same as that in the cache, we are
+                 *  safe.
                  */
 
-                method = rsvc.getUberspect().getMethod(o, methodName, params, new Info(getTemplateName(), getLine(), getColumn()));
+                if ( icd != null && (o != null && icd.contextData == o.getClass()) )
+                {
+
+                    /*
+                     * get the method from the cache
+                     */
 
-                if ((method != null) && (o != null))
+                    method = (VelMethod) icd.thingy;
+                }
+                else
                 {
-                    icd = new IntrospectionCacheData();
-                    icd.contextData = o.getClass();
-                    icd.thingy = method;
+                    /*
+                     *  otherwise, do the introspection, and then
+                     *  cache it
+                     */
 
-                    context.icachePut( mck, icd );
+                    method = rsvc.getUberspect().getMethod(o, methodName, params, new Info(getTemplateName(), getLine(), getColumn()));
+                    introspected = true;
+
+                    if ((method != null) && (o != null))
+                    {
+                        icd = new IntrospectionCacheData();
+                        icd.contextData = o.getClass();
+                        icd.thingy = method;
+
+                        context.icachePut( mck, icd );
+                    }
+                }
+
+                /*
+                 *  a megamorphic cache only hears of the classes introspected
+                 *  for, in case they make it stale
+                 */
+
+                if (inline && method != null && method.isCacheable() &&
+                    (introspected || !inlineCache.isMegamorphic()))
+                {
+                    inlineCache.put(o.getClass(), paramClasses, method);
                 }
             }
 
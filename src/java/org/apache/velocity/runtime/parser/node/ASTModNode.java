@@ -75,5 +75,16 @@ public class ASTModNode extends ASTMathNode
         }
         return MathUtils.modulo(left, right);
     }
+
+    /**
+     * A division by zero is left to rendering, which reports it.
+     * @see org.apache.velocity.runtime.parser.node.ASTMathNode#isFoldable(org.apache.velocity.context.InternalContextAdapter)
+     */
+    protected boolean isFoldable(InternalContextAdapter context)
+    {
+        return super.isFoldable(context)
+            && !MathUtils.isZero((Number) jjtGetChild(1).value(context));
+    }
+
 }
 
@@ -66,6 +66,11 @@ public class ASTNENode extends SimpleNode
     public boolean evaluate(  InternalContextAdapter context)
         throws MethodInvocationException
     {
+        if (folded)
+        {
+            return foldedTruth;
+        }
+
         Object left = jjtGetChild(0).value( context );
         Object right = jjtGetChild(1).value( context );
 
@@ -152,4 +157,12 @@ public class ASTNENode extends SimpleNode
         return val ? Boolean.TRUE : Boolean.FALSE;
     }
 
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#isFoldable(org.apache.velocity.context.InternalContextAdapter)
+     */
+    protected boolean isFoldable(InternalContextAdapter context)
+    {
+        return childrenAreConstant();
+    }
+
 }
@@ -60,6 +60,11 @@ public class ASTNotNode extends SimpleNode
     public boolean evaluate( InternalContextAdapter context)
         throws MethodInvocationException
     {
+        if (folded)
+        {
+            return foldedTruth;
+        }
+
         if (jjtGetChild(0).evaluate(context))
             return false;
         else
@@ -72,6 +77,20 @@ public class ASTNotNode extends SimpleNode
     public Object value( InternalContextAdapter context)
         throws MethodInvocationException
     {
+        if (folded)
+        {
+            return foldedValue;
+        }
+
         return (jjtGetChild(0).evaluate( context ) ? Boolean.FALSE : Boolean.TRUE) ;
     }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#isFoldable(org.apache.velocity.context.InternalContextAdapter)
+     */
+    protected boolean isFoldable(InternalContextAdapter context)
+    {
+        return childrenAreConstant();
+    }
+
 }
@@ -223,8 +223,7 @@ public class ASTReference extends SimpleNode
 
         if (result == null && !strictRef)
         {
-            return EventHandlerUtil.invalidGetMethod(rsvc, context, 
-                    "$" + rootString, null, null, uberInfo);
+            return rootMissing(context);
         }
 
         /*
@@ -277,32 +276,7 @@ public class ASTReference extends SimpleNode
                 }
                 else
                 {
-                    StringBuffer name = new StringBuffer("$").append(rootString);
-                    for (int i = 0; i <= failedChild; i++)
-                    {
-                        Node node = jjtGetChild(i);
-                        if (node instanceof ASTMethod)
-                        {
-                            name.append(".").append(((ASTMethod) node).getMethodName()).append("()");
-                        }
-                        else
-                        {
-                            name.append(".").append(node.getFirstToken().image);
-                        }
-                    }
-                    
-                    if (jjtGetChild(failedChild) instanceof ASTMethod)
-                    {
-                        String methodName = ((ASTMethod) jjtGetChild(failedChild)).getMethodName();
-                        result = EventHandlerUtil.invalidMethod(rsvc, context, 
-                                name.toString(), previousResult, methodName, uberInfo);                                                                
-                    }
-                    else
-                    {
-                        String property = jjtGetChild(failedChild).getFirstToken().image;
-                        result = EventHandlerUtil.invalidGetMethod(rsvc, context, 
-                                name.toString(), previousResult, property, uberInfo);                        
-                    }
+                    result = childFailed(context, previousResult, failedChild);
                 }
                 
             }
@@ -316,6 +290,65 @@ public class ASTReference extends SimpleNode
         }
     }
 
+    /**
+     * @return whether a compiled template can work out this reference
+     *         itself, through the steps of {@link #execute(Object, InternalContextAdapter)}
+     */
+    boolean isCompilable()
+    {
+        return referenceType != RUNT && !strictRef;
+    }
+
+    /**
+     * @param context
+     * @return what the reference is when its root isn't in the context
+     * @throws MethodInvocationException
+     */
+    Object rootMissing(InternalContextAdapter context)
+        throws MethodInvocationException
+    {
+        return EventHandlerUtil.invalidGetMethod(rsvc, context,
+                "$" + rootString, null, null, uberInfo);
+    }
+
+    /**
+     * @param context
+     * @param previousResult what the child was called on
+     * @param failedChild the child that came back with null
+     * @return what the reference is when a child came back with null
+     * @throws MethodInvocationException
+     */
+    Object childFailed(InternalContextAdapter context, Object previousResult, int failedChild)
+        throws MethodInvocationException
+    {
+        StringBuffer name = new StringBuffer("$").append(rootString);
+        for (int i = 0; i <= failedChild; i++)
+        {
+            Node node = jjtGetChild(i);
+            if (node instanceof ASTMethod)
+            {
+                name.append(".").append(((ASTMethod) node).getMethodName()).append("()");
+            }
+            else
+            {
+                name.append(".").append(node.getFirstToken().image);
+            }
+        }
+
+        if (jjtGetChild(failedChild) instanceof ASTMethod)
+        {
+            String methodName = ((ASTMethod) jjtGetChild(failedChild)).getMethodName();
+            return EventHandlerUtil.invalidMethod(rsvc, context,
+                    name.toString(), previousResult, methodName, uberInfo);
+        }
+        else
+        {
+            String property = jjtGetChild(failedChild).getFirstToken().image;
+            return EventHandlerUtil.invalidGetMethod(rsvc, context,
+                    name.toString(), previousResult, property, uberInfo);
+        }
+    }
+
     /**
      *  gets the value of the reference and outputs it to the
      *  writer.
@@ -339,8 +372,16 @@ public class ASTReference extends SimpleNode
             return true;
         }
 
-        Object value = execute(null, context);
+        return renderValue(context, writer, execute(null, context));
+    }
 
+    /**
+     * Outputs the value of the reference, as worked out by
+     * {@link #execute(Object, InternalContextAdapter)}.
+     */
+    boolean renderValue(InternalContextAdapter context, Writer writer, Object value)
+        throws IOException, MethodInvocationException
+    {
         String localNullString = null;
 
         /*
@@ -381,6 +422,57 @@ public class ASTReference extends SimpleNode
 
         value = EventHandlerUtil.referenceInsert(rsvc, context, literal(), value);
 
+        return renderInserted(context, writer, value);
+    }
+
+    /**
+     * Works out the text this reference renders to, like
+     * {@link #render(InternalContextAdapter, Writer)} but without a writer
+     * for the common case of a plain value, as needed by string literals.
+     * Other cases are rendered to the writer.
+     *
+     * @param context
+     * @param writer where the text goes if it isn't returned
+     * @return The text, or null if it went to the writer.
+     * @throws IOException
+     * @throws MethodInvocationException
+     * @since 1.6.4
+     */
+    String renderToString(InternalContextAdapter context, Writer writer)
+        throws IOException, MethodInvocationException
+    {
+        if (referenceType == RUNT || escaped)
+        {
+            render(context, writer);
+            return null;
+        }
+
+        Object value = execute(null, context);
+        value = EventHandlerUtil.referenceInsert(rsvc, context, literal(), value);
+
+        if (value != null && !(value instanceof Renderable)
+            && escPrefix.length() == 0 && morePrefix.length() == 0
+            && context.getAllowRendering())
+        {
+            String toString = value.toString();
+            if (toString != null)
+            {
+                return toString;
+            }
+            renderNull(context, writer);
+            return null;
+        }
+
+        renderInserted(context, writer, value);
+        return null;
+    }
+
+    /**
+     * Renders the value once the event handlers had it.
+     */
+    private boolean renderInserted(InternalContextAdapter context, Writer writer, Object value)
+        throws IOException, MethodInvocationException
+    {
         String toString = null;
         if (value != null)
         {
@@ -395,26 +487,7 @@ public class ASTReference extends SimpleNode
 
         if (value == null || toString == null)
         {
-            /*
-             * write prefix twice, because it's schmoo, so the \ don't escape each other...
-             */
-
-            if (context.getAllowRendering())
-            {
-                localNullString = getNullString(context);
-
-                writer.write(escPrefix);
-                writer.write(escPrefix);
-                writer.write(morePrefix);
-                writer.write(localNullString);
-            }
-
-            if (logOnNull && referenceType != QUIET_REFERENCE && log.isDebugEnabled())
-            {
-                log.debug("Null reference [template '" + getTemplateName()
-                        + "', line " + this.getLine() + ", column " + this.getColumn() + "] : "
-                        + this.literal() + " cannot be resolved.");
-            }
+            renderNull(context, writer);
             return true;
         }
         else
@@ -434,6 +507,34 @@ public class ASTReference extends SimpleNode
         }
     }
 
+    /**
+     * Renders the reference itself, as its value is null.
+     */
+    private void renderNull(InternalContextAdapter context, Writer writer)
+        throws IOException
+    {
+        /*
+         * write prefix twice, because it's schmoo, so the \ don't escape each other...
+         */
+
+        if (context.getAllowRendering())
+        {
+            String localNullString = getNullString(context);
+
+            writer.write(escPrefix);
+            writer.write(escPrefix);
+            writer.write(morePrefix);
+            writer.write(localNullString);
+        }
+
+        if (logOnNull && referenceType != QUIET_REFERENCE && log.isDebugEnabled())
+        {
+            log.debug("Null reference [template '" + getTemplateName()
+                    + "', line " + this.getLine() + ", column " + this.getColumn() + "] : "
+                    + this.literal() + " cannot be resolved.");
+        }
+    }
+
     /**
      * This method helps to implement the "render literal if null" functionality.
      * 
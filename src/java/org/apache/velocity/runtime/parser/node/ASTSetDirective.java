@@ -240,4 +240,13 @@ public class ASTSetDirective extends SimpleNode
     {
         return jjtGetChild(1);
     }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#keepsLiteral()
+     */
+    protected boolean keepsLiteral()
+    {
+        return false;
+    }
+
 }
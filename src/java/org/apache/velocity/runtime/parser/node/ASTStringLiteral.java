@@ -20,6 +20,9 @@ package org.apache.velocity.runtime.parser.node;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.lang.text.StrBuilder;
 import org.apache.velocity.context.InternalContextAdapter;
@@ -56,6 +59,12 @@ public class ASTStringLiteral extends SimpleNode
     /** true if the string contains a line comment (##) */
     private boolean containsLineComment;
 
+    /**
+     * the interpolated string as Strings and ASTReferences to put together,
+     * without the trailing space; null if the tree has to be rendered
+     */
+    private Object[] parts;
+
     /**
      * @param id
      */
@@ -181,10 +190,62 @@ public class ASTStringLiteral extends SimpleNode
              */
 
             nodeTree.init(context, rsvc);
+
+            parts = plan(nodeTree);
         }
 
         return data;
     }
+
+    /**
+     * Splits the interpolated string into text and references, if that is
+     * all it is made of, dropping the space tacked on for the parser.
+     *
+     * @return the parts, or null if the tree has to be rendered as a whole
+     */
+    private Object[] plan(Node tree)
+    {
+        List list = new ArrayList(tree.jjtGetNumChildren());
+        StrBuilder text = new StrBuilder();
+
+        for (int i = 0; i < tree.jjtGetNumChildren(); i++)
+        {
+            Node child = tree.jjtGetChild(i);
+            if (child instanceof ASTText)
+            {
+                text.append(((ASTText) child).getCharacters());
+            }
+            else if (child instanceof ASTReference)
+            {
+                if (text.length() > 0)
+                {
+                    list.add(text.toString());
+                    text.clear();
+                }
+                list.add(child);
+            }
+            else
+            {
+                return null;
+            }
+        }
+
+        if (!containsLineComment)
+        {
+            /* the space has to come from the last text, or it's not that simple */
+            if (text.length() == 0 || text.charAt(text.length() - 1) != ' ')
+            {
+                return null;
+            }
+            text.setLength(text.length() - 1);
+        }
+        if (text.length() > 0)
+        {
+            list.add(text.toString());
+        }
+
+        return list.toArray();
+    }
     
     /**
      * Adjust all the line and column numbers that comprise a node so that they
@@ -282,6 +343,11 @@ public class ASTStringLiteral extends SimpleNode
         {
             try
             {
+                if (parts != null && context.getAllowRendering())
+                {
+                    return concatenate(context);
+                }
+
                 /*
                  * now render against the real context
                  */
@@ -333,4 +399,62 @@ public class ASTStringLiteral extends SimpleNode
 
         return image;
     }
+
+    /**
+     * Puts the parts together in a new builder, or returns the String of
+     * a single reference or text as it is.  The builder isn't kept in a
+     * ThreadLocal, which would keep the class loader of the application
+     * alive in pooled threads.
+     */
+    private String concatenate(InternalContextAdapter context) throws IOException
+    {
+        if (parts.length == 0)
+        {
+            return "";
+        }
+        if (parts.length == 1 && parts[0] instanceof String)
+        {
+            return (String) parts[0];
+        }
+
+        StrBuilder sb = new StrBuilder();
+        Writer writer = sb.asWriter();
+
+        if (parts.length == 1)
+        {
+            String value = ((ASTReference) parts[0]).renderToString(context, writer);
+            return (value != null) ? value : sb.toString();
+        }
+
+        for (int i = 0; i < parts.length; i++)
+        {
+            if (parts[i] instanceof String)
+            {
+                sb.append((String) parts[i]);
+            }
+            else
+            {
+                String value = ((ASTReference) parts[i]).renderToString(context, writer);
+                if (value != null)
+                {
+                    sb.append(value);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Lets the interpolated string go of its tokens too.
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#dropTokens()
+     */
+    protected void dropTokens()
+    {
+        super.dropTokens();
+        if (nodeTree != null)
+        {
+            nodeTree.compact();
+        }
+    }
+
 }
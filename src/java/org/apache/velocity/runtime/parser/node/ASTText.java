@@ -24,6 +24,7 @@ import java.io.Writer;
 
 import org.apache.velocity.context.InternalContextAdapter;
 import org.apache.velocity.exception.TemplateInitException;
+import org.apache.velocity.io.StaticText;
 import org.apache.velocity.runtime.parser.Parser;
 import org.apache.velocity.runtime.parser.Token;
 
@@ -32,7 +33,7 @@ import org.apache.velocity.runtime.parser.Token;
  */
 public class ASTText extends SimpleNode
 {
-    private char[] ctext;
+    private StaticText text;
 
     /**
      * @param id
@@ -69,7 +70,7 @@ public class ASTText extends SimpleNode
 
         String text = NodeUtils.tokenLiteral( t );
 
-        ctext = text.toCharArray();
+        this.text = new StaticText(text.toCharArray());
 
         return data;
     }
@@ -82,15 +83,25 @@ public class ASTText extends SimpleNode
     {
         if (context.getAllowRendering())
         {
-            writer.write(ctext);
+            text.write(writer);
         }
         return true;
     }
-}
-
-
-
-
 
+    /**
+     * @return the characters this node renders, or null before init()
+     */
+    char[] getCharacters()
+    {
+        return (text == null) ? null : text.getChars();
+    }
 
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#keepsLiteral()
+     */
+    protected boolean keepsLiteral()
+    {
+        return false;
+    }
 
+}
@@ -69,4 +69,13 @@ public class ASTTrue extends SimpleNode
     {
         return value;
     }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#isConstant()
+     */
+    public boolean isConstant()
+    {
+        return true;
+    }
+
 }
@@ -19,6 +19,8 @@ package org.apache.velocity.runtime.parser.node;
  * under the License.    
  */
 
+import java.util.Map;
+
 import org.apache.velocity.runtime.parser.Parser;
 
 /**
@@ -26,6 +28,9 @@ import org.apache.velocity.runtime.parser.Parser;
  */
 public class ASTprocess extends SimpleNode
 {
+    private Map directiveLookups;
+    private Map velocimacroLookups;
+
     /**
      * @param id
      */
@@ -50,4 +55,47 @@ public class ASTprocess extends SimpleNode
     {
         return visitor.visit(this, data);
     }
+
+    /**
+     * Called by the parser with the directive and Velocimacro names it
+     * looked up while building this tree, each mapped to a Boolean
+     * telling whether the name resolved (or null if it resolved both
+     * ways during the parse).
+     *
+     * @param directiveLookups directive names, may be null
+     * @param velocimacroLookups Velocimacro names, may be null
+     * @since 1.6.4
+     */
+    public void setResolvedNames(Map directiveLookups, Map velocimacroLookups)
+    {
+        this.directiveLookups = directiveLookups;
+        this.velocimacroLookups = velocimacroLookups;
+    }
+
+    /**
+     * @return the directive names looked up while parsing, or null
+     * @since 1.6.4
+     */
+    public Map getDirectiveLookups()
+    {
+        return directiveLookups;
+    }
+
+    /**
+     * @return the Velocimacro names looked up while parsing, or null
+     * @since 1.6.4
+     */
+    public Map getVelocimacroLookups()
+    {
+        return velocimacroLookups;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.parser.node.SimpleNode#keepsLiteral()
+     */
+    protected boolean keepsLiteral()
+    {
+        return false;
+    }
+
 }
@@ -0,0 +1,216 @@
+package org.apache.velocity.runtime.parser.node;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.velocity.context.InternalContextAdapter;
+import org.apache.velocity.exception.MethodInvocationException;
+import org.apache.velocity.exception.ParseErrorException;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.io.StaticText;
+import org.apache.velocity.runtime.Renderable;
+import org.apache.velocity.runtime.log.Log;
+
+/**
+ * A template compiled into a class of its own.  The subclasses are
+ * generated by {@link TemplateCompiler}: their {@link #run} is
+ * straight-line code for the static text, the <code>#if</code> chains
+ * and the references of the template, and calls the nodes of everything
+ * else, which the interpreter renders as before.
+ *
+ * <p>A reference like <code>$a.b.c()</code> becomes a lookup of
+ * <code>$a</code> and a call per step, each followed by a check for null;
+ * a null goes to the same event handlers and output as in
+ * {@link ASTReference#execute}, as do references that are escaped or
+ * quiet.  References in strict mode are left to their node.</p>
+ *
+ * <p>The generated code only calls the protected methods here, by the
+ * index of the text or node they are for.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public abstract class CompiledTemplate implements Renderable
+{
+    private StaticText[] texts;
+
+    private Node[] nodes;
+
+    /**
+     * Compiles an initialized AST.
+     *
+     * @param root the root of an initialized node tree
+     * @param log log to report compilation failures to
+     * @return the compiled template, or null if the tree could not be
+     *         compiled and should be interpreted
+     */
+    public static CompiledTemplate compile(Node root, Log log)
+    {
+        return TemplateCompiler.compile(root, log);
+    }
+
+    /**
+     * Called once, by the compiler, before the template is used.
+     */
+    final void setup(StaticText[] texts, Node[] nodes)
+    {
+        this.texts = texts;
+        this.nodes = nodes;
+    }
+
+    /**
+     * @return the number of runs of static text the template writes
+     */
+    public int getTextCount()
+    {
+        return texts.length;
+    }
+
+    /**
+     * @return the number of nodes the template calls, for conditions,
+     *         references or rendering
+     */
+    public int getNodeCount()
+    {
+        return nodes.length;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.Renderable#render(org.apache.velocity.context.InternalContextAdapter, java.io.Writer)
+     */
+    public boolean render(InternalContextAdapter context, Writer writer)
+        throws IOException, MethodInvocationException, ParseErrorException, ResourceNotFoundException
+    {
+        run(context, writer);
+        return true;
+    }
+
+    /**
+     * Renders the template.
+     *
+     * @param context
+     * @param writer
+     * @throws IOException
+     * @throws MethodInvocationException
+     * @throws ParseErrorException
+     * @throws ResourceNotFoundException
+     */
+    protected abstract void run(InternalContextAdapter context, Writer writer)
+        throws IOException, MethodInvocationException, ParseErrorException, ResourceNotFoundException;
+
+    /**
+     * Writes a run of static text, if rendering is allowed.
+     */
+    protected final void text(InternalContextAdapter context, Writer writer, int text)
+        throws IOException
+    {
+        if (context.getAllowRendering())
+        {
+            texts[text].write(writer);
+        }
+    }
+
+    /**
+     * Lets a node render itself.
+     */
+    protected final void node(InternalContextAdapter context, Writer writer, int node)
+        throws IOException, MethodInvocationException, ParseErrorException, ResourceNotFoundException
+    {
+        nodes[node].render(context, writer);
+    }
+
+    /**
+     * @return what a condition evaluates to
+     */
+    protected final boolean test(InternalContextAdapter context, int node)
+        throws MethodInvocationException
+    {
+        return nodes[node].evaluate(context);
+    }
+
+    /**
+     * @return the value of the root of a reference, or null
+     */
+    protected final Object root(InternalContextAdapter context, int node)
+        throws MethodInvocationException
+    {
+        ASTReference reference = (ASTReference) nodes[node];
+        return reference.getVariableValue(context, reference.getRootString());
+    }
+
+    /**
+     * @return what a step of a reference comes to, or null
+     */
+    protected final Object step(Object o, InternalContextAdapter context, int node, int child)
+        throws MethodInvocationException
+    {
+        try
+        {
+            return nodes[node].jjtGetChild(child).execute(o, context);
+        }
+        catch (MethodInvocationException mie)
+        {
+            mie.setReferenceName(((ASTReference) nodes[node]).getRootString());
+            throw mie;
+        }
+    }
+
+    /**
+     * Outputs the value a reference came to.
+     */
+    protected final void value(InternalContextAdapter context, Writer writer, int node, Object value)
+        throws IOException, MethodInvocationException
+    {
+        ((ASTReference) nodes[node]).renderValue(context, writer, value);
+    }
+
+    /**
+     * Outputs a reference whose root isn't in the context.
+     */
+    protected final void missing(InternalContextAdapter context, Writer writer, int node)
+        throws IOException, MethodInvocationException
+    {
+        ASTReference reference = (ASTReference) nodes[node];
+        reference.renderValue(context, writer, reference.rootMissing(context));
+    }
+
+    /**
+     * Outputs a reference one of whose steps came to null.
+     */
+    protected final void failed(InternalContextAdapter context, Writer writer, int node,
+                                Object previous, int child)
+        throws IOException, MethodInvocationException
+    {
+        ASTReference reference = (ASTReference) nodes[node];
+        Object value;
+        try
+        {
+            value = reference.childFailed(context, previous, child);
+        }
+        catch (MethodInvocationException mie)
+        {
+            mie.setReferenceName(reference.getRootString());
+            throw mie;
+        }
+        reference.renderValue(context, writer, value);
+    }
+}
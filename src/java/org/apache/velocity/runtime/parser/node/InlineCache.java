@@ -0,0 +1,195 @@
+package org.apache.velocity.runtime.parser.node;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.ref.WeakReference;
+
+/**
+ * The introspection results of one method call or property access in a
+ * template, kept on its node across merges.  Each result is guarded by
+ * the class of the object it was looked up for and, for methods, by the
+ * classes of the arguments.  What isn't kept here is looked for in the
+ * cache of the context as before, and kept here once found.  Once a node
+ * has seen more receivers than the cache holds, it is megamorphic: it
+ * drops its results, and the node only uses the cache of the context.
+ *
+ * <p>The receiver classes are held weakly.  The results reach their
+ * classes, though, so a class goes stale rather than away: when a class
+ * turns up with the name of a receiver but from another class loader, as
+ * when a web application is reloaded, or a receiver has been collected,
+ * the cache is cleared and armed again, megamorphic or not.  The node
+ * lets it know of each class it had to introspect for, so a megamorphic
+ * cache still sees the new classes.</p>
+ *
+ * <p>Lookups don't lock.  The entries are never changed, only replaced
+ * by a longer copy; two threads adding at once may lose one of the
+ * entries, which is then just looked up again.</p>
+ *
+ * @see org.apache.velocity.runtime.RuntimeConstants#INLINE_CACHE_SIZE
+ * @version $Id$
+ * @since 1.6.4
+ */
+final class InlineCache
+{
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private final int maxEntries;
+
+    /** the results, or once megamorphic the receivers seen, without results */
+    private volatile Entry[] entries = EMPTY;
+
+    private volatile boolean megamorphic = false;
+
+    /**
+     * @param maxEntries how many receivers to keep results for
+     */
+    InlineCache(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return true if the node has seen too many receivers for this cache
+     */
+    boolean isMegamorphic()
+    {
+        return megamorphic;
+    }
+
+    /**
+     * @param receiver the class of the object
+     * @param argumentClasses the classes of the arguments, null elements
+     *        for null arguments; null for property access
+     * @return the result kept for them, or null
+     */
+    Object get(Class receiver, Class[] argumentClasses)
+    {
+        Entry[] entries = this.entries;
+        for (int i = 0; i < entries.length; i++)
+        {
+            Entry entry = entries[i];
+            if (entry.get() == receiver && entry.matches(argumentClasses))
+            {
+                return entry.thingy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps a result, or makes the cache megamorphic if it is full.  A
+     * megamorphic cache only checks whether the receiver makes it stale.
+     *
+     * @param receiver the class of the object
+     * @param argumentClasses the classes of the arguments, null elements
+     *        for null arguments; null for property access
+     * @param thingy the result
+     */
+    void put(Class receiver, Class[] argumentClasses, Object thingy)
+    {
+        Entry[] entries = this.entries;
+        if (isStale(entries, receiver))
+        {
+            this.entries = new Entry[] { new Entry(receiver, argumentClasses, thingy) };
+            megamorphic = false;
+            return;
+        }
+        if (megamorphic)
+        {
+            return;
+        }
+
+        if (entries.length >= maxEntries)
+        {
+            /*
+             * keep the receivers, to tell when they go stale, but
+             * not the results: those would keep the classes
+             */
+            Entry[] seen = new Entry[entries.length + 1];
+            for (int i = 0; i < entries.length; i++)
+            {
+                seen[i] = new Entry((Class) entries[i].get(), null, null);
+            }
+            seen[entries.length] = new Entry(receiver, null, null);
+            megamorphic = true;
+            this.entries = seen;
+            return;
+        }
+
+        Entry[] more = new Entry[entries.length + 1];
+        System.arraycopy(entries, 0, more, 0, entries.length);
+        more[entries.length] = new Entry(receiver, argumentClasses, thingy);
+        this.entries = more;
+    }
+
+    /**
+     * @return true if a receiver has been collected, or has the name of
+     *         the receiver but is another class
+     */
+    private static boolean isStale(Entry[] entries, Class receiver)
+    {
+        for (int i = 0; i < entries.length; i++)
+        {
+            Class kept = (Class) entries[i].get();
+            if (kept == null ||
+                (kept != receiver && kept.getName().equals(receiver.getName())))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A result, held with a weak reference to its receiver.
+     */
+    private static final class Entry extends WeakReference
+    {
+        final Class[] argumentClasses;
+        final Object thingy;
+
+        Entry(Class receiver, Class[] argumentClasses, Object thingy)
+        {
+            super(receiver);
+            this.argumentClasses = argumentClasses;
+            this.thingy = thingy;
+        }
+
+        boolean matches(Class[] classes)
+        {
+            if (argumentClasses == null || classes == null)
+            {
+                return argumentClasses == classes;
+            }
+            if (argumentClasses.length != classes.length)
+            {
+                return false;
+            }
+            for (int i = 0; i < classes.length; i++)
+            {
+                if (argumentClasses[i] != classes[i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package org.apache.velocity.runtime.parser.node;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.velocity.runtime.parser.Token;
+
+/**
+ * Writes a freshly parsed (not yet initialized) AST to a binary stream
+ * and reads it back, so that a template can be rebuilt without going
+ * through the lexer and parser again.
+ *
+ * <p>The token stream is written as a flat table and nodes refer to
+ * tokens by index, so arbitrarily long token chains don't recurse.
+ * Only what the parser itself sets on a node is kept: node class and
+ * id, first and last token, children, template name and the few
+ * node specific values (directive names, escape prefixes).  Everything
+ * else is computed by <code>init()</code> as usual.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public final class NodeSerializer
+{
+    /** package all node classes have to be in */
+    private static final String NODE_PACKAGE = SimpleNode.class.getName().substring(0,
+                    SimpleNode.class.getName().lastIndexOf('.') + 1);
+
+    /** longest string handed to writeUTF in one go */
+    private static final int CHUNK = 16384;
+
+    private NodeSerializer()
+    {
+    }
+
+    /**
+     * Writes a tree that came straight out of the parser.
+     *
+     * @param root the root of the tree
+     * @param out where to write it to
+     * @throws IOException if writing fails
+     */
+    public static void write(SimpleNode root, DataOutput out)
+        throws IOException
+    {
+        /*
+         * number all tokens reachable from the tree
+         */
+        Map index = new IdentityHashMap();
+        List tokens = new ArrayList();
+        List pending = new ArrayList();
+        collectTokens(root, pending);
+
+        while (!pending.isEmpty())
+        {
+            Token t = (Token) pending.remove(pending.size() - 1);
+            if (t == null || index.containsKey(t))
+            {
+                continue;
+            }
+            index.put(t, new Integer(tokens.size()));
+            tokens.add(t);
+            pending.add(t.next);
+            pending.add(t.specialToken);
+        }
+
+        out.writeInt(tokens.size());
+        for (int i = 0; i < tokens.size(); i++)
+        {
+            Token t = (Token) tokens.get(i);
+            out.writeInt(t.kind);
+            out.writeInt(t.beginLine);
+            out.writeInt(t.beginColumn);
+            out.writeInt(t.endLine);
+            out.writeInt(t.endColumn);
+            writeString(t.image, out);
+            out.writeInt(indexOf(t.next, index));
+            out.writeInt(indexOf(t.specialToken, index));
+        }
+
+        writeString(root.templateName, out);
+        writeNode(root, index, out);
+    }
+
+    /**
+     * Reads a tree written by {@link #write(SimpleNode, DataOutput)}.
+     * The result needs to be initialized like any freshly parsed tree.
+     *
+     * @param in where to read from
+     * @return the root of the tree
+     * @throws IOException if the data can't be read or is not a tree
+     */
+    public static SimpleNode read(DataInput in)
+        throws IOException
+    {
+        int count = in.readInt();
+        if (count < 0)
+        {
+            throw new IOException("Invalid token count " + count);
+        }
+
+        Token[] tokens = new Token[count];
+        int[] next = new int[count];
+        int[] special = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            Token t = Token.newToken(in.readInt());
+            t.beginLine = in.readInt();
+            t.beginColumn = in.readInt();
+            t.endLine = in.readInt();
+            t.endColumn = in.readInt();
+            t.image = readString(in);
+            next[i] = in.readInt();
+            special[i] = in.readInt();
+            tokens[i] = t;
+        }
+        for (int i = 0; i < count; i++)
+        {
+            tokens[i].next = tokenAt(tokens, next[i]);
+            tokens[i].specialToken = tokenAt(tokens, special[i]);
+        }
+
+        String templateName = readString(in);
+        return readNode(in, tokens, templateName, new HashMap());
+    }
+
+    private static void collectTokens(SimpleNode node, List pending)
+    {
+        pending.add(node.first);
+        pending.add(node.last);
+        for (int i = 0, k = node.jjtGetNumChildren(); i < k; i++)
+        {
+            collectTokens((SimpleNode) node.jjtGetChild(i), pending);
+        }
+    }
+
+    private static int indexOf(Token t, Map index)
+    {
+        return (t == null) ? -1 : ((Integer) index.get(t)).intValue();
+    }
+
+    private static Token tokenAt(Token[] tokens, int i)
+        throws IOException
+    {
+        if (i == -1)
+        {
+            return null;
+        }
+        if (i < 0 || i >= tokens.length)
+        {
+            throw new IOException("Invalid token reference " + i);
+        }
+        return tokens[i];
+    }
+
+    private static void writeNode(SimpleNode node, Map index, DataOutput out)
+        throws IOException
+    {
+        out.writeUTF(node.getClass().getName());
+        out.writeInt(node.id);
+        out.writeInt(indexOf(node.first, index));
+        out.writeInt(indexOf(node.last, index));
+
+        if (node instanceof ASTDirective)
+        {
+            writeString(((ASTDirective) node).getDirectiveName(), out);
+        }
+        else if (node instanceof ASTEscape)
+        {
+            writeString(((ASTEscape) node).val, out);
+        }
+
+        int k = node.jjtGetNumChildren();
+        out.writeInt(k);
+        for (int i = 0; i < k; i++)
+        {
+            writeNode((SimpleNode) node.jjtGetChild(i), index, out);
+        }
+    }
+
+    private static SimpleNode readNode(DataInput in, Token[] tokens,
+                                       String templateName, Map constructors)
+        throws IOException
+    {
+        String className = in.readUTF();
+        int id = in.readInt();
+
+        SimpleNode node = newNode(className, id, constructors);
+        node.first = tokenAt(tokens, in.readInt());
+        node.last = tokenAt(tokens, in.readInt());
+        node.templateName = templateName;
+
+        if (node instanceof ASTDirective)
+        {
+            ((ASTDirective) node).setDirectiveName(readString(in));
+        }
+        else if (node instanceof ASTEscape)
+        {
+            ((ASTEscape) node).val = readString(in);
+        }
+
+        int k = in.readInt();
+        if (k < 0)
+        {
+            throw new IOException("Invalid child count " + k);
+        }
+        if (k > 0)
+        {
+            node.children = new Node[k];
+        }
+        for (int i = 0; i < k; i++)
+        {
+            SimpleNode child = readNode(in, tokens, templateName, constructors);
+            child.jjtSetParent(node);
+            node.jjtAddChild(child, i);
+        }
+        return node;
+    }
+
+    private static SimpleNode newNode(String className, int id, Map constructors)
+        throws IOException
+    {
+        try
+        {
+            Constructor ctor = (Constructor) constructors.get(className);
+            if (ctor == null)
+            {
+                Class c = Class.forName(className);
+                if (!className.startsWith(NODE_PACKAGE) ||
+                    !SimpleNode.class.isAssignableFrom(c))
+                {
+                    throw new IOException(className + " is not an AST node class");
+                }
+                ctor = c.getConstructor(new Class[] { Integer.TYPE });
+                constructors.put(className, ctor);
+            }
+            return (SimpleNode) ctor.newInstance(new Object[] { new Integer(id) });
+        }
+        catch (IOException ioe)
+        {
+            throw ioe;
+        }
+        catch (Exception e)
+        {
+            throw new IOException("Could not create AST node " + className + " : " + e);
+        }
+    }
+
+    private static void writeString(String s, DataOutput out)
+        throws IOException
+    {
+        if (s == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+
+        /* writeUTF can't take more than 64k of encoded bytes at once */
+        int length = s.length();
+        out.writeInt(length);
+        for (int i = 0; i < length; i += CHUNK)
+        {
+            out.writeUTF(s.substring(i, Math.min(length, i + CHUNK)));
+        }
+    }
+
+    private static String readString(DataInput in)
+        throws IOException
+    {
+        int length = in.readInt();
+        if (length == -1)
+        {
+            return null;
+        }
+        if (length <= CHUNK)
+        {
+            return in.readUTF();
+        }
+
+        StringBuffer sb = new StringBuffer(length);
+        while (sb.length() < length)
+        {
+            sb.append(in.readUTF());
+        }
+        return sb.toString();
+    }
+}
@@ -29,6 +29,8 @@ import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.exception.TemplateInitException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
 import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.log.Log;
 import org.apache.velocity.runtime.parser.Parser;
@@ -76,6 +78,25 @@ public class SimpleNode implements Node
     
     protected String templateName;
 
+    /** the literal of this node, worked out before its tokens were let go of */
+    private String keptLiteral;
+
+    /** true once the tokens of this node were let go of */
+    private boolean compacted = false;
+
+    /**
+     * True if value() and evaluate() were worked out at init, since
+     * they are the same for any context.  Nodes that can be folded
+     * return {@link #foldedValue} and {@link #foldedTruth} then.
+     */
+    protected boolean folded = false;
+
+    /** value() of a folded node */
+    protected Object foldedValue = null;
+
+    /** evaluate() of a folded node */
+    protected boolean foldedTruth = false;
+
     /**
      * @param i
      */
@@ -266,6 +287,12 @@ public class SimpleNode implements Node
      */
     public String literal()
     {
+        // the tokens were let go of, see compact()
+        if (compacted)
+        {
+            return (keptLiteral != null) ? keptLiteral : first.image;
+        }
+
         // if we have only one string, just return it and avoid
         // buffer allocation. VELOCITY-606
         if (first == last)
@@ -283,6 +310,106 @@ public class SimpleNode implements Node
         return sb.toString();
     }
 
+    /**
+     * Lets go of the token chain below this node, once the node is
+     * initialized.  Each node only keeps its first and last tokens, with
+     * their images, lines and columns, but without the tokens that follow
+     * them.  Literals that may be asked for while rendering are worked out
+     * before.  This is what <code>runtime.compact.ast</code> does to
+     * templates.
+     * @since 1.6.4
+     */
+    public void compact()
+    {
+        if (!compacted)
+        {
+            keepLiterals();
+            dropTokens();
+        }
+    }
+
+    /**
+     * Works out the literals of this node and the nodes below it, while
+     * the tokens are still there.
+     * @since 1.6.4
+     */
+    protected void keepLiterals()
+    {
+        if (keepsLiteral())
+        {
+            keptLiteral = literal();
+        }
+
+        if (compactsChildren())
+        {
+            int k = jjtGetNumChildren();
+            for (int i = 0; i < k; i++)
+            {
+                Node child = jjtGetChild(i);
+                if (child instanceof SimpleNode)
+                {
+                    ((SimpleNode) child).keepLiterals();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cuts the tokens of this node and the nodes below it off from the
+     * rest of the chain.
+     * @since 1.6.4
+     */
+    protected void dropTokens()
+    {
+        cut(first);
+        cut(last);
+        parser = null;
+        compacted = true;
+
+        if (compactsChildren())
+        {
+            int k = jjtGetNumChildren();
+            for (int i = 0; i < k; i++)
+            {
+                Node child = jjtGetChild(i);
+                if (child instanceof SimpleNode)
+                {
+                    ((SimpleNode) child).dropTokens();
+                }
+            }
+        }
+    }
+
+    private static void cut(Token t)
+    {
+        if (t != null)
+        {
+            t.next = null;
+            t.specialToken = null;
+        }
+    }
+
+    /**
+     * @return Whether literal() may be asked for once the tokens are gone.
+     *         Nodes that are only rendered answer false, and literal() then
+     *         only gives the image of their first token.
+     * @since 1.6.4
+     */
+    protected boolean keepsLiteral()
+    {
+        return true;
+    }
+
+    /**
+     * @return Whether the nodes below this one may let go of their tokens
+     *         too, i.e. whether they were initialized along with it.
+     * @since 1.6.4
+     */
+    protected boolean compactsChildren()
+    {
+        return true;
+    }
+
     /**
      * @throws TemplateInitException 
      * @see org.apache.velocity.runtime.parser.node.Node#init(org.apache.velocity.context.InternalContextAdapter, java.lang.Object)
@@ -303,9 +430,88 @@ public class SimpleNode implements Node
             jjtGetChild(i).init( context, data);
         }
 
+        if (foldsConstants() && isFoldable(context))
+        {
+            fold(context);
+        }
+
         return data;
     }
 
+    /**
+     * @return Whether constant expressions are folded at init, see
+     *         {@link RuntimeConstants#FOLD_CONSTANTS}.
+     * @since 1.6.4
+     */
+    protected boolean foldsConstants()
+    {
+        if (rsvc instanceof RuntimeInstance)
+        {
+            return ((RuntimeInstance) rsvc).isFoldingConstants();
+        }
+        return rsvc.getBoolean(RuntimeConstants.FOLD_CONSTANTS, false);
+    }
+
+    /**
+     * @return Whether value() and evaluate() of this node are the same
+     *         for any context, once it is initialized.
+     * @since 1.6.4
+     */
+    public boolean isConstant()
+    {
+        return folded;
+    }
+
+    /**
+     * Tells whether value() and evaluate() of this node may be worked
+     * out once at init.  Nodes that can be folded answer true if all of
+     * their children are constant, and rendering would neither log nor
+     * throw, so that folding doesn't change what happens.
+     *
+     * @param context the context the node is initialized with
+     * @return false, unless overridden
+     * @since 1.6.4
+     */
+    protected boolean isFoldable(InternalContextAdapter context)
+    {
+        return false;
+    }
+
+    /**
+     * @return Whether all children of this node are constant.
+     * @since 1.6.4
+     */
+    protected boolean childrenAreConstant()
+    {
+        int k = jjtGetNumChildren();
+        for (int i = 0; i < k; i++)
+        {
+            Node child = jjtGetChild(i);
+            if (!(child instanceof SimpleNode) || !((SimpleNode) child).isConstant())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void fold(InternalContextAdapter context)
+    {
+        try
+        {
+            Object value = value(context);
+            boolean truth = evaluate(context);
+
+            foldedValue = value;
+            foldedTruth = truth;
+            folded = true;
+        }
+        catch (RuntimeException e)
+        {
+            /* leave it to rendering to report */
+        }
+    }
+
     /**
      * @see org.apache.velocity.runtime.parser.node.Node#evaluate(org.apache.velocity.context.InternalContextAdapter)
      */
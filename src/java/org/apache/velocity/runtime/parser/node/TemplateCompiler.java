@@ -0,0 +1,574 @@
+package org.apache.velocity.runtime.parser.node;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.velocity.io.StaticText;
+import org.apache.velocity.runtime.log.Log;
+import org.apache.velocity.util.ClassFile;
+
+/**
+ * Generates the {@link CompiledTemplate} subclass of one initialized AST.
+ * The tree is walked once: runs of static text become a single call
+ * each, blocks are flattened, <code>#if/#elseif/#else</code> chains
+ * become conditional jumps and references become the steps of
+ * {@link ASTReference#execute}, with a jump out for each null.  Every
+ * other node is called to render itself.
+ *
+ * <p>The code goes into methods of at most {@link #MAX_PART} bytes, so
+ * that the jumps stay within reach.  If a template can't be compiled,
+ * for whatever reason, it is interpreted as before.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+final class TemplateCompiler
+{
+    private static final String BASE = "org/apache/velocity/runtime/parser/node/CompiledTemplate";
+
+    private static final String CONTEXT = "Lorg/apache/velocity/context/InternalContextAdapter;";
+
+    private static final String WRITER = "Ljava/io/Writer;";
+
+    private static final String OBJECT = "Ljava/lang/Object;";
+
+    private static final String RUN = "(" + CONTEXT + WRITER + ")V";
+
+    private static final String RUN_NODE = "(" + CONTEXT + WRITER + "I)V";
+
+    /** the size the code of a method is split at */
+    private static final int MAX_PART = 8192;
+
+    private static int count = 0;
+
+    private final ClassFile classFile;
+
+    /** char[] of each run of static text */
+    private final List texts = new ArrayList();
+
+    /** the nodes called */
+    private final List nodes = new ArrayList();
+
+    /** the code of each part */
+    private final List parts = new ArrayList();
+
+    private Code code = new Code();
+
+    /**
+     * The text that adjacent static text may still be merged into, or -1.
+     * Anything emitted and any jump target in between end it.
+     */
+    private int openText = -1;
+
+    private TemplateCompiler(String className)
+    {
+        classFile = new ClassFile(className, BASE);
+    }
+
+    /**
+     * @param root the root of an initialized node tree
+     * @param log log to report compilation failures to
+     * @return the compiled template, or null if it should be interpreted
+     */
+    static CompiledTemplate compile(Node root, Log log)
+    {
+        try
+        {
+            String name = "org.apache.velocity.runtime.parser.node.GeneratedTemplate" + nextCount();
+            TemplateCompiler compiler = new TemplateCompiler(name.replace('.', '/'));
+            return compiler.generate(name, root);
+        }
+        /*
+         * whatever the reason, the interpreter still works
+         */
+        catch (Throwable t)
+        {
+            log.debug("TemplateCompiler : could not compile template '" +
+                      ((SimpleNode) root).getTemplateName() +
+                      "', it will be interpreted", t);
+            return null;
+        }
+    }
+
+    private static synchronized int nextCount()
+    {
+        return ++count;
+    }
+
+    private CompiledTemplate generate(String name, Node root) throws Exception
+    {
+        if (root instanceof ASTprocess)
+        {
+            /* the top level is where the code is split */
+            for (int i = 0, k = root.jjtGetNumChildren(); i < k; i++)
+            {
+                if (code.size() > MAX_PART)
+                {
+                    endPart();
+                }
+                compile(root.jjtGetChild(i));
+            }
+        }
+        else
+        {
+            compile(root);
+        }
+        endPart();
+
+        /* run() calls the parts in turn */
+        Code run = new Code();
+        for (int i = 0; i < parts.size(); i++)
+        {
+            String part = "part" + i;
+            classFile.addMethod(ClassFile.PUBLIC | ClassFile.FINAL, part, RUN, 6, 5,
+                                (byte[]) parts.get(i));
+            run.op(0x2a); // aload_0
+            run.op(0x2b); // aload_1
+            run.op(0x2c); // aload_2
+            run.invoke(classFile.methodRef(name.replace('.', '/'), part, RUN, false));
+        }
+        run.op(0xb1); // return
+        classFile.addMethod(ClassFile.PROTECTED, "run", RUN, 3, 3, run.toByteArray());
+        classFile.addDefaultConstructor(BASE);
+
+        byte[] bytes = classFile.toByteArray(ClassFile.PUBLIC | ClassFile.FINAL);
+        CompiledTemplate template = (CompiledTemplate)
+            new TemplateLoader().define(name, bytes).newInstance();
+
+        StaticText[] staticTexts = new StaticText[texts.size()];
+        for (int i = 0; i < staticTexts.length; i++)
+        {
+            staticTexts[i] = new StaticText((char[]) texts.get(i));
+        }
+        template.setup(staticTexts, (Node[]) nodes.toArray(new Node[nodes.size()]));
+        return template;
+    }
+
+    private void endPart()
+    {
+        code.op(0xb1); // return
+        parts.add(code.toByteArray());
+        code = new Code();
+        openText = -1;
+    }
+
+    private void compile(Node node)
+    {
+        if (node instanceof ASTprocess || node instanceof ASTBlock)
+        {
+            compileChildren(node, 0);
+        }
+        else if (node instanceof ASTText)
+        {
+            text(((ASTText) node).getCharacters(), node);
+        }
+        else if (node instanceof ASTComment)
+        {
+            text(((ASTComment) node).getCharacters(), node);
+        }
+        else if (node instanceof ASTIfStatement)
+        {
+            compileIf((ASTIfStatement) node);
+        }
+        else if (node instanceof ASTReference && ((ASTReference) node).isCompilable())
+        {
+            compileReference((ASTReference) node);
+        }
+        else
+        {
+            call("node", RUN_NODE, node);
+        }
+    }
+
+    private void compileChildren(Node node, int from)
+    {
+        for (int i = from, k = node.jjtGetNumChildren(); i < k; i++)
+        {
+            compile(node.jjtGetChild(i));
+        }
+    }
+
+    /**
+     * #if( a ) A #elseif( b ) B #else C #end becomes
+     * <pre>
+     *     if (!test(a)) goto L1
+     *     A
+     *     goto end
+     * L1: if (!test(b)) goto L2
+     *     B
+     *     goto end
+     * L2: C
+     * end:
+     * </pre>
+     */
+    private void compileIf(ASTIfStatement node)
+    {
+        if (node.isDecided())
+        {
+            /* the conditions are constant, only one clause is left */
+            compileClause(node.getDecidedClause());
+            return;
+        }
+
+        List exits = new ArrayList();
+        int branch = -1;
+        for (int i = node.getFirstClause(), k = node.jjtGetNumChildren(); i < k; i++)
+        {
+            if (branch != -1)
+            {
+                exits.add(new Integer(jump(0xa7))); // goto
+                bind(branch);
+                branch = -1;
+            }
+
+            Node clause = node.jjtGetChild(i);
+            if (i == 0)
+            {
+                branch = test(clause);
+                compile(node.jjtGetChild(1));
+                i = 1;
+            }
+            else if (clause instanceof ASTElseIfStatement)
+            {
+                branch = test(clause.jjtGetChild(0));
+                compile(clause.jjtGetChild(1));
+            }
+            else
+            {
+                compileChildren(clause, 0);
+            }
+        }
+
+        if (branch != -1)
+        {
+            bind(branch);
+        }
+        for (int i = 0; i < exits.size(); i++)
+        {
+            bind(((Integer) exits.get(i)).intValue());
+        }
+    }
+
+    private void compileClause(Node clause)
+    {
+        if (clause instanceof ASTElseIfStatement)
+        {
+            compile(clause.jjtGetChild(1));
+        }
+        else if (clause instanceof ASTElseStatement)
+        {
+            compileChildren(clause, 0);
+        }
+        else if (clause != null)
+        {
+            compile(clause);
+        }
+    }
+
+    /**
+     * Emits the test of a condition.
+     *
+     * @return the jump taken if it is false
+     */
+    private int test(Node condition)
+    {
+        int index = add(condition);
+        openText = -1;
+        code.op(0x2a); // aload_0
+        code.op(0x2b); // aload_1
+        code.push(index);
+        code.invoke(classFile.methodRef(BASE, "test", "(" + CONTEXT + "I)Z", false));
+        return jump(0x99); // ifeq
+    }
+
+    /**
+     * $a.b.c() becomes
+     * <pre>
+     *     o = root(a)
+     *     if (o == null) goto missing
+     *     previous = o
+     *     o = step(o, b)
+     *     if (o == null) goto failed0
+     *     previous = o
+     *     o = step(o, c())
+     *     if (o == null) goto failed1
+     *     value(o)
+     *     goto end
+     * missing: missing()
+     *     goto end
+     * failed0: failed(previous, 0)
+     *     goto end
+     * failed1: failed(previous, 1)
+     * end:
+     * </pre>
+     */
+    private void compileReference(ASTReference reference)
+    {
+        int index = add(reference);
+        openText = -1;
+        int steps = reference.jjtGetNumChildren();
+        int[] nulls = new int[steps + 1];
+
+        code.op(0x2a); // aload_0
+        code.op(0x2b); // aload_1
+        code.push(index);
+        code.invoke(classFile.methodRef(BASE, "root", "(" + CONTEXT + "I)" + OBJECT, false));
+        code.op(0x4e); // astore_3
+        code.op(0x2d); // aload_3
+        nulls[0] = code.jump(0xc6); // ifnull
+
+        for (int i = 0; i < steps; i++)
+        {
+            code.op(0x2d); // aload_3
+            code.op(0x3a); // astore
+            code.op(4);
+            code.op(0x2a); // aload_0
+            code.op(0x2d); // aload_3
+            code.op(0x2b); // aload_1
+            code.push(index);
+            code.push(i);
+            code.invoke(classFile.methodRef(BASE, "step", "(" + OBJECT + CONTEXT + "II)" + OBJECT, false));
+            code.op(0x4e); // astore_3
+            code.op(0x2d); // aload_3
+            nulls[i + 1] = code.jump(0xc6); // ifnull
+        }
+
+        List exits = new ArrayList();
+
+        code.op(0x2a); // aload_0
+        code.op(0x2b); // aload_1
+        code.op(0x2c); // aload_2
+        code.push(index);
+        code.op(0x2d); // aload_3
+        code.invoke(classFile.methodRef(BASE, "value", "(" + CONTEXT + WRITER + "I" + OBJECT + ")V", false));
+        exits.add(new Integer(code.jump(0xa7))); // goto
+
+        code.bind(nulls[0]);
+        code.op(0x2a); // aload_0
+        code.op(0x2b); // aload_1
+        code.op(0x2c); // aload_2
+        code.push(index);
+        code.invoke(classFile.methodRef(BASE, "missing", RUN_NODE, false));
+
+        for (int i = 0; i < steps; i++)
+        {
+            exits.add(new Integer(code.jump(0xa7))); // goto
+            code.bind(nulls[i + 1]);
+            code.op(0x2a); // aload_0
+            code.op(0x2b); // aload_1
+            code.op(0x2c); // aload_2
+            code.push(index);
+            code.op(0x19); // aload
+            code.op(4);
+            code.push(i);
+            code.invoke(classFile.methodRef(BASE, "failed", "(" + CONTEXT + WRITER + "I" + OBJECT + "I)V", false));
+        }
+
+        for (int i = 0; i < exits.size(); i++)
+        {
+            code.bind(((Integer) exits.get(i)).intValue());
+        }
+        openText = -1;
+    }
+
+    private void text(char[] chars, Node node)
+    {
+        if (chars == null)
+        {
+            /* not initialized the way we expect, let it render itself */
+            call("node", RUN_NODE, node);
+            return;
+        }
+        if (chars.length == 0)
+        {
+            return;
+        }
+
+        if (openText != -1)
+        {
+            char[] previous = (char[]) texts.get(openText);
+            char[] merged = new char[previous.length + chars.length];
+            System.arraycopy(previous, 0, merged, 0, previous.length);
+            System.arraycopy(chars, 0, merged, previous.length, chars.length);
+            texts.set(openText, merged);
+            return;
+        }
+
+        texts.add(chars);
+        int index = texts.size() - 1;
+        code.op(0x2a); // aload_0
+        code.op(0x2b); // aload_1
+        code.op(0x2c); // aload_2
+        code.push(index);
+        code.invoke(classFile.methodRef(BASE, "text", RUN_NODE, false));
+        openText = index;
+    }
+
+    /**
+     * Emits this.method(context, writer, index of node).
+     */
+    private void call(String method, String descriptor, Node node)
+    {
+        int index = add(node);
+        code.op(0x2a); // aload_0
+        code.op(0x2b); // aload_1
+        code.op(0x2c); // aload_2
+        code.push(index);
+        code.invoke(classFile.methodRef(BASE, method, descriptor, false));
+        openText = -1;
+    }
+
+    private int add(Node node)
+    {
+        nodes.add(node);
+        return nodes.size() - 1;
+    }
+
+    private int jump(int opcode)
+    {
+        openText = -1;
+        return code.jump(opcode);
+    }
+
+    private void bind(int jump)
+    {
+        openText = -1;
+        code.bind(jump);
+    }
+
+    /**
+     * The code of a method being written.  Jumps are written with their
+     * offset left open, and bound once the target is known.
+     */
+    private static final class Code
+    {
+        private byte[] bytes = new byte[256];
+
+        private int size = 0;
+
+        int size()
+        {
+            return size;
+        }
+
+        void op(int b)
+        {
+            if (size == bytes.length)
+            {
+                byte[] grown = new byte[size * 2];
+                System.arraycopy(bytes, 0, grown, 0, size);
+                bytes = grown;
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void u2(int value)
+        {
+            op(value >> 8);
+            op(value);
+        }
+
+        /**
+         * Pushes an int constant.
+         */
+        void push(int value)
+        {
+            if (value <= 5)
+            {
+                op(0x03 + value); // iconst_<i>
+            }
+            else if (value <= Byte.MAX_VALUE)
+            {
+                op(0x10); // bipush
+                op(value);
+            }
+            else if (value <= Short.MAX_VALUE)
+            {
+                op(0x11); // sipush
+                u2(value);
+            }
+            else
+            {
+                throw new IllegalStateException("too many texts or nodes");
+            }
+        }
+
+        void invoke(int method)
+        {
+            op(0xb6); // invokevirtual
+            u2(method);
+        }
+
+        /**
+         * @return where the jump is, to bind it
+         */
+        int jump(int opcode)
+        {
+            int at = size;
+            op(opcode);
+            u2(0);
+            return at;
+        }
+
+        /**
+         * Points a jump at the next instruction.
+         */
+        void bind(int jump)
+        {
+            int offset = size - jump;
+            if (offset > Short.MAX_VALUE)
+            {
+                throw new IllegalStateException("jump too far");
+            }
+            bytes[jump + 1] = (byte) (offset >> 8);
+            bytes[jump + 2] = (byte) offset;
+        }
+
+        byte[] toByteArray() throws IllegalStateException
+        {
+            if (size > 65535)
+            {
+                throw new IllegalStateException("method too large");
+            }
+            byte[] copy = new byte[size];
+            System.arraycopy(bytes, 0, copy, 0, size);
+            return copy;
+        }
+    }
+
+    /**
+     * Defines the class of one compiled template, so that it can go
+     * with the template.
+     */
+    private static final class TemplateLoader extends ClassLoader
+    {
+        TemplateLoader()
+        {
+            super(CompiledTemplate.class.getClassLoader());
+        }
+
+        Class define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
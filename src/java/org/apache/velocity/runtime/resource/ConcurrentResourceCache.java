@@ -0,0 +1,395 @@
+package org.apache.velocity.runtime.resource;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.util.MapFactory;
+
+/**
+ * Resource cache that doesn't take a lock to read.  Resources are kept
+ * in a concurrent map (see {@link MapFactory}), so {@link #get(Object)}
+ * is a plain map lookup.  Bounding the cache needs to know what was
+ * used recently, but instead of reordering a shared LRU list on every
+ * read, reads are written into small per-thread-striped buffers that
+ * are replayed in a batch whenever one of them fills up, or with the
+ * next write.  The buffers are lossy: a read that is lost just doesn't
+ * count, which is fine for an eviction policy.
+ *
+ * <p>New resources go into a small LRU window first, so a new resource
+ * is always cached and gets the chance to be asked for again.  Only the
+ * resource pushed out of the window competes for a place in the rest of
+ * the cache: it replaces the least recently used resource there if it
+ * has been asked for more often lately, as estimated by a small
+ * frequency sketch, and is dropped otherwise.  This keeps heavily used
+ * templates from being pushed out by a run of templates that are used
+ * once.  The size limit comes from
+ * <code>resource.manager.defaultcache.size</code>, like for
+ * {@link ResourceCacheImpl}; <code>0</code> or less means unbounded,
+ * in which case no bookkeeping is done at all.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public class ConcurrentResourceCache implements ResourceCache
+{
+    /** number of read buffers, a power of two */
+    private static final int STRIPES = 16;
+
+    /** size of a read buffer, a power of two */
+    private static final int BUFFER_SIZE = 32;
+
+    /** percentage of the cache taken by the admission window */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * Cache storage, key to {@link Entry}.
+     */
+    private final Map cache = MapFactory.create(512, 0.5f, 32, false);
+
+    /**
+     * Runtime services, generally initialized by the
+     * <code>initialize()</code> method.
+     */
+    protected RuntimeServices rsvc = null;
+
+    private int maxSize = 0;
+
+    private int windowSize = 0;
+
+    /**
+     * Guards {@link #window}, {@link #order}, {@link #sketch} and
+     * draining the buffers.
+     */
+    private final Object evictionLock = new Object();
+
+    /** set while a thread drains the read buffers */
+    private volatile boolean draining = false;
+
+    private final ReadBuffer[] buffers = new ReadBuffer[STRIPES];
+
+    /** access ordered keys of the newly cached entries, eldest first */
+    private final LinkedHashMap window = new LinkedHashMap(16, 0.75f, true);
+
+    /** access ordered keys of the other cached entries, eldest first */
+    private final LinkedHashMap order = new LinkedHashMap(64, 0.75f, true);
+
+    private FrequencySketch sketch = null;
+
+    /**
+     * @see org.apache.velocity.runtime.resource.ResourceCache#initialize(org.apache.velocity.runtime.RuntimeServices)
+     */
+    public void initialize(RuntimeServices rs)
+    {
+        rsvc = rs;
+        maxSize = rsvc.getInt(RuntimeConstants.RESOURCE_MANAGER_DEFAULTCACHE_SIZE, 89);
+
+        if (maxSize > 0)
+        {
+            for (int i = 0; i < STRIPES; i++)
+            {
+                buffers[i] = new ReadBuffer();
+            }
+            sketch = new FrequencySketch(maxSize);
+            windowSize = Math.max(1, maxSize * WINDOW_PERCENT / 100);
+        }
+        rsvc.getLog().debug("ResourceCache: initialized (" + this.getClass() + ") with " +
+                            (maxSize > 0 ? "maximum size " + maxSize : "no size limit"));
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.resource.ResourceCache#get(java.lang.Object)
+     */
+    public Resource get(Object key)
+    {
+        Entry entry = (Entry) cache.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+        if (maxSize > 0)
+        {
+            recordRead(entry);
+        }
+        return entry.resource;
+    }
+
+    /**
+     * Looks a resource up like {@link #get(Object)}, but without counting
+     * it as used, for lookups that aren't made on behalf of a request.
+     *
+     * @param key key of the resource
+     * @return the cached resource, or null
+     */
+    public Resource peek(Object key)
+    {
+        Entry entry = (Entry) cache.get(key);
+        return entry == null ? null : entry.resource;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.resource.ResourceCache#put(java.lang.Object, org.apache.velocity.runtime.resource.Resource)
+     */
+    public Resource put(Object key, Resource value)
+    {
+        Entry entry = new Entry(key, value);
+
+        if (maxSize <= 0)
+        {
+            Entry old = (Entry) cache.put(key, entry);
+            return old == null ? null : old.resource;
+        }
+
+        synchronized (evictionLock)
+        {
+            drainReads();
+            sketch.increment(key.hashCode());
+
+            Entry old = (Entry) cache.put(key, entry);
+            if (order.containsKey(key))
+            {
+                order.put(key, entry);
+            }
+            else
+            {
+                window.put(key, entry);
+                evictFromWindow();
+            }
+            return old == null ? null : old.resource;
+        }
+    }
+
+    /**
+     * Moves the eldest entries out of the window once it is too big.
+     * Such an entry takes the place of the eldest entry of the rest of
+     * the cache if it was used more often, and is evicted otherwise.
+     * Needs the eviction lock.
+     */
+    private void evictFromWindow()
+    {
+        while (window.size() > windowSize)
+        {
+            Iterator it = window.keySet().iterator();
+            Object candidate = it.next();
+            it.remove();
+
+            if (window.size() + order.size() < maxSize)
+            {
+                order.put(candidate, cache.get(candidate));
+                continue;
+            }
+
+            Object victim = order.isEmpty() ? null : order.keySet().iterator().next();
+            if (victim != null &&
+                sketch.frequency(candidate.hashCode()) > sketch.frequency(victim.hashCode()))
+            {
+                order.remove(victim);
+                cache.remove(victim);
+                order.put(candidate, cache.get(candidate));
+            }
+            else
+            {
+                /* the eldest entry is still used more, keep it */
+                cache.remove(candidate);
+            }
+        }
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.resource.ResourceCache#remove(java.lang.Object)
+     */
+    public Resource remove(Object key)
+    {
+        Entry old;
+        if (maxSize <= 0)
+        {
+            old = (Entry) cache.remove(key);
+        }
+        else
+        {
+            synchronized (evictionLock)
+            {
+                window.remove(key);
+                order.remove(key);
+                old = (Entry) cache.remove(key);
+            }
+        }
+        return old == null ? null : old.resource;
+    }
+
+    /**
+     * @see org.apache.velocity.runtime.resource.ResourceCache#enumerateKeys()
+     */
+    public Iterator enumerateKeys()
+    {
+        return cache.keySet().iterator();
+    }
+
+    /**
+     * Notes a read in the buffer of the current thread's stripe, and
+     * replays the buffers once it is full.  Racing threads may
+     * overwrite each other's slots, losing a read now and then.
+     */
+    private void recordRead(Entry entry)
+    {
+        int h = Thread.currentThread().hashCode();
+        h ^= (h >>> 16);
+        ReadBuffer buffer = buffers[h & (STRIPES - 1)];
+
+        int index = buffer.writes++;
+        buffer.slots[index & (BUFFER_SIZE - 1)] = entry;
+
+        if ((index & (BUFFER_SIZE - 1)) == BUFFER_SIZE - 1 && !draining)
+        {
+            synchronized (evictionLock)
+            {
+                draining = true;
+                try
+                {
+                    drainReads();
+                }
+                finally
+                {
+                    draining = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the buffered reads.  Needs the eviction lock.
+     */
+    private void drainReads()
+    {
+        for (int i = 0; i < STRIPES; i++)
+        {
+            Entry[] slots = buffers[i].slots;
+            for (int j = 0; j < BUFFER_SIZE; j++)
+            {
+                Entry entry = slots[j];
+                if (entry != null)
+                {
+                    slots[j] = null;
+                    /* moves the key to the end, if it is still cached */
+                    if (window.get(entry.key) == null)
+                    {
+                        order.get(entry.key);
+                    }
+                    sketch.increment(entry.key.hashCode());
+                }
+            }
+        }
+    }
+
+    /**
+     * A cached resource.  Reads are buffered as entries so that the
+     * key doesn't have to be looked up again.
+     */
+    private static final class Entry
+    {
+        final Object key;
+        final Resource resource;
+
+        Entry(Object key, Resource resource)
+        {
+            this.key = key;
+            this.resource = resource;
+        }
+    }
+
+    private static final class ReadBuffer
+    {
+        final Entry[] slots = new Entry[BUFFER_SIZE];
+        int writes = 0;
+    }
+
+    /**
+     * Count-min sketch of how often keys were used lately, with four
+     * small saturating counters per key.  All counters are halved every
+     * so often, so that what was popular long ago is forgotten.
+     */
+    private static final class FrequencySketch
+    {
+        private static final int[] SEEDS =
+            { 0x97cb3127, 0xb3a2f1c5, 0x5c6d2f4b, 0x8f1bbcdd };
+
+        private static final int MAX_COUNT = 15;
+
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int maxSize)
+        {
+            int size = 64;
+            while (size < maxSize * 4 && size < (1 << 24))
+            {
+                size <<= 1;
+            }
+            counters = new byte[size];
+            mask = size - 1;
+            sampleSize = Math.max(10 * maxSize, 100);
+        }
+
+        void increment(int hash)
+        {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++)
+            {
+                int index = indexOf(hash, i);
+                if (counters[index] < MAX_COUNT)
+                {
+                    counters[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize)
+            {
+                for (int i = 0; i < counters.length; i++)
+                {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(int hash)
+        {
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < SEEDS.length; i++)
+            {
+                frequency = Math.min(frequency, counters[indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int i)
+        {
+            int h = hash * SEEDS[i];
+            h ^= (h >>> 17);
+            return h & mask;
+        }
+    }
+}
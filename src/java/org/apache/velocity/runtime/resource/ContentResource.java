@@ -20,10 +20,10 @@ package org.apache.velocity.runtime.resource;
  */
 
 import java.io.StringWriter;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.Reader;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.io.DecodedReader;
 
 /**
  * This class represent a general text resource that may have been
@@ -56,15 +56,22 @@ public class ContentResource extends Resource
     public boolean process()
         throws ResourceNotFoundException
     {
-        BufferedReader reader = null;
+        Reader reader = null;
 
         try
         {
-            StringWriter sw = new StringWriter();
+            reader = resourceLoader.getResourceReader(name, encoding);
 
-            reader = new BufferedReader(
-                new InputStreamReader(resourceLoader.getResourceStream(name),
-                                      encoding));
+            if (reader instanceof DecodedReader)
+            {
+                /* decoded in one go, no need to copy it again */
+                DecodedReader decoded = (DecodedReader) reader;
+                int length = decoded.getLength();
+                setData(new String(decoded.getChars(), 0, length));
+                return true;
+            }
+
+            StringWriter sw = new StringWriter();
 
             char buf[] = new char[1024];
             int len = 0;
@@ -0,0 +1,157 @@
+package org.apache.velocity.runtime.resource;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.util.MapFactory;
+
+/**
+ * Remembers for a while which resources none of the loaders could
+ * find, so that asking for them again doesn't go through all loaders
+ * again.  The exception of the failed lookup is kept and thrown again,
+ * which saves building a new one as well.  Reads don't lock; when the
+ * cache is full, expired entries go first, then arbitrary ones.
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+final class MissingResourceCache
+{
+    private final Map cache = MapFactory.create(64, 0.75f, 16, false);
+
+    private final int maxSize;
+
+    private final long timeToLive;
+
+    /**
+     * @param maxSize maximum number of missing resources to remember
+     * @param timeToLive how long to remember them, in milliseconds
+     */
+    MissingResourceCache(int maxSize, long timeToLive)
+    {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @param key key of the resource
+     * @return the exception the resource was not found with, or null
+     *         if it isn't known to be missing
+     */
+    ResourceNotFoundException get(Object key)
+    {
+        Entry entry = (Entry) cache.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis())
+        {
+            cache.remove(key);
+            return null;
+        }
+        return entry.error;
+    }
+
+    /**
+     * Remembers a resource as missing.
+     *
+     * @param key key of the resource
+     * @param error what the lookup threw
+     */
+    void put(Object key, ResourceNotFoundException error)
+    {
+        if (cache.size() >= maxSize)
+        {
+            makeRoom();
+        }
+        cache.put(key, new Entry(error, System.currentTimeMillis() + timeToLive));
+    }
+
+    /**
+     * Forgets about all missing resources.
+     */
+    void clear()
+    {
+        cache.clear();
+    }
+
+    /**
+     * Forgets about one missing resource.
+     *
+     * @param key key of the resource
+     */
+    void remove(Object key)
+    {
+        cache.remove(key);
+    }
+
+    /**
+     * @return the keys of the missing resources remembered
+     */
+    synchronized List keys()
+    {
+        return new ArrayList(cache.keySet());
+    }
+
+    private synchronized void makeRoom()
+    {
+        try
+        {
+            long now = System.currentTimeMillis();
+            for (Iterator i = cache.values().iterator(); i.hasNext();)
+            {
+                if (((Entry) i.next()).expires < now)
+                {
+                    i.remove();
+                }
+            }
+
+            for (Iterator i = cache.keySet().iterator(); cache.size() >= maxSize && i.hasNext();)
+            {
+                i.next();
+                i.remove();
+            }
+        }
+        catch (ConcurrentModificationException cme)
+        {
+            /* only without java.util.concurrent; start over */
+            cache.clear();
+        }
+    }
+
+    private static final class Entry
+    {
+        final ResourceNotFoundException error;
+        final long expires;
+
+        Entry(ResourceNotFoundException error, long expires)
+        {
+            this.error = error;
+            this.expires = expires;
+        }
+    }
+}
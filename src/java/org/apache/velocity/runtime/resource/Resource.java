@@ -172,6 +172,22 @@ public abstract class Resource
         nextCheck = System.currentTimeMillis() + ( MILLIS_PER_SECOND *  modificationCheckInterval);
     }
 
+    /**
+     * 'Touch' this template like {@link #touch()}, but move the next
+     * check randomly by up to the given fraction of the check interval,
+     * so that resources loaded at the same time are not all checked at
+     * the same time either.
+     *
+     * @param jitter fraction of the check interval, between 0 and 1
+     * @since 1.6.4
+     */
+    public void touch(double jitter)
+    {
+        long interval = MILLIS_PER_SECOND * modificationCheckInterval;
+        long offset = (long) (interval * jitter * (2 * Math.random() - 1));
+        nextCheck = System.currentTimeMillis() + interval + offset;
+    }
+
     /**
      * Set the name of this resource, for example
      * test.vm.
@@ -19,22 +19,31 @@ package org.apache.velocity.runtime.resource;
  * under the License.
  */
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.Vector;
 
 import org.apache.commons.collections.ExtendedProperties;
+import org.apache.velocity.Template;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.log.Log;
+import org.apache.velocity.runtime.resource.loader.ResourceChangeListener;
 import org.apache.velocity.runtime.resource.loader.ResourceLoader;
 import org.apache.velocity.runtime.resource.loader.ResourceLoaderFactory;
 import org.apache.velocity.util.ClassUtils;
+import org.apache.velocity.util.MapFactory;
 import org.apache.velocity.util.StringUtils;
 
 
@@ -61,6 +70,15 @@ public class ResourceManagerImpl
     /** token used to identify the loader internally. */
     private static final String RESOURCE_LOADER_IDENTIFIER = "_RESOURCE_LOADER_IDENTIFIER_";
 
+    /** the loader index and the cache key tables are started over when they get bigger than this. */
+    private static final int MAX_INDEXED_NAMES = 8192;
+
+    /** the number of milliseconds in a second. */
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    /** how often the background thread looks for resources due for a check. */
+    private static final long MILLIS_PER_CHECK = 1000;
+
     /** Object implementing ResourceCache to be our resource manager's Resource cache. */
     protected ResourceCache globalCache = null;
 
@@ -80,6 +98,60 @@ public class ResourceManagerImpl
      */
     private boolean isInit = false;
 
+    /** whether concurrent loads and refreshes of a resource are coalesced. */
+    private boolean singleFlight = false;
+
+    /** loads and refreshes in progress, by resource key, in single flight mode. */
+    private final Map pendingLoads = new HashMap();
+
+    /** whether modification checks are done by a background thread. */
+    private boolean backgroundCheck = false;
+
+    /** fraction of the check interval background checks are moved by. */
+    private double checkJitter = 0.2;
+
+    /** cached resources the background thread checks, by resource key. */
+    private Map checkedResources = null;
+
+    /** runs the background checks. */
+    private Timer checkTimer = null;
+
+    /** resources recently not found, if configured. */
+    private MissingResourceCache missingResources = null;
+
+    /** whether the loader index is used. */
+    private boolean indexLoaders = false;
+
+    /**
+     * Which loader has a resource, by normalized resource name, for
+     * names whose answer can't change without the loaders telling us.
+     */
+    private final Map loaderIndex = MapFactory.create(64, 0.75f, 16, false);
+
+    /** counts reported changes, so that lookups racing with one aren't indexed. */
+    private volatile int changeCount = 0;
+
+    /** marks names in the loader index that no loader has. */
+    private static final Object NO_LOADER = new Object();
+
+    /**
+     * The cache key of each resource name, by resource type, so that
+     * a cache hit doesn't have to build its key.
+     */
+    private final Map[] cacheKeys = new Map[] {
+        null,
+        MapFactory.create(64, 0.75f, 16, false),
+        MapFactory.create(64, 0.75f, 16, false) };
+
+    /**
+     * Whether a resource has been asked for by a name that isn't
+     * normalized, so that reported changes have to look for it.
+     */
+    private volatile boolean aliasedNames = false;
+
+    /** keeps parsed templates across restarts, if configured. */
+    private TemplateSnapshotCache snapshotCache = null;
+
     /** switch to turn off log notice when a resource is found for the first time. */
     private boolean logWhenFound = true;
 
@@ -145,6 +217,7 @@ public class ResourceManagerImpl
 
             resourceLoader.commonInit(rsvc, configuration);
             resourceLoader.init(configuration);
+            resourceLoader.addResourceChangeListener(new ChangeListener());
             resourceLoaders.add(resourceLoader);
         }
 
@@ -154,6 +227,31 @@ public class ResourceManagerImpl
 
         logWhenFound = rsvc.getBoolean(RuntimeConstants.RESOURCE_MANAGER_LOGWHENFOUND, true);
 
+        singleFlight = rsvc.getBoolean(RuntimeConstants.RESOURCE_MANAGER_SINGLE_FLIGHT, false);
+
+        indexLoaders = rsvc.getBoolean(RuntimeConstants.RESOURCE_MANAGER_LOADER_INDEX, false);
+
+        int missingCacheSize = rsvc.getInt(RuntimeConstants.RESOURCE_MANAGER_MISSINGCACHE_SIZE, 0);
+        if (missingCacheSize > 0)
+        {
+            long ttl = rsvc.getInt(RuntimeConstants.RESOURCE_MANAGER_MISSINGCACHE_TTL, 30) * MILLIS_PER_SECOND;
+            missingResources = new MissingResourceCache(missingCacheSize, ttl);
+        }
+
+        backgroundCheck = rsvc.getBoolean(RuntimeConstants.RESOURCE_MANAGER_BACKGROUND_CHECK, false);
+        if (backgroundCheck)
+        {
+            checkJitter = rsvc.getConfiguration().getDouble(
+                RuntimeConstants.RESOURCE_MANAGER_CHECK_JITTER, 0.2);
+            checkJitter = Math.min(1.0, Math.max(0.0, checkJitter));
+            checkedResources = MapFactory.create(64, 0.75f, 16, false);
+
+            /* a daemon, so it doesn't keep the VM alive */
+            checkTimer = new Timer(true);
+            checkTimer.schedule(new ModificationCheckTask(this), MILLIS_PER_CHECK, MILLIS_PER_CHECK);
+            log.debug("ResourceManager : checking resources for modification in the background");
+        }
+
         /*
          *  now, is a global cache specified?
          */
@@ -191,13 +289,21 @@ public class ResourceManagerImpl
          */
         if (cacheObject == null)
         {
-            cacheObject = new ResourceCacheImpl();
+            cacheObject = new ConcurrentResourceCache();
         }
 
         globalCache = (ResourceCache) cacheObject;
 
         globalCache.initialize(rsvc);
 
+        String snapshotDirectory = StringUtils.nullTrim(
+            rsvc.getString(RuntimeConstants.RESOURCE_MANAGER_AST_CACHE_DIRECTORY));
+        if (org.apache.commons.lang.StringUtils.isNotEmpty(snapshotDirectory))
+        {
+            snapshotCache = new TemplateSnapshotCache(rsvc, new File(snapshotDirectory));
+            log.debug("ResourceManager : keeping parsed templates in " + snapshotDirectory);
+        }
+
         log.trace("Default ResourceManager initialization complete.");
     }
 
@@ -287,7 +393,7 @@ public class ResourceManagerImpl
          * (static content from #include) with a Template.
          */
 
-        String resourceKey = resourceType + resourceName;
+        String resourceKey = cacheKey(resourceType, resourceName);
         Resource resource = globalCache.get(resourceKey);
 
         if (resource != null)
@@ -295,7 +401,7 @@ public class ResourceManagerImpl
             try
             {
                 // avoids additional method call to refreshResource
-                if (resource.requiresChecking())
+                if (!backgroundCheck && resource.requiresChecking())
                 {
                     /*
                      * both loadResource() and refreshResource() now return
@@ -312,8 +418,18 @@ public class ResourceManagerImpl
                      * but that creates a scalability bottleneck.
                      *
                      * See VELOCITY-606, VELOCITY-595 and VELOCITY-24
+                     *
+                     * In single flight mode only one thread refreshes,
+                     * everyone else keeps using the resource they got.
                      */
-                    resource = refreshResource(resource, encoding);
+                    if (singleFlight)
+                    {
+                        resource = refreshOnce(resourceKey, resource, encoding);
+                    }
+                    else
+                    {
+                        resource = refreshResource(resource, encoding);
+                    }
                 }
             }
             catch (ResourceNotFoundException rnfe)
@@ -346,22 +462,40 @@ public class ResourceManagerImpl
         }
         else
         {
+            if (missingResources != null)
+            {
+                /*
+                 *  no need to ask all loaders again for what none of them had
+                 */
+                ResourceNotFoundException missing = missingResources.get(resourceKey);
+                if (missing != null)
+                {
+                    throw missing;
+                }
+            }
+
             try
             {
                 /*
                  *  it's not in the cache, so load it.
                  */    
-                resource = loadResource(resourceName, resourceType, encoding);
-
-                if (resource.getResourceLoader().isCachingOn())
+                if (singleFlight)
                 {
-                    globalCache.put(resourceKey, resource);
+                    resource = loadOnce(resourceKey, resourceName, resourceType, encoding);
+                }
+                else
+                {
+                    resource = loadAndCache(resourceKey, resourceName, resourceType, encoding);
                 }
             }
             catch (ResourceNotFoundException rnfe)
             {
                 log.error("ResourceManager : unable to find resource '" +
                           resourceName + "' in any resource loader.");
+                if (missingResources != null)
+                {
+                    missingResources.put(resourceKey, rnfe);
+                }
                 throw rnfe;
             }
             catch (ParseErrorException pee)
@@ -384,6 +518,225 @@ public class ResourceManagerImpl
         return resource;
     }
 
+    /**
+     * Loads a resource and puts it in the cache if its loader caches.
+     */
+    private Resource loadAndCache(String resourceKey, String resourceName,
+                                  int resourceType, String encoding)
+        throws ResourceNotFoundException,
+            ParseErrorException,
+            Exception
+    {
+        Resource resource = loadResource(resourceName, resourceType, encoding);
+
+        if (resource.getResourceLoader().isCachingOn())
+        {
+            globalCache.put(resourceKey, resource);
+            scheduleCheck(resourceKey, resource);
+        }
+        return resource;
+    }
+
+    /**
+     * Hands a cached resource to the background checks, if they are on.
+     */
+    private void scheduleCheck(String resourceKey, Resource resource)
+    {
+        if (backgroundCheck && resource.getResourceLoader().getModificationCheckInterval() > 0)
+        {
+            resource.touch(checkJitter);
+            checkedResources.put(resourceKey, resource);
+        }
+    }
+
+    /**
+     * Checks all resources that are due in the background.  A resource
+     * that is no longer cached is forgotten; one that is modified is
+     * reloaded and replaces the cached one.  Nothing here is thrown,
+     * since there is nobody to throw it to.
+     */
+    private void checkResources()
+    {
+        for (Iterator it = new ArrayList(checkedResources.entrySet()).iterator(); it.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) it.next();
+            String resourceKey = (String) entry.getKey();
+            Resource resource = (Resource) entry.getValue();
+
+            if (!resource.requiresChecking())
+            {
+                continue;
+            }
+
+            if (getCached(resourceKey) != resource)
+            {
+                /* evicted, removed or replaced since */
+                checkedResources.remove(resourceKey);
+                continue;
+            }
+
+            try
+            {
+                Resource refreshed = refreshResource(resource, resource.getEncoding());
+                if (refreshed != resource)
+                {
+                    if (getCached(resourceKey) != refreshed)
+                    {
+                        globalCache.put(resourceKey, refreshed);
+                    }
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug("ResourceManager : reloaded " + resource.getName() +
+                                  " in the background");
+                    }
+                }
+                scheduleCheck(resourceKey, refreshed);
+            }
+            catch (ResourceNotFoundException rnfe)
+            {
+                /* gone, the next request will find out for itself */
+                globalCache.remove(resourceKey);
+                checkedResources.remove(resourceKey);
+            }
+            catch (Exception e)
+            {
+                /* keep the old one, it was checked again by refreshResource() */
+                log.error("ResourceManager : unable to reload " + resource.getName() +
+                          " in the background", e);
+            }
+        }
+    }
+
+    /**
+     * Looks a resource up in the cache for the background checks, which
+     * shouldn't count as using it.
+     */
+    private Resource getCached(String resourceKey)
+    {
+        if (globalCache instanceof ConcurrentResourceCache)
+        {
+            return ((ConcurrentResourceCache) globalCache).peek(resourceKey);
+        }
+        return globalCache.get(resourceKey);
+    }
+
+    /**
+     * Stops the background modification checks, if they are running,
+     * and closes the resource loaders.  Resources are still found
+     * afterwards, but no longer checked in the background.
+     *
+     * @since 1.6.4
+     */
+    public synchronized void shutdown()
+    {
+        if (checkTimer != null)
+        {
+            checkTimer.cancel();
+            checkTimer = null;
+            checkedResources.clear();
+            log.debug("ResourceManager : stopped checking resources in the background");
+        }
+
+        for (Iterator it = resourceLoaders.iterator(); it.hasNext();)
+        {
+            ((ResourceLoader) it.next()).close();
+        }
+    }
+
+    /**
+     * Loads a resource unless another thread is already loading it, in
+     * which case this waits for that thread and returns its result.
+     */
+    private Resource loadOnce(String resourceKey, String resourceName,
+                              int resourceType, String encoding)
+        throws ResourceNotFoundException,
+            ParseErrorException,
+            Exception
+    {
+        PendingLoad pending;
+        boolean loading = false;
+
+        synchronized (pendingLoads)
+        {
+            pending = (PendingLoad) pendingLoads.get(resourceKey);
+            if (pending == null)
+            {
+                pending = new PendingLoad();
+                pendingLoads.put(resourceKey, pending);
+                loading = true;
+            }
+        }
+
+        if (!loading)
+        {
+            return pending.get();
+        }
+
+        try
+        {
+            Resource resource = loadAndCache(resourceKey, resourceName, resourceType, encoding);
+            pending.complete(resource, null);
+            return resource;
+        }
+        catch (Exception e)
+        {
+            pending.complete(null, e);
+            throw e;
+        }
+        finally
+        {
+            synchronized (pendingLoads)
+            {
+                pendingLoads.remove(resourceKey);
+            }
+            pending.complete(null, new ResourceNotFoundException(
+                "Loading resource '" + resourceName + "' failed in another thread"));
+        }
+    }
+
+    /**
+     * Refreshes a resource unless another thread is already doing so,
+     * in which case the resource at hand is returned as is.
+     */
+    private Resource refreshOnce(String resourceKey, Resource resource, String encoding)
+        throws ResourceNotFoundException,
+            ParseErrorException,
+            Exception
+    {
+        PendingLoad pending;
+
+        synchronized (pendingLoads)
+        {
+            if (pendingLoads.containsKey(resourceKey))
+            {
+                return resource;
+            }
+            pending = new PendingLoad();
+            pendingLoads.put(resourceKey, pending);
+        }
+
+        try
+        {
+            Resource refreshed = refreshResource(resource, encoding);
+            pending.complete(refreshed, null);
+            return refreshed;
+        }
+        catch (Exception e)
+        {
+            pending.complete(null, e);
+            throw e;
+        }
+        finally
+        {
+            synchronized (pendingLoads)
+            {
+                pendingLoads.remove(resourceKey);
+            }
+            pending.complete(null, new ResourceNotFoundException(
+                "Refreshing resource '" + resource.getName() + "' failed in another thread"));
+        }
+    }
+
     /**
      * Create a new Resource of the specified type.
      *
@@ -394,7 +747,12 @@ public class ResourceManagerImpl
      */
     protected Resource createResource(String resourceName, int resourceType)
     {
-        return ResourceFactory.getResource(resourceName, resourceType);
+        Resource resource = ResourceFactory.getResource(resourceName, resourceType);
+        if (snapshotCache != null && resource instanceof Template)
+        {
+            ((Template) resource).setSnapshotCache(snapshotCache);
+        }
+        return resource;
     }
 
     /**
@@ -562,7 +920,7 @@ public class ResourceManagerImpl
              */
             long howOldItWas = loader.getLastModified(resource);
 
-            String resourceKey = resource.getType() + resource.getName();
+            String resourceKey = cacheKey(resource.getType(), resource.getName());
 
             /* 
              * we create a copy to avoid partially overwriting a
@@ -570,7 +928,7 @@ public class ResourceManagerImpl
              */ 
 
             Resource newResource = 
-                ResourceFactory.getResource(resource.getName(), resource.getType());
+                createResource(resource.getName(), resource.getType());
 
             newResource.setRuntimeServices(rsvc);
             newResource.setName(resource.getName());
@@ -635,15 +993,332 @@ public class ResourceManagerImpl
      */
     private ResourceLoader getLoaderForResource(String resourceName)
     {
+        if (!indexLoaders)
+        {
+            for (Iterator i = resourceLoaders.iterator(); i.hasNext(); )
+            {
+                ResourceLoader loader = (ResourceLoader)i.next();
+                if (loader.resourceExists(resourceName))
+                {
+                    return loader;
+                }
+            }
+            return null;
+        }
+
+        String name = normalizeName(resourceName);
+        Object indexed = loaderIndex.get(name);
+        if (indexed != null)
+        {
+            return (indexed == NO_LOADER) ? null : (ResourceLoader) indexed;
+        }
+
+        /*
+         * the answer may only be remembered if none of the loaders
+         * asked can change its mind without telling us
+         */
+        int changes = changeCount;
+        boolean stable = true;
+        ResourceLoader found = null;
         for (Iterator i = resourceLoaders.iterator(); i.hasNext(); )
         {
             ResourceLoader loader = (ResourceLoader)i.next();
+            stable = stable && loader.reportsResourceChanges();
             if (loader.resourceExists(resourceName))
             {
-                return loader;
+                found = loader;
+                break;
+            }
+        }
+
+        if (stable && changes == changeCount)
+        {
+            if (loaderIndex.size() >= MAX_INDEXED_NAMES)
+            {
+                loaderIndex.clear();
             }
+            loaderIndex.put(name, found == null ? NO_LOADER : found);
         }
-        return null;
+        return found;
     }
 
+    /**
+     * Drops the cached resources a loader reports as changed, so that
+     * they are loaded again when they are next asked for, and forgets
+     * that they were missing and which loader had them.  Resources of
+     * all loaders are dropped, since a new file in one loader may hide
+     * a resource of another.
+     *
+     * @param resourceName name of the changed resource, or null for all
+     */
+    private void resourceChanged(String resourceName)
+    {
+        changeCount++;
+
+        if (resourceName == null)
+        {
+            loaderIndex.clear();
+            if (missingResources != null)
+            {
+                missingResources.clear();
+            }
+
+            List keys = new ArrayList();
+            for (Iterator it = globalCache.enumerateKeys(); it.hasNext();)
+            {
+                keys.add(it.next());
+            }
+            for (Iterator it = keys.iterator(); it.hasNext();)
+            {
+                globalCache.remove(it.next());
+            }
+            if (checkedResources != null)
+            {
+                checkedResources.clear();
+            }
+            return;
+        }
+
+        String name = normalizeName(resourceName);
+        loaderIndex.remove(name);
+        forget(RESOURCE_TEMPLATE + name);
+        forget(RESOURCE_CONTENT + name);
+        if (!name.equals(resourceName))
+        {
+            forget(RESOURCE_TEMPLATE + resourceName);
+            forget(RESOURCE_CONTENT + resourceName);
+        }
+
+        /*
+         * the resource may also be cached under other names the
+         * loaders take for the same one, e.g. with a leading slash
+         */
+        if (aliasedNames)
+        {
+            List keys = new ArrayList();
+            for (Iterator it = globalCache.enumerateKeys(); it.hasNext();)
+            {
+                keys.add(it.next());
+            }
+            if (missingResources != null)
+            {
+                keys.addAll(missingResources.keys());
+            }
+            if (checkedResources != null)
+            {
+                keys.addAll(checkedResources.keySet());
+            }
+
+            for (Iterator it = keys.iterator(); it.hasNext();)
+            {
+                Object key = it.next();
+                if (key instanceof String && ((String) key).length() > 1
+                    && name.equals(normalizeName(((String) key).substring(1))))
+                {
+                    forget((String) key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops whatever is remembered under a cache key.
+     */
+    private void forget(String resourceKey)
+    {
+        if (missingResources != null)
+        {
+            missingResources.remove(resourceKey);
+        }
+        globalCache.remove(resourceKey);
+        if (checkedResources != null)
+        {
+            checkedResources.remove(resourceKey);
+        }
+    }
+
+    /**
+     * The key of a resource in the caches.  The name is used as it was
+     * asked for, since not all loaders take names that normalize the
+     * same for the same resource.
+     */
+    private String cacheKey(int resourceType, String resourceName)
+    {
+        if (resourceName == null || resourceType <= 0 || resourceType >= cacheKeys.length)
+        {
+            return resourceType + resourceName;
+        }
+
+        Map keys = cacheKeys[resourceType];
+        String key = (String) keys.get(resourceName);
+        if (key == null)
+        {
+            key = resourceType + resourceName;
+            if (!aliasedNames && !resourceName.equals(normalizeName(resourceName)))
+            {
+                aliasedNames = true;
+            }
+            if (keys.size() >= MAX_INDEXED_NAMES)
+            {
+                keys.clear();
+            }
+            keys.put(resourceName, key);
+        }
+        return key;
+    }
+
+    /**
+     * Resource names that loaders treat as the same, e.g. with or
+     * without a leading slash, give the same string here.
+     */
+    private static String normalizeName(String resourceName)
+    {
+        if (!needsNormalizing(resourceName))
+        {
+            return resourceName;
+        }
+
+        String name = StringUtils.normalizePath(resourceName);
+        if (name == null)
+        {
+            return resourceName;
+        }
+        while (name.startsWith("/"))
+        {
+            name = name.substring(1);
+        }
+        return name;
+    }
+
+    /**
+     * Tells whether {@link StringUtils#normalizePath(String)} could
+     * change a name, so that most names are used as they are.
+     */
+    private static boolean needsNormalizing(String resourceName)
+    {
+        int length = resourceName.length();
+        if (length == 0)
+        {
+            return false;
+        }
+
+        char first = resourceName.charAt(0);
+        if (first == '/' || first == '.')
+        {
+            return true;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            char c = resourceName.charAt(i);
+            if (c == '\\' || c == '%')
+            {
+                return true;
+            }
+            if (c == '/' && i + 1 < length &&
+                (resourceName.charAt(i + 1) == '/' || resourceName.charAt(i + 1) == '.'))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Passes changes reported by the loaders on.
+     */
+    private class ChangeListener implements ResourceChangeListener
+    {
+        public void resourceChanged(ResourceLoader loader, String resourceName)
+        {
+            ResourceManagerImpl.this.resourceChanged(resourceName);
+        }
+    }
+
+    /**
+     * Runs {@link ResourceManagerImpl#checkResources()} on the timer.
+     * The timer thread holds on to its tasks, so the manager is only
+     * weakly referenced, and the task cancels itself once the manager
+     * is gone.
+     */
+    private static final class ModificationCheckTask extends TimerTask
+    {
+        private final WeakReference manager;
+
+        ModificationCheckTask(ResourceManagerImpl manager)
+        {
+            this.manager = new WeakReference(manager);
+        }
+
+        public void run()
+        {
+            ResourceManagerImpl rm = (ResourceManagerImpl) manager.get();
+            if (rm == null)
+            {
+                cancel();
+                return;
+            }
+
+            try
+            {
+                rm.checkResources();
+            }
+            catch (RuntimeException re)
+            {
+                /* a task that throws would stop the timer for good */
+                rm.log.error("ResourceManager : background modification check failed", re);
+            }
+        }
+    }
+
+    /**
+     * Result of a load another thread is waiting for.
+     */
+    private static final class PendingLoad
+    {
+        private Resource resource = null;
+        private Exception error = null;
+        private boolean done = false;
+
+        /**
+         * Sets the result, unless it is already set.
+         */
+        synchronized void complete(Resource resource, Exception error)
+        {
+            if (!done)
+            {
+                this.resource = resource;
+                this.error = error;
+                done = true;
+                notifyAll();
+            }
+        }
+
+        synchronized Resource get()
+            throws Exception
+        {
+            boolean interrupted = false;
+            while (!done)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException ie)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            if (error != null)
+            {
+                throw error;
+            }
+            return resource;
+        }
+    }
 }
@@ -0,0 +1,444 @@
+package org.apache.velocity.runtime.resource;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.directive.Directive;
+import org.apache.velocity.runtime.directive.Macro;
+import org.apache.velocity.runtime.log.Log;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.apache.velocity.runtime.parser.node.ASTDirective;
+import org.apache.velocity.runtime.parser.node.ASTprocess;
+import org.apache.velocity.runtime.parser.node.Node;
+import org.apache.velocity.runtime.parser.node.NodeSerializer;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+/**
+ * Keeps the parsed, not yet initialized AST of templates in a directory,
+ * so that a template whose source did not change can be rebuilt without
+ * parsing it again, even by another engine or after a restart.
+ *
+ * <p>An entry is keyed on the template name, its loader and its encoding,
+ * and is only used if the template source is byte for byte the same as
+ * when the entry was written.  Since the parser output also depends on
+ * which directives and velocimacros existed while parsing, those answers
+ * are stored too and checked against the current engine before an entry
+ * is used.  Anything that doesn't match, or can't be read, simply makes
+ * the template go through the parser as usual.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public class TemplateSnapshotCache
+{
+    /** marks a snapshot file */
+    private static final int MAGIC = 0x56544d41;
+
+    /** change whenever the layout of the file or the AST changes */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String SUFFIX = ".ast";
+
+    private final RuntimeServices rsvc;
+
+    private final Log log;
+
+    private final File directory;
+
+    /**
+     * @param rsvc the runtime services of the engine using this cache
+     * @param directory directory to keep the snapshots in, created if needed
+     */
+    public TemplateSnapshotCache(RuntimeServices rsvc, File directory)
+    {
+        this.rsvc = rsvc;
+        this.log = rsvc.getLog();
+        this.directory = directory;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            log.warn("TemplateSnapshotCache : could not create directory " + directory);
+        }
+    }
+
+    /**
+     * @return the directory snapshots are kept in
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Rebuilds the AST of a template from its snapshot, if there is one
+     * for exactly this source.  Velocimacros defined by the template are
+     * registered again, just like parsing would have done.
+     *
+     * @param template the template to load
+     * @param source the raw bytes of the template source
+     * @return the uninitialized AST, or null if the template has to be parsed
+     */
+    public SimpleNode load(Resource template, byte[] source)
+    {
+        String key = getKey(template);
+        File file = getFile(key);
+        if (!file.isFile())
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION ||
+                !key.equals(in.readUTF()))
+            {
+                return null;
+            }
+
+            byte[] hash = new byte[in.readInt()];
+            in.readFully(hash);
+            if (!Arrays.equals(hash, digest(source)))
+            {
+                return null;
+            }
+
+            List directives = readNames(in);
+            List directiveClasses = readNames(in);
+            List found = readNames(in);
+            List missing = readNames(in);
+
+            SimpleNode root = NodeSerializer.read(in);
+
+            /*
+             * same as parsing: start with an empty namespace and
+             * register the template's macros as we go
+             */
+            rsvc.dumpVMNamespace(template.getName());
+            registerMacros(root, template.getName());
+
+            if (!checkDirectives(directives, directiveClasses) ||
+                !checkVelocimacros(found, template.getName(), true) ||
+                !checkVelocimacros(missing, template.getName(), false))
+            {
+                log.debug("TemplateSnapshotCache : directives or velocimacros changed since '" +
+                          template.getName() + "' was cached, parsing it again");
+                return null;
+            }
+
+            if (log.isDebugEnabled())
+            {
+                log.debug("TemplateSnapshotCache : loaded '" + template.getName() +
+                          "' from " + file);
+            }
+            return root;
+        }
+        catch (Exception e)
+        {
+            log.debug("TemplateSnapshotCache : could not read " + file +
+                      ", parsing '" + template.getName() + "' again", e);
+            return null;
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    /**
+     * Writes the snapshot of a freshly parsed template.  This has to be
+     * called before the AST is initialized.
+     *
+     * @param template the template the AST was parsed from
+     * @param root the AST as returned by the parser
+     * @param source the raw bytes of the template source
+     */
+    public void store(Resource template, SimpleNode root, byte[] source)
+    {
+        if (!(root instanceof ASTprocess))
+        {
+            return;
+        }
+
+        List directives = new ArrayList();
+        List directiveClasses = new ArrayList();
+        List found = new ArrayList();
+        List missing = new ArrayList();
+
+        if (!collectLookups(((ASTprocess) root).getDirectiveLookups(), directives, null) ||
+            !collectLookups(((ASTprocess) root).getVelocimacroLookups(), found, missing))
+        {
+            /* the parser got different answers for the same name, don't cache */
+            return;
+        }
+
+        for (Iterator i = directives.iterator(); i.hasNext();)
+        {
+            Directive d = rsvc.getDirective((String) i.next());
+            directiveClasses.add(d == null ? "" : d.getClass().getName() + '/' + d.getType());
+        }
+
+        String key = getKey(template);
+        File file = getFile(key);
+        File tmp = null;
+        DataOutputStream out = null;
+
+        try
+        {
+            tmp = File.createTempFile("snapshot", ".tmp", directory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(key);
+
+            byte[] hash = digest(source);
+            out.writeInt(hash.length);
+            out.write(hash);
+
+            writeNames(directives, out);
+            writeNames(directiveClasses, out);
+            writeNames(found, out);
+            writeNames(missing, out);
+
+            NodeSerializer.write(root, out);
+
+            out.close();
+            out = null;
+
+            /* other threads or engines might be writing the same entry */
+            if (!tmp.renameTo(file))
+            {
+                file.delete();
+                if (!tmp.renameTo(file))
+                {
+                    log.debug("TemplateSnapshotCache : could not write " + file);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            log.debug("TemplateSnapshotCache : could not cache '" + template.getName() + "'", e);
+        }
+        finally
+        {
+            if (out != null)
+            {
+                try
+                {
+                    out.close();
+                }
+                catch (IOException ioe)
+                {
+                    // nothing we can do about it
+                }
+            }
+            if (tmp != null && tmp.exists())
+            {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * The parser registers inline velocimacros as soon as their
+     * definition ends, so inner definitions go first.
+     */
+    private void registerMacros(Node node, String templateName)
+        throws IOException, ParseException
+    {
+        for (int i = 0, k = node.jjtGetNumChildren(); i < k; i++)
+        {
+            registerMacros(node.jjtGetChild(i), templateName);
+        }
+
+        if (node instanceof ASTDirective &&
+            "macro".equals(((ASTDirective) node).getDirectiveName()))
+        {
+            Macro.processAndRegister(rsvc, node.getFirstToken(), node, templateName);
+        }
+    }
+
+    private boolean checkDirectives(List names, List classes)
+    {
+        for (int i = 0; i < names.size(); i++)
+        {
+            Directive d = rsvc.getDirective((String) names.get(i));
+            String current = (d == null) ? "" : d.getClass().getName() + '/' + d.getType();
+            if (!current.equals(classes.get(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean checkVelocimacros(List names, String templateName, boolean expected)
+    {
+        for (Iterator i = names.iterator(); i.hasNext();)
+        {
+            if (rsvc.isVelocimacro((String) i.next(), templateName) != expected)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits recorded lookups into names that were found and names that
+     * weren't.  Returns false if a name got different answers.
+     */
+    private static boolean collectLookups(Map lookups, List found, List missing)
+    {
+        if (lookups == null)
+        {
+            return true;
+        }
+
+        for (Iterator i = lookups.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            Boolean value = (Boolean) entry.getValue();
+            if (value == null)
+            {
+                return false;
+            }
+            if (missing == null || value.booleanValue())
+            {
+                found.add(entry.getKey());
+            }
+            else
+            {
+                missing.add(entry.getKey());
+            }
+        }
+        return true;
+    }
+
+    private static void writeNames(List names, DataOutputStream out)
+        throws IOException
+    {
+        out.writeInt(names.size());
+        for (Iterator i = names.iterator(); i.hasNext();)
+        {
+            out.writeUTF((String) i.next());
+        }
+    }
+
+    private static List readNames(DataInputStream in)
+        throws IOException
+    {
+        int count = in.readInt();
+        if (count < 0)
+        {
+            throw new IOException("Invalid name count " + count);
+        }
+
+        List names = new ArrayList(count);
+        for (int i = 0; i < count; i++)
+        {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+
+    private static String getKey(Resource template)
+    {
+        return template.getName() + '\n' +
+               template.getResourceLoader().getClass().getName() + '\n' +
+               template.getEncoding();
+    }
+
+    private File getFile(String key)
+    {
+        try
+        {
+            return new File(directory, toHex(digest(key.getBytes("UTF-8"))) + SUFFIX);
+        }
+        catch (UnsupportedEncodingException uee)
+        {
+            /* UTF-8 is always there */
+            throw new RuntimeException(uee);
+        }
+    }
+
+    private static byte[] digest(byte[] data)
+    {
+        try
+        {
+            return MessageDigest.getInstance("MD5").digest(data);
+        }
+        catch (NoSuchAlgorithmException nsae)
+        {
+            /* every JRE has MD5 */
+            throw new RuntimeException(nsae);
+        }
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuffer sb = new StringBuffer(bytes.length * 2);
+        for (int i = 0; i < bytes.length; i++)
+        {
+            int b = bytes[i] & 0xff;
+            if (b < 0x10)
+            {
+                sb.append('0');
+            }
+            sb.append(Integer.toHexString(b));
+        }
+        return sb.toString();
+    }
+
+    private static void close(DataInputStream in)
+    {
+        if (in != null)
+        {
+            try
+            {
+                in.close();
+            }
+            catch (IOException ioe)
+            {
+                // nothing we can do about it
+            }
+        }
+    }
+}
@@ -25,6 +25,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -34,6 +38,7 @@ import java.util.Map;
 import org.apache.commons.collections.ExtendedProperties;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.io.DecodedReader;
 import org.apache.velocity.io.UnicodeInputStream;
 import org.apache.velocity.runtime.resource.Resource;
 import org.apache.velocity.util.StringUtils;
@@ -66,6 +71,15 @@ public class FileResourceLoader extends ResourceLoader
     /** Shall we inspect unicode files to see what encoding they contain?. */
     private boolean unicode = false;
 
+    /** Shall we read files with NIO and decode them in one go? */
+    private boolean nio = false;
+
+    /** Watches the paths for changes, if asked to. */
+    private volatile FileWatcher watcher = null;
+
+    /** the configured check interval, used again once watching stops. */
+    private long watchedCheckInterval = 0;
+
     /**
      * @see org.apache.velocity.runtime.resource.loader.ResourceLoader#init(org.apache.commons.collections.ExtendedProperties)
      */
@@ -88,6 +102,15 @@ public class FileResourceLoader extends ResourceLoader
             log.debug("Do unicode file recognition:  " + unicode);
         }
 
+        // read whole files through a channel, and decode them at once
+        // instead of through a stack of streams and readers
+        nio = configuration.getBoolean("nio", false);
+
+        if (configuration.getBoolean("watch", false))
+        {
+            startWatching();
+        }
+
         if (log.isDebugEnabled())
         {
             // trim spaces from all paths
@@ -103,6 +126,118 @@ public class FileResourceLoader extends ResourceLoader
         }
     }
 
+    /**
+     * Registers all paths with a file watcher, so that changed files
+     * are reported to the resource manager as they happen.  If that
+     * works, there's no more need to check files for modification.
+     */
+    private void startWatching()
+    {
+        if (!FileWatcher.isAvailable())
+        {
+            log.info("FileResourceLoader : watching files needs Java 7 or later, " +
+                     "checking for modifications instead");
+            return;
+        }
+
+        try
+        {
+            watcher = new FileWatcher(this, log);
+            for (int i = 0; i < paths.size(); i++)
+            {
+                String path = ((String) paths.get(i)).trim();
+                File directory = new File(path);
+                if (path.length() > 0 && directory.isDirectory())
+                {
+                    watcher.watchTree(directory);
+                }
+            }
+            watcher.start();
+
+            watchedCheckInterval = modificationCheckInterval;
+            modificationCheckInterval = 0;
+            log.debug("FileResourceLoader : watching template paths for changes");
+        }
+        catch (Exception e)
+        {
+            log.warn("FileResourceLoader : unable to watch template paths, " +
+                     "checking for modifications instead", e);
+            if (watcher != null)
+            {
+                watcher.close();
+                watcher = null;
+            }
+        }
+    }
+
+    /**
+     * Stops watching the paths for changes, if they were watched.
+     * Files are then checked for modification again.
+     *
+     * @see org.apache.velocity.runtime.resource.loader.ResourceLoader#close()
+     * @since 1.6.4
+     */
+    public synchronized void close()
+    {
+        if (watcher != null)
+        {
+            watcher.close();
+            watcher = null;
+            modificationCheckInterval = watchedCheckInterval;
+
+            /* what was loaded so far would never be checked */
+            fireResourceChanged(null);
+        }
+    }
+
+    /**
+     * @return true if the paths are watched for changes
+     * @see org.apache.velocity.runtime.resource.loader.ResourceLoader#reportsResourceChanges()
+     * @since 1.6.4
+     */
+    public boolean reportsResourceChanges()
+    {
+        return watcher != null;
+    }
+
+    /**
+     * Called by the file watcher when a file below one of the paths
+     * was created, modified or deleted.
+     *
+     * @param file the file, or null if any file may have changed
+     */
+    void fileChanged(File file)
+    {
+        if (file == null)
+        {
+            templatePaths.clear();
+            fireResourceChanged(null);
+            return;
+        }
+
+        String fileName = file.getAbsolutePath();
+        for (int i = 0; i < paths.size(); i++)
+        {
+            String path = ((String) paths.get(i)).trim();
+            if (path.length() == 0)
+            {
+                continue;
+            }
+
+            String root = new File(path).getAbsolutePath() + File.separator;
+            if (fileName.startsWith(root))
+            {
+                String name = fileName.substring(root.length()).replace(File.separatorChar, '/');
+                if (log.isDebugEnabled())
+                {
+                    log.debug("FileResourceLoader : " + name + " changed");
+                }
+                fireResourceChanged(name);
+                return;
+            }
+        }
+    }
+
     /**
      * Get an InputStream so that the Runtime can build a
      * template with it.
@@ -115,31 +250,7 @@ public class FileResourceLoader extends ResourceLoader
     public InputStream getResourceStream(String templateName)
         throws ResourceNotFoundException
     {
-        /*
-         * Make sure we have a valid templateName.
-         */
-        if (org.apache.commons.lang.StringUtils.isEmpty(templateName))
-        {
-            /*
-             * If we don't get a properly formed templateName then
-             * there's not much we can do. So we'll forget about
-             * trying to search any more paths for the template.
-             */
-            throw new ResourceNotFoundException(
-                "Need to specify a file name or file path!");
-        }
-
-        String template = StringUtils.normalizePath(templateName);
-        if ( template == null || template.length() == 0 )
-        {
-            String msg = "File resource error : argument " + template +
-                " contains .. and may be trying to access " +
-                "content outside of template root.  Rejected.";
-
-            log.error("FileResourceLoader : " + msg);
-
-            throw new ResourceNotFoundException ( msg );
-        }
+        String template = checkTemplateName(templateName);
 
         int size = paths.size();
         for (int i = 0; i < size; i++)
@@ -178,6 +289,91 @@ public class FileResourceLoader extends ResourceLoader
          throw new ResourceNotFoundException("FileResourceLoader : cannot find " + template);
     }
 
+    /**
+     * Reads the whole file through a channel and decodes it in one go,
+     * if <code>nio</code> is set.  Otherwise, the stream from
+     * {@link #getResourceStream(String)} is decoded as usual.
+     *
+     * @see org.apache.velocity.runtime.resource.loader.ResourceLoader#getResourceReader(java.lang.String, java.lang.String)
+     * @since 1.6.4
+     */
+    public Reader getResourceReader(String templateName, String encoding)
+        throws ResourceNotFoundException, UnsupportedEncodingException
+    {
+        if (!nio)
+        {
+            return super.getResourceReader(templateName, encoding);
+        }
+
+        String template = checkTemplateName(templateName);
+
+        int size = paths.size();
+        for (int i = 0; i < size; i++)
+        {
+            String path = (String) paths.get(i);
+            Reader reader = null;
+
+            try
+            {
+                reader = readTemplate(path, template, encoding);
+            }
+            catch (UnsupportedEncodingException uee)
+            {
+                throw uee;
+            }
+            catch (IOException ioe)
+            {
+                String msg = "Exception while loading Template " + template;
+                log.error(msg, ioe);
+                throw new VelocityException(msg, ioe);
+            }
+
+            if (reader != null)
+            {
+                templatePaths.put(templateName, path);
+                return reader;
+            }
+        }
+
+        throw new ResourceNotFoundException("FileResourceLoader : cannot find " + template);
+    }
+
+    /**
+     * Makes sure we have a valid templateName.
+     *
+     * @return the normalized name
+     */
+    private String checkTemplateName(String templateName)
+        throws ResourceNotFoundException
+    {
+        /*
+         * Make sure we have a valid templateName.
+         */
+        if (org.apache.commons.lang.StringUtils.isEmpty(templateName))
+        {
+            /*
+             * If we don't get a properly formed templateName then
+             * there's not much we can do. So we'll forget about
+             * trying to search any more paths for the template.
+             */
+            throw new ResourceNotFoundException(
+                "Need to specify a file name or file path!");
+        }
+
+        String template = StringUtils.normalizePath(templateName);
+        if ( template == null || template.length() == 0 )
+        {
+            String msg = "File resource error : argument " + template +
+                " contains .. and may be trying to access " +
+                "content outside of template root.  Rejected.";
+
+            log.error("FileResourceLoader : " + msg);
+
+            throw new ResourceNotFoundException ( msg );
+        }
+        return template;
+    }
+
     /**
      * Overrides superclass for better performance.
      * @since 1.6
@@ -283,6 +479,61 @@ public class FileResourceLoader extends ResourceLoader
         }
     }
 
+    /**
+     * Reads a template in one go and decodes it, skipping a BOM if
+     * <code>unicode</code> is set, like {@link UnicodeInputStream} does.
+     *
+     * @return a reader for the decoded template, or null if it isn't there
+     */
+    private Reader readTemplate(final String path, final String template, final String encoding)
+        throws IOException
+    {
+        File file = getFile(path, template);
+        if (!file.canRead())
+        {
+            return null;
+        }
+
+        FileInputStream fis = null;
+        try
+        {
+            fis = new FileInputStream(file.getAbsolutePath());
+            FileChannel channel = fis.getChannel();
+
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("Template " + file + " is too large");
+            }
+
+            ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) != -1)
+            {
+                // keep reading
+            }
+            bytes.flip();
+
+            if (unicode)
+            {
+                if (log.isDebugEnabled())
+                {
+                    log.debug("File Encoding for " + file + " is: " + UnicodeInputStream.getEncoding(bytes));
+                }
+                bytes.position(UnicodeInputStream.getBOMLength(bytes));
+            }
+
+            return DecodedReader.decode(bytes, encoding);
+        }
+        catch (FileNotFoundException fnfe)
+        {
+            return null;
+        }
+        finally
+        {
+            closeQuiet(fis);
+        }
+    }
+
     private void closeQuiet(final InputStream is)
     {
         if (is != null)
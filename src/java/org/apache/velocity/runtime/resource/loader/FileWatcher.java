@@ -0,0 +1,296 @@
+package org.apache.velocity.runtime.resource.loader;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.velocity.runtime.log.Log;
+
+/**
+ * Watches directory trees for changed files with the
+ * <code>java.nio.file.WatchService</code> of Java 7 and later, and tells
+ * a {@link FileResourceLoader} about them.  Like
+ * {@link org.apache.velocity.util.MapFactory}, the service is only used
+ * through reflection, so that there is no compile time dependency on
+ * Java 7; {@link #isAvailable()} tells whether it is there at all.
+ *
+ * <p>The loader is only weakly referenced, so that the watcher thread
+ * doesn't keep it alive.  The thread wakes up every few seconds, and
+ * stops watching once the loader is gone, if it wasn't closed before.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+class FileWatcher implements Runnable
+{
+    /** how long the thread waits for changes before it looks at the loader again */
+    private static final long POLL_SECONDS = 5;
+
+    private static Method toPath;
+    private static Method newWatchService;
+    private static Method register;
+    private static Method poll;
+    private static Method close;
+    private static Method pollEvents;
+    private static Method watchable;
+    private static Method reset;
+    private static Method kind;
+    private static Method context;
+    private static Method resolve;
+    private static Method toFile;
+    private static Object fileSystem;
+    private static Object kinds;
+    private static Object overflow;
+    private static Object seconds;
+
+    static
+    {
+        try
+        {
+            Class pathClass = Class.forName("java.nio.file.Path");
+            Class serviceClass = Class.forName("java.nio.file.WatchService");
+            Class keyClass = Class.forName("java.nio.file.WatchKey");
+            Class eventClass = Class.forName("java.nio.file.WatchEvent");
+            Class kindClass = Class.forName("java.nio.file.WatchEvent$Kind");
+            Class kindsClass = Class.forName("java.nio.file.StandardWatchEventKinds");
+
+            kinds = Array.newInstance(kindClass, 3);
+            Array.set(kinds, 0, kindsClass.getField("ENTRY_CREATE").get(null));
+            Array.set(kinds, 1, kindsClass.getField("ENTRY_DELETE").get(null));
+            Array.set(kinds, 2, kindsClass.getField("ENTRY_MODIFY").get(null));
+            overflow = kindsClass.getField("OVERFLOW").get(null);
+
+            fileSystem = Class.forName("java.nio.file.FileSystems")
+                .getMethod("getDefault", new Class[0]).invoke(null, new Object[0]);
+            newWatchService = Class.forName("java.nio.file.FileSystem")
+                .getMethod("newWatchService", new Class[0]);
+
+            toPath = File.class.getMethod("toPath", new Class[0]);
+            register = pathClass.getMethod("register", new Class[] { serviceClass, kinds.getClass() });
+            resolve = pathClass.getMethod("resolve", new Class[] { pathClass });
+            toFile = pathClass.getMethod("toFile", new Class[0]);
+            Class unitClass = Class.forName("java.util.concurrent.TimeUnit");
+            seconds = unitClass.getField("SECONDS").get(null);
+            poll = serviceClass.getMethod("poll", new Class[] { Long.TYPE, unitClass });
+            close = serviceClass.getMethod("close", new Class[0]);
+            pollEvents = keyClass.getMethod("pollEvents", new Class[0]);
+            watchable = keyClass.getMethod("watchable", new Class[0]);
+            reset = keyClass.getMethod("reset", new Class[0]);
+            kind = eventClass.getMethod("kind", new Class[0]);
+            context = eventClass.getMethod("context", new Class[0]);
+        }
+        catch (Exception e)
+        {
+            // not running under JRE 1.7+
+            reset = null;
+        }
+    }
+
+    private final WeakReference loader;
+    private final Log log;
+    private final Object service;
+    private volatile boolean closed = false;
+
+    /**
+     * @return whether watching files is supported by this JRE
+     */
+    static boolean isAvailable()
+    {
+        return reset != null;
+    }
+
+    /**
+     * @param loader the loader to tell about changed files
+     * @param log where to log problems
+     * @throws Exception if the watch service can't be created
+     */
+    FileWatcher(FileResourceLoader loader, Log log)
+        throws Exception
+    {
+        this.loader = new WeakReference(loader);
+        this.log = log;
+        this.service = invoke(newWatchService, fileSystem, new Object[0]);
+    }
+
+    /**
+     * Watches a directory and all directories below it.
+     *
+     * @param directory the root of the tree to watch
+     * @throws Exception if a directory can't be watched
+     */
+    void watchTree(File directory)
+        throws Exception
+    {
+        invoke(register, invoke(toPath, directory, new Object[0]),
+               new Object[] { service, kinds });
+
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (int i = 0; i < files.length; i++)
+            {
+                if (files[i].isDirectory())
+                {
+                    watchTree(files[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a daemon thread that waits for changes.
+     */
+    void start()
+    {
+        Thread thread = new Thread(this, "Velocity FileResourceLoader watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching.
+     */
+    void close()
+    {
+        closed = true;
+        try
+        {
+            invoke(close, service, new Object[0]);
+        }
+        catch (Exception e)
+        {
+            log.debug("FileResourceLoader : problem closing watch service", e);
+        }
+    }
+
+    /**
+     * Waits for changes and reports them until the service is closed
+     * or the loader is gone.
+     */
+    public void run()
+    {
+        Object[] timeout = new Object[] { new Long(POLL_SECONDS), seconds };
+        while (!closed)
+        {
+            Object key;
+            try
+            {
+                key = invoke(poll, service, timeout);
+            }
+            catch (Exception e)
+            {
+                /* closed or interrupted, either way we're done */
+                if (!closed)
+                {
+                    log.warn("FileResourceLoader : no longer watching files", e);
+                }
+                return;
+            }
+
+            if (loader.get() == null)
+            {
+                log.debug("FileResourceLoader : loader is gone, no longer watching files");
+                close();
+                return;
+            }
+
+            if (key != null)
+            {
+                report(key);
+            }
+        }
+    }
+
+    /**
+     * Tells the loader about the changes of one watched directory.
+     */
+    private void report(Object key)
+    {
+        FileResourceLoader target = (FileResourceLoader) loader.get();
+        if (target == null)
+        {
+            return;
+        }
+
+        try
+        {
+            Object directory = invoke(watchable, key, new Object[0]);
+            List events = (List) invoke(pollEvents, key, new Object[0]);
+            for (Iterator i = events.iterator(); i.hasNext();)
+            {
+                Object event = i.next();
+                if (invoke(kind, event, new Object[0]) == overflow)
+                {
+                    /* events were lost, anything may have changed */
+                    target.fileChanged(null);
+                    continue;
+                }
+
+                File file = (File) invoke(toFile,
+                    invoke(resolve, directory, new Object[] { invoke(context, event, new Object[0]) }),
+                    new Object[0]);
+                if (file.isDirectory())
+                {
+                    watchTree(file);
+                }
+                target.fileChanged(file);
+            }
+        }
+        catch (Exception e)
+        {
+            log.error("FileResourceLoader : problem handling changed files", e);
+        }
+        finally
+        {
+            try
+            {
+                invoke(reset, key, new Object[0]);
+            }
+            catch (Exception e)
+            {
+                // the directory is gone, nothing to reset
+            }
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args)
+        throws Exception
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException ite)
+        {
+            Throwable cause = ite.getTargetException();
+            if (cause instanceof Exception)
+            {
+                throw (Exception) cause;
+            }
+            throw ite;
+        }
+    }
+}
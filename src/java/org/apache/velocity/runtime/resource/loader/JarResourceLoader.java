@@ -239,6 +239,17 @@ public class JarResourceLoader extends ResourceLoader
     }
 
 
+    /**
+     * The entries of the jars are read once in init(), so what exists
+     * never changes.
+     * @see org.apache.velocity.runtime.resource.loader.ResourceLoader#reportsResourceChanges()
+     * @since 1.6.4
+     */
+    public boolean reportsResourceChanges()
+    {
+        return true;
+    }
+
     // TODO: SHOULD BE DELEGATED TO THE JARHOLDER
 
     /**
@@ -0,0 +1,39 @@
+package org.apache.velocity.runtime.resource.loader;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Told by a {@link ResourceLoader} that knows when its resources change,
+ * e.g. because it watches the file system, about such changes.
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public interface ResourceChangeListener
+{
+    /**
+     * A resource was added, changed or removed.
+     *
+     * @param loader the loader the resource belongs to
+     * @param name name of the resource, or null if any resource of
+     *        the loader may have changed
+     */
+    public void resourceChanged(ResourceLoader loader, String name);
+}
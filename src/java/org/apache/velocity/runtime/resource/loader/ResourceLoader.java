@@ -19,7 +19,12 @@ package org.apache.velocity.runtime.resource.loader;
  * under the License.    
  */
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 
 import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.log.Log;
@@ -60,6 +65,13 @@ public abstract class ResourceLoader
     protected RuntimeServices rsvc = null;
     protected Log log = null;
 
+    /**
+     * Listeners to tell about changed resources, replaced as a whole
+     * when one is added.
+     */
+    private volatile ResourceChangeListener[] changeListeners =
+        new ResourceChangeListener[0];
+
     /**
      * This initialization is used by all resource
      * loaders and must be called to set up common
@@ -136,6 +148,47 @@ public abstract class ResourceLoader
     public abstract InputStream getResourceStream( String source )
         throws ResourceNotFoundException;
 
+    /**
+     * Get a Reader with the decoded chars of a resource.  The default
+     * decodes the stream from {@link #getResourceStream(String)};
+     * loaders that can decode their resources more directly may
+     * override this.
+     *
+     * @param source
+     * @param encoding the encoding of the resource
+     * @return A reader for the requested resource, or null if
+     *         {@link #getResourceStream(String)} returns null.
+     * @throws ResourceNotFoundException
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     * @since 1.6.4
+     */
+    public Reader getResourceReader(String source, String encoding)
+        throws ResourceNotFoundException, UnsupportedEncodingException
+    {
+        InputStream is = getResourceStream(source);
+        if (is == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return new BufferedReader(new InputStreamReader(is, encoding));
+        }
+        catch (UnsupportedEncodingException uee)
+        {
+            try
+            {
+                is.close();
+            }
+            catch (IOException ioe)
+            {
+                // nothing we can do about it
+            }
+            throw uee;
+        }
+    }
+
     /**
      * Given a template, check to see if the source of InputStream
      * has been modified.
@@ -254,4 +307,62 @@ public abstract class ResourceLoader
         }
         return (is != null);
     }
+
+    /**
+     * Tells whether what {@link #resourceExists(String)} answers may be
+     * remembered until this loader reports a change through
+     * {@link #fireResourceChanged(String)}; that is, whether its set of
+     * resources never changes, or it reports all changes.
+     *
+     * @return false unless a loader knows better
+     * @since 1.6.4
+     */
+    public boolean reportsResourceChanges()
+    {
+        return false;
+    }
+
+    /**
+     * Releases whatever the loader holds on to beyond its resources,
+     * such as threads watching for changes.  Called when the resource
+     * manager is shut down; resources may still be asked for afterwards.
+     *
+     * @since 1.6.4
+     */
+    public void close()
+    {
+    }
+
+    /**
+     * Registers a listener for changed resources.  Only loaders that
+     * find out about changes by themselves ever call it, see
+     * {@link #fireResourceChanged(String)}.
+     *
+     * @param listener the listener to add
+     * @since 1.6.4
+     */
+    public synchronized void addResourceChangeListener(ResourceChangeListener listener)
+    {
+        ResourceChangeListener[] listeners =
+            new ResourceChangeListener[changeListeners.length + 1];
+        System.arraycopy(changeListeners, 0, listeners, 0, changeListeners.length);
+        listeners[changeListeners.length] = listener;
+        changeListeners = listeners;
+    }
+
+    /**
+     * Tells all listeners that a resource was added, changed or removed.
+     *
+     * @param name name of the resource, or null if any resource may
+     *        have changed
+     * @since 1.6.4
+     */
+    protected void fireResourceChanged(String name)
+    {
+        ResourceChangeListener[] listeners = changeListeners;
+        for (int i = 0; i < listeners.length; i++)
+        {
+            listeners[i].resourceChanged(this, name);
+        }
+    }
 }
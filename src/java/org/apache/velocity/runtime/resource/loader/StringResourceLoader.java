@@ -25,10 +25,12 @@ import java.util.Map;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
 import org.apache.commons.collections.ExtendedProperties;
 import org.apache.commons.lang.StringUtils;
 import org.apache.velocity.exception.ResourceNotFoundException;
 import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.resource.Resource;
 import org.apache.velocity.runtime.resource.util.StringResource;
 import org.apache.velocity.runtime.resource.util.StringResourceRepository;
@@ -204,6 +206,9 @@ public class StringResourceLoader extends ResourceLoader
     // the repository used internally by this resource loader
     protected StringResourceRepository repository;
 
+    // passes the changes of the repository on, if the loader index is on
+    private volatile RepositoryListener listener = null;
+
 
     /**
      * @see org.apache.velocity.runtime.resource.loader.ResourceLoader#init(org.apache.commons.collections.ExtendedProperties)
@@ -275,9 +280,47 @@ public class StringResourceLoader extends ResourceLoader
             }
         }
 
+        /*
+         * the default repository reports puts and removes; subclasses
+         * might bypass that, so only rely on the default one.  Only the
+         * loader index needs to hear about them.
+         */
+        if (this.repository.getClass() == StringResourceRepositoryImpl.class &&
+            rsvc.getBoolean(RuntimeConstants.RESOURCE_MANAGER_LOADER_INDEX, false))
+        {
+            StringResourceRepositoryImpl repo = (StringResourceRepositoryImpl) this.repository;
+            listener = new RepositoryListener(this, repo);
+            repo.addResourceChangeListener(listener);
+        }
+
         log.trace("StringResourceLoader : initialization complete.");
     }
 
+    /**
+     * @return true if the repository reports all changes
+     * @see org.apache.velocity.runtime.resource.loader.ResourceLoader#reportsResourceChanges()
+     * @since 1.6.4
+     */
+    public boolean reportsResourceChanges()
+    {
+        return listener != null;
+    }
+
+    /**
+     * Stops listening to the repository, which may outlive this loader.
+     *
+     * @see org.apache.velocity.runtime.resource.loader.ResourceLoader#close()
+     * @since 1.6.4
+     */
+    public synchronized void close()
+    {
+        if (listener != null)
+        {
+            listener.repository.removeResourceChangeListener(listener);
+            listener = null;
+        }
+    }
+
     /**
      * @since 1.6
      */
@@ -405,5 +448,33 @@ public class StringResourceLoader extends ResourceLoader
                 : 0;
     }
 
-}
+    /**
+     * Passes changes of the repository on as changes of the loader.
+     * Static repositories outlive engines, so the loader is only
+     * weakly referenced, and the listener goes away with it.
+     */
+    private static final class RepositoryListener implements ResourceChangeListener
+    {
+        private final WeakReference loader;
+        private final StringResourceRepositoryImpl repository;
 
+        RepositoryListener(StringResourceLoader loader, StringResourceRepositoryImpl repository)
+        {
+            this.loader = new WeakReference(loader);
+            this.repository = repository;
+        }
+
+        public void resourceChanged(ResourceLoader source, String name)
+        {
+            StringResourceLoader l = (StringResourceLoader) loader.get();
+            if (l == null)
+            {
+                repository.removeResourceChangeListener(this);
+            }
+            else
+            {
+                l.fireResourceChanged(name);
+            }
+        }
+    }
+}
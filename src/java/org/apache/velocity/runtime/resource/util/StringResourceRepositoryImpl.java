@@ -22,6 +22,7 @@ package org.apache.velocity.runtime.resource.util;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import org.apache.velocity.runtime.resource.loader.ResourceChangeListener;
 import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
 
 /**
@@ -40,6 +41,12 @@ public class StringResourceRepositoryImpl implements StringResourceRepository
      */
     protected Map resources = Collections.synchronizedMap(new HashMap());
 
+    /**
+     * Told about every put and remove, replaced as a whole when one
+     * is added.
+     */
+    private volatile ResourceChangeListener[] listeners = new ResourceChangeListener[0];
+
     /**
      * Current Repository encoding.
      */
@@ -59,6 +66,7 @@ public class StringResourceRepositoryImpl implements StringResourceRepository
     public void putStringResource(final String name, final String body)
     {
         resources.put(name, new StringResource(body, getEncoding()));
+        fireResourceChanged(name);
     }
 
     /**
@@ -68,6 +76,7 @@ public class StringResourceRepositoryImpl implements StringResourceRepository
     public void putStringResource(final String name, final String body, final String encoding)
     {
         resources.put(name, new StringResource(body, encoding));
+        fireResourceChanged(name);
     }
 
     /**
@@ -76,6 +85,54 @@ public class StringResourceRepositoryImpl implements StringResourceRepository
     public void removeStringResource(final String name)
     {
         resources.remove(name);
+        fireResourceChanged(name);
+    }
+
+    /**
+     * Registers a listener to be told about every resource that is put
+     * into or removed from this repository.  The listener is passed
+     * null for the loader.
+     *
+     * @param listener the listener to add
+     * @since 1.6.4
+     */
+    public synchronized void addResourceChangeListener(ResourceChangeListener listener)
+    {
+        ResourceChangeListener[] l = new ResourceChangeListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, l, 0, listeners.length);
+        l[listeners.length] = listener;
+        listeners = l;
+    }
+
+    /**
+     * Removes a listener added with
+     * {@link #addResourceChangeListener(ResourceChangeListener)}.
+     *
+     * @param listener the listener to remove
+     * @since 1.6.4
+     */
+    public synchronized void removeResourceChangeListener(ResourceChangeListener listener)
+    {
+        for (int i = 0; i < listeners.length; i++)
+        {
+            if (listeners[i] == listener)
+            {
+                ResourceChangeListener[] l = new ResourceChangeListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, l, 0, i);
+                System.arraycopy(listeners, i + 1, l, i, l.length - i);
+                listeners = l;
+                return;
+            }
+        }
+    }
+
+    private void fireResourceChanged(String name)
+    {
+        ResourceChangeListener[] l = listeners;
+        for (int i = 0; i < l.length; i++)
+        {
+            l[i].resourceChanged(null, name);
+        }
     }
 
     /**
@@ -42,6 +42,7 @@ import org.apache.velocity.context.Context;
 import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.io.ByteWriter;
 import org.apache.velocity.io.VelocityWriter;
 import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.RuntimeSingleton;
@@ -118,6 +119,14 @@ public abstract class VelocityServlet extends HttpServlet
      */
     public static final String DEFAULT_OUTPUT_ENCODING = "ISO-8859-1";
 
+    /**
+     * If this property is true, templates are merged into a
+     * {@link ByteWriter}, so that their static text is encoded once
+     * rather than for every request.  Default is false.
+     * @since 1.6.4
+     */
+    public static final String OUTPUT_BYTES = "servlet.output.bytes";
+
     /**
      * The default content type, itself defaulting to {@link
      * #DEFAULT_CONTENT_TYPE} if not configured.
@@ -143,6 +152,14 @@ public abstract class VelocityServlet extends HttpServlet
 
     private static SimplePool writerPool = new SimplePool(40);
 
+    /**
+     * Cache of byte writers, used instead if {@link #OUTPUT_BYTES} is set
+     */
+
+    private static SimplePool byteWriterPool = new SimplePool(40);
+
+    private boolean outputBytes = false;
+
     /**
      * Performs initialization of this servlet.  Called by the servlet
      * container on loading.
@@ -166,6 +183,7 @@ public abstract class VelocityServlet extends HttpServlet
          */
         VelocityServlet.defaultContentType =
                 RuntimeSingleton.getString(CONTENT_TYPE, DEFAULT_CONTENT_TYPE);
+        outputBytes = RuntimeSingleton.getBoolean(OUTPUT_BYTES, false);
     }
 
     /**
@@ -434,6 +452,12 @@ public abstract class VelocityServlet extends HttpServlet
         // ASSUMPTION: response.setContentType() has been called.
         String encoding = response.getCharacterEncoding();
 
+        if (outputBytes)
+        {
+            mergeTemplate(template, context, output, encoding);
+            return;
+        }
+
         try
         {
             vw = (VelocityWriter) writerPool.get();
@@ -480,6 +504,48 @@ public abstract class VelocityServlet extends HttpServlet
         }
     }
 
+    /**
+     * Merges the template into a pooled {@link ByteWriter}, which writes
+     * the static text of the template as it was encoded before.
+     */
+    private void mergeTemplate(Template template, Context context,
+                               ServletOutputStream output, String encoding)
+        throws Exception
+    {
+        ByteWriter bw = (ByteWriter) byteWriterPool.get();
+
+        if (bw == null || !bw.getEncoding().equalsIgnoreCase(encoding))
+        {
+            bw = new ByteWriter(output, encoding, 4 * 1024);
+        }
+        else
+        {
+            bw.recycle(output);
+        }
+
+        try
+        {
+            template.merge(context, bw);
+        }
+        finally
+        {
+            try
+            {
+                /*
+                 *  flush, but don't close, as above
+                 */
+                bw.flush();
+            }
+            catch (IOException e)
+            {
+                // do nothing
+            }
+
+            bw.recycle(null);
+            byteWriterPool.put(bw);
+        }
+    }
+
     /**
      * Sets the content type of the response, defaulting to {@link
      * #defaultContentType} if not overriden.  Delegates to {@link
@@ -0,0 +1,224 @@
+package org.apache.velocity.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the class file of a class Velocity generates.  There is no
+ * bytecode library behind it: the constant pool and the methods are
+ * written out byte by byte, as Java 1.4 class files, which need no
+ * stack maps.  The code of each method is written by the caller.
+ *
+ * <p>Names are internal names, as in <code>java/lang/Object</code>.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public final class ClassFile
+{
+    /** ACC_PUBLIC */
+    public static final int PUBLIC = 0x0001;
+
+    /** ACC_PROTECTED */
+    public static final int PROTECTED = 0x0004;
+
+    /** ACC_FINAL */
+    public static final int FINAL = 0x0010;
+
+    /** entry -> index */
+    private final Map indexes = new HashMap();
+
+    /** the entries of the constant pool, written out */
+    private final List entries = new ArrayList();
+
+    private int size = 1;
+
+    private final int thisClass;
+
+    private final int superClass;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+
+    private int methodCount = 0;
+
+    private final int code;
+
+    /**
+     * @param className the internal name of the class
+     * @param superName the internal name of its superclass
+     */
+    public ClassFile(String className, String superName)
+    {
+        thisClass = classRef(className);
+        superClass = classRef(superName);
+        code = utf8("Code");
+    }
+
+    /**
+     * @param value
+     * @return the index of a UTF8 constant
+     */
+    public int utf8(String value)
+    {
+        return add("U" + value, 1, new Object[] { value });
+    }
+
+    /**
+     * @param internalName
+     * @return the index of a class constant
+     */
+    public int classRef(String internalName)
+    {
+        int name = utf8(internalName);
+        return add("C" + internalName, 7, new Object[] { new Integer(name) });
+    }
+
+    /**
+     * @param owner the internal name of the class of the method
+     * @param name
+     * @param descriptor
+     * @param isInterface whether the owner is an interface
+     * @return the index of a method constant
+     */
+    public int methodRef(String owner, String name, String descriptor, boolean isInterface)
+    {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = add("N" + name + ' ' + descriptor, 12,
+                              new Object[] { new Integer(nameIndex), new Integer(descriptorIndex) });
+        return add((isInterface ? "I" : "M") + owner + '.' + name + descriptor,
+                   isInterface ? 11 : 10,
+                   new Object[] { new Integer(ownerIndex), new Integer(nameAndType) });
+    }
+
+    /**
+     * Adds a method with its code, and no exception table.
+     *
+     * @param access the access flags
+     * @param name
+     * @param descriptor
+     * @param maxStack
+     * @param maxLocals
+     * @param bytes the code
+     * @throws IOException
+     */
+    public void addMethod(int access, String name, String descriptor,
+                          int maxStack, int maxLocals, byte[] bytes)
+        throws IOException
+    {
+        methods.writeShort(access);
+        methods.writeShort(utf8(name));
+        methods.writeShort(utf8(descriptor));
+        methods.writeShort(1);
+
+        methods.writeShort(code);
+        methods.writeInt(12 + bytes.length);
+        methods.writeShort(maxStack);
+        methods.writeShort(maxLocals);
+        methods.writeInt(bytes.length);
+        methods.write(bytes);
+        methods.writeShort(0); // exception table
+        methods.writeShort(0); // attributes
+        methodCount++;
+    }
+
+    /**
+     * Adds <code>public &lt;init&gt;() { super(); }</code>.
+     *
+     * @param superName the internal name of the superclass
+     * @throws IOException
+     */
+    public void addDefaultConstructor(String superName) throws IOException
+    {
+        int superInit = methodRef(superName, "<init>", "()V", false);
+        addMethod(PUBLIC, "<init>", "()V", 1, 1,
+                  new byte[] { 0x2a, (byte) 0xb7, (byte) (superInit >> 8), (byte) superInit, (byte) 0xb1 });
+    }
+
+    /**
+     * @param access the access flags of the class
+     * @return the class file
+     * @throws IOException
+     */
+    public byte[] toByteArray(int access) throws IOException
+    {
+        methods.flush();
+
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(classBytes);
+        out.writeInt(0xcafebabe);
+        out.writeShort(0);
+        out.writeShort(48); // Java 1.4
+
+        out.writeShort(size);
+        for (int i = 0; i < entries.size(); i++)
+        {
+            Object[] entry = (Object[]) entries.get(i);
+            out.writeByte(((Integer) entry[0]).intValue());
+            for (int j = 1; j < entry.length; j++)
+            {
+                if (entry[j] instanceof String)
+                {
+                    out.writeUTF((String) entry[j]);
+                }
+                else
+                {
+                    out.writeShort(((Integer) entry[j]).intValue());
+                }
+            }
+        }
+
+        out.writeShort(access | 0x0020); // super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(methodCount);
+        methodBytes.writeTo(out);
+        out.writeShort(0); // attributes
+        out.flush();
+        return classBytes.toByteArray();
+    }
+
+    private int add(String key, int tag, Object[] values)
+    {
+        Integer index = (Integer) indexes.get(key);
+        if (index == null)
+        {
+            index = new Integer(size++);
+            indexes.put(key, index);
+            Object[] entry = new Object[values.length + 1];
+            entry[0] = new Integer(tag);
+            System.arraycopy(values, 0, entry, 1, values.length);
+            entries.add(entry);
+        }
+        return index.intValue();
+    }
+}
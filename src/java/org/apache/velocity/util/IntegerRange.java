@@ -0,0 +1,190 @@
+package org.apache.velocity.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The list of Integers from one int to another, as created by the range
+ * operator [n..m].  The values are worked out when asked for, so a range
+ * costs the same whatever its size.  The list can still be changed like
+ * the ArrayList it used to be; the first change copies the values into
+ * an ArrayList, and the range works on that from then on.
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public class IntegerRange extends AbstractList implements RandomAccess, Serializable
+{
+    private static final long serialVersionUID = 4384633530543185917L;
+
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1023;
+
+    /** the Integers handed out most, shared like Integer.valueOf() would */
+    private static final Integer[] CACHE = new Integer[CACHE_HIGH - CACHE_LOW + 1];
+
+    static
+    {
+        for (int i = 0; i < CACHE.length; i++)
+        {
+            CACHE[i] = new Integer(i + CACHE_LOW);
+        }
+    }
+
+    private final int first;
+    private final int delta;
+    private final int size;
+
+    /** the values once the list was changed, null until then */
+    private ArrayList changed;
+
+    /**
+     * Creates the range from first to last, both included, counting
+     * down if last is smaller than first.
+     *
+     * @param first the first value
+     * @param last the last value
+     */
+    public IntegerRange(int first, int last)
+    {
+        this.first = first;
+        this.delta = (first > last) ? -1 : 1;
+        this.size = (int) Math.min(Math.abs((long) last - first) + 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns an Integer for the value, shared for the small ones.  Stands
+     * in for Integer.valueOf(int), which JDK 1.4 doesn't have.
+     *
+     * @param value
+     * @return The Integer.
+     */
+    public static Integer valueOf(int value)
+    {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH)
+        {
+            return CACHE[value - CACHE_LOW];
+        }
+        return new Integer(value);
+    }
+
+    /**
+     * @return Whether this still is the range it was created as, so that
+     *         {@link #getInt(int)} can be used instead of {@link #get(int)}.
+     */
+    public boolean isUnchanged()
+    {
+        return changed == null;
+    }
+
+    /**
+     * Returns a value of the range without boxing it.  Only valid as
+     * long as {@link #isUnchanged()}.
+     *
+     * @param index
+     * @return The value at the index.
+     */
+    public int getInt(int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return first + index * delta;
+    }
+
+    /**
+     * @see java.util.List#get(int)
+     */
+    public Object get(int index)
+    {
+        if (changed != null)
+        {
+            return changed.get(index);
+        }
+        return valueOf(getInt(index));
+    }
+
+    /**
+     * @see java.util.Collection#size()
+     */
+    public int size()
+    {
+        return (changed != null) ? changed.size() : size;
+    }
+
+    /**
+     * @see java.util.List#set(int, java.lang.Object)
+     */
+    public Object set(int index, Object element)
+    {
+        return values().set(index, element);
+    }
+
+    /**
+     * @see java.util.List#add(int, java.lang.Object)
+     */
+    public void add(int index, Object element)
+    {
+        values().add(index, element);
+        modCount++;
+    }
+
+    /**
+     * @see java.util.List#remove(int)
+     */
+    public Object remove(int index)
+    {
+        Object removed = values().remove(index);
+        modCount++;
+        return removed;
+    }
+
+    /**
+     * @see java.util.AbstractList#removeRange(int, int)
+     */
+    protected void removeRange(int fromIndex, int toIndex)
+    {
+        values().subList(fromIndex, toIndex).clear();
+        modCount++;
+    }
+
+    /**
+     * @return the values as a list that can be changed
+     */
+    private List values()
+    {
+        if (changed == null)
+        {
+            ArrayList copy = new ArrayList(size);
+            for (int i = 0; i < size; i++)
+            {
+                copy.add(valueOf(first + i * delta));
+            }
+            changed = copy;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,261 @@
+package org.apache.velocity.util.introspection;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Calls one method without going through {@link Method#invoke}.  The
+ * subclasses are generated for {@link AccessorUberspect}: their
+ * {@link #call} casts the arguments to the types of the parameters,
+ * calls the method straight away and boxes what it returns.
+ *
+ * <p>{@link #invoke} first checks that the arguments are what Method.invoke
+ * would take without an IllegalArgumentException; if they aren't, it
+ * leaves the call to Method.invoke, so that the outcome is the same.
+ * Exceptions thrown by the method are wrapped in an
+ * InvocationTargetException, as Method.invoke does.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public abstract class Accessor
+{
+    /** the parameter is a reference type */
+    static final int REFERENCE = 0;
+
+    /** the parameter is boolean */
+    static final int BOOLEAN = 1;
+
+    /** the parameter is char */
+    static final int CHAR = 2;
+
+    /*
+     * the numeric types in the order they widen in; a wrapper can be
+     * passed for a parameter of its own type or a later one
+     */
+    static final int BYTE = 3;
+    static final int SHORT = 4;
+    static final int INT = 5;
+    static final int LONG = 6;
+    static final int FLOAT = 7;
+    static final int DOUBLE = 8;
+
+    private Method method;
+
+    private Class receiver;
+
+    private Class[] parameterTypes;
+
+    private int[] kinds;
+
+    /**
+     * Calls the method, with arguments that have been checked.
+     *
+     * @param o the object to call the method on, ignored for static methods
+     * @param args the arguments
+     * @return what the method returned, boxed, or null if it is void
+     * @throws Throwable whatever the method throws
+     */
+    protected abstract Object call(Object o, Object[] args) throws Throwable;
+
+    /**
+     * Calls the method like {@link Method#invoke} would.
+     *
+     * @param o the object to call the method on
+     * @param args the arguments
+     * @return what the method returned, boxed, or null if it is void
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException if the method threw something
+     */
+    public final Object invoke(Object o, Object[] args)
+        throws IllegalAccessException, InvocationTargetException
+    {
+        if (!accepts(o, args))
+        {
+            return method.invoke(o, args);
+        }
+
+        try
+        {
+            return call(o, args);
+        }
+        catch (Throwable t)
+        {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    /**
+     * @return the method this calls
+     */
+    public Method getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * Called once, right after the generated subclass is instantiated.
+     */
+    void init(Method method)
+    {
+        this.method = method;
+        this.receiver = Modifier.isStatic(method.getModifiers()) ? null : method.getDeclaringClass();
+        this.parameterTypes = method.getParameterTypes();
+        this.kinds = new int[parameterTypes.length];
+        for (int i = 0; i < kinds.length; i++)
+        {
+            kinds[i] = parameterTypes[i].isPrimitive() ? kindOf(parameterTypes[i]) : REFERENCE;
+        }
+    }
+
+    private boolean accepts(Object o, Object[] args)
+    {
+        if (receiver != null && !receiver.isInstance(o))
+        {
+            return false;
+        }
+
+        int length = args == null ? 0 : args.length;
+        if (length != kinds.length)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            Object arg = args[i];
+            int kind = kinds[i];
+            if (kind == REFERENCE)
+            {
+                if (arg != null && !parameterTypes[i].isInstance(arg))
+                {
+                    return false;
+                }
+            }
+            else if (arg == null)
+            {
+                return false;
+            }
+            else if (kind == BOOLEAN || kind == CHAR)
+            {
+                if (kindOf(arg.getClass()) != kind)
+                {
+                    return false;
+                }
+            }
+            else
+            {
+                int argKind = kindOf(arg.getClass());
+                if (argKind < BYTE || argKind > kind)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the kind of a primitive type or of its wrapper, or REFERENCE
+     */
+    static int kindOf(Class type)
+    {
+        if (type == Boolean.TYPE || type == Boolean.class)
+        {
+            return BOOLEAN;
+        }
+        else if (type == Character.TYPE || type == Character.class)
+        {
+            return CHAR;
+        }
+        else if (type == Byte.TYPE || type == Byte.class)
+        {
+            return BYTE;
+        }
+        else if (type == Short.TYPE || type == Short.class)
+        {
+            return SHORT;
+        }
+        else if (type == Integer.TYPE || type == Integer.class)
+        {
+            return INT;
+        }
+        else if (type == Long.TYPE || type == Long.class)
+        {
+            return LONG;
+        }
+        else if (type == Float.TYPE || type == Float.class)
+        {
+            return FLOAT;
+        }
+        else if (type == Double.TYPE || type == Double.class)
+        {
+            return DOUBLE;
+        }
+        return REFERENCE;
+    }
+
+    /*
+     * boxing for the generated subclasses
+     */
+
+    protected static Object box(boolean value)
+    {
+        return value ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    protected static Object box(char value)
+    {
+        return new Character(value);
+    }
+
+    protected static Object box(byte value)
+    {
+        return new Byte(value);
+    }
+
+    protected static Object box(short value)
+    {
+        return new Short(value);
+    }
+
+    protected static Object box(int value)
+    {
+        return new Integer(value);
+    }
+
+    protected static Object box(long value)
+    {
+        return new Long(value);
+    }
+
+    protected static Object box(float value)
+    {
+        return new Float(value);
+    }
+
+    protected static Object box(double value)
+    {
+        return new Double(value);
+    }
+}
@@ -0,0 +1,471 @@
+package org.apache.velocity.util.introspection;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+import org.apache.velocity.runtime.log.Log;
+import org.apache.velocity.util.ClassFile;
+import org.apache.velocity.util.MapFactory;
+
+/**
+ * Generates the {@link Accessor} subclasses for {@link AccessorUberspect},
+ * one per method, and keeps them.  The class files are written out
+ * byte by byte, through {@link ClassFile}; there are only two methods in
+ * them, and the one that does the work is straight-line code.
+ *
+ * <p>Only public methods of public classes get an accessor, and only if
+ * the types of their parameters are public too; on Java 9 and later, the
+ * packages of those classes have to be exported as well.  For other
+ * methods, {@link #getAccessor} returns null and the caller keeps using
+ * reflection.</p>
+ *
+ * <p>The accessors are kept by the class loader of the class of their
+ * method.  The loader is held weakly and its accessors softly, since
+ * they refer to it: a class loader nobody uses any more can be collected,
+ * at the latest when memory runs short, and its accessors are dropped.
+ * Finding an accessor that has been made doesn't lock, only making one
+ * does.</p>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+final class AccessorFactory
+{
+    private static final String ACCESSOR = "org/apache/velocity/util/introspection/Accessor";
+
+    private static final String CALL_DESCRIPTOR = "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+    /** Class.getModule(), if there are modules */
+    private static final Method GET_MODULE;
+
+    /** Module.isExported(String), if there are modules */
+    private static final Method IS_EXPORTED;
+
+    static
+    {
+        Method getModule = null;
+        Method isExported = null;
+        try
+        {
+            getModule = Class.class.getMethod("getModule", new Class[0]);
+            isExported = getModule.getReturnType().getMethod("isExported", new Class[] { String.class });
+        }
+        catch (Exception e)
+        {
+            // before Java 9, everything public is accessible
+            getModule = null;
+        }
+        GET_MODULE = getModule;
+        IS_EXPORTED = isExported;
+    }
+
+    /** marks methods that don't get an accessor */
+    private static final Object NONE = new Object();
+
+    private final Log log;
+
+    /** LoaderKey of the classes called -> SoftReference to an AccessorLoader */
+    private final Map loaders = MapFactory.create(16, 0.75f, 16, false);
+
+    /** the keys of the class loaders that have been collected */
+    private final ReferenceQueue collected = new ReferenceQueue();
+
+    private int count = 0;
+
+    /**
+     * @param log
+     */
+    AccessorFactory(Log log)
+    {
+        this.log = log;
+    }
+
+    /**
+     * @param method
+     * @return the accessor for the method, or null if it can't have one
+     */
+    Accessor getAccessor(Method method)
+    {
+        ClassLoader classLoader = method.getDeclaringClass().getClassLoader();
+        AccessorLoader loader = getLoader(classLoader);
+        Object accessor = loader == null ? null : loader.accessors.get(method);
+        if (accessor == null)
+        {
+            synchronized (this)
+            {
+                expungeCollected();
+
+                loader = getLoader(classLoader);
+                if (loader == null)
+                {
+                    loader = new AccessorLoader(classLoader);
+                    LoaderKey key = new LoaderKey(classLoader, collected);
+                    /* replace any entry whose accessors are gone */
+                    loaders.remove(key);
+                    loaders.put(key, new SoftReference(loader));
+                }
+                accessor = loader.accessors.get(method);
+                if (accessor == null)
+                {
+                    accessor = createAccessor(loader, method);
+                    loader.accessors.put(method, accessor == null ? NONE : accessor);
+                }
+            }
+        }
+        return accessor == NONE ? null : (Accessor) accessor;
+    }
+
+    /**
+     * @return the loader of the accessors for the classes of a class loader, or null
+     */
+    private AccessorLoader getLoader(ClassLoader classLoader)
+    {
+        Reference ref = (Reference) loaders.get(new LoaderKey(classLoader, null));
+        return ref == null ? null : (AccessorLoader) ref.get();
+    }
+
+    /**
+     * Drops the accessors of the class loaders that have been collected.
+     */
+    private void expungeCollected()
+    {
+        for (Object key = collected.poll(); key != null; key = collected.poll())
+        {
+            loaders.remove(key);
+        }
+    }
+
+    private Accessor createAccessor(AccessorLoader loader, Method method)
+    {
+        if (!isAccessible(method))
+        {
+            return null;
+        }
+
+        String name = "org.apache.velocity.util.introspection.GeneratedAccessor" + (++count);
+        try
+        {
+            byte[] bytes = generate(name.replace('.', '/'), method);
+            Accessor accessor = (Accessor) loader.define(name, bytes).newInstance();
+            accessor.init(method);
+            return accessor;
+        }
+        /*
+         * whatever the reason, reflection still works
+         */
+        catch (Throwable t)
+        {
+            log.debug("AccessorFactory: no accessor for " + method + ", using reflection", t);
+            return null;
+        }
+    }
+
+    private static boolean isAccessible(Method method)
+    {
+        if (!Modifier.isPublic(method.getModifiers())
+            || !isAccessible(method.getDeclaringClass()))
+        {
+            return false;
+        }
+
+        /* static methods of interfaces need newer class files than these */
+        if (Modifier.isStatic(method.getModifiers()) && method.getDeclaringClass().isInterface())
+        {
+            return false;
+        }
+
+        Class[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++)
+        {
+            if (!isAccessible(parameterTypes[i]))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAccessible(Class type)
+    {
+        while (type.isArray())
+        {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive())
+        {
+            return true;
+        }
+        if (!Modifier.isPublic(type.getModifiers()))
+        {
+            return false;
+        }
+        if (GET_MODULE != null)
+        {
+            String name = type.getName();
+            int dot = name.lastIndexOf('.');
+            try
+            {
+                Object module = GET_MODULE.invoke(type, new Object[0]);
+                return ((Boolean) IS_EXPORTED.invoke(module, new Object[] { dot < 0 ? "" : name.substring(0, dot) })).booleanValue();
+            }
+            catch (Exception e)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the class file of an accessor for a method.
+     */
+    static byte[] generate(String className, Method method) throws IOException
+    {
+        ClassFile pool = new ClassFile(className, ACCESSOR);
+
+        /*
+         * public Object call(Object o, Object[] args)
+         * {
+         *     return box(((Declaring) o).method((P0) args[0], ((Number) args[1]).intValue(), ...));
+         * }
+         */
+
+        Class declaringClass = method.getDeclaringClass();
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        Class[] parameterTypes = method.getParameterTypes();
+        Class returnType = method.getReturnType();
+
+        ByteArrayOutputStream callBytes = new ByteArrayOutputStream();
+        DataOutputStream call = new DataOutputStream(callBytes);
+
+        int slots = 0;
+        if (!isStatic)
+        {
+            call.writeByte(0x2b); // aload_1
+            call.writeByte(0xc0); // checkcast
+            call.writeShort(pool.classRef(internalName(declaringClass)));
+            slots++;
+        }
+
+        for (int i = 0; i < parameterTypes.length; i++)
+        {
+            Class type = parameterTypes[i];
+
+            call.writeByte(0x2c); // aload_2
+            if (i <= 5)
+            {
+                call.writeByte(0x03 + i); // iconst_<i>
+            }
+            else if (i <= Byte.MAX_VALUE)
+            {
+                call.writeByte(0x10); // bipush
+                call.writeByte(i);
+            }
+            else
+            {
+                call.writeByte(0x11); // sipush
+                call.writeShort(i);
+            }
+            call.writeByte(0x32); // aaload
+
+            int kind = Accessor.kindOf(type);
+            if (!type.isPrimitive())
+            {
+                if (type != Object.class)
+                {
+                    call.writeByte(0xc0); // checkcast
+                    call.writeShort(pool.classRef(internalName(type)));
+                }
+                slots++;
+            }
+            else if (kind == Accessor.BOOLEAN)
+            {
+                call.writeByte(0xc0); // checkcast
+                call.writeShort(pool.classRef("java/lang/Boolean"));
+                call.writeByte(0xb6); // invokevirtual
+                call.writeShort(pool.methodRef("java/lang/Boolean", "booleanValue", "()Z", false));
+                slots++;
+            }
+            else if (kind == Accessor.CHAR)
+            {
+                call.writeByte(0xc0); // checkcast
+                call.writeShort(pool.classRef("java/lang/Character"));
+                call.writeByte(0xb6); // invokevirtual
+                call.writeShort(pool.methodRef("java/lang/Character", "charValue", "()C", false));
+                slots++;
+            }
+            else
+            {
+                /* Accessor.invoke() has made sure this only widens */
+                call.writeByte(0xc0); // checkcast
+                call.writeShort(pool.classRef("java/lang/Number"));
+                call.writeByte(0xb6); // invokevirtual
+                call.writeShort(pool.methodRef("java/lang/Number", type.getName() + "Value",
+                                               "()" + descriptor(type), false));
+                slots += (type == Long.TYPE || type == Double.TYPE) ? 2 : 1;
+            }
+        }
+
+        boolean isInterface = declaringClass.isInterface();
+        int target = pool.methodRef(internalName(declaringClass), method.getName(),
+                                    methodDescriptor(parameterTypes, returnType), isInterface);
+        if (isStatic)
+        {
+            call.writeByte(0xb8); // invokestatic
+            call.writeShort(target);
+        }
+        else if (isInterface)
+        {
+            call.writeByte(0xb9); // invokeinterface
+            call.writeShort(target);
+            call.writeByte(slots);
+            call.writeByte(0);
+        }
+        else
+        {
+            call.writeByte(0xb6); // invokevirtual
+            call.writeShort(target);
+        }
+
+        if (returnType == Void.TYPE)
+        {
+            call.writeByte(0x01); // aconst_null
+        }
+        else if (returnType.isPrimitive())
+        {
+            call.writeByte(0xb8); // invokestatic
+            call.writeShort(pool.methodRef(ACCESSOR, "box", "(" + descriptor(returnType) + ")Ljava/lang/Object;", false));
+        }
+        call.writeByte(0xb0); // areturn
+        call.flush();
+
+        /* an upper bound: the arguments so far, plus args and an index */
+        int maxStack = Math.max(slots + 2, 2);
+
+        pool.addDefaultConstructor(ACCESSOR);
+
+        /* public Object call(Object, Object[]) */
+        pool.addMethod(ClassFile.PUBLIC, "call", CALL_DESCRIPTOR, maxStack, 3, callBytes.toByteArray());
+
+        return pool.toByteArray(ClassFile.PUBLIC | ClassFile.FINAL);
+    }
+
+    /**
+     * @return the name of a class as the constant pool has it
+     */
+    private static String internalName(Class type)
+    {
+        return type.isArray() ? descriptor(type) : type.getName().replace('.', '/');
+    }
+
+    private static String methodDescriptor(Class[] parameterTypes, Class returnType)
+    {
+        StringBuffer sb = new StringBuffer("(");
+        for (int i = 0; i < parameterTypes.length; i++)
+        {
+            sb.append(descriptor(parameterTypes[i]));
+        }
+        return sb.append(')').append(descriptor(returnType)).toString();
+    }
+
+    private static String descriptor(Class type)
+    {
+        if (type.isArray())
+        {
+            return "[" + descriptor(type.getComponentType());
+        }
+        else if (!type.isPrimitive())
+        {
+            return "L" + type.getName().replace('.', '/') + ";";
+        }
+        else if (type == Boolean.TYPE)
+        {
+            return "Z";
+        }
+        else if (type == Character.TYPE)
+        {
+            return "C";
+        }
+        else if (type == Byte.TYPE)
+        {
+            return "B";
+        }
+        else if (type == Short.TYPE)
+        {
+            return "S";
+        }
+        else if (type == Integer.TYPE)
+        {
+            return "I";
+        }
+        else if (type == Long.TYPE)
+        {
+            return "J";
+        }
+        else if (type == Float.TYPE)
+        {
+            return "F";
+        }
+        else if (type == Double.TYPE)
+        {
+            return "D";
+        }
+        return "V";
+    }
+
+    /**
+     * Defines the accessors for the classes of one class loader, and
+     * keeps them.  It sees those classes and Accessor.
+     */
+    private static final class AccessorLoader extends ClassLoader
+    {
+        /** Method -&gt; Accessor, or NONE */
+        final Map accessors = MapFactory.create(false);
+
+        AccessorLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        protected synchronized Class loadClass(String name, boolean resolve)
+            throws ClassNotFoundException
+        {
+            if (name.equals(Accessor.class.getName()))
+            {
+                return Accessor.class;
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        Class define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.apache.velocity.util.introspection;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.reflect.Method;
+
+import org.apache.velocity.runtime.parser.node.AbstractExecutor;
+import org.apache.velocity.runtime.parser.node.BooleanPropertyExecutor;
+import org.apache.velocity.runtime.parser.node.GetExecutor;
+import org.apache.velocity.runtime.parser.node.PropertyExecutor;
+import org.apache.velocity.runtime.parser.node.PutExecutor;
+import org.apache.velocity.runtime.parser.node.SetExecutor;
+import org.apache.velocity.runtime.parser.node.SetPropertyExecutor;
+
+/**
+ * An Uberspect that finds the same methods as {@link UberspectImpl} but
+ * calls them through generated {@link Accessor} classes rather than
+ * {@link Method#invoke}, which saves the access checks and lets the JVM
+ * inline the calls.  Each method gets its accessor class the first time
+ * it is looked up; methods that can't have one, like those of non-public
+ * classes, are called through reflection as before.
+ *
+ * <p>Method calls, getters and setters use the accessors, including
+ * get("foo") and put("foo", value); maps are still read and written
+ * directly.  Arrays wrapped in lists and varargs work as with
+ * UberspectImpl.</p>
+ *
+ * <p>To use this uberspector, set the following property:
+ * <pre>
+ * runtime.introspector.uberspect = org.apache.velocity.util.introspection.AccessorUberspect
+ * </pre>
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+public class AccessorUberspect extends UberspectImpl
+{
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private AccessorFactory accessors;
+
+    /**
+     * @see org.apache.velocity.util.introspection.UberspectImpl#init()
+     */
+    public void init() throws Exception
+    {
+        super.init();
+        accessors = new AccessorFactory(log);
+    }
+
+    /**
+     * @see org.apache.velocity.util.introspection.UberspectImpl#getMethod(java.lang.Object, java.lang.String, java.lang.Object[], org.apache.velocity.util.introspection.Info)
+     */
+    public VelMethod getMethod(Object obj, String methodName, Object[] args, Info i)
+            throws Exception
+    {
+        VelMethod method = super.getMethod(obj, methodName, args, i);
+        if (method != null && method.getClass() == VelMethodImpl.class)
+        {
+            VelMethodImpl impl = (VelMethodImpl) method;
+            Accessor accessor = accessors.getAccessor(impl.method);
+            if (accessor != null)
+            {
+                return new VelAccessorMethod(impl.method, impl.wrapArray, accessor);
+            }
+        }
+        return method;
+    }
+
+    /**
+     * @see org.apache.velocity.util.introspection.UberspectImpl#getPropertyGet(java.lang.Object, java.lang.String, org.apache.velocity.util.introspection.Info)
+     */
+    public VelPropertyGet getPropertyGet(Object obj, String identifier, Info i)
+            throws Exception
+    {
+        VelPropertyGet getter = super.getPropertyGet(obj, identifier, i);
+        if (getter != null && getter.getClass() == VelGetterImpl.class)
+        {
+            AbstractExecutor executor = ((VelGetterImpl) getter).getExecutor;
+            Class type = executor.getClass();
+
+            Object[] args = null;
+            if (type == PropertyExecutor.class || type == BooleanPropertyExecutor.class)
+            {
+                args = NO_ARGS;
+            }
+            else if (type == GetExecutor.class)
+            {
+                args = new Object[] { identifier };
+            }
+
+            Accessor accessor = args == null ? null : accessors.getAccessor(executor.getMethod());
+            if (accessor != null)
+            {
+                return new VelAccessorGetter(executor, accessor, args);
+            }
+        }
+        return getter;
+    }
+
+    /**
+     * @see org.apache.velocity.util.introspection.UberspectImpl#getPropertySet(java.lang.Object, java.lang.String, java.lang.Object, org.apache.velocity.util.introspection.Info)
+     */
+    public VelPropertySet getPropertySet(Object obj, String identifier,
+                                         Object arg, Info i)
+            throws Exception
+    {
+        VelPropertySet setter = super.getPropertySet(obj, identifier, arg, i);
+        if (setter != null && setter.getClass() == VelSetterImpl.class)
+        {
+            SetExecutor executor = ((VelSetterImpl) setter).setExecutor;
+            Class type = executor.getClass();
+
+            String key = null;
+            boolean known = false;
+            if (type == SetPropertyExecutor.class)
+            {
+                known = true;
+            }
+            else if (type == PutExecutor.class)
+            {
+                /* put(value) or put("foo", value) */
+                known = true;
+                if (executor.getMethod().getParameterTypes().length == 2)
+                {
+                    key = identifier;
+                }
+            }
+
+            Accessor accessor = known ? accessors.getAccessor(executor.getMethod()) : null;
+            if (accessor != null)
+            {
+                return new VelAccessorSetter(executor, accessor, key);
+            }
+        }
+        return setter;
+    }
+
+    /**
+     * A method called through an accessor, after the array wrapping and
+     * varargs handling of VelMethodImpl.
+     */
+    public static class VelAccessorMethod extends VelMethodImpl
+    {
+        private final Accessor accessor;
+
+        /**
+         * @param method
+         * @param wrapArray
+         * @param accessor
+         */
+        public VelAccessorMethod(Method method, boolean wrapArray, Accessor accessor)
+        {
+            super(method, wrapArray);
+            this.accessor = accessor;
+        }
+
+        /**
+         * @see org.apache.velocity.util.introspection.UberspectImpl.VelMethodImpl#doInvoke(java.lang.Object, java.lang.Object[])
+         */
+        protected Object doInvoke(Object o, Object[] actual) throws Exception
+        {
+            return accessor.invoke(o, actual);
+        }
+    }
+
+    /**
+     * A getter called through an accessor.
+     */
+    public static class VelAccessorGetter extends VelGetterImpl
+    {
+        private final Accessor accessor;
+
+        private final Object[] args;
+
+        /**
+         * @param executor
+         * @param accessor
+         * @param args
+         */
+        public VelAccessorGetter(AbstractExecutor executor, Accessor accessor, Object[] args)
+        {
+            super(executor);
+            this.accessor = accessor;
+            this.args = args;
+        }
+
+        /**
+         * @see org.apache.velocity.util.introspection.VelPropertyGet#invoke(java.lang.Object)
+         */
+        public Object invoke(Object o) throws Exception
+        {
+            return accessor.invoke(o, args);
+        }
+    }
+
+    /**
+     * A setter called through an accessor.
+     */
+    public static class VelAccessorSetter extends VelSetterImpl
+    {
+        private final Accessor accessor;
+
+        private final String key;
+
+        /**
+         * @param executor
+         * @param accessor
+         * @param key the key for put(key, value), or null
+         */
+        public VelAccessorSetter(SetExecutor executor, Accessor accessor, String key)
+        {
+            super(executor);
+            this.accessor = accessor;
+            this.key = key;
+        }
+
+        /**
+         * @see org.apache.velocity.util.introspection.VelPropertySet#invoke(java.lang.Object, java.lang.Object)
+         */
+        public Object invoke(Object o, Object value) throws Exception
+        {
+            return accessor.invoke(o, key == null ? new Object[] { value } : new Object[] { key, value });
+        }
+    }
+}
@@ -23,14 +23,13 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.Map;
-import org.apache.commons.lang.text.StrBuilder;
 import org.apache.velocity.runtime.log.Log;
 import org.apache.velocity.util.MapFactory;
 
 /**
  * A cache of introspection information for a specific class instance.
- * Keys {@link java.lang.reflect.Method} objects by a concatenation of the
- * method name and the names of classes that make up the parameters.
+ * Keys {@link java.lang.reflect.Method} objects by the method name and
+ * the classes that make up the parameters.
  *
  * @author <a href="mailto:jvanzyl@apache.org">Jason van Zyl</a>
  * @author <a href="mailto:bob@werken.com">Bob McWhirter</a>
@@ -56,6 +55,9 @@ public class ClassMap
 
     private final MethodCache methodCache;
 
+    /** what the properties of the class resolved to */
+    private final PropertyIndex propertyIndex = new PropertyIndex();
+
     /**
      * Standard constructor
      * @param clazz The class for which this ClassMap gets constructed.
@@ -89,6 +91,15 @@ public class ClassMap
         return clazz;
     }
 
+    /**
+     * @return what the properties of the class resolved to
+     * @since 1.6.4
+     */
+    PropertyIndex getPropertyIndex()
+    {
+        return propertyIndex;
+    }
+
     /**
      * Find a Method using the method name and parameter objects.
      *
@@ -185,6 +196,11 @@ public class ClassMap
 
     /**
      * This is the cache to store and look up the method information. 
+     *
+     * The methods are kept by name, then by the number of arguments and
+     * then by the classes of the arguments, which are compared by identity,
+     * so that looking up a method that has been found before doesn't
+     * allocate anything.
      * 
      * @author <a href="mailto:henning@apache.org">Henning P. Schmiedehausen</a>
      * @version $Id$
@@ -193,28 +209,29 @@ public class ClassMap
     {
         private static final Object CACHE_MISS = new Object();
 
-        private static final String NULL_ARG = Object.class.getName();
+        private static final Class NULL_ARG = Object.class;
 
         private static final Map convertPrimitives = new HashMap();
 
         static
         {
-            convertPrimitives.put(Boolean.TYPE,   Boolean.class.getName());
-            convertPrimitives.put(Byte.TYPE,      Byte.class.getName());
-            convertPrimitives.put(Character.TYPE, Character.class.getName());
-            convertPrimitives.put(Double.TYPE,    Double.class.getName());
-            convertPrimitives.put(Float.TYPE,     Float.class.getName());
-            convertPrimitives.put(Integer.TYPE,   Integer.class.getName());
-            convertPrimitives.put(Long.TYPE,      Long.class.getName());
-            convertPrimitives.put(Short.TYPE,     Short.class.getName());
+            convertPrimitives.put(Boolean.TYPE,   Boolean.class);
+            convertPrimitives.put(Byte.TYPE,      Byte.class);
+            convertPrimitives.put(Character.TYPE, Character.class);
+            convertPrimitives.put(Double.TYPE,    Double.class);
+            convertPrimitives.put(Float.TYPE,     Float.class);
+            convertPrimitives.put(Integer.TYPE,   Integer.class);
+            convertPrimitives.put(Long.TYPE,      Long.class);
+            convertPrimitives.put(Short.TYPE,     Short.class);
         }
 
     	/** Class logger */
 	    private final Log log;
 
         /**
-         * Cache of Methods, or CACHE_MISS, keyed by method
-         * name and actual arguments used to find it.
+         * Cache of Methods, or CACHE_MISS, keyed by method name and
+         * the classes of the actual arguments used to find it.
+         * Map: String --&gt; MethodTable.
          */
         private final Map cache = MapFactory.create(false);
 
@@ -245,9 +262,9 @@ public class ClassMap
         public Method get(final String name, final Object [] params)
                 throws MethodMap.AmbiguousException
         {
-            String methodKey = makeMethodKey(name, params);
+            MethodTable table = (MethodTable) cache.get(name);
 
-            Object cacheEntry = cache.get(methodKey);
+            Object cacheEntry = table == null ? null : table.get(params);
             if (cacheEntry == CACHE_MISS)
             {
                 // We looked this up before and failed. 
@@ -256,6 +273,12 @@ public class ClassMap
 
             if (cacheEntry == null)
             {
+                Class[] types = new Class[params.length];
+                for (int j = 0; j < types.length; j++)
+                {
+                    types[j] = params[j] == null ? NULL_ARG : params[j].getClass();
+                }
+
                 try
                 {
                     // That one is expensive...
@@ -266,11 +289,11 @@ public class ClassMap
                     /*
                      *  that's a miss :-)
                      */
-                    cache.put(methodKey, CACHE_MISS);
+                    getTable(name).add(types, CACHE_MISS);
                     throw ae;
                 }
 
-                cache.put(methodKey, 
+                getTable(name).add(types,
                         (cacheEntry != null) ? cacheEntry : CACHE_MISS);
             }
 
@@ -280,15 +303,31 @@ public class ClassMap
 
         private void put(Method method)
         {
-            String methodKey = makeMethodKey(method);
+            Class[] types = method.getParameterTypes();
+            for (int j = 0; j < types.length; j++)
+            {
+                /*
+                 * If the argument type is primitive then we want
+                 * to convert our primitive type signature to the
+                 * corresponding Object type so introspection for
+                 * methods with primitive types will work correctly.
+                 *
+                 * The lookup map (convertPrimitives) contains all eight
+                 * primitives (boolean, byte, char, double, float, int, long, short)
+                 * known to Java. So it should never return null for the key passed in.
+                 */
+                if (types[j].isPrimitive())
+                {
+                    types[j] = (Class) convertPrimitives.get(types[j]);
+                }
+            }
 
             // We don't overwrite methods because we fill the
             // cache from defined class towards java.lang.Object
             // and that would cause overridden methods to appear
             // as if they were not overridden.
-            if (cache.get(methodKey) == null)
+            if (getTable(method.getName()).add(types, method))
             {
-                cache.put(methodKey, method);
                 methodMap.add(method);
                 if (debugReflection && log.isDebugEnabled())
                 {
@@ -298,73 +337,188 @@ public class ClassMap
         }
 
         /**
-         * Make a methodKey for the given method using
-         * the concatenation of the name and the
-         * types of the method parameters.
-         * 
-         * @param method to be stored as key
-         * @return key for ClassMap
+         * @return the table of the methods with a given name, created if need be
          */
-        private String makeMethodKey(final Method method)
+        private MethodTable getTable(final String name)
         {
-            Class[] parameterTypes = method.getParameterTypes();
-            int args = parameterTypes.length;
-            if (args == 0)
+            MethodTable table = (MethodTable) cache.get(name);
+            if (table == null)
             {
-                return method.getName();
+                synchronized (cache)
+                {
+                    table = (MethodTable) cache.get(name);
+                    if (table == null)
+                    {
+                        table = new MethodTable();
+                        cache.put(name, table);
+                    }
+                }
             }
+            return table;
+        }
+    }
+
+    /**
+     * The Methods, or CACHE_MISS, of one name, by the classes of the
+     * arguments.  The rows are chained in buckets by a hash of those
+     * classes, taken by identity.  Adding a row replaces the array of
+     * buckets rather than changing it, and rows are never changed, so
+     * the table can be read without locking.
+     */
+    private static final class MethodTable
+    {
+        /** the rows, chained by the hash of their argument classes */
+        private volatile Row[] buckets = new Row[4];
 
-            StrBuilder methodKey = new StrBuilder((args+1)*16).append(method.getName());
+        /** how many rows there are; only used when adding */
+        private int size = 0;
 
-            for (int j = 0; j < args; j++)
+        /**
+         * @return the Method or CACHE_MISS kept for the classes of params, or null
+         */
+        Object get(final Object[] params)
+        {
+            Row[] buckets = this.buckets;
+            int hash = hash(params);
+            for (Row row = buckets[hash & (buckets.length - 1)]; row != null; row = row.next)
             {
-                /*
-                 * If the argument type is primitive then we want
-                 * to convert our primitive type signature to the
-                 * corresponding Object type so introspection for
-                 * methods with primitive types will work correctly.
-                 *
-                 * The lookup map (convertPrimitives) contains all eight
-                 * primitives (boolean, byte, char, double, float, int, long, short)
-                 * known to Java. So it should never return null for the key passed in.
-                 */
-                if (parameterTypes[j].isPrimitive())
+                if (row.hash == hash && row.matches(params))
+                {
+                    return row.value;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Adds a value for some argument classes, unless there already is one.
+         *
+         * @return whether the value was added
+         */
+        synchronized boolean add(final Class[] types, final Object value)
+        {
+            Row[] buckets = this.buckets;
+            int hash = hash(types);
+            for (Row row = buckets[hash & (buckets.length - 1)]; row != null; row = row.next)
+            {
+                if (row.hash == hash && row.matches(types))
                 {
-                    methodKey.append((String) convertPrimitives.get(parameterTypes[j]));
+                    return false;
                 }
-                else
+            }
+
+            if (++size > buckets.length * 3 / 4)
+            {
+                buckets = rehash(buckets, buckets.length * 2);
+            }
+            else
+            {
+                buckets = (Row[]) buckets.clone();
+            }
+            int index = hash & (buckets.length - 1);
+            buckets[index] = new Row(types, hash, value, buckets[index]);
+            this.buckets = buckets;
+            return true;
+        }
+
+        /**
+         * @return new buckets of the given length, with the rows of the old ones
+         */
+        private static Row[] rehash(final Row[] buckets, final int length)
+        {
+            Row[] grown = new Row[length];
+            for (int i = 0; i < buckets.length; i++)
+            {
+                for (Row row = buckets[i]; row != null; row = row.next)
                 {
-                    methodKey.append(parameterTypes[j].getName());
+                    int index = row.hash & (length - 1);
+                    grown[index] = new Row(row.types, row.hash, row.value, grown[index]);
                 }
             }
+            return grown;
+        }
 
-            return methodKey.toString();
+        private static int hash(final Object[] params)
+        {
+            int hash = params.length;
+            for (int j = 0; j < params.length; j++)
+            {
+                Object arg = params[j];
+                hash = 31 * hash + System.identityHashCode(arg == null ? MethodCache.NULL_ARG : arg.getClass());
+            }
+            return hash ^ (hash >>> 16);
         }
 
-        private String makeMethodKey(String method, Object[] params)
+        private static int hash(final Class[] types)
         {
-            int args = params.length;
-            if (args == 0)
+            int hash = types.length;
+            for (int j = 0; j < types.length; j++)
             {
-                return method;
+                hash = 31 * hash + System.identityHashCode(types[j]);
             }
+            return hash ^ (hash >>> 16);
+        }
+    }
 
-            StrBuilder methodKey = new StrBuilder((args+1)*16).append(method);
+    /**
+     * The argument classes of one lookup and what it found.
+     */
+    private static final class Row
+    {
+        final Class[] types;
+
+        final int hash;
+
+        final Object value;
+
+        /** the next row in the same bucket, or null */
+        final Row next;
 
-            for (int j = 0; j < args; j++)
+        Row(final Class[] types, final int hash, final Object value, final Row next)
+        {
+            this.types = types;
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+
+        /**
+         * @return whether the classes of the arguments are those of this row
+         */
+        boolean matches(final Object[] params)
+        {
+            if (params.length != types.length)
+            {
+                return false;
+            }
+            for (int j = 0; j < types.length; j++)
             {
                 Object arg = params[j];
-                if (arg == null)
+                if (types[j] != (arg == null ? MethodCache.NULL_ARG : arg.getClass()))
                 {
-                    methodKey.append(NULL_ARG);
+                    return false;
                 }
-                else
+            }
+            return true;
+        }
+
+        /**
+         * @return whether these are the classes of this row
+         */
+        boolean matches(final Class[] other)
+        {
+            if (other.length != types.length)
+            {
+                return false;
+            }
+            for (int j = 0; j < types.length; j++)
+            {
+                if (types[j] != other[j])
                 {
-                    methodKey.append(arg.getClass().getName());
+                    return false;
                 }
             }
-
-            return methodKey.toString();
+            return true;
         }
     }
 }
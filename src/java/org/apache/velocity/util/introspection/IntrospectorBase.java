@@ -94,6 +94,18 @@ public abstract class IntrospectorBase
             throw new IllegalArgumentException("params object is null!");
         }
 
+        return getClassMap(c).findMethod(name, params);
+    }
+
+    /**
+     * Gets the class map of a class, introspecting it if it isn't cached.
+     *
+     * @param c Class of which the class map is wanted.
+     * @return The class map.
+     * @since 1.6.4
+     */
+    ClassMap getClassMap(final Class c)
+    {
         IntrospectorCache ic = getIntrospectorCache();
 
         ClassMap classMap = ic.get(c);
@@ -101,8 +113,7 @@ public abstract class IntrospectorBase
         {
             classMap = ic.put(c);
         }
-
-        return classMap.findMethod(name, params);
+        return classMap;
     }
 
     /**
@@ -19,17 +19,29 @@ package org.apache.velocity.util.introspection;
  * under the License.    
  */
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.velocity.runtime.log.Log;
+import org.apache.velocity.util.MapFactory;
 
 /**
  * This is the internal introspector cache implementation.
  *
+ * <p>The class maps are kept apart by the class loader of their classes,
+ * and looking them up doesn't lock.  Each loader is held by a weak key,
+ * and the class maps of a loader whose key has been cleared are dropped.</p>
+ *
+ * <p>When a class turns up with the name of a class of another loader,
+ * as when a web application is reloaded, the change is logged with
+ * {@link #CACHEDUMP_MSG}.  The class maps of the other loader are then
+ * only held weakly: its classes reach it, so holding them strongly would
+ * keep the loader from ever being collected.  Should it still be in use,
+ * its classes are introspected again after a garbage collection.</p>
+ *
  * @author <a href="mailto:henning@apache.org">Henning P. Schmiedehausen</a>
  * @version $Id$
  * @since 1.5
@@ -46,17 +58,23 @@ public final class IntrospectorCacheImpl implements IntrospectorCache
     private final Log log;
     
     /**
-     * Holds the method maps for the classes we know about. Map: Class --&gt; ClassMap object.
+     * Holds the method maps for the classes we know about, by class loader.
+     * Map: LoaderKey --&gt; Map: Class --&gt; ClassMap object, or a
+     * WeakReference to it for a loader that has been replaced.
      */
-    private final Map classMapCache = new HashMap();
+    private final Map partitions = MapFactory.create(16, 0.75f, 16, false);
 
     /**
-     * Keep the names of the classes in another map. This is needed for a multi-classloader environment where it is possible
+     * Keep the names of the classes in another map, with the loader they came from.
+     * This is needed for a multi-classloader environment where it is possible
      * to have Class 'Foo' loaded by a classloader and then get asked to introspect on 'Foo' from another class loader. While these
      * two Class objects have the same name, a <code>classMethodMaps.get(Foo.class)</code> will return null. For that case, we
-     * keep a set of class names to recognize this case.  
+     * keep the class names to recognize this case.  Map: String --&gt; LoaderKey.
      */
-    private final Set classNameCache = new HashSet();
+    private final Map classNameCache = MapFactory.create(64, 0.75f, 16, false);
+
+    /** the keys of the class loaders that have been collected */
+    private final ReferenceQueue collected = new ReferenceQueue();
 
     /**
      * C'tor
@@ -71,9 +89,9 @@ public final class IntrospectorCacheImpl implements IntrospectorCache
      */
     public void clear()
     {
-        synchronized (classMapCache)
+        synchronized (partitions)
         {
-            classMapCache.clear();
+            partitions.clear();
             classNameCache.clear();
             log.debug(CACHEDUMP_MSG);
         }
@@ -81,8 +99,7 @@ public final class IntrospectorCacheImpl implements IntrospectorCache
 
     /**
      * Lookup a given Class object in the cache. If it does not exist, 
-     * check whether this is due to a class change and purge the caches
-     * eventually.
+     * check whether this is due to a class change and log it.
      *
      * @param c The class to look up.
      * @return A ClassMap object or null if it does not exist in the cache.
@@ -94,21 +111,22 @@ public final class IntrospectorCacheImpl implements IntrospectorCache
             throw new IllegalArgumentException("class is null!");
         }
 
-        ClassMap classMap = (ClassMap)classMapCache.get(c);
+        ClassLoader loader = c.getClassLoader();
+        Map classMaps = getClassMaps(loader);
+        ClassMap classMap = classMaps == null ? null : (ClassMap) classMaps.get(c);
         if (classMap == null)
         {
             /*
              * check to see if we have it by name.
              * if so, then we have an object with the same
              * name but loaded through a different class loader.
-             * In that case, we will just dump the cache to be sure.
+             * The classes of that loader are left alone, as
+             * it may still be used; they go once it is collected.
              */
-            synchronized (classMapCache)
+            LoaderKey owner = (LoaderKey) classNameCache.get(c.getName());
+            if (owner != null && !owner.isFor(loader))
             {
-                if (classNameCache.contains(c.getName()))
-                {
-                    clear();
-                }
+                log.debug(CACHEDUMP_MSG);
             }
         }
         return classMap;
@@ -116,7 +134,7 @@ public final class IntrospectorCacheImpl implements IntrospectorCache
 
     /**
      * Creates a class map for specific class and registers it in the
-     * cache.  Also adds the qualified name to the name-&gt;class map
+     * cache.  Also adds the qualified name to the name-&gt;class loader map
      * for later Classloader change detection.
      *
      * @param c The class for which the class map gets generated.
@@ -125,12 +143,76 @@ public final class IntrospectorCacheImpl implements IntrospectorCache
     public ClassMap put(final Class c)
     {
         final ClassMap classMap = new ClassMap(c, log);
-        synchronized (classMapCache)
+        ClassLoader loader = c.getClassLoader();
+
+        synchronized (partitions)
         {
-            classMapCache.put(c, classMap);
-            classNameCache.add(c.getName());
+            expungeCollected();
+
+            LoaderKey key = new LoaderKey(loader, collected);
+            Object partition = partitions.get(key);
+            Map classMaps = getClassMaps(partition);
+            if (classMaps == null)
+            {
+                classMaps = MapFactory.create(64, 0.75f, 16, false);
+                /* once replaced, a loader stays held weakly */
+                partitions.put(key, partition instanceof Reference ?
+                               (Object) new WeakReference(classMaps) : classMaps);
+            }
+            classMaps.put(c, classMap);
+
+            LoaderKey owner = (LoaderKey) classNameCache.put(c.getName(), key);
+            if (owner != null && !owner.isFor(loader))
+            {
+                /*
+                 * the classes of the other loader reach it: don't
+                 * keep it from being collected
+                 */
+                Object replaced = partitions.get(owner);
+                if (replaced instanceof Map)
+                {
+                    partitions.put(owner, new WeakReference(replaced));
+                }
+            }
         }
         return classMap;
     }
 
+    /**
+     * @return the class maps of the classes of a loader, or null
+     */
+    private Map getClassMaps(final ClassLoader loader)
+    {
+        return getClassMaps(partitions.get(new LoaderKey(loader, null)));
+    }
+
+    /**
+     * @return the class maps of a partition, or null
+     */
+    private static Map getClassMaps(final Object partition)
+    {
+        if (partition instanceof Reference)
+        {
+            return (Map) ((Reference) partition).get();
+        }
+        return (Map) partition;
+    }
+
+    /**
+     * Drops what is kept for the class loaders that have been collected.
+     */
+    private void expungeCollected()
+    {
+        for (Object key = collected.poll(); key != null; key = collected.poll())
+        {
+            partitions.remove(key);
+            for (Iterator i = classNameCache.values().iterator(); i.hasNext(); )
+            {
+                if (i.next() == key)
+                {
+                    i.remove();
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,78 @@
+package org.apache.velocity.util.introspection;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Holds a class loader weakly and compares by identity.  The bootstrap
+ * class loader, which is null, has keys of its own.  A key made without
+ * a queue is only good for looking up.
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+final class LoaderKey extends WeakReference
+{
+    private final boolean bootstrap;
+
+    private final int hash;
+
+    LoaderKey(final ClassLoader loader, final ReferenceQueue queue)
+    {
+        super(loader, queue);
+        bootstrap = loader == null;
+        hash = System.identityHashCode(loader);
+    }
+
+    /**
+     * @param loader
+     * @return true if this is the key of the loader
+     */
+    boolean isFor(final ClassLoader loader)
+    {
+        return loader == null ? bootstrap : get() == loader;
+    }
+
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    public boolean equals(final Object o)
+    {
+        if (o == this)
+        {
+            return true;
+        }
+        if (!(o instanceof LoaderKey))
+        {
+            return false;
+        }
+        LoaderKey other = (LoaderKey) o;
+        if (bootstrap || other.bootstrap)
+        {
+            return bootstrap == other.bootstrap;
+        }
+        Object loader = get();
+        return loader != null && loader == other.get();
+    }
+}
@@ -22,7 +22,6 @@ package org.apache.velocity.util.introspection;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -48,6 +47,13 @@ public class MethodMap
      */
     Map methodByNameMap = MapFactory.create(false);
 
+    /**
+     * The overloads of each name looked up so far, with their parameter
+     * types and how specific they are against each other worked out
+     * beforehand.  Map: String --&gt; Overloads.
+     */
+    private final Map overloadsByName = MapFactory.create(false);
+
     /**
      * Add a method to a list of methods by name.
      * For a particular class we are keeping track
@@ -58,15 +64,19 @@ public class MethodMap
     {
         String methodName = method.getName();
 
-        List l = get( methodName );
-
-        if ( l == null)
+        synchronized (overloadsByName)
         {
-            l = new ArrayList();
-            methodByNameMap.put(methodName, l);
-        }
+            List l = get( methodName );
 
-        l.add(method);
+            if ( l == null)
+            {
+                l = new ArrayList();
+                methodByNameMap.put(methodName, l);
+            }
+
+            l.add(method);
+            overloadsByName.remove(methodName);
+        }
     }
 
     /**
@@ -111,9 +121,9 @@ public class MethodMap
     public Method find(String methodName, Object[] args)
         throws AmbiguousException
     {
-        List methodList = get(methodName);
+        Overloads overloads = getOverloads(methodName);
 
-        if (methodList == null)
+        if (overloads == null)
         {
             return null;
         }
@@ -133,86 +143,158 @@ public class MethodMap
                     arg == null ? null : arg.getClass();
         }
 
-        return getBestMatch(methodList, classes);
+        return overloads.getBestMatch(classes);
     }
 
-    private static Method getBestMatch(List methods, Class[] args)
+    /**
+     * @return the overloads of a name, worked out the first time they are needed
+     */
+    private Overloads getOverloads(String methodName)
     {
-        List equivalentMatches = null;
-        Method bestMatch = null;
-        Class[] bestMatchTypes = null;
-        for (Iterator i = methods.iterator(); i.hasNext(); )
+        Overloads overloads = (Overloads) overloadsByName.get(methodName);
+        if (overloads == null)
         {
-            Method method = (Method)i.next();
-            if (isApplicable(method, args))
+            synchronized (overloadsByName)
             {
-                if (bestMatch == null)
+                overloads = (Overloads) overloadsByName.get(methodName);
+                if (overloads == null)
                 {
-                    bestMatch = method;
-                    bestMatchTypes = method.getParameterTypes();
+                    List methodList = get(methodName);
+                    if (methodList == null)
+                    {
+                        return null;
+                    }
+                    overloads = new Overloads(methodList);
+                    overloadsByName.put(methodName, overloads);
                 }
-                else
+            }
+        }
+        return overloads;
+    }
+
+    /**
+     * The methods of one name, in the order they were added.  The parameter
+     * types are only fetched once, and how specific each method is against
+     * each other one, which doesn't depend on the arguments, is worked out
+     * up front, so that only the applicability is left for each lookup.
+     */
+    private static final class Overloads
+    {
+        private final Method[] methods;
+
+        private final Class[][] types;
+
+        /** order[i][j] is compare(types[i], types[j]) */
+        private final int[][] order;
+
+        Overloads(List methodList)
+        {
+            int n = methodList.size();
+            methods = (Method[]) methodList.toArray(new Method[n]);
+            types = new Class[n][];
+            for (int i = 0; i < n; i++)
+            {
+                types[i] = methods[i].getParameterTypes();
+            }
+            order = new int[n][n];
+            for (int i = 0; i < n; i++)
+            {
+                for (int j = 0; j < n; j++)
                 {
-                    Class[] methodTypes = method.getParameterTypes();
-                    switch (compare(methodTypes, bestMatchTypes))
+                    order[i][j] = i == j ? INCOMPARABLE : compare(types[i], types[j]);
+                }
+            }
+        }
+
+        Method getBestMatch(Class[] args)
+        {
+            int[] equivalentMatches = null;
+            int ambiguous = 0;
+            int bestMatch = -1;
+            for (int method = 0; method < methods.length; method++)
+            {
+                if (isApplicable(types[method], args))
+                {
+                    if (bestMatch < 0)
+                    {
+                        bestMatch = method;
+                    }
+                    else
                     {
-                        case MORE_SPECIFIC:
-                            if (equivalentMatches == null)
-                            {
-                                bestMatch = method;
-                                bestMatchTypes = methodTypes;
-                            }
-                            else
-                            {
-                                // have to beat all other ambiguous ones...
-                                int ambiguities = equivalentMatches.size();
-                                for (int a=0; a < ambiguities; a++)
+                        switch (order[method][bestMatch])
+                        {
+                            case MORE_SPECIFIC:
+                                if (equivalentMatches == null)
                                 {
-                                    Method other = (Method)equivalentMatches.get(a);
-                                    switch (compare(methodTypes, other.getParameterTypes()))
+                                    bestMatch = method;
+                                }
+                                else
+                                {
+                                    // have to beat all other ambiguous ones...
+                                    int ambiguities = ambiguous;
+                                    for (int a=0; a < ambiguities; a++)
                                     {
-                                        case MORE_SPECIFIC:
-                                            // ...and thus replace them all...
-                                            bestMatch = method;
-                                            bestMatchTypes = methodTypes;
-                                            equivalentMatches = null;
-                                            ambiguities = 0;
-                                            break;
-
-                                        case INCOMPARABLE:
-                                            // ...join them...
-                                            equivalentMatches.add(method);
-                                            break;
-
-                                        case LESS_SPECIFIC:
-                                            // ...or just go away.
-                                            break;
+                                        int other = equivalentMatches[a];
+                                        switch (order[method][other])
+                                        {
+                                            case MORE_SPECIFIC:
+                                                // ...and thus replace them all...
+                                                bestMatch = method;
+                                                equivalentMatches = null;
+                                                ambiguous = 0;
+                                                ambiguities = 0;
+                                                break;
+
+                                            case INCOMPARABLE:
+                                                // ...join them...
+                                                equivalentMatches = join(equivalentMatches, ambiguous++, method);
+                                                break;
+
+                                            case LESS_SPECIFIC:
+                                                // ...or just go away.
+                                                break;
+                                        }
                                     }
                                 }
-                            }
-                            break;
-
-                        case INCOMPARABLE:
-                            if (equivalentMatches == null)
-                            {
-                                equivalentMatches = new ArrayList(bestMatchTypes.length);
-                            }
-                            equivalentMatches.add(method);
-                            break;
-
-                        case LESS_SPECIFIC:
-                            // do nothing
-                            break;
+                                break;
+
+                            case INCOMPARABLE:
+                                equivalentMatches = join(equivalentMatches, ambiguous++, method);
+                                break;
+
+                            case LESS_SPECIFIC:
+                                // do nothing
+                                break;
+                        }
                     }
                 }
             }
+
+            if (equivalentMatches != null)
+            {
+                throw new AmbiguousException();
+            }
+            return bestMatch < 0 ? null : methods[bestMatch];
         }
-                
-        if (equivalentMatches != null)
+
+        /**
+         * @return the ambiguous matches with one more at index
+         */
+        private int[] join(int[] matches, int index, int method)
         {
-            throw new AmbiguousException();
+            if (matches == null)
+            {
+                matches = new int[methods.length];
+            }
+            else if (index == matches.length)
+            {
+                int[] grown = new int[matches.length * 2];
+                System.arraycopy(matches, 0, grown, 0, matches.length);
+                matches = grown;
+            }
+            matches[index] = method;
+            return matches;
         }
-        return bestMatch;
     }
 
     /**
@@ -314,14 +396,12 @@ public class MethodMap
      * Returns true if the supplied method is applicable to actual
      * argument types.
      * 
-     * @param method method that will be called
+     * @param methodArgs parameter types of the method that will be called
      * @param classes arguments to method
      * @return true if method is applicable to arguments
      */
-    private static boolean isApplicable(Method method, Class[] classes)
+    private static boolean isApplicable(Class[] methodArgs, Class[] classes)
     {
-        Class[] methodArgs = method.getParameterTypes();
-
         if (methodArgs.length > classes.length)
         {
             // if there's just one more methodArg than class arg
@@ -0,0 +1,101 @@
+package org.apache.velocity.util.introspection;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Map;
+
+import org.apache.velocity.util.MapFactory;
+
+/**
+ * What the properties of one class resolved to, kept with its
+ * {@link ClassMap}.  The getters are kept by property name, the setters
+ * by property name and then by the class of the value set, since that
+ * picks between overloaded setters.  A property that resolved to nothing
+ * is kept as {@link #NONE}, so it isn't looked for again.
+ *
+ * @version $Id$
+ * @since 1.6.4
+ */
+final class PropertyIndex
+{
+    /** kept for a property that has no getter or setter */
+    static final Object NONE = new Object();
+
+    /** stands for the class of a null value */
+    private static final Object NULL_ARG = new Object();
+
+    /** Map: String --&gt; getter */
+    private final Map getters = MapFactory.create(false);
+
+    /** Map: String --&gt; Map: Class --&gt; setter */
+    private final Map setters = MapFactory.create(false);
+
+    /**
+     * @param name the property name
+     * @return what the getter resolved to, NONE or null if it hasn't been resolved
+     */
+    Object getGetter(final String name)
+    {
+        return getters.get(name);
+    }
+
+    /**
+     * @param name the property name
+     * @param getter what the getter resolved to, or NONE
+     */
+    void putGetter(final String name, final Object getter)
+    {
+        getters.put(name, getter);
+    }
+
+    /**
+     * @param name the property name
+     * @param arg the value to set
+     * @return what the setter resolved to, NONE or null if it hasn't been resolved
+     */
+    Object getSetter(final String name, final Object arg)
+    {
+        Map byArg = (Map) setters.get(name);
+        return byArg == null ? null : byArg.get(arg == null ? NULL_ARG : arg.getClass());
+    }
+
+    /**
+     * @param name the property name
+     * @param arg the value to set
+     * @param setter what the setter resolved to, or NONE
+     */
+    void putSetter(final String name, final Object arg, final Object setter)
+    {
+        Map byArg = (Map) setters.get(name);
+        if (byArg == null)
+        {
+            synchronized (setters)
+            {
+                byArg = (Map) setters.get(name);
+                if (byArg == null)
+                {
+                    byArg = MapFactory.create(false);
+                    setters.put(name, byArg);
+                }
+            }
+        }
+        byArg.put(arg == null ? NULL_ARG : arg.getClass(), setter);
+    }
+}
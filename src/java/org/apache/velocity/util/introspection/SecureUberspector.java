@@ -99,6 +99,7 @@ public class SecureUberspector extends UberspectImpl implements RuntimeServicesA
      */
     public void setRuntimeServices(RuntimeServices rs)
     {
+        super.setRuntimeServices(rs);
         this.runtimeServices = rs;
     }
     
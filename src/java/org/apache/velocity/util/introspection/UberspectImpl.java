@@ -20,13 +20,17 @@ package org.apache.velocity.util.introspection;
  */
 
 import java.lang.reflect.Array;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Map;
 
+import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.RuntimeLogger;
+import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.log.Log;
 import org.apache.velocity.runtime.log.RuntimeLoggerLog;
 import org.apache.velocity.runtime.parser.node.AbstractExecutor;
@@ -41,6 +45,7 @@ import org.apache.velocity.runtime.parser.node.SetPropertyExecutor;
 import org.apache.velocity.util.ArrayIterator;
 import org.apache.velocity.util.ArrayListWrapper;
 import org.apache.velocity.util.EnumerationIterator;
+import org.apache.velocity.util.RuntimeServicesAware;
 
 /**
  *  Implementation of Uberspect to provide the default introspective
@@ -50,7 +55,7 @@ import org.apache.velocity.util.EnumerationIterator;
  * @author <a href="mailto:henning@apache.org">Henning P. Schmiedehausen</a>
  * @version $Id$
  */
-public class UberspectImpl implements Uberspect, UberspectLoggable
+public class UberspectImpl implements Uberspect, UberspectLoggable, RuntimeServicesAware
 {
     /**
      *  Our runtime logger.
@@ -62,6 +67,11 @@ public class UberspectImpl implements Uberspect, UberspectLoggable
      */
     protected Introspector introspector;
 
+    /**
+     *  whether public fields are used for properties without getter or setter
+     */
+    private boolean publicFields = false;
+
     /**
      *  init - generates the Introspector. As the setup code
      *  makes sure that the log gets set before this is called,
@@ -84,6 +94,17 @@ public class UberspectImpl implements Uberspect, UberspectLoggable
         this.log = log;
     }
 
+    /**
+     * Reads whether public fields are used as properties.
+     *
+     * @param rs RuntimeServices object for initialization
+     * @since 1.6.4
+     */
+    public void setRuntimeServices(RuntimeServices rs)
+    {
+        publicFields = rs.getBoolean(RuntimeConstants.INTROSPECTOR_PUBLIC_FIELDS, false);
+    }
+
     /**
      * @param runtimeLogger
      * @deprecated Use setLog(Log log) instead.
@@ -239,6 +260,37 @@ public class UberspectImpl implements Uberspect, UberspectLoggable
 
         Class claz = obj.getClass();
 
+        /*
+         *  the getters of a class are resolved once per name
+         */
+        PropertyIndex index = identifier == null ? null : introspector.getClassMap(claz).getPropertyIndex();
+        Object getter = index == null ? null : index.getGetter(identifier);
+        if (getter == null)
+        {
+            getter = findPropertyGet(claz, identifier);
+            if (index != null)
+            {
+                index.putGetter(identifier, getter);
+            }
+        }
+
+        if (getter instanceof AbstractExecutor)
+        {
+            return new VelGetterImpl((AbstractExecutor) getter);
+        }
+        else if (getter instanceof Field)
+        {
+            return new VelFieldGetterImpl((Field) getter);
+        }
+        return null;
+    }
+
+    /**
+     * @return the executor or the public field for getting a property
+     * of a class, or PropertyIndex.NONE
+     */
+    private Object findPropertyGet(Class claz, String identifier)
+    {
         /*
          *  first try for a getFoo() type of property
          *  (also getfoo() )
@@ -272,7 +324,16 @@ public class UberspectImpl implements Uberspect, UberspectLoggable
                                                    identifier);
         }
 
-        return (executor.isAlive()) ? new VelGetterImpl(executor) : null;
+        if (executor.isAlive())
+        {
+            return executor;
+        }
+
+        /*
+         *  and if allowed, for a public field
+         */
+        Field field = getPublicField(claz, identifier);
+        return field != null ? (Object) field : PropertyIndex.NONE;
     }
 
     /**
@@ -295,6 +356,38 @@ public class UberspectImpl implements Uberspect, UberspectLoggable
 
         Class claz = obj.getClass();
 
+        /*
+         *  the setters of a class are resolved once per name
+         *  and class of the value
+         */
+        PropertyIndex index = identifier == null ? null : introspector.getClassMap(claz).getPropertyIndex();
+        Object setter = index == null ? null : index.getSetter(identifier, arg);
+        if (setter == null)
+        {
+            setter = findPropertySet(claz, identifier, arg);
+            if (index != null)
+            {
+                index.putSetter(identifier, arg, setter);
+            }
+        }
+
+        if (setter instanceof SetExecutor)
+        {
+            return new VelSetterImpl((SetExecutor) setter);
+        }
+        else if (setter instanceof Field)
+        {
+            return new VelFieldSetterImpl((Field) setter);
+        }
+        return null;
+    }
+
+    /**
+     * @return the executor or the public field for setting a property
+     * of a class to arg, or PropertyIndex.NONE
+     */
+    private Object findPropertySet(Class claz, String identifier, Object arg)
+    {
         /*
          *  first try for a setFoo() type of property
          *  (also setfoo() )
@@ -317,7 +410,59 @@ public class UberspectImpl implements Uberspect, UberspectLoggable
             executor = new PutExecutor(log, introspector, claz, arg, identifier);
         }
 
-        return (executor.isAlive()) ? new VelSetterImpl(executor) : null;
+        if (executor.isAlive())
+        {
+            return executor;
+        }
+
+        /*
+         *  and if allowed, for a public field that takes arg
+         */
+        Field field = getPublicField(claz, identifier);
+        if (field != null && !Modifier.isFinal(field.getModifiers()) &&
+            IntrospectionUtils.isMethodInvocationConvertible(field.getType(),
+                                                             arg == null ? null : arg.getClass(),
+                                                             false))
+        {
+            return field;
+        }
+        return PropertyIndex.NONE;
+    }
+
+    /**
+     * @return the public field of a class with the given name, or null if
+     * there is none or public fields aren't used
+     */
+    private Field getPublicField(Class claz, String identifier)
+    {
+        if (!publicFields || identifier == null)
+        {
+            return null;
+        }
+
+        if (introspector instanceof SecureIntrospectorControl &&
+            !((SecureIntrospectorControl) introspector).checkObjectExecutePermission(claz, identifier))
+        {
+            return null;
+        }
+
+        try
+        {
+            Field field = claz.getField(identifier);
+            return Modifier.isPublic(field.getDeclaringClass().getModifiers()) ? field : null;
+        }
+        catch (NoSuchFieldException nsfe)
+        {
+            return null;
+        }
+        catch (SecurityException se)
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("While accessing field " + identifier + " of " + claz + ": ", se);
+            }
+            return null;
+        }
     }
 
     /**
@@ -555,7 +700,7 @@ public class UberspectImpl implements Uberspect, UberspectLoggable
      */
     public static class VelSetterImpl implements VelPropertySet
     {
-        private final SetExecutor setExecutor;
+        final SetExecutor setExecutor;
 
         /**
          * @param setExecutor
@@ -600,4 +745,94 @@ public class UberspectImpl implements Uberspect, UberspectLoggable
             return setExecutor.isAlive() ? setExecutor.getMethod().getName() : null;
         }
     }
+
+    /**
+     *  A getter that reads a public field.
+     *  @since 1.6.4
+     */
+    public static class VelFieldGetterImpl implements VelPropertyGet
+    {
+        final Field field;
+
+        /**
+         * @param field
+         */
+        public VelFieldGetterImpl(Field field)
+        {
+            this.field = field;
+        }
+
+        /**
+         * @see org.apache.velocity.util.introspection.VelPropertyGet#invoke(java.lang.Object)
+         */
+        public Object invoke(Object o)
+            throws Exception
+        {
+            return field.get(o);
+        }
+
+        /**
+         * @see org.apache.velocity.util.introspection.VelPropertyGet#isCacheable()
+         */
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        /**
+         * @see org.apache.velocity.util.introspection.VelPropertyGet#getMethodName()
+         */
+        public String getMethodName()
+        {
+            return field.getName();
+        }
+    }
+
+    /**
+     *  A setter that sets a public field.
+     *  @since 1.6.4
+     */
+    public static class VelFieldSetterImpl implements VelPropertySet
+    {
+        final Field field;
+
+        /**
+         * @param field
+         */
+        public VelFieldSetterImpl(Field field)
+        {
+            this.field = field;
+        }
+
+        /**
+         * Sets the field.
+         *
+         * @param o is the Object to set it on.
+         * @param value in the Value to set.
+         * @return null, as a field has nothing to return.
+         * @throws Exception
+         */
+        public Object invoke(final Object o, final Object value)
+            throws Exception
+        {
+            field.set(o, value);
+            return null;
+        }
+
+        /**
+         * @see org.apache.velocity.util.introspection.VelPropertySet#isCacheable()
+         */
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        /**
+         * @see org.apache.velocity.util.introspection.VelPropertySet#getMethodName()
+         */
+        public String getMethodName()
+        {
+            return field.getName();
+        }
+    }
 }
@@ -0,0 +1,301 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.MethodInvocationException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.log.Log;
+import org.apache.velocity.test.misc.TestLogChute;
+import org.apache.velocity.util.introspection.AccessorUberspect;
+import org.apache.velocity.util.introspection.Info;
+import org.apache.velocity.util.introspection.VelMethod;
+
+/**
+ * Checks that the methods called through generated accessors behave as
+ * they do through reflection.
+ *
+ * @version $Id$
+ */
+public class AccessorUberspectTestCase extends TestCase
+{
+    private VelocityEngine engine;
+
+    private AccessorUberspect uberspect;
+
+    public AccessorUberspectTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.UBERSPECT_CLASSNAME, AccessorUberspect.class.getName());
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+
+        uberspect = new AccessorUberspect();
+        uberspect.setLog(new Log());
+        uberspect.init();
+    }
+
+    private String evaluate(String template) throws Exception
+    {
+        VelocityContext context = new VelocityContext();
+        context.put("tool", new Tool());
+        context.put("bean", new Bean());
+        context.put("list", Collections.unmodifiableList(new ArrayList(Collections.singletonList("e"))));
+        context.put("array", new String[] { "a", "b" });
+        context.put("hidden", new Hidden());
+        context.put("math", Math.class);
+        StringWriter writer = new StringWriter();
+        engine.evaluate(context, writer, "test", template);
+        return writer.toString();
+    }
+
+    private void assertEvalEquals(String expected, String template) throws Exception
+    {
+        assertEquals(template, expected, evaluate(template));
+    }
+
+    public void testMethods() throws Exception
+    {
+        assertEvalEquals("hi", "$tool.greet()");
+        assertEvalEquals("3 5 7.5 true x", "$tool.add(1, 2) $tool.add(2, 3) $tool.half(15) $tool.not(false) $tool.first('xyz')");
+        assertEvalEquals("4", "$tool.longs(4)");
+        assertEvalEquals("null", "$tool.echo($nothing)");
+        assertEvalEquals("", "$tool.nothing()");
+        assertEvalEquals("1 e", "$list.size() $list.get(0)");
+        assertEvalEquals("2 b", "$array.size() $array.get(1)");
+        assertEvalEquals("3", "$math.max(2, 3)");
+        assertEvalEquals("x x", "$hidden.name() $tool.reveal($hidden)");
+    }
+
+    public void testVarArgs() throws Exception
+    {
+        assertEvalEquals("0 1 3", "$tool.count() $tool.count('a') $tool.count('a', 'b', 'c')");
+    }
+
+    public void testProperties() throws Exception
+    {
+        assertEvalEquals("bean true value-of-foo", "$bean.name $tool.ready $bean.foo");
+        assertEvalEquals("other stored", "#set( $bean.name = 'other' )#set( $bean.key = 'stored' )$bean.name $bean.key");
+    }
+
+    public void testExceptions() throws Exception
+    {
+        try
+        {
+            evaluate("$tool.fail()");
+            fail("expected a MethodInvocationException");
+        }
+        catch (MethodInvocationException mie)
+        {
+            assertTrue(mie.getWrappedThrowable() instanceof IllegalStateException);
+        }
+    }
+
+    public void testAccessorsAreUsed() throws Exception
+    {
+        Info info = new Info("test", 1, 1);
+
+        VelMethod method = uberspect.getMethod(new Tool(), "add", new Object[] { new Integer(1), new Integer(2) }, info);
+        assertTrue(method instanceof AccessorUberspect.VelAccessorMethod);
+        assertEquals(new Integer(3), method.invoke(new Tool(), new Object[] { new Integer(1), new Integer(2) }));
+
+        /* arguments Method.invoke wouldn't take are left to it */
+        try
+        {
+            method.invoke(new Tool(), new Object[] { new Long(1), new Integer(2) });
+            fail("expected an IllegalArgumentException");
+        }
+        catch (IllegalArgumentException iae)
+        {
+            // expected
+        }
+
+        try
+        {
+            uberspect.getMethod(new Tool(), "fail", new Object[0], info).invoke(new Tool(), new Object[0]);
+            fail("expected an InvocationTargetException");
+        }
+        catch (InvocationTargetException ite)
+        {
+            assertTrue(ite.getTargetException() instanceof IllegalStateException);
+        }
+
+        assertTrue(uberspect.getPropertyGet(new Bean(), "name", info) instanceof AccessorUberspect.VelAccessorGetter);
+        assertTrue(uberspect.getPropertySet(new Bean(), "name", "x", info) instanceof AccessorUberspect.VelAccessorSetter);
+
+        /* through a public interface of a class that isn't public */
+        method = uberspect.getMethod(new Hidden(), "name", new Object[0], info);
+        assertTrue(method instanceof AccessorUberspect.VelAccessorMethod);
+        assertEquals("x", method.invoke(new Hidden(), new Object[0]));
+
+        /* a parameter type that isn't public, so reflection */
+        method = uberspect.getMethod(new Tool(), "reveal", new Object[] { new Hidden() }, info);
+        assertFalse(method instanceof AccessorUberspect.VelAccessorMethod);
+        assertEquals("x", method.invoke(new Tool(), new Object[] { new Hidden() }));
+
+        /* a map is still used directly */
+        assertFalse(uberspect.getPropertyGet(new HashMap(), "foo", info) instanceof AccessorUberspect.VelAccessorGetter);
+    }
+
+    public void testClassLoaders() throws Exception
+    {
+        Info info = new Info("test", 1, 1);
+
+        Object foo = new TestClassloader().loadClass("Foo").newInstance();
+        VelMethod method = uberspect.getMethod(foo, "doIt", new Object[0], info);
+        assertTrue(method instanceof AccessorUberspect.VelAccessorMethod);
+        assertEquals("Hello From Foo", method.invoke(foo, new Object[0]));
+
+        /* the same class from another loader gets an accessor of its own */
+        Object otherFoo = new TestClassloader().loadClass("Foo").newInstance();
+        VelMethod otherMethod = uberspect.getMethod(otherFoo, "doIt", new Object[0], info);
+        assertTrue(otherMethod instanceof AccessorUberspect.VelAccessorMethod);
+        assertEquals("Hello From Foo", otherMethod.invoke(otherFoo, new Object[0]));
+        assertEquals("Hello From Foo", uberspect.getMethod(foo, "doIt", new Object[0], info).invoke(foo, new Object[0]));
+    }
+
+    public void testList() throws Exception
+    {
+        List list = new ArrayList();
+        list.add("a");
+        VelMethod method = uberspect.getMethod(list, "add", new Object[] { "b" }, new Info("test", 1, 1));
+        assertEquals(Boolean.TRUE, method.invoke(list, new Object[] { "b" }));
+        assertEquals(2, list.size());
+    }
+
+    public static class Tool
+    {
+        public String greet()
+        {
+            return "hi";
+        }
+
+        public int add(int a, int b)
+        {
+            return a + b;
+        }
+
+        public double half(double d)
+        {
+            return d / 2;
+        }
+
+        public boolean not(boolean b)
+        {
+            return !b;
+        }
+
+        public char first(String s)
+        {
+            return s.charAt(0);
+        }
+
+        public long longs(long l)
+        {
+            return l;
+        }
+
+        public String echo(Object o)
+        {
+            return String.valueOf(o);
+        }
+
+        public void nothing()
+        {
+        }
+
+        public int count(String[] values)
+        {
+            return values.length;
+        }
+
+        public String reveal(Hidden hidden)
+        {
+            return hidden.name();
+        }
+
+        public boolean isReady()
+        {
+            return true;
+        }
+
+        public String fail()
+        {
+            throw new IllegalStateException("fail");
+        }
+    }
+
+    public static class Bean
+    {
+        private String name = "bean";
+
+        private final Map values = new HashMap();
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public void setName(String name)
+        {
+            this.name = name;
+        }
+
+        public Object get(String key)
+        {
+            Object value = values.get(key);
+            return value != null ? value : "value-of-" + key;
+        }
+
+        public void put(String key, Object value)
+        {
+            values.put(key, value);
+        }
+    }
+
+    static class Hidden implements Named
+    {
+        public String name()
+        {
+            return "x";
+        }
+    }
+
+    public interface Named
+    {
+        String name();
+    }
+}
@@ -0,0 +1,125 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.ParseErrorException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.parser.ArrayCharStream;
+import org.apache.velocity.runtime.parser.CharStream;
+import org.apache.velocity.runtime.parser.ParserConstants;
+import org.apache.velocity.runtime.parser.ParserTokenManager;
+import org.apache.velocity.runtime.parser.Token;
+import org.apache.velocity.runtime.parser.VelocityCharStream;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that the ArrayCharStream gives the lexer the same tokens, with
+ * the same lines and columns, as the VelocityCharStream.
+ *
+ * @version $Id$
+ */
+public class ArrayCharStreamTestCase extends TestCase
+{
+    private static final String[] TEMPLATES =
+    {
+        "",
+        "plain text",
+        "$foo\n$bar.baz()\n\n#if($a)\tx\t#end\n",
+        "line\r\nline $x\rline\r\n\r\n#set($y = \"a\tb\")$y",
+        "\t\t$tab\n  \t $x #* block\ncomment\t*# ## line\n#foreach($i in [1..3])$i#end",
+        "#macro(m $a)\n<$a>\n#end\n#m('x')\n\\#escaped \\$not $!quiet ${formal}"
+    };
+
+    public ArrayCharStreamTestCase(String name)
+    {
+        super(name);
+    }
+
+    private String lex(CharStream stream)
+    {
+        ParserTokenManager tokens = new ParserTokenManager(stream);
+        StringBuffer sb = new StringBuffer();
+        for (Token t = tokens.getNextToken(); ; t = tokens.getNextToken())
+        {
+            sb.append(t.kind).append(':').append(t.image).append('@')
+              .append(t.beginLine).append(',').append(t.beginColumn).append('-')
+              .append(t.endLine).append(',').append(t.endColumn).append('\n');
+            if (t.kind == ParserConstants.EOF)
+            {
+                return sb.toString();
+            }
+        }
+    }
+
+    public void testSameTokens() throws Exception
+    {
+        for (int i = 0; i < TEMPLATES.length; i++)
+        {
+            String expected = lex(new VelocityCharStream(new StringReader(TEMPLATES[i]), 1, 1));
+            String result = lex(new ArrayCharStream(new StringReader(TEMPLATES[i]), 1, 1));
+            if (TEMPLATES[i].length() > 0)
+            {
+                assertEquals(expected, result);
+            }
+        }
+    }
+
+    public void testLongInput() throws Exception
+    {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 2000; i++)
+        {
+            sb.append("#if($x)\t$y.z(").append(i).append(")#end\r\n");
+        }
+        String template = sb.toString();
+        assertEquals(lex(new VelocityCharStream(new StringReader(template), 1, 1)),
+                     lex(new ArrayCharStream(new StringReader(template), 1, 1)));
+    }
+
+    public void testParseErrorPosition() throws Exception
+    {
+        VelocityEngine engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.PARSER_COMPACT_CHARSTREAM, "true");
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+
+        StringWriter writer = new StringWriter();
+        engine.evaluate(new VelocityContext(), writer, "test", "a\n\t$b\r\n#if($c)c#end");
+        assertEquals("a\n\t$b\r\n", writer.toString());
+
+        try
+        {
+            engine.evaluate(new VelocityContext(), new StringWriter(), "test", "a\n\t#if(");
+            fail("expected ParseErrorException");
+        }
+        catch (ParseErrorException pee)
+        {
+            assertEquals(2, pee.getLineNumber());
+            assertEquals(12, pee.getColumnNumber());
+        }
+    }
+}
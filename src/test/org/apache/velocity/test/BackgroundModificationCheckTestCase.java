@@ -0,0 +1,136 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.resource.Resource;
+import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
+import org.apache.velocity.runtime.resource.util.StringResourceRepository;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that cached templates are checked and reloaded by a background
+ * thread, and never by the thread asking for them.
+ *
+ * @version $Id$
+ */
+public class BackgroundModificationCheckTestCase extends TestCase
+{
+    private VelocityEngine engine;
+    private CheckingLoader loader;
+
+    public BackgroundModificationCheckTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        loader = new CheckingLoader();
+        engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.RESOURCE_LOADER, "checking");
+        engine.setProperty("checking.resource.loader.instance", loader);
+        engine.setProperty("checking.resource.loader.repository.static", "false");
+        engine.setProperty("checking.resource.loader.cache", "true");
+        engine.setProperty("checking.resource.loader.modificationCheckInterval", "1");
+        engine.setProperty(RuntimeConstants.RESOURCE_MANAGER_BACKGROUND_CHECK, "true");
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+    }
+
+    public void tearDown()
+    {
+        engine.shutdown();
+    }
+
+    private String merge() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        engine.getTemplate("checked.vm").merge(new VelocityContext(), writer);
+        return writer.toString();
+    }
+
+    public void testReloadInBackground() throws Exception
+    {
+        StringResourceRepository repo = (StringResourceRepository)
+            engine.getApplicationAttribute(StringResourceLoader.REPOSITORY_NAME_DEFAULT);
+
+        repo.putStringResource("checked.vm", "old");
+        assertEquals("old", merge());
+
+        Thread.sleep(10);
+        repo.putStringResource("checked.vm", "new");
+
+        String result = merge();
+        for (int i = 0; i < 100 && !"new".equals(result); i++)
+        {
+            Thread.sleep(50);
+            result = merge();
+        }
+        assertEquals("new", result);
+        assertTrue(loader.checks > 0);
+        assertFalse(loader.checkedByCaller);
+    }
+
+    public void testShutdown() throws Exception
+    {
+        StringResourceRepository repo = (StringResourceRepository)
+            engine.getApplicationAttribute(StringResourceLoader.REPOSITORY_NAME_DEFAULT);
+
+        repo.putStringResource("checked.vm", "old");
+        assertEquals("old", merge());
+
+        engine.shutdown();
+        int checks = loader.checks;
+        Thread.sleep(10);
+        repo.putStringResource("checked.vm", "new");
+
+        /* nobody checks any more, so the cached template stays */
+        Thread.sleep(2500);
+        assertEquals("old", merge());
+        assertEquals(checks, loader.checks);
+    }
+
+    /**
+     * Remembers who checks for modifications.
+     */
+    public static class CheckingLoader extends StringResourceLoader
+    {
+        volatile int checks = 0;
+        volatile boolean checkedByCaller = false;
+        private final Thread caller = Thread.currentThread();
+
+        public boolean isSourceModified(Resource resource)
+        {
+            checks++;
+            if (Thread.currentThread() == caller)
+            {
+                checkedByCaller = true;
+            }
+            return super.isSourceModified(resource);
+        }
+    }
+}
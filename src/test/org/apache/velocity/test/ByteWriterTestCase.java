@@ -0,0 +1,174 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.io.ByteWriter;
+import org.apache.velocity.io.StaticText;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.test.misc.TestEngines;
+
+/**
+ * Checks that templates written as bytes come out like they would
+ * through an OutputStreamWriter.
+ *
+ * @version $Id$
+ */
+public class ByteWriterTestCase extends TestCase
+{
+    private static final String TEMPLATE =
+        "Gr\u00fc\u00dfe, ${name}! \u20ac 5\n" +
+        "#foreach( $i in [1..3] )\u00e9t\u00e9 $i, #end\n" +
+        "#if( $name )caf\u00e9 \uD834\uDD1E#else never#end\n";
+
+    private static final String[] ENCODINGS =
+    {
+        "UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16", "UTF-16LE"
+    };
+
+    public ByteWriterTestCase(String name)
+    {
+        super(name);
+    }
+
+    private VelocityEngine createEngine(boolean compile) throws Exception
+    {
+        VelocityEngine engine = TestEngines.create(RuntimeConstants.COMPILE_TEMPLATES, compile);
+        TestEngines.putTemplate(engine, "test.vm", TEMPLATE);
+        return engine;
+    }
+
+    private void assertSameBytes(VelocityEngine engine) throws Exception
+    {
+        Template template = engine.getTemplate("test.vm");
+        VelocityContext context = new VelocityContext();
+        context.put("name", "Z\u00fcrich");
+
+        StringWriter chars = new StringWriter();
+        template.merge(context, chars);
+
+        for (int i = 0; i < ENCODINGS.length; i++)
+        {
+            /* twice, the second time with the bytes kept */
+            for (int j = 0; j < 2; j++)
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ByteWriter writer = new ByteWriter(out, ENCODINGS[i], 16);
+                template.merge(context, writer);
+                writer.flush();
+
+                assertEquals(ENCODINGS[i],
+                             new String(chars.toString().getBytes(ENCODINGS[i]), "ISO-8859-1"),
+                             new String(out.toByteArray(), "ISO-8859-1"));
+            }
+        }
+    }
+
+    public void testSameBytes() throws Exception
+    {
+        assertSameBytes(createEngine(false));
+    }
+
+    public void testSameBytesCompiled() throws Exception
+    {
+        assertSameBytes(createEngine(true));
+    }
+
+    public void testOrder() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteWriter writer = new ByteWriter(out, "UTF-8", 8);
+        writer.write("ab");
+        writer.write(new byte[] { 'c', 'd' }, 0, 2);
+        writer.write('e');
+        writer.write("fghijklmnopq");
+        writer.write(new byte[] { 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z' }, 0, 9);
+        writer.write("!");
+
+        writer.flush();
+        assertEquals("abcdefghijklmnopqrstuvwxyz!", out.toString("UTF-8"));
+    }
+
+    public void testEncodedOncePerEncoding() throws Exception
+    {
+        StaticText text = new StaticText("s\u00fc\u00df".toCharArray());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        CountingWriter utf8 = new CountingWriter(out, "UTF-8");
+        text.write(utf8);
+        text.write(utf8);
+        utf8.flush();
+        assertEquals(1, utf8.encoded);
+
+        CountingWriter latin1 = new CountingWriter(out, "ISO-8859-1");
+        text.write(latin1);
+        latin1.flush();
+        assertEquals(1, latin1.encoded);
+
+        /* the bytes are kept on the text, not the writer */
+        CountingWriter other = new CountingWriter(out, "UTF-8");
+        text.write(other);
+        assertEquals(0, other.encoded);
+
+        /* stateful encodings get the chars */
+        CountingWriter utf16 = new CountingWriter(out, "UTF-16");
+        assertFalse(utf16.isStateless());
+        text.write(utf16);
+        assertEquals(0, utf16.encoded);
+    }
+
+    public void testUnsupportedEncoding() throws Exception
+    {
+        try
+        {
+            new ByteWriter(new ByteArrayOutputStream(), "no-such-encoding");
+            fail("expected an UnsupportedEncodingException");
+        }
+        catch (UnsupportedEncodingException uee)
+        {
+            // expected
+        }
+    }
+
+    private static class CountingWriter extends ByteWriter
+    {
+        int encoded = 0;
+
+        CountingWriter(OutputStream out, String encoding) throws Exception
+        {
+            super(out, encoding);
+        }
+
+        public byte[] encode(char[] text)
+        {
+            encoded++;
+            return super.encode(text);
+        }
+    }
+}
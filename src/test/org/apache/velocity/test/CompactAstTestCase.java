@@ -0,0 +1,162 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.MethodInvocationException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.parser.Token;
+import org.apache.velocity.runtime.parser.node.ASTDirective;
+import org.apache.velocity.runtime.parser.node.Node;
+import org.apache.velocity.test.misc.TestEngines;
+
+/**
+ * Checks that templates render the same once their AST let go of
+ * the parser tokens.
+ *
+ * @version $Id$
+ */
+public class CompactAstTestCase extends TestCase
+{
+    private static final String TEMPLATE =
+        "#macro( twice $x )$x$x#end\n" +
+        "#set( $list = [1, 2, 3] )\n" +
+        "#foreach( $i in $list )#if( $i > 1 )[$i]#else($i)#end#end\n" +
+        "#twice( 'a' ) #twice( \"${name}!\" )\n" +
+        "$!missing $missing $name.bogus ${name.bogus()} $name.length()\n" +
+        "#undefined( $name 'x' ) \\#escaped #[[ raw $name ]]#\n" +
+        "#define( $block )in block $name#end$block\n" +
+        "#literal()#foreach( $a in $b ) $a#end#end\n" +
+        "#set( $n = 7 )#set( $s = \"$n + 1 = #set( $m = $n + 1 )$m\" )$s ## comment\n" +
+        "#set( $nothing = $missing )$nothing\n" +
+        "#* multi\n line *#done";
+
+    private VelocityEngine compact;
+    private VelocityEngine plain;
+
+    public CompactAstTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        compact = createEngine(true);
+        plain = createEngine(false);
+    }
+
+    private VelocityEngine createEngine(boolean compactAst) throws Exception
+    {
+        VelocityEngine engine = TestEngines.create(RuntimeConstants.COMPACT_AST, compactAst);
+        TestEngines.putTemplate(engine, "test.vm", TEMPLATE);
+        TestEngines.putTemplate(engine, "error.vm", "line one\n  #foreach( $i in [1] )\n    $thrower.boom()#end");
+        return engine;
+    }
+
+    private String merge(VelocityEngine engine, String name) throws Exception
+    {
+        VelocityContext context = new VelocityContext();
+        context.put("name", "velocity");
+        context.put("thrower", new Thrower());
+        return TestEngines.merge(engine, context, name);
+    }
+
+    public void testSameOutput() throws Exception
+    {
+        String expected = merge(plain, "test.vm");
+        assertEquals(expected, merge(compact, "test.vm"));
+
+        /* and again, now that the macro is initialized */
+        assertEquals(expected, merge(compact, "test.vm"));
+    }
+
+    public void testSameErrors() throws Exception
+    {
+        String expected = null;
+        int column = 0;
+        try
+        {
+            merge(plain, "error.vm");
+            fail("expected an exception");
+        }
+        catch (MethodInvocationException mie)
+        {
+            expected = mie.getMessage();
+            column = mie.getColumnNumber();
+            assertEquals(3, mie.getLineNumber());
+        }
+
+        try
+        {
+            merge(compact, "error.vm");
+            fail("expected an exception");
+        }
+        catch (MethodInvocationException mie)
+        {
+            assertEquals(expected, mie.getMessage());
+            assertEquals(3, mie.getLineNumber());
+            assertEquals(column, mie.getColumnNumber());
+        }
+    }
+
+    public void testTokensAreCut() throws Exception
+    {
+        Template template = compact.getTemplate("test.vm");
+        assertCut((Node) template.getData());
+
+        template = plain.getTemplate("test.vm");
+        assertNotNull(((Node) template.getData()).getFirstToken().next);
+    }
+
+    private void assertCut(Node node)
+    {
+        Token first = node.getFirstToken();
+        if (first != null)
+        {
+            assertNull(first.next);
+            assertNull(first.specialToken);
+            assertTrue(first.beginLine > 0);
+        }
+
+        /* the #macro keeps the tokens of its block */
+        if (node instanceof ASTDirective &&
+            "macro".equals(((ASTDirective) node).getDirectiveName()))
+        {
+            return;
+        }
+
+        for (int i = 0; i < node.jjtGetNumChildren(); i++)
+        {
+            assertCut(node.jjtGetChild(i));
+        }
+    }
+
+    public static class Thrower
+    {
+        public String boom()
+        {
+            throw new IllegalStateException("boom");
+        }
+    }
+}
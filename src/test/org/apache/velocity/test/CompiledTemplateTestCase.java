@@ -0,0 +1,247 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.app.event.EventCartridge;
+import org.apache.velocity.app.event.InvalidReferenceEventHandler;
+import org.apache.velocity.context.Context;
+import org.apache.velocity.context.InternalContextAdapterImpl;
+import org.apache.velocity.exception.MethodInvocationException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.parser.node.CompiledTemplate;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+import org.apache.velocity.util.introspection.Info;
+import org.apache.velocity.test.misc.TestEngines;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that templates merged through their compiled form render
+ * exactly like the interpreted AST.
+ *
+ * @version $Id$
+ */
+public class CompiledTemplateTestCase extends TestCase
+{
+    private VelocityEngine interpreted;
+    private VelocityEngine compiled;
+
+    public CompiledTemplateTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        interpreted = TestEngines.create(RuntimeConstants.COMPILE_TEMPLATES, false);
+        compiled = TestEngines.create(RuntimeConstants.COMPILE_TEMPLATES, true);
+    }
+
+    private VelocityContext fill(VelocityContext context)
+    {
+        List list = new ArrayList();
+        list.add("a");
+        list.add("b");
+        list.add("c");
+        context.put("list", list);
+        context.put("yes", Boolean.TRUE);
+        context.put("no", Boolean.FALSE);
+        context.put("name", "velocity");
+        Map map = new HashMap();
+        map.put("key", "value");
+        map.put("inner", map);
+        context.put("map", map);
+        context.put("thrower", new Thrower());
+        return context;
+    }
+
+    private String merge(VelocityEngine engine, String template) throws Exception
+    {
+        return merge(engine, template, new VelocityContext());
+    }
+
+    private String merge(VelocityEngine engine, String template, VelocityContext context)
+        throws Exception
+    {
+        return TestEngines.mergeTemplate(engine, fill(context), template);
+    }
+
+    private void assertSameOutput(String template) throws Exception
+    {
+        TestEngines.assertSameOutput(template,
+                                     interpreted, fill(new VelocityContext()),
+                                     compiled, fill(new VelocityContext()));
+    }
+
+    public void testText() throws Exception
+    {
+        assertSameOutput("");
+        assertSameOutput("plain text\nover two lines");
+        assertSameOutput("text ## comment\nmore #* block *# text");
+    }
+
+    public void testReferences() throws Exception
+    {
+        assertSameOutput("Hello $name, $!missing $missing ${name.length()}");
+        assertSameOutput("\\$name \\$missing");
+    }
+
+    public void testReferenceChains() throws Exception
+    {
+        assertSameOutput("$map.key $map.inner.key $map.get('key').length() $map.inner.inner.key");
+        assertSameOutput("$map.nokey $map.inner.nokey.length() $!map.nokey $map.key.nomethod()");
+        assertSameOutput("\\$map.key \\$map.nokey $!{map.inner.key}$!{map.inner.nokey}|");
+        assertSameOutput("#foreach($i in $list)$map.inner.key$i#end");
+    }
+
+    public void testMethodException() throws Exception
+    {
+        String template = "before $map.key $thrower.fail() after";
+        try
+        {
+            merge(compiled, template);
+            fail("expected a MethodInvocationException");
+        }
+        catch (MethodInvocationException mie)
+        {
+            assertEquals("thrower", mie.getReferenceName());
+            assertEquals("fail", mie.getMethodName());
+        }
+    }
+
+    public void testInvalidReferenceEvents() throws Exception
+    {
+        String template = "$missing $map.nokey $map.key.nomethod() $map.inner.nokey";
+        assertEquals(invalidReferences(interpreted, template),
+                     invalidReferences(compiled, template));
+    }
+
+    private String invalidReferences(VelocityEngine engine, String template)
+        throws Exception
+    {
+        final StringBuffer events = new StringBuffer();
+        EventCartridge cartridge = new EventCartridge();
+        cartridge.addEventHandler(new InvalidReferenceEventHandler()
+        {
+            public Object invalidGetMethod(Context context, String reference, Object object, String property, Info info)
+            {
+                events.append("get:").append(reference).append(' ');
+                return "[" + reference + "]";
+            }
+
+            public boolean invalidSetMethod(Context context, String leftreference, String rightreference, Info info)
+            {
+                return false;
+            }
+
+            public Object invalidMethod(Context context, String reference, Object object, String method, Info info)
+            {
+                events.append("method:").append(reference).append(' ');
+                return null;
+            }
+        });
+        VelocityContext context = new VelocityContext();
+        cartridge.attachToContext(context);
+        return merge(engine, template, context) + "|" + events;
+    }
+
+    public void testIf() throws Exception
+    {
+        assertSameOutput("#if($yes)A#end|#if($no)B#end");
+        assertSameOutput("#if($no)A#elseif($yes)B#else C#end");
+        assertSameOutput("#if($no)A#elseif($no)B#else C#end");
+        assertSameOutput("#if($no)A#elseif($no)B#end end");
+        assertSameOutput("#if($yes)#if($no)x#else y#end#end z");
+        assertSameOutput("#if($no)#{else}x#end done");
+        assertSameOutput("a #if($yes)b#end c #if($name == 'velocity')$name#{else}x#end");
+    }
+
+    public void testLoopsAndDirectives() throws Exception
+    {
+        assertSameOutput("#foreach($i in $list)$velocityCount:$i #end");
+        assertSameOutput("#foreach($i in $list)#if($i == 'b')#break#end$i#end");
+        assertSameOutput("#set($x = 'set')$x #macro(m $a)[$a]#end#m('arg')");
+        assertSameOutput("before #stop after");
+    }
+
+    public void testLargeTemplate() throws Exception
+    {
+        StringBuffer template = new StringBuffer();
+        for (int i = 0; i < 3000; i++)
+        {
+            template.append("#if($yes)$name#end$map.key $i\n");
+        }
+        assertSameOutput(template.toString());
+
+        /* it has to be compiled, not left to the interpreter */
+        CompiledTemplate compiledTemplate = compile(template.toString());
+        assertNotNull(compiledTemplate);
+        assertEquals(4 * 3000, compiledTemplate.getNodeCount());
+    }
+
+    public void testReferencesAreCompiled() throws Exception
+    {
+        CompiledTemplate template = compile("a $map.inner.key b #if($yes)$name#end c#set($x = 1)");
+        assertNotNull(template);
+        /* $map.inner.key, $yes, $name and #set */
+        assertEquals(4, template.getNodeCount());
+        assertEquals(3, template.getTextCount());
+    }
+
+    private CompiledTemplate compile(String template) throws Exception
+    {
+        RuntimeInstance ri = new RuntimeInstance();
+        ri.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        ri.init();
+
+        SimpleNode root = ri.parse(template, "compile.vm");
+        root.init(new InternalContextAdapterImpl(new VelocityContext()), ri);
+        return CompiledTemplate.compile(root, ri.getLog());
+    }
+
+    public void testStaticTextIsMerged() throws Exception
+    {
+        CompiledTemplate template = compile("a ## comment\nb #* block *#c");
+        assertEquals(1, template.getTextCount());
+        assertEquals(0, template.getNodeCount());
+
+        StringWriter writer = new StringWriter();
+        template.render(new InternalContextAdapterImpl(new VelocityContext()), writer);
+        assertEquals("a b c", writer.toString());
+    }
+
+    public static class Thrower
+    {
+        public String fail()
+        {
+            throw new IllegalStateException("fail");
+        }
+    }
+}
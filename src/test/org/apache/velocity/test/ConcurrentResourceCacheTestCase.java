@@ -0,0 +1,212 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.resource.ConcurrentResourceCache;
+import org.apache.velocity.runtime.resource.Resource;
+import org.apache.velocity.runtime.resource.ResourceCache;
+import org.apache.velocity.runtime.resource.ResourceCacheImpl;
+import org.apache.velocity.runtime.resource.ResourceManagerImpl;
+import org.apache.velocity.test.misc.TestEngines;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Tests the lock free resource cache.
+ *
+ * @version $Id$
+ */
+public class ConcurrentResourceCacheTestCase extends TestCase
+{
+    public ConcurrentResourceCacheTestCase(String name)
+    {
+        super(name);
+    }
+
+    private ConcurrentResourceCache createCache(int size) throws Exception
+    {
+        RuntimeInstance ri = new RuntimeInstance();
+        ri.setProperty(RuntimeConstants.RESOURCE_MANAGER_DEFAULTCACHE_SIZE, String.valueOf(size));
+        ri.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        ri.init();
+
+        ConcurrentResourceCache cache = new ConcurrentResourceCache();
+        cache.initialize(ri);
+        return cache;
+    }
+
+    private static int count(Iterator i)
+    {
+        int n = 0;
+        for (; i.hasNext(); i.next())
+        {
+            n++;
+        }
+        return n;
+    }
+
+    public void testGetPutRemove() throws Exception
+    {
+        ConcurrentResourceCache cache = createCache(10);
+        Resource a = new Template();
+        Resource b = new Template();
+
+        assertNull(cache.get("a"));
+        assertNull(cache.put("a", a));
+        assertSame(a, cache.get("a"));
+        assertSame(a, cache.put("a", b));
+        assertSame(b, cache.get("a"));
+        assertSame(b, cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertNull(cache.remove("a"));
+    }
+
+    public void testBounded() throws Exception
+    {
+        ConcurrentResourceCache cache = createCache(10);
+        for (int i = 0; i < 100; i++)
+        {
+            cache.put("key" + i, new Template());
+        }
+        assertEquals(10, count(cache.enumerateKeys()));
+    }
+
+    public void testUnbounded() throws Exception
+    {
+        ConcurrentResourceCache cache = createCache(0);
+        for (int i = 0; i < 100; i++)
+        {
+            cache.put("key" + i, new Template());
+        }
+        assertEquals(100, count(cache.enumerateKeys()));
+    }
+
+    public void testFrequentlyUsedResourceSurvivesScan() throws Exception
+    {
+        ConcurrentResourceCache cache = createCache(10);
+        Resource hot = new Template();
+        cache.put("hot", hot);
+        for (int i = 0; i < 200; i++)
+        {
+            cache.get("hot");
+        }
+
+        for (int i = 0; i < 100; i++)
+        {
+            cache.put("cold" + i, new Template());
+        }
+        assertSame(hot, cache.get("hot"));
+        assertEquals(10, count(cache.enumerateKeys()));
+    }
+
+    public void testNewResourceIsCached() throws Exception
+    {
+        ConcurrentResourceCache cache = createCache(10);
+        for (int i = 0; i < 10; i++)
+        {
+            cache.put("hot" + i, new Template());
+            for (int j = 0; j < 50; j++)
+            {
+                cache.get("hot" + i);
+            }
+        }
+
+        /* the window takes it even though everything else is used more */
+        Resource fresh = new Template();
+        cache.put("fresh", fresh);
+        assertSame(fresh, cache.get("fresh"));
+        assertEquals(10, count(cache.enumerateKeys()));
+
+        /* and it has to be used to stay once it leaves the window */
+        cache.put("next", new Template());
+        assertNull(cache.get("fresh"));
+        assertEquals(10, count(cache.enumerateKeys()));
+    }
+
+    public void testIsDefault() throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty(RuntimeConstants.RESOURCE_MANAGER_CLASS, CacheKeepingResourceManager.class.getName());
+        TestEngines.create(properties);
+        assertTrue(CacheKeepingResourceManager.cache instanceof ConcurrentResourceCache);
+
+        properties.setProperty(RuntimeConstants.RESOURCE_MANAGER_CACHE_CLASS, ResourceCacheImpl.class.getName());
+        TestEngines.create(properties);
+        assertEquals(ResourceCacheImpl.class, CacheKeepingResourceManager.cache.getClass());
+    }
+
+    public void testCustomCacheGetsStringKeys() throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty(RuntimeConstants.RESOURCE_MANAGER_CACHE_CLASS, KeyRecordingCache.class.getName());
+        VelocityEngine engine = TestEngines.create(properties);
+        TestEngines.putTemplate(engine, "a.vm", "a");
+        KeyRecordingCache.keys.clear();
+
+        assertEquals("a", TestEngines.merge(engine, new VelocityContext(), "a.vm"));
+        assertEquals("a", TestEngines.merge(engine, new VelocityContext(), "a.vm"));
+        assertEquals(2, KeyRecordingCache.keys.size());
+        assertEquals("1a.vm", KeyRecordingCache.keys.get(0));
+
+        /* a hit finds the key it was cached under rather than building one */
+        assertSame(KeyRecordingCache.keys.get(0), KeyRecordingCache.keys.get(1));
+    }
+
+    /**
+     * Keeps the cache of the last manager initialized.
+     */
+    public static class CacheKeepingResourceManager extends ResourceManagerImpl
+    {
+        static ResourceCache cache;
+
+        public synchronized void initialize(RuntimeServices rsvc)
+            throws Exception
+        {
+            super.initialize(rsvc);
+            cache = globalCache;
+        }
+    }
+
+    /**
+     * Remembers the keys it is asked for.
+     */
+    public static class KeyRecordingCache extends ResourceCacheImpl
+    {
+        static final List keys = new ArrayList();
+
+        public Resource get(Object key)
+        {
+            keys.add(key);
+            return super.get(key);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.context.InternalContextAdapterImpl;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.parser.node.CompiledTemplate;
+import org.apache.velocity.runtime.parser.node.Node;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+import org.apache.velocity.test.misc.TestEngines;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that expressions of literals are worked out at init, and
+ * that templates render the same with and without that.
+ *
+ * @version $Id$
+ */
+public class ConstantFoldingTestCase extends TestCase
+{
+    private VelocityEngine folding;
+    private VelocityEngine plain;
+
+    public ConstantFoldingTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        folding = TestEngines.create(RuntimeConstants.FOLD_CONSTANTS, true);
+        plain = TestEngines.create(RuntimeConstants.FOLD_CONSTANTS, false);
+    }
+
+    private VelocityContext createContext()
+    {
+        VelocityContext context = new VelocityContext();
+        context.put("yes", Boolean.TRUE);
+        context.put("thrower", new Thrower());
+        return context;
+    }
+
+    private void assertSameOutput(String template) throws Exception
+    {
+        TestEngines.assertSameOutput(template, plain, createContext(), folding, createContext());
+    }
+
+    public void testMath() throws Exception
+    {
+        assertSameOutput("#set($x = 60 * 60 * 24)$x");
+        assertSameOutput("#set($x = (1 + 2) * 3 - 4 / 2 % 3)$x");
+        assertSameOutput("#set($x = 2147483647 + 1)$x #set($y = 1.5 * 2)$y");
+        assertSameOutput("#set($x = 'a' + 'b' + 1)$x");
+        assertSameOutput("#set($x = 1 / 0)$x #set($y = 5 % 0)$y");
+        assertSameOutput("#set($x = true + 1)$x");
+    }
+
+    public void testConditions() throws Exception
+    {
+        assertSameOutput("#if(1 < 2 && 2 >= 2 && !(3 <= 2) && 4 > 3)yes#end");
+        assertSameOutput("#if('a' == 'a' && 1 == 1.0 && 'a' != 'b')yes#end");
+        assertSameOutput("#if(1 > 'a')yes#else no#end");
+        assertSameOutput("#if(false && $thrower.boom())yes#else no#end");
+        assertSameOutput("#if(true || $thrower.boom())yes#end");
+        assertSameOutput("#if(true && $yes)yes#end #if(false || $yes)yes#end");
+        assertSameOutput("#set($b = 1 == 1)$b #set($c = !true)$c");
+    }
+
+    public void testBranches() throws Exception
+    {
+        assertSameOutput("#if(true)A#else B#end");
+        assertSameOutput("#if(false)A#else B#end");
+        assertSameOutput("#if(false)A#elseif(false)B#end.");
+        assertSameOutput("#if(false)A#elseif(1 < 2)B#else C#end");
+        assertSameOutput("#if(false)A#elseif($yes)B#else C#end");
+        assertSameOutput("#if(false)A#elseif($no)B#elseif(true)C#else D#end");
+        assertSameOutput("#if($yes)A#elseif(true)B#end");
+        assertSameOutput("#foreach($i in [1..3])#if(true)$i#end#end");
+    }
+
+    public void testFolded() throws Exception
+    {
+        RuntimeInstance ri = new RuntimeInstance();
+        ri.setProperty(RuntimeConstants.FOLD_CONSTANTS, "true");
+        ri.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        ri.init();
+
+        SimpleNode root = ri.parse("#set($x = 60 * 60 * 24)#set($y = $x * 2)", "fold.vm");
+        root.init(new InternalContextAdapterImpl(new VelocityContext()), ri);
+
+        /* #set -> expression -> math */
+        Node constant = root.jjtGetChild(0).jjtGetChild(1).jjtGetChild(0);
+        assertTrue(((SimpleNode) constant).isConstant());
+        assertEquals(new Integer(86400), constant.value(null));
+
+        Node variable = root.jjtGetChild(1).jjtGetChild(1).jjtGetChild(0);
+        assertFalse(((SimpleNode) variable).isConstant());
+    }
+
+    public void testBranchesArePruned() throws Exception
+    {
+        RuntimeInstance ri = new RuntimeInstance();
+        ri.setProperty(RuntimeConstants.FOLD_CONSTANTS, "true");
+        ri.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        ri.init();
+
+        SimpleNode root = ri.parse("#if(false)A#elseif(1 == 1)B#else C#end", "prune.vm");
+        root.init(new InternalContextAdapterImpl(new VelocityContext()), ri);
+
+        CompiledTemplate template = CompiledTemplate.compile(root, ri.getLog());
+        assertEquals(1, template.getTextCount());
+        assertEquals(0, template.getNodeCount());
+
+        StringWriter writer = new StringWriter();
+        template.render(new InternalContextAdapterImpl(new VelocityContext()), writer);
+        assertEquals("B", writer.toString());
+    }
+
+    public static class Thrower
+    {
+        public boolean boom()
+        {
+            throw new IllegalStateException("boom");
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.ElasticParserPool;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.parser.Parser;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that the ElasticParserPool creates parsers as needed, reuses
+ * them, and lets go of idle ones.
+ *
+ * @version $Id$
+ */
+public class ElasticParserPoolTestCase extends TestCase
+{
+    private static final int THREADS = 8;
+
+    public ElasticParserPoolTestCase(String name)
+    {
+        super(name);
+    }
+
+    private ElasticParserPool createPool(int size, int idleTime) throws Exception
+    {
+        RuntimeInstance ri = new RuntimeInstance();
+        ri.setProperty(RuntimeConstants.PARSER_POOL_SIZE, new Integer(size));
+        ri.setProperty(RuntimeConstants.PARSER_POOL_IDLE_TIME, new Integer(idleTime));
+        ri.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        ri.init();
+
+        ElasticParserPool pool = new ElasticParserPool();
+        pool.initialize(ri);
+        return pool;
+    }
+
+    public void testReuse() throws Exception
+    {
+        ElasticParserPool pool = createPool(20, 60);
+        assertEquals(0, pool.getIdleCount());
+
+        Parser parser = pool.get();
+        assertNotNull(parser);
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.getCreationCount());
+
+        pool.put(parser);
+        assertEquals(1, pool.getIdleCount());
+        assertSame(parser, pool.get());
+        assertEquals(2, pool.getBorrowCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    public void testLimit() throws Exception
+    {
+        ElasticParserPool pool = createPool(2, 60);
+
+        Parser[] parsers = new Parser[5];
+        for (int i = 0; i < parsers.length; i++)
+        {
+            parsers[i] = pool.get();
+        }
+        assertEquals(5, pool.getCreationCount());
+
+        for (int i = 0; i < parsers.length; i++)
+        {
+            pool.put(parsers[i]);
+        }
+        assertTrue(pool.getIdleCount() >= 1);
+        assertTrue(pool.getIdleCount() <= 2);
+    }
+
+    public void testShrink() throws Exception
+    {
+        ElasticParserPool pool = createPool(20, 1);
+
+        Parser first = pool.get();
+        Parser second = pool.get();
+        pool.put(first);
+
+        /* one parser stays idle for a whole period */
+        Thread.sleep(1100);
+        pool.put(second);
+        assertEquals(2, pool.getIdleCount());
+        Thread.sleep(1100);
+
+        assertNotNull(pool.get());
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(2, pool.getMissCount());
+    }
+
+    public void testConcurrentParsing() throws Exception
+    {
+        final VelocityEngine engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.PARSER_POOL_CLASS, ElasticParserPool.class.getName());
+        engine.setProperty(RuntimeConstants.PARSER_POOL_SIZE, new Integer(2));
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+
+        final String[] results = new String[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++)
+        {
+            final int index = i;
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        StringBuffer sb = new StringBuffer();
+                        for (int j = 0; j < 50; j++)
+                        {
+                            VelocityContext context = new VelocityContext();
+                            context.put("i", new Integer(index));
+                            StringWriter writer = new StringWriter();
+                            engine.evaluate(context, writer, "test", "#if($i)$i#end");
+                            sb.append(writer.toString());
+                        }
+                        results[index] = sb.toString();
+                    }
+                    catch (Exception e)
+                    {
+                        results[index] = e.toString();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (int i = 0; i < THREADS; i++)
+        {
+            threads[i].join();
+            StringBuffer expected = new StringBuffer();
+            for (int j = 0; j < 50; j++)
+            {
+                expected.append(i);
+            }
+            assertEquals(expected.toString(), results[i]);
+        }
+    }
+}
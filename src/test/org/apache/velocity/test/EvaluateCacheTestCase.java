@@ -0,0 +1,241 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.exception.ParseErrorException;
+import org.apache.velocity.runtime.EvaluateCache;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that evaluate() and #evaluate keep the ASTs of the texts
+ * they parse.
+ *
+ * @version $Id$
+ */
+public class EvaluateCacheTestCase extends TestCase
+{
+    public EvaluateCacheTestCase(String name)
+    {
+        super(name);
+    }
+
+    private RuntimeInstance createRuntime(int size) throws Exception
+    {
+        RuntimeInstance ri = new RuntimeInstance();
+        ri.setProperty(RuntimeConstants.EVALUATE_CACHE_SIZE, String.valueOf(size));
+        ri.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        ri.init();
+        return ri;
+    }
+
+    private String evaluate(RuntimeInstance ri, String tag, String text, Object x) throws Exception
+    {
+        VelocityContext context = new VelocityContext();
+        context.put("x", x);
+        StringWriter writer = new StringWriter();
+        ri.evaluate(context, writer, tag, text);
+        return writer.toString();
+    }
+
+    public void testOff() throws Exception
+    {
+        assertNull(createRuntime(0).getEvaluateCache());
+    }
+
+    public void testEvaluate() throws Exception
+    {
+        RuntimeInstance ri = createRuntime(1000);
+        EvaluateCache cache = ri.getEvaluateCache();
+
+        assertEquals("x is 1", evaluate(ri, "tag", "x is $x", "1"));
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+
+        assertEquals("x is 2", evaluate(ri, "tag", "x is $x", "2"));
+        assertEquals(1, cache.getHits());
+
+        /* same text, another name */
+        assertEquals("x is 3", evaluate(ri, "other", "x is $x", "3"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.size());
+        assertEquals(2 * "x is $x".length(), cache.getChars());
+    }
+
+    public void testDirective() throws Exception
+    {
+        RuntimeInstance ri = createRuntime(1000);
+        EvaluateCache cache = ri.getEvaluateCache();
+
+        assertEquals("a1 a2 a3 ", evaluate(ri, "tag", "#foreach( $i in [1..3] )#evaluate( $x )#end", "a$i "));
+        /* the outer text and the first #evaluate parse, the others don't */
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getChars());
+    }
+
+    public void testMacrosAreNotKept() throws Exception
+    {
+        RuntimeInstance ri = createRuntime(1000);
+        EvaluateCache cache = ri.getEvaluateCache();
+
+        String text = "#macro( twice $a )$a$a#end#twice( $x )";
+        assertEquals("oo", evaluate(ri, "tag", text, "o"));
+        assertEquals("xx", evaluate(ri, "tag", text, "x"));
+        assertEquals(0, cache.size());
+
+        assertEquals("[y]", evaluate(ri, "tag", "#evaluate( '#macro( m $a )[$a]#end#m( $x )' )", "y"));
+        assertEquals("[z]", evaluate(ri, "tag", "#evaluate( '#macro( m $a )[$a]#end#m( $x )' )", "z"));
+        assertEquals(1, cache.size());
+    }
+
+    public void testEviction() throws Exception
+    {
+        RuntimeInstance ri = createRuntime(20);
+        EvaluateCache cache = ri.getEvaluateCache();
+
+        evaluate(ri, "tag", "aaaaaaaa$x", "");
+        evaluate(ri, "tag", "bbbbbbbb$x", "");
+        assertEquals(2, cache.size());
+
+        /* the least recently used goes */
+        evaluate(ri, "tag", "aaaaaaaa$x", "");
+        evaluate(ri, "tag", "cccccccc$x", "");
+        assertEquals(2, cache.size());
+        assertEquals(20, cache.getChars());
+        assertNotNull(cache.get("tag", "aaaaaaaa$x"));
+        assertNull(cache.get("tag", "bbbbbbbb$x"));
+
+        /* too long to keep at all */
+        evaluate(ri, "tag", "ddddddddddddddddddddd", "");
+        assertEquals(2, cache.size());
+    }
+
+    public void testVelocimacroDefinedSince() throws Exception
+    {
+        RuntimeInstance ri = createRuntime(1000);
+        EvaluateCache cache = ri.getEvaluateCache();
+
+        assertEquals("#m( $x )", evaluate(ri, "tag", "#m( $x )", "1"));
+        assertEquals(1, cache.size());
+
+        evaluate(ri, "macros", "#macro( m $a )[$a]#end", "");
+        assertEquals("[2]", evaluate(ri, "tag", "#m( $x )", "2"));
+        assertEquals(0, cache.getHits());
+        assertEquals("[3]", evaluate(ri, "tag", "#m( $x )", "3"));
+        assertEquals(1, cache.getHits());
+    }
+
+    public void testDirectiveRemovedSince() throws Exception
+    {
+        RuntimeInstance ri = createRuntime(1000);
+        EvaluateCache cache = ri.getEvaluateCache();
+
+        String text = "#foreach( $i in [1..2] )$i#end$x";
+        assertEquals("12.", evaluate(ri, "tag", text, "."));
+        assertEquals("12.", evaluate(ri, "tag", text, "."));
+        assertEquals(1, cache.getHits());
+
+        /* parsed again, #end has nothing to close now */
+        ri.removeDirective("foreach");
+        try
+        {
+            evaluate(ri, "tag", text, ".");
+            fail("expected a ParseErrorException");
+        }
+        catch (ParseErrorException pee)
+        {
+            // expected
+        }
+        assertEquals(1, cache.getHits());
+    }
+
+    public void testStripes() throws Exception
+    {
+        final RuntimeInstance ri = createRuntime(1024 * 1024);
+        final EvaluateCache cache = ri.getEvaluateCache();
+        final Throwable[] failure = new Throwable[1];
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+        {
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < 200; i++)
+                        {
+                            String text = "text " + (i % 50) + " $x";
+                            assertEquals("text " + (i % 50) + " " + i, evaluate(ri, "tag", text, new Integer(i)));
+                        }
+                    }
+                    catch (Throwable th)
+                    {
+                        failure[0] = th;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++)
+        {
+            threads[t].join();
+        }
+        if (failure[0] != null)
+        {
+            fail(failure[0].toString());
+        }
+
+        assertEquals(50, cache.size());
+        assertEquals(4 * 200, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getHits() >= 4 * 200 - 4 * 50);
+    }
+
+    public void testParseErrors() throws Exception
+    {
+        RuntimeInstance ri = createRuntime(1000);
+        for (int i = 0; i < 2; i++)
+        {
+            try
+            {
+                evaluate(ri, "tag", "#if( $x", "");
+                fail("expected a ParseErrorException");
+            }
+            catch (ParseErrorException pee)
+            {
+                // expected
+            }
+        }
+        assertEquals(0, ri.getEvaluateCache().size());
+    }
+}
@@ -0,0 +1,160 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that the file resource loader reports changed files when it
+ * watches its paths, so that cached templates are reloaded without
+ * checking them for modification.
+ *
+ * @version $Id$
+ */
+public class FileWatchTestCase extends TestCase
+{
+    private static final String WATCH_DIR = TemplateTestBase.TEST_RESULT_DIR + "/watch";
+
+    private File directory;
+    private VelocityEngine engine;
+
+    public FileWatchTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        directory = new File(WATCH_DIR, "sub");
+        directory.mkdirs();
+        write("watched.vm", "one");
+
+        engine = new VelocityEngine();
+        engine.setProperty("file.resource.loader.path", WATCH_DIR);
+        engine.setProperty("file.resource.loader.cache", "true");
+        engine.setProperty("file.resource.loader.watch", "true");
+        engine.setProperty("file.resource.loader.modificationCheckInterval", "3600");
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+    }
+
+    public void tearDown()
+    {
+        engine.shutdown();
+    }
+
+    private void write(String name, String content) throws Exception
+    {
+        Writer writer = new FileWriter(new File(directory, name));
+        writer.write(content);
+        writer.close();
+    }
+
+    private String merge(String name) throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        engine.getTemplate(name).merge(new VelocityContext(), writer);
+        return writer.toString();
+    }
+
+    private String awaitChange(String name, String old) throws Exception
+    {
+        String result = merge(name);
+        for (int i = 0; i < 200 && old.equals(result); i++)
+        {
+            Thread.sleep(50);
+            result = merge(name);
+        }
+        return result;
+    }
+
+    private static boolean canWatch()
+    {
+        try
+        {
+            Class.forName("java.nio.file.WatchService");
+            return true;
+        }
+        catch (ClassNotFoundException cnfe)
+        {
+            /* nothing to watch with on this JRE */
+            return false;
+        }
+    }
+
+    private static int countWatchers()
+    {
+        Thread[] threads = new Thread[Thread.activeCount() + 16];
+        int count = 0;
+        for (int i = Thread.enumerate(threads) - 1; i >= 0; i--)
+        {
+            if (threads[i].getName().startsWith("Velocity FileResourceLoader watcher"))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testChangedFileIsReloaded() throws Exception
+    {
+        if (!canWatch())
+        {
+            return;
+        }
+
+        assertEquals("one", merge("sub/watched.vm"));
+        assertEquals("one", merge("/sub/watched.vm"));
+
+        write("watched.vm", "two");
+        assertEquals("two", awaitChange("sub/watched.vm", "one"));
+        assertEquals("two", awaitChange("/sub/watched.vm", "one"));
+    }
+
+    public void testShutdownStopsWatching() throws Exception
+    {
+        if (!canWatch())
+        {
+            return;
+        }
+
+        int watchers = countWatchers();
+        assertTrue(watchers > 0);
+        engine.shutdown();
+        for (int i = 0; i < 100 && countWatchers() >= watchers; i++)
+        {
+            Thread.sleep(50);
+        }
+        assertEquals(watchers - 1, countWatchers());
+
+        /* templates are still found, and checked for modification again */
+        assertEquals("one", merge("sub/watched.vm"));
+    }
+}
@@ -0,0 +1,140 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.test.misc.TestEngines;
+
+/**
+ * Checks that #foreach renders the same with its loop variables kept
+ * in a frame, and that the context is left alone then.
+ *
+ * @version $Id$
+ */
+public class ForeachLoopFrameTestCase extends TestCase
+{
+    private VelocityEngine framed;
+    private VelocityEngine plain;
+
+    public ForeachLoopFrameTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        framed = createEngine(true, false);
+        plain = createEngine(false, false);
+    }
+
+    private VelocityEngine createEngine(boolean frame, boolean strict) throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty(RuntimeConstants.FOREACH_LOOP_FRAME, String.valueOf(frame));
+        properties.setProperty(RuntimeConstants.RUNTIME_REFERENCES_STRICT, String.valueOf(strict));
+        return TestEngines.create(properties);
+    }
+
+    private VelocityContext fill(VelocityContext context)
+    {
+        List withNull = new ArrayList(Arrays.asList(new Object[] { "a", null, "c" }));
+        context.put("withNull", withNull);
+        context.put("i", "outer");
+        return context;
+    }
+
+    private String evaluate(VelocityEngine engine, VelocityContext context, String template)
+        throws Exception
+    {
+        return TestEngines.mergeTemplate(engine, fill(context), template);
+    }
+
+    private void assertSameOutput(String template) throws Exception
+    {
+        TestEngines.assertSameOutput(template,
+                                     plain, fill(new VelocityContext()),
+                                     framed, fill(new VelocityContext()));
+    }
+
+    public void testSameOutput() throws Exception
+    {
+        assertSameOutput("#foreach( $i in [1..3] )$velocityCount:$i:$velocityHasNext #end$i $!velocityCount");
+        assertSameOutput("#foreach( $i in ['a', 'b'] )#foreach( $j in [1..2] )$velocityCount$i$j #end$velocityCount #end");
+        assertSameOutput("#foreach( $i in ['a', 'b'] )#foreach( $i in [1..2] )$i#end$i #end$i");
+        assertSameOutput("#foreach( $e in $withNull )[$!e $e]#end");
+        assertSameOutput("#set( $e = 'x' )#foreach( $e in $withNull )[$!e]#end$e");
+        assertSameOutput("#foreach( $i in [1..3] )#set( $i = 'changed' )$i #set( $last = $i )#end$last $i");
+        assertSameOutput("#foreach( $i in [1..3] )#set( $velocityCount = 9 )$velocityCount#end");
+        assertSameOutput("#foreach( $i in [1..5] )#if( $i == 3 )#break#end$i#end$i");
+        assertSameOutput("#macro( show $x )$x/$velocityCount/$i #end#foreach( $i in [7..8] )#show( $i )#end");
+        assertSameOutput("#foreach( $i in [1..2] )#evaluate( '$i$velocityCount' )#end");
+        assertSameOutput("#macro( loop $a )#foreach( $i in [1..3] )$a#end#end#loop( \"#if( $i == 2 )yes#else no#end\" )");
+    }
+
+    public void testStrictNullElement() throws Exception
+    {
+        String template = "#foreach( $e in $withNull )[$!e]#end";
+        assertEquals(evaluate(createEngine(false, true), new VelocityContext(), template),
+                     evaluate(createEngine(true, true), new VelocityContext(), template));
+    }
+
+    public void testContextIsLeftAlone() throws Exception
+    {
+        CountingContext context = new CountingContext();
+        evaluate(framed, context, "#foreach( $i in [1..100] )#foreach( $j in [1..10] )$i$j$velocityCount#end#end");
+        assertEquals(0, context.changes);
+
+        context = new CountingContext();
+        evaluate(framed, context, "#foreach( $i in [1..100] )#set( $last = $i )#end$last");
+        assertEquals(100, context.changes);
+        assertEquals(new Integer(100), context.get("last"));
+        assertEquals("outer", context.get("i"));
+        assertFalse(context.containsKey("velocityCount"));
+    }
+
+    private static class CountingContext extends VelocityContext
+    {
+        int changes = 0;
+
+        public Object internalPut(String key, Object value)
+        {
+            if (!"withNull".equals(key) && !"i".equals(key))
+            {
+                changes++;
+            }
+            return super.internalPut(key, value);
+        }
+
+        public Object internalRemove(Object key)
+        {
+            changes++;
+            return super.internalRemove(key);
+        }
+    }
+}
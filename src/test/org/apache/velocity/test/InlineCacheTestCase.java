@@ -0,0 +1,307 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.test.misc.TestLogChute;
+import org.apache.velocity.util.introspection.IntrospectionCacheData;
+import org.apache.velocity.util.introspection.Info;
+import org.apache.velocity.util.introspection.UberspectImpl;
+import org.apache.velocity.util.introspection.VelMethod;
+import org.apache.velocity.util.introspection.VelPropertyGet;
+
+/**
+ * Checks that method calls and property accesses keep their
+ * introspection results across merges, guarded by the classes
+ * looked up for.
+ *
+ * @version $Id$
+ */
+public class InlineCacheTestCase extends TestCase
+{
+    private static int lookups;
+
+    public InlineCacheTestCase(String name)
+    {
+        super(name);
+    }
+
+    private Template createTemplate(int size, String text) throws Exception
+    {
+        RuntimeInstance ri = new RuntimeInstance();
+        ri.setProperty(RuntimeConstants.INLINE_CACHE_SIZE, String.valueOf(size));
+        ri.setProperty(RuntimeConstants.UBERSPECT_CLASSNAME, CountingUberspect.class.getName());
+        ri.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        ri.init();
+
+        Template template = new Template();
+        template.setRuntimeServices(ri);
+        template.setName("test");
+        template.setData(ri.parse(new StringReader(text), "test"));
+        template.initDocument();
+        return template;
+    }
+
+    private String merge(Template template, Object x) throws Exception
+    {
+        return merge(template, new VelocityContext(), x);
+    }
+
+    private String merge(Template template, VelocityContext context, Object x) throws Exception
+    {
+        context.put("x", x);
+        StringWriter writer = new StringWriter();
+        template.merge(context, writer);
+        return writer.toString();
+    }
+
+    public void testAcrossMerges() throws Exception
+    {
+        Template template = createTemplate(4, "$x.name $x.greet('you') $x.greet($x.name)");
+        lookups = 0;
+        assertEquals("a Hi you, I am a Hi a, I am a", merge(template, new Thing("a")));
+        assertEquals(3, lookups);
+        assertEquals("b Hi you, I am b Hi b, I am b", merge(template, new Thing("b")));
+        assertEquals(3, lookups);
+    }
+
+    public void testHitsAndMisses() throws Exception
+    {
+        Template template = createTemplate(4, "$x.greet('a')$x.greet('b')");
+
+        /* the first merge misses, and the second call finds the first one's method in the context */
+        CountingContext context = new CountingContext();
+        lookups = 0;
+        assertEquals("Hi a, I am xHi b, I am x", merge(template, context, new Thing("x")));
+        assertEquals(1, lookups);
+        assertEquals(2, context.gets);
+        assertEquals(1, context.hits);
+
+        /* the next merge hits, without looking in the context */
+        context = new CountingContext();
+        assertEquals("Hi a, I am yHi b, I am y", merge(template, context, new Thing("y")));
+        assertEquals(1, lookups);
+        assertEquals(0, context.gets);
+
+        /* another class misses, and is kept alongside */
+        context = new CountingContext();
+        merge(template, context, new OtherThing("z"));
+        assertEquals(2, lookups);
+        assertEquals(2, context.gets);
+        context = new CountingContext();
+        merge(template, context, new OtherThing("z"));
+        merge(template, context, new Thing("z"));
+        assertEquals(2, lookups);
+        assertEquals(0, context.gets);
+    }
+
+    public void testOff() throws Exception
+    {
+        Template template = createTemplate(0, "$x.name $x.name");
+        lookups = 0;
+        merge(template, new Thing("a"));
+        merge(template, new Thing("b"));
+        assertEquals(4, lookups);
+    }
+
+    public void testReceiverClasses() throws Exception
+    {
+        Template template = createTemplate(2, "$x.name/$x.length()");
+        assertEquals("a/$x.length()", merge(template, new Thing("a")));
+        assertEquals("$x.name/3", merge(template, "abc"));
+        assertEquals("b/$x.length()", merge(template, new OtherThing("b")));
+        assertEquals("c/$x.length()", merge(template, new Thing("c")));
+        assertEquals("$x.name/2", merge(template, "de"));
+
+        /* more classes than the cache holds */
+        lookups = 0;
+        assertEquals("d/$x.length()", merge(template, new OtherThing("d")));
+        assertEquals("e/$x.length()", merge(template, new OtherThing("e")));
+        assertEquals("f/$x.length()", merge(template, new Thing("f")));
+        assertTrue(lookups > 0);
+    }
+
+    public void testReplacedClass() throws Exception
+    {
+        Template template = createTemplate(1, "$x.doIt()");
+        WeakReference loader = mergeFoo(template);
+
+        /* a Foo of a new loader replaces the old one */
+        Object foo = new TestClassloader().loadClass("Foo").newInstance();
+        lookups = 0;
+        assertEquals("Hello From Foo", merge(template, foo));
+        assertEquals(1, lookups);
+        assertEquals("Hello From Foo", merge(template, foo));
+        assertEquals(1, lookups);
+
+        assertCollected(loader);
+    }
+
+    public void testMegamorphicRearms() throws Exception
+    {
+        Template template = createTemplate(1, "$x.doIt()");
+        WeakReference loader = mergeFoo(template);
+        merge(template, new Thing("a"));
+
+        /* too many classes: every merge looks them up */
+        lookups = 0;
+        merge(template, new Thing("a"));
+        assertEquals(1, lookups);
+
+        /* until one goes stale */
+        Object foo = new TestClassloader().loadClass("Foo").newInstance();
+        merge(template, foo);
+        lookups = 0;
+        assertEquals("Hello From Foo", merge(template, foo));
+        assertEquals(0, lookups);
+
+        assertCollected(loader);
+    }
+
+    /**
+     * Merges a Foo of a loader that isn't referenced anywhere else.
+     *
+     * @return the loader, weakly
+     */
+    private WeakReference mergeFoo(Template template) throws Exception
+    {
+        ClassLoader loader = new TestClassloader();
+        assertEquals("Hello From Foo", merge(template, loader.loadClass("Foo").newInstance()));
+        return new WeakReference(loader);
+    }
+
+    private void assertCollected(WeakReference loader) throws Exception
+    {
+        for (int i = 0; i < 50 && loader.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull("the replaced loader was not collected", loader.get());
+    }
+
+    public void testArgumentClasses() throws Exception
+    {
+        Template template = createTemplate(4, "$x.echo($x.arg)");
+        assertEquals("string x", merge(template, new Thing("x")));
+        assertEquals("number 5", merge(template, new NumberThing()));
+        assertEquals("string x", merge(template, new Thing("x")));
+    }
+
+    public static class Thing
+    {
+        private final String name;
+
+        public Thing(String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String greet(String who)
+        {
+            return "Hi " + who + ", I am " + name;
+        }
+
+        public Object getArg()
+        {
+            return name;
+        }
+
+        public String echo(String s)
+        {
+            return "string " + s;
+        }
+
+        public String echo(Integer i)
+        {
+            return "number " + i;
+        }
+    }
+
+    public static class OtherThing extends Thing
+    {
+        public OtherThing(String name)
+        {
+            super(name);
+        }
+    }
+
+    public static class NumberThing extends Thing
+    {
+        public NumberThing()
+        {
+            super("n");
+        }
+
+        public Object getArg()
+        {
+            return new Integer(5);
+        }
+    }
+
+    private static class CountingContext extends VelocityContext
+    {
+        int gets = 0;
+
+        int hits = 0;
+
+        public IntrospectionCacheData icacheGet(Object key)
+        {
+            gets++;
+            IntrospectionCacheData result = super.icacheGet(key);
+            if (result != null)
+            {
+                hits++;
+            }
+            return result;
+        }
+    }
+
+    public static class CountingUberspect extends UberspectImpl
+    {
+        public VelMethod getMethod(Object obj, String methodName, Object[] args, Info i)
+            throws Exception
+        {
+            lookups++;
+            return super.getMethod(obj, methodName, args, i);
+        }
+
+        public VelPropertyGet getPropertyGet(Object obj, String identifier, Info i)
+            throws Exception
+        {
+            lookups++;
+            return super.getPropertyGet(obj, identifier, i);
+        }
+    }
+}
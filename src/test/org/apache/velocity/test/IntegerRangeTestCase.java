@@ -0,0 +1,163 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.test.misc.TestLogChute;
+import org.apache.velocity.util.IntegerRange;
+
+/**
+ * Checks the lists created by the range operator [n..m].
+ *
+ * @version $Id$
+ */
+public class IntegerRangeTestCase extends TestCase
+{
+    public IntegerRangeTestCase(String name)
+    {
+        super(name);
+    }
+
+    private static List list(int[] values)
+    {
+        List list = new ArrayList();
+        for (int i = 0; i < values.length; i++)
+        {
+            list.add(new Integer(values[i]));
+        }
+        return list;
+    }
+
+    public void testValues()
+    {
+        List up = new IntegerRange(-1, 2);
+        assertEquals(4, up.size());
+        assertEquals(new Integer(-1), up.get(0));
+        assertEquals(new Integer(2), up.get(3));
+        assertEquals(list(new int[] { -1, 0, 1, 2 }), up);
+        assertEquals("[-1, 0, 1, 2]", up.toString());
+        assertEquals(list(new int[] { -1, 0, 1, 2 }).hashCode(), up.hashCode());
+
+        assertEquals(list(new int[] { 3, 2, 1 }), new IntegerRange(3, 1));
+        assertEquals(list(new int[] { 5 }), new IntegerRange(5, 5));
+
+        try
+        {
+            up.get(4);
+            fail("expected an IndexOutOfBoundsException");
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            // expected
+        }
+
+        /* small values are shared */
+        assertSame(up.get(1), new IntegerRange(0, 0).get(0));
+    }
+
+    public void testLarge()
+    {
+        IntegerRange range = new IntegerRange(1, 10000000);
+        assertEquals(10000000, range.size());
+        assertEquals(new Integer(5000000), range.get(4999999));
+        assertEquals(new Integer(10000000), range.get(range.size() - 1));
+
+        IntegerRange widest = new IntegerRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE, widest.size());
+        assertEquals(Integer.MIN_VALUE, widest.getInt(0));
+    }
+
+    public void testChanges() throws Exception
+    {
+        IntegerRange range = new IntegerRange(1, 3);
+        assertTrue(range.isUnchanged());
+
+        range.add(new Integer(4));
+        assertFalse(range.isUnchanged());
+        assertEquals(list(new int[] { 1, 2, 3, 4 }), range);
+
+        range.set(0, "a");
+        range.remove(1);
+        assertEquals(Arrays.asList(new Object[] { "a", new Integer(3), new Integer(4) }), range);
+
+        for (Iterator i = range.iterator(); i.hasNext(); )
+        {
+            if (new Integer(3).equals(i.next()))
+            {
+                i.remove();
+            }
+        }
+        assertEquals(Arrays.asList(new Object[] { "a", new Integer(4) }), range);
+
+        range.clear();
+        assertTrue(range.isEmpty());
+
+        range = new IntegerRange(1, 10);
+        range.subList(2, 8).clear();
+        assertEquals(list(new int[] { 1, 2, 9, 10 }), range);
+    }
+
+    public void testSerializable() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new IntegerRange(4, 2));
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(list(new int[] { 4, 3, 2 }), in.readObject());
+    }
+
+    private void assertEvalEquals(String expected, String template) throws Exception
+    {
+        VelocityEngine engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+
+        StringWriter writer = new StringWriter();
+        engine.evaluate(new VelocityContext(), writer, "test", template);
+        assertEquals(template, expected, writer.toString());
+    }
+
+    public void testTemplates() throws Exception
+    {
+        assertEvalEquals("1true2true3false", "#foreach( $i in [1..3] )$i$velocityHasNext#end");
+        assertEvalEquals("3 2 1 ", "#foreach( $i in [3..1] )$i #end");
+        assertEvalEquals("12", "#foreach( $i in [1..5] )#if( $i == 3 )#break#end$i#end");
+        assertEvalEquals("1:a 2:b ", "#set( $l = ['a', 'b'] )#foreach( $i in [1..$l.size()] )#set( $j = $i - 1 )$i:$l.get($j) #end");
+        assertEvalEquals("[1, 2, 3, 4] 4 1", "#set( $r = [1..3] )#set( $x = $r.add(4) )$r $r.size() $r.get(0)");
+        assertEvalEquals("1234", "#set( $r = [1..3] )#set( $x = $r.add(4) )#foreach( $i in $r )$i#end");
+        assertEvalEquals("3", "#set( $n = 0 )#foreach( $i in [1..100000] )#set( $n = $n + 1 )#if( $n == 3 )#break#end#end$n");
+    }
+}
@@ -0,0 +1,140 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.ref.WeakReference;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.runtime.log.Log;
+import org.apache.velocity.util.introspection.ClassMap;
+import org.apache.velocity.util.introspection.IntrospectorCacheImpl;
+
+/**
+ * Checks that the introspector cache keeps the class maps of each
+ * class loader apart.
+ *
+ * @version $Id$
+ */
+public class IntrospectorCacheTestCase extends TestCase
+{
+    private IntrospectorCacheImpl cache;
+
+    public IntrospectorCacheTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp()
+    {
+        cache = new IntrospectorCacheImpl(new Log());
+    }
+
+    public void testGetAndPut()
+    {
+        assertNull(cache.get(String.class));
+        ClassMap classMap = cache.put(String.class);
+        assertSame(classMap, cache.get(String.class));
+        assertEquals(String.class, classMap.getCachedClass());
+
+        cache.clear();
+        assertNull(cache.get(String.class));
+    }
+
+    public void testNull()
+    {
+        try
+        {
+            cache.get(null);
+            fail("expected an IllegalArgumentException");
+        }
+        catch (IllegalArgumentException iae)
+        {
+            // expected
+        }
+    }
+
+    public void testReplacedLoader() throws Exception
+    {
+        ClassMap string = cache.put(String.class);
+        ClassMap self = cache.put(getClass());
+
+        Class foo = new TestClassloader().loadClass("Foo");
+        ClassMap oldFoo = cache.put(foo);
+        assertSame(oldFoo, cache.get(foo));
+
+        /* the same class from a new loader leaves the old loader's classes alone */
+        Class newFoo = new TestClassloader().loadClass("Foo");
+        assertNull(cache.get(newFoo));
+        assertSame(oldFoo, cache.get(foo));
+        ClassMap newFooMap = cache.put(newFoo);
+        assertSame(newFooMap, cache.get(newFoo));
+        assertNotSame(oldFoo, newFooMap);
+
+        /* the old loader's classes are only held weakly now */
+        ClassMap kept = cache.get(foo);
+        assertTrue(kept == null || kept == oldFoo);
+
+        assertSame(string, cache.get(String.class));
+        assertSame(self, cache.get(getClass()));
+    }
+
+    public void testReplacedLoaderIsCollected() throws Exception
+    {
+        WeakReference loader = putFoo();
+        cache.put(new TestClassloader().loadClass("Foo"));
+
+        for (int i = 0; i < 50 && loader.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull("the replaced loader was not collected", loader.get());
+
+        /* what's left of it goes on the next put */
+        cache.put(String.class);
+        assertNotNull(cache.get(String.class));
+    }
+
+    public void testLiveLoaderIsKept() throws Exception
+    {
+        ClassLoader loader = new TestClassloader();
+        Class foo = loader.loadClass("Foo");
+        ClassMap fooMap = cache.put(foo);
+
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+        assertSame(fooMap, cache.get(foo));
+    }
+
+    /**
+     * Puts the Foo of a loader that isn't referenced anywhere else.
+     *
+     * @return the loader, weakly
+     */
+    private WeakReference putFoo() throws Exception
+    {
+        ClassLoader loader = new TestClassloader();
+        cache.put(loader.loadClass("Foo"));
+        return new WeakReference(loader);
+    }
+}
@@ -0,0 +1,161 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
+import org.apache.velocity.runtime.resource.util.StringResourceRepository;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that the resource manager remembers which loader has a
+ * resource, and forgets it when a loader reports a change.
+ *
+ * @version $Id$
+ */
+public class LoaderIndexTestCase extends TestCase
+{
+    private VelocityEngine engine;
+    private CountingLoader first;
+
+    public LoaderIndexTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        first = new CountingLoader();
+        engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.RESOURCE_MANAGER_LOADER_INDEX, "true");
+        engine.setProperty(RuntimeConstants.RESOURCE_MANAGER_MISSINGCACHE_SIZE, "10");
+        engine.setProperty(RuntimeConstants.RESOURCE_LOADER, "first,second");
+        engine.setProperty("first.resource.loader.instance", first);
+        engine.setProperty("first.resource.loader.repository.static", "false");
+        engine.setProperty("first.resource.loader.repository.name", "first");
+        engine.setProperty("second.resource.loader.class", StringResourceLoader.class.getName());
+        engine.setProperty("second.resource.loader.repository.static", "false");
+        engine.setProperty("second.resource.loader.repository.name", "second");
+        engine.setProperty("second.resource.loader.cache", "true");
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+
+        /* forget the lookup of the velocimacro library */
+        first.probes = 0;
+    }
+
+    private StringResourceRepository getRepository(String name)
+    {
+        return (StringResourceRepository) engine.getApplicationAttribute(name);
+    }
+
+    private String merge(String name) throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        engine.getTemplate(name).merge(new VelocityContext(), writer);
+        return writer.toString();
+    }
+
+    public void testIndex() throws Exception
+    {
+        getRepository("second").putStringResource("test.vm", "second");
+
+        assertTrue(engine.resourceExists("test.vm"));
+        assertTrue(engine.resourceExists("test.vm"));
+        assertEquals(1, first.probes);
+
+        assertFalse(engine.resourceExists("missing.vm"));
+        assertFalse(engine.resourceExists("missing.vm"));
+        assertEquals(2, first.probes);
+
+        /* a change in any loader is seen */
+        getRepository("first").putStringResource("test.vm", "first");
+        assertTrue(engine.resourceExists("test.vm"));
+        assertEquals(3, first.probes);
+
+        getRepository("second").putStringResource("missing.vm", "second");
+        assertTrue(engine.resourceExists("missing.vm"));
+        assertEquals(4, first.probes);
+    }
+
+    public void testChangedResourcesAreDropped() throws Exception
+    {
+        try
+        {
+            engine.getTemplate("added.vm");
+            fail("expected ResourceNotFoundException");
+        }
+        catch (ResourceNotFoundException rnfe)
+        {
+            // expected
+        }
+
+        /* the put is reported, so it is no longer known to be missing */
+        getRepository("second").putStringResource("added.vm", "one");
+        assertEquals("one", merge("added.vm"));
+
+        /* and the cached template is dropped */
+        getRepository("second").putStringResource("added.vm", "two");
+        assertEquals("two", merge("added.vm"));
+    }
+
+    public void testNamesAreNotNormalizedInTheCache() throws Exception
+    {
+        StringResourceRepository repository = getRepository("second");
+        repository.putStringResource("a.vm", "a");
+        repository.putStringResource("/a.vm", "slash");
+        repository.putStringResource("x y.vm", "space");
+        repository.putStringResource("x%20y.vm", "escaped");
+
+        assertEquals("a", merge("a.vm"));
+        assertEquals("slash", merge("/a.vm"));
+        assertEquals("space", merge("x y.vm"));
+        assertEquals("escaped", merge("x%20y.vm"));
+
+        /* a change is seen under either name */
+        repository.putStringResource("/a.vm", "slash again");
+        assertEquals("slash again", merge("/a.vm"));
+        assertEquals("a", merge("a.vm"));
+        repository.putStringResource("x y.vm", "space again");
+        assertEquals("space again", merge("x y.vm"));
+        assertEquals("escaped", merge("x%20y.vm"));
+    }
+
+    /**
+     * Counts how often it is asked whether it has a resource.
+     */
+    public static class CountingLoader extends StringResourceLoader
+    {
+        int probes = 0;
+
+        public boolean resourceExists(String name)
+        {
+            probes++;
+            return super.resourceExists(name);
+        }
+    }
+}
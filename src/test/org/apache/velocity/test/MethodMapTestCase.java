@@ -0,0 +1,130 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.util.introspection.MethodMap;
+
+/**
+ * Checks how MethodMap picks between overloads.
+ *
+ * @version $Id$
+ */
+public class MethodMapTestCase extends TestCase
+{
+    public MethodMapTestCase(String name)
+    {
+        super(name);
+    }
+
+    private MethodMap createMap(String[] signatures) throws Exception
+    {
+        MethodMap map = new MethodMap();
+        Method[] methods = Overloaded.class.getMethods();
+        for (int s = 0; s < signatures.length; s++)
+        {
+            for (int i = 0; i < methods.length; i++)
+            {
+                if (signature(methods[i]).equals(signatures[s]))
+                {
+                    map.add(methods[i]);
+                }
+            }
+        }
+        return map;
+    }
+
+    private String signature(Method method)
+    {
+        StringBuffer signature = new StringBuffer(method.getName()).append('(');
+        Class[] types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++)
+        {
+            if (i > 0)
+            {
+                signature.append(',');
+            }
+            String name = types[i].isArray() ? types[i].getComponentType().getName() + "[]" : types[i].getName();
+            signature.append(name.substring(name.lastIndexOf('.') + 1));
+        }
+        return signature.append(')').toString();
+    }
+
+    private String find(MethodMap map, Object[] args)
+    {
+        Method method = map.find("foo", args);
+        return method == null ? null : signature(method);
+    }
+
+    public void testMostSpecific() throws Exception
+    {
+        MethodMap map = createMap(new String[] { "foo(Object)", "foo(String)" });
+        assertEquals("foo(String)", find(map, new Object[] { "a" }));
+        assertEquals("foo(Object)", find(map, new Object[] { new Integer(1) }));
+        assertEquals("foo(Object)", find(map, new Object[] { new Object() }));
+        assertNull(find(map, new Object[0]));
+        assertNull(map.find("bar", new Object[0]));
+
+        map = createMap(new String[] { "foo(int)" });
+        assertEquals("foo(int)", find(map, new Object[] { new Short((short) 1) }));
+        assertNull(find(map, new Object[] { new Long(1) }));
+    }
+
+    public void testAmbiguous() throws Exception
+    {
+        MethodMap map = createMap(new String[] { "foo(Object,String)", "foo(String,Object)" });
+        try
+        {
+            find(map, new Object[] { "a", "b" });
+            fail("expected an AmbiguousException");
+        }
+        catch (MethodMap.AmbiguousException ae)
+        {
+            // expected
+        }
+        assertEquals("foo(Object,String)", find(map, new Object[] { new Object(), "b" }));
+
+        /* a method more specific than both settles it, whenever it was added */
+        map.add(Overloaded.class.getMethod("foo", new Class[] { String.class, String.class }));
+        assertEquals("foo(String,String)", find(map, new Object[] { "a", "b" }));
+    }
+
+    public void testVarArgs() throws Exception
+    {
+        MethodMap map = createMap(new String[] { "foo(String[])", "foo(String)" });
+        assertEquals("foo(String)", find(map, new Object[] { "a" }));
+        assertEquals("foo(String[])", find(map, new Object[0]));
+        assertEquals("foo(String[])", find(map, new Object[] { "a", "b" }));
+    }
+
+    public static class Overloaded
+    {
+        public void foo(Object o) {}
+        public void foo(String s) {}
+        public void foo(int i) {}
+        public void foo(Object o, String s) {}
+        public void foo(String s, Object o) {}
+        public void foo(String s, String t) {}
+        public void foo(String[] s) {}
+    }
+}
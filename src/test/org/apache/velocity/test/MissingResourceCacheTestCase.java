@@ -0,0 +1,120 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
+import org.apache.velocity.runtime.resource.util.StringResourceRepository;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that missing resources are remembered for a while.
+ *
+ * @version $Id$
+ */
+public class MissingResourceCacheTestCase extends TestCase
+{
+    private VelocityEngine engine;
+    private CountingLoader loader;
+
+    public MissingResourceCacheTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        loader = new CountingLoader();
+        engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.RESOURCE_LOADER, "counting");
+        engine.setProperty("counting.resource.loader.instance", loader);
+        engine.setProperty("counting.resource.loader.repository.static", "false");
+        engine.setProperty(RuntimeConstants.RESOURCE_MANAGER_MISSINGCACHE_SIZE, "2");
+        engine.setProperty(RuntimeConstants.RESOURCE_MANAGER_MISSINGCACHE_TTL, "1");
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+    }
+
+    private boolean isFound(String name) throws Exception
+    {
+        try
+        {
+            engine.getTemplate(name);
+            return true;
+        }
+        catch (ResourceNotFoundException rnfe)
+        {
+            return false;
+        }
+    }
+
+    public void testMissingResourceIsRemembered() throws Exception
+    {
+        assertFalse(isFound("missing.vm"));
+        assertEquals(1, loader.lookups);
+        assertFalse(isFound("missing.vm"));
+        assertEquals(1, loader.lookups);
+
+        StringResourceRepository repo = (StringResourceRepository)
+            engine.getApplicationAttribute(StringResourceLoader.REPOSITORY_NAME_DEFAULT);
+        repo.putStringResource("missing.vm", "found");
+        assertFalse(isFound("missing.vm"));
+
+        Thread.sleep(1100);
+        assertTrue(isFound("missing.vm"));
+        assertEquals(2, loader.lookups);
+    }
+
+    public void testBounded() throws Exception
+    {
+        assertFalse(isFound("a.vm"));
+        assertFalse(isFound("b.vm"));
+        assertFalse(isFound("c.vm"));
+        assertEquals(3, loader.lookups);
+
+        /* only two are remembered */
+        assertFalse(isFound("a.vm"));
+        assertFalse(isFound("b.vm"));
+        assertFalse(isFound("c.vm"));
+        assertTrue(loader.lookups > 3);
+        assertTrue(loader.lookups < 6);
+    }
+
+    /**
+     * Counts how often it is asked for a resource.
+     */
+    public static class CountingLoader extends StringResourceLoader
+    {
+        int lookups = 0;
+
+        public InputStream getResourceStream(String name)
+            throws ResourceNotFoundException
+        {
+            lookups++;
+            return super.getResourceStream(name);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.ParseErrorException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that templates read by the FileResourceLoader through NIO come
+ * out the same as templates read through streams.
+ *
+ * @version $Id$
+ */
+public class NioFileResourceLoaderTestCase extends TestCase
+{
+    private static final String DIR = TemplateTestBase.TEST_RESULT_DIR + "/nio";
+
+    private static final String TEMPLATE =
+        "#set($x = 'caf\u00e9')$x \u00fc\u00df\u20ac\r\n\t#include('included.txt')#parse('parsed.vm')";
+
+    public NioFileResourceLoaderTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        new File(DIR).mkdirs();
+        write("utf8.vm", new byte[] { (byte) 0xef, (byte) 0xbb, (byte) 0xbf }, TEMPLATE, "UTF-8");
+        write("plain.vm", new byte[0], TEMPLATE, "UTF-8");
+        write("utf16.vm", new byte[] { (byte) 0xfe, (byte) 0xff }, TEMPLATE, "UTF-16BE");
+        write("included.txt", new byte[] { (byte) 0xef, (byte) 0xbb, (byte) 0xbf }, "\u00e9t\u00e9 $x", "UTF-8");
+        write("parsed.vm", new byte[0], "#if($x) parsed#end", "UTF-8");
+        write("empty.vm", new byte[0], "", "UTF-8");
+    }
+
+    private void write(String name, byte[] bom, String content, String encoding)
+        throws Exception
+    {
+        FileOutputStream out = new FileOutputStream(new File(DIR, name));
+        try
+        {
+            out.write(bom);
+            out.write(content.getBytes(encoding));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private VelocityEngine createEngine(boolean nio, String encoding) throws Exception
+    {
+        VelocityEngine engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.FILE_RESOURCE_LOADER_PATH, DIR);
+        engine.setProperty("file.resource.loader.unicode", "true");
+        engine.setProperty("file.resource.loader.nio", String.valueOf(nio));
+        engine.setProperty(RuntimeConstants.PARSER_COMPACT_CHARSTREAM, String.valueOf(nio));
+        engine.setProperty(RuntimeConstants.INPUT_ENCODING, encoding);
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+        return engine;
+    }
+
+    private String merge(VelocityEngine engine, String name) throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        engine.getTemplate(name).merge(new VelocityContext(), writer);
+        return writer.toString();
+    }
+
+    public void testSameOutput() throws Exception
+    {
+        VelocityEngine streams = createEngine(false, "UTF-8");
+        VelocityEngine nio = createEngine(true, "UTF-8");
+
+        String expected = "caf\u00e9 \u00fc\u00df\u20ac\r\n\t\u00e9t\u00e9 $x parsed";
+        assertEquals(expected, merge(streams, "utf8.vm"));
+        assertEquals(expected, merge(nio, "utf8.vm"));
+        assertEquals(expected, merge(nio, "plain.vm"));
+        assertEquals("", merge(nio, "empty.vm"));
+
+        /* the BOM is skipped, the configured encoding still decodes */
+        VelocityEngine utf16 = createEngine(true, "UTF-16BE");
+        assertTrue(merge(utf16, "utf16.vm").startsWith("caf\u00e9 \u00fc\u00df\u20ac"));
+    }
+
+    public void testUnsupportedEncoding() throws Exception
+    {
+        VelocityEngine nio = createEngine(true, "no-such-encoding");
+        try
+        {
+            nio.getTemplate("plain.vm");
+            fail("expected ParseErrorException");
+        }
+        catch (ParseErrorException pee)
+        {
+            assertTrue(pee.getMessage().indexOf("no-such-encoding") >= 0);
+        }
+    }
+}
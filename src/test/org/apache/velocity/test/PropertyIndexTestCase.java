@@ -0,0 +1,155 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.test.misc.TestLogChute;
+import org.apache.velocity.util.introspection.SecureUberspector;
+
+/**
+ * Checks that properties resolve the same when looked up again, and
+ * that public fields are only used when asked for.
+ *
+ * @version $Id$
+ */
+public class PropertyIndexTestCase extends TestCase
+{
+    public PropertyIndexTestCase(String name)
+    {
+        super(name);
+    }
+
+    private VelocityEngine createEngine(boolean publicFields, String uberspect) throws Exception
+    {
+        VelocityEngine engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.INTROSPECTOR_PUBLIC_FIELDS, String.valueOf(publicFields));
+        if (uberspect != null)
+        {
+            engine.setProperty(RuntimeConstants.UBERSPECT_CLASSNAME, uberspect);
+        }
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+        return engine;
+    }
+
+    private String evaluate(VelocityEngine engine, Object bean, String template) throws Exception
+    {
+        VelocityContext context = new VelocityContext();
+        context.put("bean", bean);
+        StringWriter writer = new StringWriter();
+        engine.evaluate(context, writer, "test", template);
+        return writer.toString();
+    }
+
+    public void testProperties() throws Exception
+    {
+        VelocityEngine engine = createEngine(false, null);
+        for (int i = 0; i < 2; i++)
+        {
+            assertEquals("name true $bean.nothing",
+                         evaluate(engine, new Bean(), "$bean.name $bean.ready $bean.nothing"));
+            assertEquals("string/number",
+                         evaluate(engine, new Bean(), "#set( $bean.value = 'a' )$bean.set/#set( $bean.value = 1 )$bean.set"));
+        }
+
+        Map map = new HashMap();
+        map.put("a", "1");
+        map.put("b", "2");
+        assertEquals("1 2 3", evaluate(engine, map, "$bean.a $bean.b#set( $bean.c = '3' ) $bean.c"));
+        assertEquals("1", evaluate(engine, map, "$bean.a"));
+    }
+
+    public void testFieldsOff() throws Exception
+    {
+        VelocityEngine engine = createEngine(false, null);
+        assertEquals("$bean.count", evaluate(engine, new Fields(), "$bean.count"));
+    }
+
+    public void testFieldsOn() throws Exception
+    {
+        VelocityEngine engine = createEngine(true, null);
+        Fields fields = new Fields();
+        assertEquals("1 fixed getter", evaluate(engine, fields, "$bean.count $bean.fixed $bean.shadowed"));
+        assertEquals("5 still", evaluate(engine, fields, "#set( $bean.count = 5 )#set( $bean.fixed = 'x' )$bean.count #if( $bean.fixed == 'fixed' )still#end"));
+        assertEquals(5, fields.count);
+
+        /* a value the field can't take is left alone */
+        evaluate(engine, fields, "#set( $bean.count = 'x' )");
+        assertEquals(5, fields.count);
+    }
+
+    public void testFieldsSecure() throws Exception
+    {
+        VelocityEngine engine = createEngine(true, SecureUberspector.class.getName());
+        assertEquals("1", evaluate(engine, new Fields(), "$bean.count"));
+    }
+
+    public static class Bean
+    {
+        private String set;
+
+        public String getSet()
+        {
+            return set;
+        }
+
+        public String getName()
+        {
+            return "name";
+        }
+
+        public boolean isReady()
+        {
+            return true;
+        }
+
+        public void setValue(String value)
+        {
+            set = "string";
+        }
+
+        public void setValue(Integer value)
+        {
+            set = "number";
+        }
+    }
+
+    public static class Fields
+    {
+        public int count = 1;
+
+        public final String fixed = "fixed";
+
+        public String shadowed = "field";
+
+        public String getShadowed()
+        {
+            return "getter";
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.InputStream;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
+import org.apache.velocity.runtime.resource.util.StringResourceRepository;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that concurrent loads of the same template are coalesced
+ * into one when single flight loading is on.
+ *
+ * @version $Id$
+ */
+public class SingleFlightLoadingTestCase extends TestCase
+{
+    private static final int THREADS = 8;
+
+    private VelocityEngine engine;
+    private SlowLoader loader;
+
+    public SingleFlightLoadingTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        loader = new SlowLoader();
+        engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.RESOURCE_LOADER, "slow");
+        engine.setProperty("slow.resource.loader.instance", loader);
+        engine.setProperty("slow.resource.loader.repository.static", "false");
+        engine.setProperty("slow.resource.loader.cache", "true");
+        engine.setProperty("slow.resource.loader.modificationCheckInterval", "1");
+        engine.setProperty(RuntimeConstants.RESOURCE_MANAGER_SINGLE_FLIGHT, "true");
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+    }
+
+    private StringResourceRepository getRepository()
+    {
+        return (StringResourceRepository)
+            engine.getApplicationAttribute(StringResourceLoader.REPOSITORY_NAME_DEFAULT);
+    }
+
+    private String[] getConcurrently() throws Exception
+    {
+        final String[] results = new String[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++)
+        {
+            final int n = i;
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        Template t = engine.getTemplate("slow.vm");
+                        StringWriter writer = new StringWriter();
+                        t.merge(new VelocityContext(), writer);
+                        results[n] = writer.toString();
+                    }
+                    catch (Exception e)
+                    {
+                        results[n] = e.toString();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++)
+        {
+            threads[i].join();
+        }
+        return results;
+    }
+
+    public void testLoadIsCoalesced() throws Exception
+    {
+        getRepository().putStringResource("slow.vm", "#set($a = 'loaded')$a");
+
+        String[] results = getConcurrently();
+        for (int i = 0; i < THREADS; i++)
+        {
+            assertEquals("loaded", results[i]);
+        }
+        assertEquals(1, loader.loads);
+    }
+
+    public void testMissingResource() throws Exception
+    {
+        try
+        {
+            engine.getTemplate("missing.vm");
+            fail("expected ResourceNotFoundException");
+        }
+        catch (ResourceNotFoundException rnfe)
+        {
+            // expected
+        }
+    }
+
+    public void testStaleResourceIsUsedDuringRefresh() throws Exception
+    {
+        getRepository().putStringResource("slow.vm", "old");
+        assertEquals("old", getConcurrently()[0]);
+        assertEquals(1, loader.loads);
+
+        Thread.sleep(1100);
+        getRepository().putStringResource("slow.vm", "new");
+
+        String[] results = getConcurrently();
+        int stale = 0;
+        for (int i = 0; i < THREADS; i++)
+        {
+            if ("old".equals(results[i]))
+            {
+                stale++;
+            }
+            else
+            {
+                assertEquals("new", results[i]);
+            }
+        }
+        assertTrue(stale > 0);
+        assertEquals(2, loader.loads);
+    }
+
+    /**
+     * Takes its time to hand out a template and counts how often it does.
+     */
+    public static class SlowLoader extends StringResourceLoader
+    {
+        volatile int loads = 0;
+
+        public InputStream getResourceStream(String name)
+            throws ResourceNotFoundException
+        {
+            InputStream is = super.getResourceStream(name);
+            synchronized (this)
+            {
+                loads++;
+            }
+            try
+            {
+                Thread.sleep(200);
+            }
+            catch (InterruptedException ie)
+            {
+                // go on
+            }
+            return is;
+        }
+    }
+}
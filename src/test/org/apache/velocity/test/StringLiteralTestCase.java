@@ -0,0 +1,134 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.app.event.EventCartridge;
+import org.apache.velocity.app.event.ReferenceInsertionEventHandler;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that interpolated string literals come out like their contents
+ * would as a template.
+ *
+ * @version $Id$
+ */
+public class StringLiteralTestCase extends TestCase
+{
+    private static final String[] CONTENTS =
+    {
+        "$name",
+        "$name!",
+        "Hello $name, $name.length() times $count",
+        "$!missing$missing ${missing}x $missing.foo",
+        "\\$name \\$missing \\\\$name",
+        "$name ",
+        " $name  ",
+        "a#b $ c",
+        "${name}${name}",
+        "#if( $count > 1 )many#else one#end $name",
+        "$name #set( $x = 5 )$x",
+        "$block, $block!",
+        "$tool.wrap($name) and $tool.wrap('x')",
+        "$tool.nothing() $tool.nothing()"
+    };
+
+    private VelocityEngine engine;
+
+    public StringLiteralTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+    }
+
+    private String evaluate(String template, VelocityContext context) throws Exception
+    {
+        context.put("name", "velocity");
+        context.put("count", new Integer(3));
+        context.put("tool", new Tool());
+        StringWriter writer = new StringWriter();
+        engine.evaluate(context, writer, "test", "#define( $block )#set( $inner = \"[$name]\" )in a block $inner#{end}" + template);
+        return writer.toString();
+    }
+
+    public void testLikeTemplate() throws Exception
+    {
+        for (int i = 0; i < CONTENTS.length; i++)
+        {
+            String literal = "#set( $s = \"" + CONTENTS[i] + "\" )$s";
+            String expected = evaluate(CONTENTS[i], new VelocityContext());
+
+            /* twice, to reuse the builder */
+            assertEquals(CONTENTS[i], expected, evaluate(literal, new VelocityContext()));
+            assertEquals(CONTENTS[i], expected, evaluate(literal, new VelocityContext()));
+        }
+    }
+
+    public void testInLoop() throws Exception
+    {
+        assertEquals("[1] [2] [3] ",
+                     evaluate("#foreach( $i in [1..3] )#set( $s = \"[$i]\" )$s #end", new VelocityContext()));
+        assertEquals("k1=1 k2=2 ",
+                     evaluate("#set( $m = {} )#foreach( $i in [1..2] )#set( $x = $m.put(\"k$i\", $i) )#end" +
+                              "#foreach( $i in [1..2] )#set( $k = \"k$i\" )$k=$m.get($k) #end",
+                              new VelocityContext()));
+    }
+
+    public void testEventHandler() throws Exception
+    {
+        VelocityContext context = new VelocityContext();
+        EventCartridge cartridge = new EventCartridge();
+        cartridge.addEventHandler(new ReferenceInsertionEventHandler()
+        {
+            public Object referenceInsert(String reference, Object value)
+            {
+                return reference + "=" + value;
+            }
+        });
+        cartridge.attachToContext(context);
+
+        assertEquals("$t=$name=velocity", evaluate("#set( $s = \"$name\" )#set( $t = $s )$t", context));
+    }
+
+    public static class Tool
+    {
+        public String wrap(String s)
+        {
+            return "<" + s + ">";
+        }
+
+        public String nothing()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.resource.TemplateSnapshotCache;
+import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
+import org.apache.velocity.runtime.resource.util.StringResourceRepository;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that templates rebuilt from the on-disk AST cache render like
+ * freshly parsed ones, and that changed sources are parsed again.
+ *
+ * @version $Id$
+ */
+public class TemplateSnapshotCacheTestCase extends TestCase
+{
+    private static final String CACHE_DIR = TemplateTestBase.TEST_RESULT_DIR + "/astcache";
+
+    private static final String TEMPLATE =
+        "#macro(item $i)<$i>#end" +
+        "#foreach($i in [1..3])#item($i)#end " +
+        "#if($name)Hello ${name}!#else nobody#end \\$name ## comment\n" +
+        "#set($x = \"$name:$name\")$x";
+
+    private File directory;
+
+    public TemplateSnapshotCacheTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        directory = new File(CACHE_DIR);
+        if (directory.isDirectory())
+        {
+            File[] files = directory.listFiles();
+            for (int i = 0; i < files.length; i++)
+            {
+                files[i].delete();
+            }
+        }
+    }
+
+    private RuntimeInstance createEngine(String source) throws Exception
+    {
+        RuntimeInstance ri = new RuntimeInstance();
+        ri.setProperty(RuntimeConstants.RESOURCE_LOADER, "string");
+        ri.setProperty("string.resource.loader.class", StringResourceLoader.class.getName());
+        ri.setProperty("string.resource.loader.repository.static", "false");
+        ri.setProperty(RuntimeConstants.RESOURCE_MANAGER_AST_CACHE_DIRECTORY, CACHE_DIR);
+        ri.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        ri.init();
+
+        StringResourceRepository repo = (StringResourceRepository)
+            ri.getApplicationAttribute(StringResourceLoader.REPOSITORY_NAME_DEFAULT);
+        repo.putStringResource("snapshot.vm", source);
+        return ri;
+    }
+
+    private String merge(RuntimeInstance ri) throws Exception
+    {
+        VelocityContext context = new VelocityContext();
+        context.put("name", "velocity");
+
+        StringWriter writer = new StringWriter();
+        ri.getTemplate("snapshot.vm").merge(context, writer);
+        return writer.toString();
+    }
+
+    private boolean isCached(RuntimeInstance ri, String source) throws Exception
+    {
+        Template template = ri.getTemplate("snapshot.vm");
+        TemplateSnapshotCache cache = new TemplateSnapshotCache(ri, directory);
+        return cache.load(template, source.getBytes(template.getEncoding())) != null;
+    }
+
+    public void testReloadFromSnapshot() throws Exception
+    {
+        RuntimeInstance first = createEngine(TEMPLATE);
+        String expected = merge(first);
+        assertEquals("<1><2><3> Hello velocity! $name velocity:velocity", expected);
+        assertEquals(1, directory.listFiles().length);
+
+        RuntimeInstance second = createEngine(TEMPLATE);
+        assertTrue(isCached(second, TEMPLATE));
+        assertEquals(expected, merge(second));
+    }
+
+    public void testChangedSourceIsParsed() throws Exception
+    {
+        merge(createEngine(TEMPLATE));
+
+        String changed = TEMPLATE + " changed";
+        RuntimeInstance ri = createEngine(changed);
+        assertTrue(merge(ri).endsWith("velocity:velocity changed"));
+        assertTrue(isCached(ri, changed));
+        assertFalse(isCached(ri, TEMPLATE));
+    }
+}
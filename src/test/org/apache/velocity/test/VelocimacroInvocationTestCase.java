@@ -0,0 +1,189 @@
+package org.apache.velocity.test;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.context.InternalContextAdapterImpl;
+import org.apache.velocity.context.ProxyVMContext;
+import org.apache.velocity.exception.MacroOverflowException;
+import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.VelocimacroInvocation;
+import org.apache.velocity.test.misc.TestLogChute;
+
+/**
+ * Checks that macros called through a VelocimacroInvocation render like
+ * they do when called through invokeVelocimacro().
+ *
+ * @version $Id$
+ */
+public class VelocimacroInvocationTestCase extends TestCase
+{
+    private VelocityEngine engine;
+
+    public VelocimacroInvocationTestCase(String name)
+    {
+        super(name);
+    }
+
+    public void setUp() throws Exception
+    {
+        engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.VM_MAX_DEPTH, "5");
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        engine.init();
+
+        engine.evaluate(new VelocityContext(), new StringWriter(), "macros",
+                        "#macro( greet $who $times )#foreach( $i in [1..$times] )Hello $who#if( $velocityHasNext ), #end#end$suffix#end" +
+                        "#macro( noargs )[$suffix]#end" +
+                        "#macro( setter $a )#set( $a = 'changed' )$a#end" +
+                        "#macro( recurse $n )#recurse( $n )#end");
+    }
+
+    private String invoke(VelocimacroInvocation vm, VelocityContext context, Object[] args) throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        vm.invoke(context, writer, args);
+        return writer.toString();
+    }
+
+    public void testInvoke() throws Exception
+    {
+        VelocimacroInvocation greet = engine.getVelocimacroInvocation("greet", null);
+        assertEquals("greet", greet.getName());
+        assertEquals(2, greet.getNumArgs());
+
+        VelocityContext context = new VelocityContext();
+        context.put("suffix", "!");
+        for (int i = 1; i <= 3; i++)
+        {
+            assertEquals("Hello Bob, Hello Bob!",
+                         invoke(greet, context, new Object[] { "Bob", new Integer(2) }));
+        }
+        assertEquals("Hello $who!", invoke(greet, context, new Object[] { null, new Integer(1) }));
+
+        assertEquals("[!]", invoke(engine.getVelocimacroInvocation("noargs", "tag"), context, null));
+    }
+
+    public void testNullArgument() throws Exception
+    {
+        /* a null argument doesn't pick up the caller's value of that name */
+        VelocityContext context = new VelocityContext();
+        context.put("who", "Caller");
+        context.put("suffix", "!");
+        assertEquals("Hello $who!",
+                     invoke(engine.getVelocimacroInvocation("greet", null), context,
+                            new Object[] { null, new Integer(1) }));
+
+        /* setting it gives back null as the old value */
+        RuntimeInstance ri = new RuntimeInstance();
+        ri.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        ri.init();
+        ProxyVMContext vmc = new ProxyVMContext(new InternalContextAdapterImpl(context), ri, true);
+        vmc.addNullArg("who");
+        assertNull(vmc.get("who"));
+        assertNull(vmc.put("who", "Macro"));
+        assertEquals("Macro", vmc.get("who"));
+        assertEquals("Caller", context.get("who"));
+    }
+
+    public void testStrictArguments() throws Exception
+    {
+        VelocityContext context = new VelocityContext();
+        context.put("who", "Caller");
+        assertEquals("Hello Caller$suffix",
+                     invoke(engine.getVelocimacroInvocation("greet", null), context,
+                            new Object[] { "Caller", new Integer(1), "extra" }));
+
+        VelocityEngine strict = new VelocityEngine();
+        strict.setProperty(RuntimeConstants.VM_ARGUMENTS_STRICT, "true");
+        strict.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        strict.init();
+        strict.evaluate(new VelocityContext(), new StringWriter(), "macros", "#macro( pair $a $b )$a$b#end");
+
+        VelocimacroInvocation pair = strict.getVelocimacroInvocation("pair", null);
+        assertEquals("xy", invoke(pair, context, new Object[] { "x", "y" }));
+        try
+        {
+            invoke(pair, context, new Object[] { "x" });
+            fail("expected a VelocityException");
+        }
+        catch (VelocityException ve)
+        {
+            // expected
+        }
+    }
+
+    public void testSameAsInvokeVelocimacro() throws Exception
+    {
+        VelocityContext context = new VelocityContext();
+        context.put("name", "Ann");
+        context.put("n", new Integer(3));
+        context.put("suffix", ".");
+
+        StringWriter parsed = new StringWriter();
+        engine.invokeVelocimacro("greet", "tag", new String[] { "name", "n" }, context, parsed);
+
+        StringWriter direct = new StringWriter();
+        engine.getVelocimacroInvocation("greet", "tag").invokeWithKeys(context, direct, new String[] { "name", "n" });
+
+        assertEquals(parsed.toString(), direct.toString());
+    }
+
+    public void testByValue() throws Exception
+    {
+        VelocityContext context = new VelocityContext();
+        context.put("x", "original");
+        assertEquals("changed", invoke(engine.getVelocimacroInvocation("setter", null), context, new Object[] { "x" }));
+        assertEquals("original", context.get("x"));
+    }
+
+    public void testNotRegistered() throws Exception
+    {
+        try
+        {
+            engine.getVelocimacroInvocation("nosuchmacro", null);
+            fail("expected a VelocityException");
+        }
+        catch (VelocityException ve)
+        {
+            // expected
+        }
+    }
+
+    public void testMaxDepth() throws Exception
+    {
+        try
+        {
+            invoke(engine.getVelocimacroInvocation("recurse", null), new VelocityContext(), new Object[] { "x" });
+            fail("expected a MacroOverflowException");
+        }
+        catch (MacroOverflowException moe)
+        {
+            // expected
+        }
+    }
+}
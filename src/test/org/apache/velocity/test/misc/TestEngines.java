@@ -0,0 +1,136 @@
+package org.apache.velocity.test.misc;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.context.Context;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
+import org.apache.velocity.runtime.resource.util.StringResourceRepository;
+
+/**
+ * Engines for tests that check a setting doesn't change what templates
+ * render.  The engines log to a {@link TestLogChute} and load their
+ * templates from a string repository of their own.
+ *
+ * @version $Id$
+ */
+public class TestEngines
+{
+    /** the name templates are merged under by {@link #assertSameOutput} */
+    public static final String TEMPLATE_NAME = "test.vm";
+
+    private TestEngines()
+    {
+    }
+
+    /**
+     * @param property
+     * @param value
+     * @return an initialized engine with the property set to the value
+     * @throws Exception
+     */
+    public static VelocityEngine create(String property, boolean value)
+        throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty(property, String.valueOf(value));
+        return create(properties);
+    }
+
+    /**
+     * @param properties
+     * @return an initialized engine with the properties set
+     * @throws Exception
+     */
+    public static VelocityEngine create(Properties properties)
+        throws Exception
+    {
+        VelocityEngine engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.RESOURCE_LOADER, "string");
+        engine.setProperty("string.resource.loader.class", StringResourceLoader.class.getName());
+        engine.setProperty("string.resource.loader.repository.static", "false");
+        engine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, TestLogChute.class.getName());
+        for (Iterator i = properties.keySet().iterator(); i.hasNext(); )
+        {
+            String key = (String) i.next();
+            engine.setProperty(key, properties.getProperty(key));
+        }
+        engine.init();
+        return engine;
+    }
+
+    /**
+     * Puts a template in the repository of an engine.
+     */
+    public static void putTemplate(VelocityEngine engine, String name, String template)
+    {
+        StringResourceRepository repo = (StringResourceRepository)
+            engine.getApplicationAttribute(StringResourceLoader.REPOSITORY_NAME_DEFAULT);
+        repo.putStringResource(name, template);
+    }
+
+    /**
+     * @return the output of the named template
+     */
+    public static String merge(VelocityEngine engine, Context context, String name)
+        throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        engine.getTemplate(name).merge(context, writer);
+        return writer.toString();
+    }
+
+    /**
+     * @return the output of the template, merged as a template of the engine
+     */
+    public static String mergeTemplate(VelocityEngine engine, Context context, String template)
+        throws Exception
+    {
+        putTemplate(engine, TEMPLATE_NAME, template);
+        return merge(engine, context, TEMPLATE_NAME);
+    }
+
+    /**
+     * Checks that a template comes out the same from both engines.
+     *
+     * @param template
+     * @param expected the engine to compare with
+     * @param expectedContext the context to merge with it
+     * @param actual the engine checked
+     * @param actualContext the context to merge with it
+     * @throws Exception
+     */
+    public static void assertSameOutput(String template,
+                                        VelocityEngine expected, Context expectedContext,
+                                        VelocityEngine actual, Context actualContext)
+        throws Exception
+    {
+        Assert.assertEquals(template,
+                            mergeTemplate(expected, expectedContext, template),
+                            mergeTemplate(actual, actualContext, template));
+    }
+}
@@ -74,4 +74,5 @@ public class HsqlDataSource implements DataSource {
 	throw new SQLException("Not implemented");
     }
 
+    public java.util.logging.Logger getParentLogger() { return null; }
 }
@@ -19,6 +19,12 @@ package org.apache.velocity.test.util.introspection;
  * under the License.    
  */
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
@@ -74,6 +80,52 @@ public class ClassMapTestCase
         assertNotNull(c.findMethod("setShort",     new Object[] { new Short((short)42)}));
     }
 
+    public void testManyArgumentClasses()
+        throws Exception
+    {
+        ClassMap c = new ClassMap(TestOverloads.class, Velocity.getLog());
+        Object[] args = new Object[] { "a", new Integer(1), new Long(1), new Double(1), new Date(),
+                                       new ArrayList(), new HashMap(), new StringBuffer(), new Object(),
+                                       Boolean.TRUE, new Character('c'), new Short((short) 1) };
+        Method object = TestOverloads.class.getMethod("foo", new Class[] { Object.class });
+        Method string = TestOverloads.class.getMethod("foo", new Class[] { String.class });
+        Method list = TestOverloads.class.getMethod("foo", new Class[] { List.class });
+
+        /* the second time round, everything comes from the cache */
+        for (int pass = 0; pass < 2; pass++)
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                Method expected = args[i] instanceof String ? string : args[i] instanceof List ? list : object;
+                assertEquals(expected, c.findMethod("foo", new Object[] { args[i] }));
+            }
+            assertEquals(object, c.findMethod("foo", new Object[] { null }));
+            assertEquals(TestOverloads.class.getMethod("foo", new Class[] { String.class, Object.class }),
+                         c.findMethod("foo", new Object[] { "a", null }));
+            assertNull(c.findMethod("foo", new Object[0]));
+            assertNull(c.findMethod("bar", new Object[] { "a" }));
+        }
+    }
+
+    public static final class TestOverloads
+    {
+        public void foo(Object o)
+        {
+        }
+
+        public void foo(String s)
+        {
+        }
+
+        public void foo(List l)
+        {
+        }
+
+        public void foo(String s, Object o)
+        {
+        }
+    }
+
     public static final class TestClassMap
     {
         public void setBoolean(boolean b)